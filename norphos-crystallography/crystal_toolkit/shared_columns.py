@@ -0,0 +1,148 @@
+'''
+Reader and writer for the shared columns files of the Java toolkit
+(uk.co.norphos.crystallography.toolkit.SharedColumns). Numeric columns are
+returned as read-only numpy views of the mapped file, so a file written on
+one side is used on the other without parsing or copying.
+
+The layout is little-endian, with each column on a 64 byte boundary:
+  0   magic 'NPCOLUMN', int32 version, int32 columns, int64 file length
+  64  one 64 byte entry per column: name (UTF-8, NUL padded to 32 bytes),
+      int32 type, int32 width, int64 rows, int64 offset, int64 data bytes
+  ... column data; strings are rows + 1 int32 offsets, then (aligned) the
+      UTF-8 bytes, as an Arrow utf8 array
+'''
+
+import mmap
+import struct
+
+import numpy as np
+from collections import OrderedDict
+
+MAGIC = b'NPCOLUMN'
+VERSION = 1
+HEADER_BYTES, ENTRY_BYTES, NAME_BYTES, ALIGNMENT = 64, 64, 32, 64
+
+INT32, INT64, FLOAT32, FLOAT64, UTF8 = 1, 2, 3, 4, 5
+DTYPES = {INT32 : np.dtype('<i4'), INT64 : np.dtype('<i8'),
+          FLOAT32 : np.dtype('<f4'), FLOAT64 : np.dtype('<f8')}
+
+HEADER = struct.Struct('<8siiq')
+ENTRY = struct.Struct('<%dsiiqqq' % NAME_BYTES)
+
+
+def align(offset):
+    return (offset + ALIGNMENT - 1) // ALIGNMENT * ALIGNMENT
+
+
+class SharedColumns(object):
+    '''
+    A mapped shared columns file. Use as a context manager, or call close()
+    once the column arrays are no longer needed.
+    '''
+
+    def __init__(self, path):
+        self.entries = OrderedDict()
+        with open(path, 'rb') as f:
+            self.mmap = mmap.mmap(f.fileno(), 0, access=mmap.ACCESS_READ)
+        try:
+            self.__read_header()
+        except:
+            self.mmap.close()
+            raise
+
+    def __read_header(self):
+        if len(self.mmap) < HEADER_BYTES:
+            raise IOError('Not a shared columns file')
+        magic, version, n_columns, length = HEADER.unpack_from(self.mmap, 0)
+        if magic != MAGIC:
+            raise IOError('Not a shared columns file')
+        if version != VERSION:
+            raise IOError('Unsupported shared columns version %d' % version)
+        if length != len(self.mmap):
+            raise IOError('Shared columns file is %d bytes, expected %d' % (len(self.mmap), length))
+        for c in range(n_columns):
+            name, col_type, width, rows, offset, data_bytes = ENTRY.unpack_from(self.mmap, HEADER_BYTES + ENTRY_BYTES * c)
+            name = name.rstrip(b'\0').decode('utf-8')
+            self.entries[name] = (col_type, width, rows, offset, data_bytes)
+
+    def column_names(self):
+        return list(self.entries.keys())
+
+    def column(self, name):
+        '''
+        Return a numeric column as a read-only array of shape (rows, width),
+        or (rows,) for a width of one, viewing the mapped file. String
+        columns are returned as a list.
+        '''
+        col_type, width, rows, offset, data_bytes = self.entries[name]
+        if col_type == UTF8:
+            return self.strings(name)
+        values = np.frombuffer(self.mmap, dtype=DTYPES[col_type], count=rows * width, offset=offset)
+        return values if width == 1 else values.reshape(rows, width)
+
+    def strings(self, name):
+        col_type, width, rows, offset, data_bytes = self.entries[name]
+        if col_type != UTF8:
+            raise ValueError("Column '%s' is not a string column" % name)
+        ends = np.frombuffer(self.mmap, dtype=DTYPES[INT32], count=rows + 1, offset=offset)
+        data = align(offset + 4 * (rows + 1))
+        return [self.mmap[data + ends[i]:data + ends[i + 1]].decode('utf-8') for i in range(rows)]
+
+    def close(self):
+        #Arrays viewing the file must have been released first
+        self.mmap.close()
+
+    def __enter__(self):
+        return self
+
+    def __exit__(self, *args):
+        self.close()
+
+    def __contains__(self, name):
+        return name in self.entries
+
+    def __getitem__(self, name):
+        return self.column(name)
+
+
+def write_columns(path, columns):
+    '''
+    Write a shared columns file from a sequence of (name, values) pairs,
+    where values is a numpy array of one or two dimensions (int32, int64,
+    float32 or float64) or a list of strings. The file is byte-for-byte
+    what the Java SharedColumnsWriter writes for the same columns.
+    '''
+    types = dict((dtype, col_type) for col_type, dtype in DTYPES.items())
+    layout = []
+    offset = align(HEADER_BYTES + ENTRY_BYTES * len(columns))
+    for name, values in columns:
+        encoded_name = name.encode('utf-8')
+        if not 0 < len(encoded_name) < NAME_BYTES:
+            raise ValueError("Column name '%s' must be 1 to %d bytes" % (name, NAME_BYTES - 1))
+        if isinstance(values, np.ndarray):
+            dtype = values.dtype.newbyteorder('<')
+            if dtype not in types:
+                raise ValueError("Column '%s' has unsupported type %s" % (name, values.dtype))
+            rows = values.shape[0]
+            width = 1 if values.ndim == 1 else values.shape[1]
+            data = np.ascontiguousarray(values, dtype=dtype).tobytes()
+            layout.append((encoded_name, types[dtype], width, rows, offset, len(data), data))
+            offset = align(offset + len(data))
+        else:
+            encoded = [value.encode('utf-8') for value in values]
+            ends = np.cumsum([0] + [len(value) for value in encoded]).astype('<i4')
+            data = b''.join(encoded)
+            layout.append((encoded_name, UTF8, 1, len(encoded), offset, len(data), (ends.tobytes(), data)))
+            offset = align(align(offset + 4 * (len(encoded) + 1)) + len(data))
+
+    buf = bytearray(offset)
+    HEADER.pack_into(buf, 0, MAGIC, VERSION, len(columns), offset)
+    for c, (name, col_type, width, rows, start, data_bytes, data) in enumerate(layout):
+        ENTRY.pack_into(buf, HEADER_BYTES + ENTRY_BYTES * c, name, col_type, width, rows, start, data_bytes)
+        if col_type == UTF8:
+            ends, data = data
+            buf[start:start + len(ends)] = ends
+            start = align(start + len(ends))
+        buf[start:start + len(data)] = data
+    with open(path, 'wb') as f:
+        f.write(buf)
@@ -0,0 +1,63 @@
+from crystal_toolkit.shared_columns import SharedColumns, write_columns
+
+import os
+import shutil
+import tempfile
+import numpy as np
+
+import unittest
+from nose.tools import assert_equal
+from numpy.testing import assert_array_equal
+
+#Written by the Java SharedColumnsTest
+FIXTURE = os.path.join(os.path.dirname(__file__), '..', '..', '..', 'uk.co.norphos.crystallography.toolkit',
+                       'test', 'test_data', 'shared_columns.npc')
+
+class TestSharedColumns(unittest.TestCase):
+
+    def setUp(self):
+        self.tmp_dir = tempfile.mkdtemp()
+
+    def tearDown(self):
+        shutil.rmtree(self.tmp_dir)
+
+    def fixture_columns(self):
+        return [('crystal.lattice', np.array([[5.4, 6.1, 7.3, 90, 101.5, 90]])),
+                ('crystal.label', ['Cu1', 'O1']),
+                ('crystal.element', ['Cu', 'O']),
+                ('crystal.frac', np.array([[0, 0.5, 0.25], [0.125, 0.375, 0.8]])),
+                ('crystal.occupancy', np.array([1, 0.5])),
+                ('crystal.charge', np.array([2., -2.])),
+                ('reflections.hkl', np.array([[1, 0, 0], [-2, 1, 3], [0, 0, 4]], dtype=np.int32)),
+                ('reflections.intensity', np.array([120.5, 33.25, -1.5])),
+                ('reflections.sigma', np.array([1.5, 0.75, 2])),
+                ('reflections.batch', np.array([1, 1, 2], dtype=np.int32)),
+                ('counts', np.array([[1 << 40, -7]], dtype=np.int64)),
+                ('weights', np.array([0.5, 2.25], dtype=np.float32))]
+
+    def test_read_java(self):
+        with SharedColumns(FIXTURE) as columns:
+            assert_equal(columns.column_names(), [name for name, values in self.fixture_columns()])
+            frac = columns['crystal.frac']
+            assert_equal(frac.shape, (2, 3))
+            self.assertFalse(frac.flags.writeable)
+            assert_array_equal(frac, [[0, 0.5, 0.25], [0.125, 0.375, 0.8]])
+            assert_equal(columns['crystal.label'], ['Cu1', 'O1'])
+            assert_array_equal(columns['reflections.hkl'][1], [-2, 1, 3])
+            assert_array_equal(columns['reflections.batch'], [1, 1, 2])
+            assert_equal(columns['counts'][0, 0], 1 << 40)
+            del frac
+
+    def test_write_as_java(self):
+        path = os.path.join(self.tmp_dir, 'columns.npc')
+        write_columns(path, self.fixture_columns())
+        with open(path, 'rb') as f, open(FIXTURE, 'rb') as g:
+            assert_equal(f.read(), g.read())
+
+    def test_round_trip(self):
+        path = os.path.join(self.tmp_dir, 'columns.npc')
+        write_columns(path, [('x', np.arange(12, dtype=np.float32).reshape(4, 3)), ('s', [u'', u'\u00c5', u'b'])])
+        with SharedColumns(path) as columns:
+            assert_array_equal(columns['x'], np.arange(12).reshape(4, 3))
+            assert_equal(columns['s'], [u'', u'\u00c5', u'b'])
+            self.assertTrue('x' in columns)
@@ -0,0 +1,20 @@
+#!/bin/sh
+#Build an AppCDS archive of the classes used by the command-line tool, by
+#answering the requests in cds-training.txt and dumping the loaded classes
+#at exit. Run after building the bundle; needs JDK 13 or later.
+#
+#Usage: build-cds-archive.sh CLASSPATH [ARCHIVE]
+#  CLASSPATH  bundle jar and commons-math3 jar; AppCDS only archives
+#             classes loaded from jars, not from directories
+#  ARCHIVE    archive to write, by default crystallography-cli.jsa
+set -e
+if [ -z "$1" ]; then
+	echo "Usage: $0 CLASSPATH [ARCHIVE]" >&2
+	exit 2
+fi
+SCRIPTS=$(cd "$(dirname "$0")" && pwd)
+ARCHIVE=${2:-crystallography-cli.jsa}
+#The training input ends with a bad request, so exits 1 by design
+java -XX:ArchiveClassesAtExit="$ARCHIVE" -cp "$1" \
+	uk.co.norphos.crystallography.toolkit.cli.CrystallographyCli < "$SCRIPTS/cds-training.txt" > /dev/null || [ $? -eq 1 ]
+echo "Wrote $ARCHIVE"
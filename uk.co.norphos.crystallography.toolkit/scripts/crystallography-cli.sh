@@ -0,0 +1,16 @@
+#!/bin/sh
+#Run the command-line tool tuned for short invocations: the AppCDS archive
+#from build-cds-archive.sh is used if it exists, and only the C1 compiler
+#runs, as these JVMs do not live long enough to repay C2.
+#
+#Usage: crystallography-cli.sh REQUEST...   answer one request
+#       crystallography-cli.sh < requests   answer one request per line
+#Set CRYSTALLOGRAPHY_CP to the classpath and CRYSTALLOGRAPHY_CDS to the
+#archive (by default crystallography-cli.jsa beside this script).
+ARCHIVE=${CRYSTALLOGRAPHY_CDS:-$(dirname "$0")/crystallography-cli.jsa}
+CDS=
+if [ -f "$ARCHIVE" ]; then
+	CDS="-XX:SharedArchiveFile=$ARCHIVE -Xshare:auto"
+fi
+exec java $CDS -XX:TieredStopAtLevel=1 -XX:+UseSerialGC -Xss512k -cp "$CRYSTALLOGRAPHY_CP" \
+	uk.co.norphos.crystallography.toolkit.cli.CrystallographyCli "$@"
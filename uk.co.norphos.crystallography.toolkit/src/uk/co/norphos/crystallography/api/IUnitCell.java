@@ -142,6 +142,94 @@ public interface IUnitCell extends Comparable<IUnitCell> {
 	 */
 	RealMatrix getOrthogonalizationMatrix();
 	
+	/**
+	 * Convert many vectors in fractional coordinates of this unit cell into 
+	 * Cartesian coordinates. Vectors are packed as x,y,z triples; the input 
+	 * and output arrays may be the same array.
+	 * 
+	 * @param fracCoords double[] packed fractional coordinates
+	 * @param cartCoords double[] to receive packed Cartesian coordinates
+	 */
+	default void orthogonalize(double[] fracCoords, double[] cartCoords) {
+		RealMatrix m = getOrthogonalizationMatrix();
+		double m00 = m.getEntry(0, 0), m01 = m.getEntry(0, 1), m02 = m.getEntry(0, 2);
+		double m10 = m.getEntry(1, 0), m11 = m.getEntry(1, 1), m12 = m.getEntry(1, 2);
+		double m20 = m.getEntry(2, 0), m21 = m.getEntry(2, 1), m22 = m.getEntry(2, 2);
+		for (int i = 0; i + 2 < fracCoords.length; i += 3) {
+			double x = fracCoords[i], y = fracCoords[i + 1], z = fracCoords[i + 2];
+			cartCoords[i]     = m00 * x + m01 * y + m02 * z;
+			cartCoords[i + 1] = m10 * x + m11 * y + m12 * z;
+			cartCoords[i + 2] = m20 * x + m21 * y + m22 * z;
+		}
+	}
+	
+	/**
+	 * Convert many vectors in Cartesian coordinates into fractional 
+	 * coordinates of this unit cell. Vectors are packed as x,y,z triples; the 
+	 * input and output arrays may be the same array.
+	 * 
+	 * @param cartCoords double[] packed Cartesian coordinates
+	 * @param fracCoords double[] to receive packed fractional coordinates
+	 */
+	default void fractionalize(double[] cartCoords, double[] fracCoords) {
+		RealMatrix m = getFractionalizationMatrix();
+		double m00 = m.getEntry(0, 0), m01 = m.getEntry(0, 1), m02 = m.getEntry(0, 2);
+		double m10 = m.getEntry(1, 0), m11 = m.getEntry(1, 1), m12 = m.getEntry(1, 2);
+		double m20 = m.getEntry(2, 0), m21 = m.getEntry(2, 1), m22 = m.getEntry(2, 2);
+		for (int i = 0; i + 2 < cartCoords.length; i += 3) {
+			double x = cartCoords[i], y = cartCoords[i + 1], z = cartCoords[i + 2];
+			fracCoords[i]     = m00 * x + m01 * y + m02 * z;
+			fracCoords[i + 1] = m10 * x + m11 * y + m12 * z;
+			fracCoords[i + 2] = m20 * x + m21 * y + m22 * z;
+		}
+	}
+	
+	/**
+	 * Single precision variant of {@link #orthogonalize(double[], double[])} 
+	 * for screening very large structures, halving memory traffic. The 
+	 * arithmetic is done in float, so each Cartesian component has an 
+	 * absolute error of at most 4u.sum_j(|M_ij.x_j|), where u = 2^-24 and M 
+	 * is the orthogonalization matrix; for fractional coordinates in [0,1) 
+	 * this is below 1e-6 Angstrom per 4 Angstrom of cell edge.
+	 * 
+	 * @param fracCoords float[] packed fractional coordinates
+	 * @param cartCoords float[] to receive packed Cartesian coordinates
+	 */
+	default void orthogonalize(float[] fracCoords, float[] cartCoords) {
+		RealMatrix m = getOrthogonalizationMatrix();
+		float m00 = (float)m.getEntry(0, 0), m01 = (float)m.getEntry(0, 1), m02 = (float)m.getEntry(0, 2);
+		float m10 = (float)m.getEntry(1, 0), m11 = (float)m.getEntry(1, 1), m12 = (float)m.getEntry(1, 2);
+		float m20 = (float)m.getEntry(2, 0), m21 = (float)m.getEntry(2, 1), m22 = (float)m.getEntry(2, 2);
+		for (int i = 0; i + 2 < fracCoords.length; i += 3) {
+			float x = fracCoords[i], y = fracCoords[i + 1], z = fracCoords[i + 2];
+			cartCoords[i]     = m00 * x + m01 * y + m02 * z;
+			cartCoords[i + 1] = m10 * x + m11 * y + m12 * z;
+			cartCoords[i + 2] = m20 * x + m21 * y + m22 * z;
+		}
+	}
+	
+	/**
+	 * Single precision variant of {@link #fractionalize(double[], double[])}. 
+	 * Each fractional component has an absolute error of at most 
+	 * 4u.sum_j(|F_ij.x_j|), where u = 2^-24 and F is the fractionalization 
+	 * matrix.
+	 * 
+	 * @param cartCoords float[] packed Cartesian coordinates
+	 * @param fracCoords float[] to receive packed fractional coordinates
+	 */
+	default void fractionalize(float[] cartCoords, float[] fracCoords) {
+		RealMatrix m = getFractionalizationMatrix();
+		float m00 = (float)m.getEntry(0, 0), m01 = (float)m.getEntry(0, 1), m02 = (float)m.getEntry(0, 2);
+		float m10 = (float)m.getEntry(1, 0), m11 = (float)m.getEntry(1, 1), m12 = (float)m.getEntry(1, 2);
+		float m20 = (float)m.getEntry(2, 0), m21 = (float)m.getEntry(2, 1), m22 = (float)m.getEntry(2, 2);
+		for (int i = 0; i + 2 < cartCoords.length; i += 3) {
+			float x = cartCoords[i], y = cartCoords[i + 1], z = cartCoords[i + 2];
+			fracCoords[i]     = m00 * x + m01 * y + m02 * z;
+			fracCoords[i + 1] = m10 * x + m11 * y + m12 * z;
+			fracCoords[i + 2] = m20 * x + m21 * y + m22 * z;
+		}
+	}
+	
 	/**
 	 * Calculate the length of a vector specified in fractional coordinates of 
 	 * this unit cell.
@@ -163,6 +251,52 @@ public interface IUnitCell extends Comparable<IUnitCell> {
 		return calculateLength(site2.subtract(site1));
 	}
 	
+	/**
+	 * Calculate the distances between pairs of sites specified in fractional 
+	 * coordinates of this unit cell. Sites are packed as x,y,z triples and 
+	 * the distance between the i-th site of each array is written to 
+	 * dest[i].
+	 * 
+	 * @param sites1 double[] packed fractional coordinates
+	 * @param sites2 double[] packed fractional coordinates
+	 * @param dest double[] of length sites1.length / 3 to receive distances
+	 */
+	default void calculateDistances(double[] sites1, double[] sites2, double[] dest) {
+		RealMatrix g = getMetricTensor();
+		double g00 = g.getEntry(0, 0), g11 = g.getEntry(1, 1), g22 = g.getEntry(2, 2);
+		double g01 = 2 * g.getEntry(0, 1), g02 = 2 * g.getEntry(0, 2), g12 = 2 * g.getEntry(1, 2);
+		for (int i = 0, j = 0; i + 2 < sites1.length; i += 3, j++) {
+			double dx = sites2[i] - sites1[i], dy = sites2[i + 1] - sites1[i + 1], dz = sites2[i + 2] - sites1[i + 2];
+			dest[j] = Math.sqrt(g00 * dx * dx + g11 * dy * dy + g22 * dz * dz
+					+ g01 * dx * dy + g02 * dx * dz + g12 * dy * dz);
+		}
+	}
+	
+	/**
+	 * Single precision variant of 
+	 * {@link #calculateDistances(double[], double[], double[])}. Coordinate 
+	 * differences are taken in float, but the metric quadratic form, whose 
+	 * off-diagonal terms can cancel in oblique cells, is accumulated in 
+	 * double. The relative error of each distance is then at most 
+	 * u.(1 + k), where u = 2^-24 and k = sum_ij(|G_ij.dx_i.dx_j|) / d^2 is 1 
+	 * for orthogonal cells and grows only for very oblique ones. Errors 
+	 * already present in the float coordinates are additional.
+	 * 
+	 * @param sites1 float[] packed fractional coordinates
+	 * @param sites2 float[] packed fractional coordinates
+	 * @param dest float[] of length sites1.length / 3 to receive distances
+	 */
+	default void calculateDistances(float[] sites1, float[] sites2, float[] dest) {
+		RealMatrix g = getMetricTensor();
+		double g00 = g.getEntry(0, 0), g11 = g.getEntry(1, 1), g22 = g.getEntry(2, 2);
+		double g01 = 2 * g.getEntry(0, 1), g02 = 2 * g.getEntry(0, 2), g12 = 2 * g.getEntry(1, 2);
+		for (int i = 0, j = 0; i + 2 < sites1.length; i += 3, j++) {
+			double dx = sites2[i] - sites1[i], dy = sites2[i + 1] - sites1[i + 1], dz = sites2[i + 2] - sites1[i + 2];
+			dest[j] = (float)Math.sqrt(g00 * dx * dx + g11 * dy * dy + g22 * dz * dz
+					+ g01 * dx * dy + g02 * dx * dz + g12 * dy * dz);
+		}
+	}
+	
 	/**
 	 * Calculate the angle between two vectors specified in fractional 
 	 * coordinates of this unit cell.
@@ -197,22 +331,28 @@ public interface IUnitCell extends Comparable<IUnitCell> {
 	 * @return double angle between planes in radians
 	 */
 	double calculateDihedralAngle(Vector3D site1, Vector3D site2, Vector3D site3, Vector3D site4);
-//	
-//	/**
-//	 * Maximum {@link MillerIndex} for the given d-spacing limit.
-//	 * 
-//	 * @param dSpacing in Angstrom^-1 TODO Right?
-//	 * @return MillerIndex maximum hkl observable
-//	 */
-//	MillerIndex getMaxMillerIndex(double dSpacing);
-//	
-//	/**
-//	 * Return the d-space value for a specific {@link MillerIndex}.
-//	 *  
-//	 * @param hkl {@link MillerIndex}
-//	 * @return double d-spacing in Angstrom^-1 TODO Right?
-//	 */
-//	double getDSpacing(MillerIndex hkl);
+	
+	/**
+	 * Maximum {@link MillerIndex} for the given d-spacing limit, i.e. the 
+	 * largest |h|, |k| and |l| of any reflection with d >= dSpacing.
+	 * 
+	 * @param dSpacing double d-spacing limit in Angstrom
+	 * @return MillerIndex maximum hkl observable
+	 */
+	default MillerIndex getMaxMillerIndex(double dSpacing) {
+		return new MillerIndex(Math.floor(getA() / dSpacing), Math.floor(getB() / dSpacing), 
+				Math.floor(getC() / dSpacing));
+	}
+	
+	/**
+	 * Return the d-space value for a specific {@link MillerIndex}.
+	 *  
+	 * @param hkl {@link MillerIndex}
+	 * @return double d-spacing in Angstrom
+	 */
+	default double getDSpacing(MillerIndex hkl) {
+		return 1 / getReciprocal().calculateLength(hkl);
+	}
 //	
 //	/**
 //	 * Determine whether this IUnitCell is similar to another one, within certain tolerances. 
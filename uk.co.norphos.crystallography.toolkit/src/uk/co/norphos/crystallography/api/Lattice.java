@@ -12,9 +12,12 @@ import java.io.Serializable;
 public class Lattice implements Serializable {
 
 	private static final long serialVersionUID = 5083826131364460534L;
+	private static final double SIN_60 = Math.sqrt(3) / 2;
 	
 	private final double a, b, c, al, be, ga;
 	private final double alR, beR, gaR; //Angles in radians for convenience
+	//Trigonometric functions of the angles, derived so not serialized
+	private transient final double cosAl, cosBe, cosGa, sinAl, sinBe, sinGa;
 	private final Double volume;
 	private final PrincipleAxis principleAxis;
 	private final CrystalSystem crystalSystem;
@@ -76,6 +79,12 @@ public class Lattice implements Serializable {
 		this.beR = Math.toRadians(be);
 		this.ga = ga;
 		this.gaR = Math.toRadians(ga);
+		this.cosAl = cos(al);
+		this.cosBe = cos(be);
+		this.cosGa = cos(ga);
+		this.sinAl = sin(al);
+		this.sinBe = sin(be);
+		this.sinGa = sin(ga);
 		this.volume = volume;
 		this.principleAxis = pAxis;
 		this.crystalSystem = crystalSystem;
@@ -152,6 +161,54 @@ public class Lattice implements Serializable {
 		return gaR;
 	}
 
+	/**
+	 * Return the cosine of lattice alpha parameter
+	 * @return double
+	 */
+	public double getCosAl() {
+		return cosAl;
+	}
+
+	/**
+	 * Return the cosine of lattice beta parameter
+	 * @return double
+	 */
+	public double getCosBe() {
+		return cosBe;
+	}
+
+	/**
+	 * Return the cosine of lattice gamma parameter
+	 * @return double
+	 */
+	public double getCosGa() {
+		return cosGa;
+	}
+
+	/**
+	 * Return the sine of lattice alpha parameter
+	 * @return double
+	 */
+	public double getSinAl() {
+		return sinAl;
+	}
+
+	/**
+	 * Return the sine of lattice beta parameter
+	 * @return double
+	 */
+	public double getSinBe() {
+		return sinBe;
+	}
+
+	/**
+	 * Return the sine of lattice gamma parameter
+	 * @return double
+	 */
+	public double getSinGa() {
+		return sinGa;
+	}
+
 	/**
 	 * Return the volume of the unit cell defined by the lattice.
 	 * @return double in Angstroms^3
@@ -178,6 +235,31 @@ public class Lattice implements Serializable {
 		return principleAxis;
 	}
 	
+	/*
+	 * Cosine of an angle in degrees, exact for the angles fixed by the
+	 * metric symmetry (so that e.g. orthogonal axes have a zero off-diagonal
+	 * metric tensor element rather than ~1e-17).
+	 */
+	private static double cos(double angle) {
+		if (angle == 90) return 0;
+		if (angle == 60) return 0.5;
+		if (angle == 120) return -0.5;
+		return Math.cos(Math.toRadians(angle));
+	}
+
+	private static double sin(double angle) {
+		if (angle == 90) return 1;
+		if (angle == 60 || angle == 120) return SIN_60;
+		return Math.sin(Math.toRadians(angle));
+	}
+
+	/*
+	 * Rebuild on deserialization so that the derived fields are set.
+	 */
+	private Object readResolve() {
+		return new Lattice(a, b, c, al, be, ga, volume, crystalSystem, principleAxis);
+	}
+
 	@Override
 	public String toString() {
 		return "Lattice [a=" + a + ", b=" + b + ", c=" + c + ", al=" + al 
@@ -0,0 +1,156 @@
+package uk.co.norphos.crystallography.api;
+
+import java.io.Serializable;
+
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
+
+/**
+ * A bean-like object describing an atom site in a crystal structure: its
+ * label, element and position in fractional coordinates of the unit cell.
+ *
+ * @author Michael Wharmby
+ *
+ */
+public class Site implements Serializable {
+
+	private static final long serialVersionUID = -3319502861187307411L;
+
+	private final String label;
+	private final String element;
+	private final Vector3D position;
+	private final double occupancy;
+	private final double charge;
+
+	/**
+	 * Construct a fully occupied site.
+	 *
+	 * @param label String site label (e.g. O7)
+	 * @param element String element symbol (e.g. O)
+	 * @param position Vector3D in fractional coordinates
+	 */
+	public Site(String label, String element, Vector3D position) {
+		this(label, element, position, 1.0);
+	}
+
+	/**
+	 * Construct a site with the given occupancy.
+	 *
+	 * @param label String site label (e.g. O7)
+	 * @param element String element symbol (e.g. O)
+	 * @param position Vector3D in fractional coordinates
+	 * @param occupancy double fractional occupancy
+	 */
+	public Site(String label, String element, Vector3D position, double occupancy) {
+		this(label, element, position, occupancy, 0.0);
+	}
+
+	/**
+	 * Construct a site with the given occupancy and formal charge.
+	 *
+	 * @param label String site label (e.g. O7)
+	 * @param element String element symbol (e.g. O)
+	 * @param position Vector3D in fractional coordinates
+	 * @param occupancy double fractional occupancy
+	 * @param charge double charge in units of the elementary charge
+	 */
+	public Site(String label, String element, Vector3D position, double occupancy, double charge) {
+		this.label = label;
+		this.element = element;
+		this.position = position;
+		this.occupancy = occupancy;
+		this.charge = charge;
+	}
+
+	/**
+	 * Return label of this site
+	 * @return String
+	 */
+	public String getLabel() {
+		return label;
+	}
+
+	/**
+	 * Return element symbol of the atom on this site
+	 * @return String
+	 */
+	public String getElement() {
+		return element;
+	}
+
+	/**
+	 * Return position of this site
+	 * @return Vector3D in fractional coordinates
+	 */
+	public Vector3D getPosition() {
+		return position;
+	}
+
+	/**
+	 * Return fractional occupancy of this site
+	 * @return double
+	 */
+	public double getOccupancy() {
+		return occupancy;
+	}
+
+	/**
+	 * Return charge of the atom on this site
+	 * @return double in units of the elementary charge
+	 */
+	public double getCharge() {
+		return charge;
+	}
+
+	@Override
+	public String toString() {
+		return "Site [label=" + label + ", element=" + element + ", position=" + position
+				+ ", occupancy=" + occupancy + ", charge=" + charge + "]";
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		long temp;
+		temp = Double.doubleToLongBits(charge);
+		result = prime * result + (int) (temp ^ (temp >>> 32));
+		result = prime * result + ((element == null) ? 0 : element.hashCode());
+		result = prime * result + ((label == null) ? 0 : label.hashCode());
+		temp = Double.doubleToLongBits(occupancy);
+		result = prime * result + (int) (temp ^ (temp >>> 32));
+		result = prime * result + ((position == null) ? 0 : position.hashCode());
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		Site other = (Site) obj;
+		if (Double.doubleToLongBits(charge) != Double.doubleToLongBits(other.charge))
+			return false;
+		if (element == null) {
+			if (other.element != null)
+				return false;
+		} else if (!element.equals(other.element))
+			return false;
+		if (label == null) {
+			if (other.label != null)
+				return false;
+		} else if (!label.equals(other.label))
+			return false;
+		if (Double.doubleToLongBits(occupancy) != Double.doubleToLongBits(other.occupancy))
+			return false;
+		if (position == null) {
+			if (other.position != null)
+				return false;
+		} else if (!position.equals(other.position))
+			return false;
+		return true;
+	}
+
+}
@@ -0,0 +1,192 @@
+package uk.co.norphos.crystallography.api;
+
+import java.util.Arrays;
+
+/**
+ * A {@link Lattice} which also carries the standard uncertainties (s.u.s)
+ * of its six parameters, as reported in e.g. a CIF as 7.19196(2). The
+ * parameters are taken to be uncorrelated.
+ *
+ * @author Michael Wharmby
+ *
+ */
+public class UncertainLattice extends Lattice {
+
+	private static final long serialVersionUID = -3471932690571470822L;
+
+	private final double suA, suB, suC, suAl, suBe, suGa;
+
+	/**
+	 * Construct lattice object from distances a, b, c and angles alpha, beta,
+	 * gamma and their standard uncertainties. Volume is set to null, crystal
+	 * system defaults to TRICLINIC and Principle axis defaults to NONE.
+	 *
+	 * @param a double in Angstroms
+	 * @param b double in Angstroms
+	 * @param c double in Angstroms
+	 * @param al double in degrees
+	 * @param be double in degrees
+	 * @param ga double in degrees
+	 * @param suA double in Angstroms
+	 * @param suB double in Angstroms
+	 * @param suC double in Angstroms
+	 * @param suAl double in degrees
+	 * @param suBe double in degrees
+	 * @param suGa double in degrees
+	 */
+	public UncertainLattice(double a, double b, double c, double al, double be, double ga,
+			double suA, double suB, double suC, double suAl, double suBe, double suGa) {
+		this(a, b, c, al, be, ga, suA, suB, suC, suAl, suBe, suGa, null, CrystalSystem.TRICLINIC, PrincipleAxis.NONE);
+	}
+
+	/**
+	 * Construct lattice object from distances a, b, c and angles alpha, beta,
+	 * gamma and their standard uncertainties. Crystal system indicates the
+	 * metric symmetry of the lattice. Principle axis indicates highest
+	 * symmetry axis of the lattice.
+	 *
+	 * @param a double in Angstroms
+	 * @param b double in Angstroms
+	 * @param c double in Angstroms
+	 * @param al double in degrees
+	 * @param be double in degrees
+	 * @param ga double in degrees
+	 * @param suA double in Angstroms
+	 * @param suB double in Angstroms
+	 * @param suC double in Angstroms
+	 * @param suAl double in degrees
+	 * @param suBe double in degrees
+	 * @param suGa double in degrees
+	 * @param volume Double in Angstroms^3
+	 * @param crystalSystem {@link CrystalSystem}
+	 * @param pAxis {@link PrincipleAxis}
+	 */
+	public UncertainLattice(double a, double b, double c, double al, double be, double ga,
+			double suA, double suB, double suC, double suAl, double suBe, double suGa,
+			Double volume, CrystalSystem crystalSystem, PrincipleAxis pAxis) {
+		super(a, b, c, al, be, ga, volume, crystalSystem, pAxis);
+		if (suA < 0 || suB < 0 || suC < 0 || suAl < 0 || suBe < 0 || suGa < 0) {
+			throw new IllegalArgumentException("Standard uncertainties cannot be negative");
+		}
+		this.suA = suA;
+		this.suB = suB;
+		this.suC = suC;
+		this.suAl = suAl;
+		this.suBe = suBe;
+		this.suGa = suGa;
+	}
+
+	/**
+	 * Return s.u. of lattice a parameter
+	 * @return double in Angstroms
+	 */
+	public double getSuA() {
+		return suA;
+	}
+
+	/**
+	 * Return s.u. of lattice b parameter
+	 * @return double in Angstroms
+	 */
+	public double getSuB() {
+		return suB;
+	}
+
+	/**
+	 * Return s.u. of lattice c parameter
+	 * @return double in Angstroms
+	 */
+	public double getSuC() {
+		return suC;
+	}
+
+	/**
+	 * Return s.u. of lattice alpha parameter
+	 * @return double in degrees
+	 */
+	public double getSuAl() {
+		return suAl;
+	}
+
+	/**
+	 * Return s.u. of lattice beta parameter
+	 * @return double in degrees
+	 */
+	public double getSuBe() {
+		return suBe;
+	}
+
+	/**
+	 * Return s.u. of lattice gamma parameter
+	 * @return double in degrees
+	 */
+	public double getSuGa() {
+		return suGa;
+	}
+
+	/**
+	 * Return the s.u.s of all six parameters.
+	 * @return double[6] a, b, c (Angstroms), alpha, beta, gamma (degrees)
+	 */
+	public double[] getSus() {
+		return new double[]{suA, suB, suC, suAl, suBe, suGa};
+	}
+
+	/*
+	 * Rebuild on deserialization so that the derived fields of Lattice are set.
+	 */
+	private Object readResolve() {
+		return new UncertainLattice(getA(), getB(), getC(), getAl(), getBe(), getGa(),
+				suA, suB, suC, suAl, suBe, suGa, getVolume(), getCrystalSystem(), getPrincipleAxis());
+	}
+
+	@Override
+	public String toString() {
+		return "UncertainLattice [" + super.toString() + ", sus=" + Arrays.toString(getSus()) + "]";
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = super.hashCode();
+		long temp;
+		temp = Double.doubleToLongBits(suA);
+		result = prime * result + (int) (temp ^ (temp >>> 32));
+		temp = Double.doubleToLongBits(suAl);
+		result = prime * result + (int) (temp ^ (temp >>> 32));
+		temp = Double.doubleToLongBits(suB);
+		result = prime * result + (int) (temp ^ (temp >>> 32));
+		temp = Double.doubleToLongBits(suBe);
+		result = prime * result + (int) (temp ^ (temp >>> 32));
+		temp = Double.doubleToLongBits(suC);
+		result = prime * result + (int) (temp ^ (temp >>> 32));
+		temp = Double.doubleToLongBits(suGa);
+		result = prime * result + (int) (temp ^ (temp >>> 32));
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!super.equals(obj))
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		UncertainLattice other = (UncertainLattice) obj;
+		if (Double.doubleToLongBits(suA) != Double.doubleToLongBits(other.suA))
+			return false;
+		if (Double.doubleToLongBits(suAl) != Double.doubleToLongBits(other.suAl))
+			return false;
+		if (Double.doubleToLongBits(suB) != Double.doubleToLongBits(other.suB))
+			return false;
+		if (Double.doubleToLongBits(suBe) != Double.doubleToLongBits(other.suBe))
+			return false;
+		if (Double.doubleToLongBits(suC) != Double.doubleToLongBits(other.suC))
+			return false;
+		if (Double.doubleToLongBits(suGa) != Double.doubleToLongBits(other.suGa))
+			return false;
+		return true;
+	}
+
+}
@@ -0,0 +1,302 @@
+package uk.co.norphos.crystallography.toolkit;
+
+/**
+ * Conversions between the conventions for anisotropic displacement
+ * parameters (ADPs) in a given cell, following Grosse-Kunstleve &amp; Adams,
+ * J. Appl. Cryst. 35 (2002) 477:
+ * <ul>
+ *   <li>U_cif, the dimensionless-basis tensor of CIF atom_site_aniso_U_ij,</li>
+ *   <li>U*, in the reciprocal basis, U*_ij = a*_i.a*_j.U_cif_ij,</li>
+ *   <li>beta = 2.pi^2.U*, as in exp(-h^T.beta.h),</li>
+ *   <li>U_cart, in the Cartesian frame of the orthogonalization matrix O,
+ *       U_cart = O.U*.O^T,</li>
+ * </ul>
+ * and B = 8.pi^2.U in any of the bases. Tensors are held in packed arrays of
+ * {11, 22, 33, 12, 13, 23} sextets, one per site, as with {@link Matrix3}.
+ * <br>
+ * Each conversion is linear in the six components, so it is reduced once,
+ * on construction, to a 6x6 matrix; converting a site is then 36
+ * multiply-adds with no allocation. Input and output arrays may be the same
+ * array at the same offset. Instances are immutable and may be shared
+ * between threads.
+ *
+ * @author Michael Wharmby
+ *
+ */
+public final class AdpConverter {
+
+	/**
+	 * Factor between B and U, 8.pi^2.
+	 */
+	public static final double B_FACTOR = 8 * Math.PI * Math.PI;
+	/**
+	 * Factor between beta and U*, 2.pi^2.
+	 */
+	public static final double BETA_FACTOR = 2 * Math.PI * Math.PI;
+
+	private final double[] cifToCart, cartToCif;
+	private final double[] reciprocalLengths = new double[3];
+	//U_cif of a unit isotropic U, i.e. cosines of the reciprocal angles
+	private final double[] isotropicCif = new double[6];
+	//U_eq = trace(U_cart)/3 as a linear form on U_cif
+	private final double[] equivalentIsotropic = new double[6];
+
+	/**
+	 * Construct for a {@link UnitCell}.
+	 * @param cell {@link UnitCell}
+	 */
+	public AdpConverter(UnitCell cell) {
+		this(new CellWorkspace(cell.getLattice()));
+	}
+
+	/**
+	 * Construct for the current state of a {@link CellWorkspace}. Later
+	 * updates of the workspace do not affect the converter.
+	 * @param workspace {@link CellWorkspace}
+	 */
+	public AdpConverter(CellWorkspace workspace) {
+		reciprocalLengths[0] = workspace.getAStar();
+		reciprocalLengths[1] = workspace.getBStar();
+		reciprocalLengths[2] = workspace.getCStar();
+
+		//U_cart = M.U_cif.M^T with M = O.diag(a*, b*, c*)
+		double[] m = new double[9], mInv = new double[9];
+		workspace.copyOrthogonalizationMatrix(m);
+		for (int i = 0; i < 9; i++) {
+			m[i] *= reciprocalLengths[i % 3];
+		}
+		Matrix3.invert(m, mInv);
+		cifToCart = congruence(m);
+		cartToCif = congruence(mInv);
+
+		for (int p = 0; p < 6; p++) {
+			equivalentIsotropic[p] = (cifToCart[p] + cifToCart[6 + p] + cifToCart[12 + p]) / 3;
+		}
+		double[] gStar = new double[9];
+		workspace.copyReciprocalMetricTensor(gStar);
+		isotropicCif[0] = isotropicCif[1] = isotropicCif[2] = 1;
+		isotropicCif[3] = gStar[1] / (reciprocalLengths[0] * reciprocalLengths[1]);
+		isotropicCif[4] = gStar[2] / (reciprocalLengths[0] * reciprocalLengths[2]);
+		isotropicCif[5] = gStar[5] / (reciprocalLengths[1] * reciprocalLengths[2]);
+	}
+
+	/*
+	 * 6x6 matrix (row-major) taking packed X to packed M.X.M^T. Off-diagonal
+	 * components of X stand for both X_kl and X_lk.
+	 */
+	private static double[] congruence(double[] m) {
+		int[] rows = {0, 1, 2, 0, 0, 1}, cols = {0, 1, 2, 1, 2, 2};
+		double[] t = new double[36];
+		for (int p = 0; p < 6; p++) {
+			int i = rows[p], j = cols[p];
+			for (int q = 0; q < 6; q++) {
+				int k = rows[q], l = cols[q];
+				double value = m[3 * i + k] * m[3 * j + l];
+				if (k != l) value += m[3 * i + l] * m[3 * j + k];
+				t[6 * p + q] = value;
+			}
+		}
+		return t;
+	}
+
+	private static void apply(double[] t, double[] src, int srcOffset, double[] dest, int destOffset, int count) {
+		for (int s = 0; s < count; s++) {
+			int in = srcOffset + 6 * s, out = destOffset + 6 * s;
+			double u0 = src[in], u1 = src[in + 1], u2 = src[in + 2], u3 = src[in + 3], u4 = src[in + 4], u5 = src[in + 5];
+			for (int p = 0; p < 6; p++) {
+				dest[out + p] = t[6 * p] * u0 + t[6 * p + 1] * u1 + t[6 * p + 2] * u2
+						+ t[6 * p + 3] * u3 + t[6 * p + 4] * u4 + t[6 * p + 5] * u5;
+			}
+		}
+	}
+
+	/**
+	 * Convert U_cif to U_cart.
+	 *
+	 * @param uCif double[] packed tensors
+	 * @param srcOffset int index of the first component in uCif
+	 * @param uCart double[] to receive packed tensors
+	 * @param destOffset int index at which to write the first component
+	 * @param count int number of tensors
+	 */
+	public void cifToCartesian(double[] uCif, int srcOffset, double[] uCart, int destOffset, int count) {
+		apply(cifToCart, uCif, srcOffset, uCart, destOffset, count);
+	}
+
+	/**
+	 * Convert U_cart to U_cif.
+	 *
+	 * @param uCart double[] packed tensors
+	 * @param srcOffset int index of the first component in uCart
+	 * @param uCif double[] to receive packed tensors
+	 * @param destOffset int index at which to write the first component
+	 * @param count int number of tensors
+	 */
+	public void cartesianToCif(double[] uCart, int srcOffset, double[] uCif, int destOffset, int count) {
+		apply(cartToCif, uCart, srcOffset, uCif, destOffset, count);
+	}
+
+	/**
+	 * Convert U_cif to U*.
+	 *
+	 * @param uCif double[] packed tensors
+	 * @param srcOffset int index of the first component in uCif
+	 * @param uStar double[] to receive packed tensors
+	 * @param destOffset int index at which to write the first component
+	 * @param count int number of tensors
+	 */
+	public void cifToStar(double[] uCif, int srcOffset, double[] uStar, int destOffset, int count) {
+		scaleByReciprocalLengths(uCif, srcOffset, uStar, destOffset, count, 1, false);
+	}
+
+	/**
+	 * Convert U* to U_cif.
+	 *
+	 * @param uStar double[] packed tensors
+	 * @param srcOffset int index of the first component in uStar
+	 * @param uCif double[] to receive packed tensors
+	 * @param destOffset int index at which to write the first component
+	 * @param count int number of tensors
+	 */
+	public void starToCif(double[] uStar, int srcOffset, double[] uCif, int destOffset, int count) {
+		scaleByReciprocalLengths(uStar, srcOffset, uCif, destOffset, count, 1, true);
+	}
+
+	/**
+	 * Convert U_cif to the beta of exp(-h^T.beta.h).
+	 *
+	 * @param uCif double[] packed tensors
+	 * @param srcOffset int index of the first component in uCif
+	 * @param beta double[] to receive packed tensors
+	 * @param destOffset int index at which to write the first component
+	 * @param count int number of tensors
+	 */
+	public void cifToBeta(double[] uCif, int srcOffset, double[] beta, int destOffset, int count) {
+		scaleByReciprocalLengths(uCif, srcOffset, beta, destOffset, count, BETA_FACTOR, false);
+	}
+
+	/**
+	 * Convert beta to U_cif.
+	 *
+	 * @param beta double[] packed tensors
+	 * @param srcOffset int index of the first component in beta
+	 * @param uCif double[] to receive packed tensors
+	 * @param destOffset int index at which to write the first component
+	 * @param count int number of tensors
+	 */
+	public void betaToCif(double[] beta, int srcOffset, double[] uCif, int destOffset, int count) {
+		scaleByReciprocalLengths(beta, srcOffset, uCif, destOffset, count, 1 / BETA_FACTOR, true);
+	}
+
+	private void scaleByReciprocalLengths(double[] src, int srcOffset, double[] dest, int destOffset, int count,
+			double factor, boolean inverse) {
+		double as = reciprocalLengths[0], bs = reciprocalLengths[1], cs = reciprocalLengths[2];
+		double s0 = as * as, s1 = bs * bs, s2 = cs * cs, s3 = as * bs, s4 = as * cs, s5 = bs * cs;
+		if (inverse) {
+			s0 = 1 / s0; s1 = 1 / s1; s2 = 1 / s2; s3 = 1 / s3; s4 = 1 / s4; s5 = 1 / s5;
+		}
+		s0 *= factor; s1 *= factor; s2 *= factor; s3 *= factor; s4 *= factor; s5 *= factor;
+		for (int s = 0; s < count; s++) {
+			int in = srcOffset + 6 * s, out = destOffset + 6 * s;
+			dest[out] = s0 * src[in];
+			dest[out + 1] = s1 * src[in + 1];
+			dest[out + 2] = s2 * src[in + 2];
+			dest[out + 3] = s3 * src[in + 3];
+			dest[out + 4] = s4 * src[in + 4];
+			dest[out + 5] = s5 * src[in + 5];
+		}
+	}
+
+	/**
+	 * Convert between U and B (multiply by 8.pi^2) or B and U (divide),
+	 * in any basis.
+	 *
+	 * @param src double[] packed tensors
+	 * @param srcOffset int index of the first component in src
+	 * @param dest double[] to receive packed tensors
+	 * @param destOffset int index at which to write the first component
+	 * @param count int number of tensors
+	 * @param toB boolean true for U to B, false for B to U
+	 */
+	public static void convertUB(double[] src, int srcOffset, double[] dest, int destOffset, int count, boolean toB) {
+		double factor = toB ? B_FACTOR : 1 / B_FACTOR;
+		for (int i = 0; i < 6 * count; i++) {
+			dest[destOffset + i] = factor * src[srcOffset + i];
+		}
+	}
+
+	/**
+	 * Calculate U_cif for isotropic displacements, e.g. to treat isotropic
+	 * and anisotropic sites alike in a structure factor calculation.
+	 *
+	 * @param uIso double[] U_iso of each site
+	 * @param srcOffset int index of the first value in uIso
+	 * @param uCif double[] to receive packed tensors
+	 * @param destOffset int index at which to write the first component
+	 * @param count int number of sites
+	 */
+	public void isotropicToCif(double[] uIso, int srcOffset, double[] uCif, int destOffset, int count) {
+		for (int s = 0; s < count; s++) {
+			double u = uIso[srcOffset + s];
+			for (int p = 0; p < 6; p++) {
+				uCif[destOffset + 6 * s + p] = u * isotropicCif[p];
+			}
+		}
+	}
+
+	/**
+	 * Calculate U_eq, one third of the trace of U_cart, from U_cif.
+	 *
+	 * @param uCif double[] packed tensors
+	 * @param srcOffset int index of the first component in uCif
+	 * @param uEq double[] to receive one value per site
+	 * @param destOffset int index at which to write the first value
+	 * @param count int number of sites
+	 */
+	public void equivalentIsotropic(double[] uCif, int srcOffset, double[] uEq, int destOffset, int count) {
+		double[] w = equivalentIsotropic;
+		for (int s = 0; s < count; s++) {
+			int in = srcOffset + 6 * s;
+			uEq[destOffset + s] = w[0] * uCif[in] + w[1] * uCif[in + 1] + w[2] * uCif[in + 2]
+					+ w[3] * uCif[in + 3] + w[4] * uCif[in + 4] + w[5] * uCif[in + 5];
+		}
+	}
+
+	/**
+	 * Calculate the principal mean-square displacements and axes of the
+	 * displacement ellipsoids, e.g. for drawing them.
+	 *
+	 * @param uCif double[] packed tensors
+	 * @param srcOffset int index of the first component in uCif
+	 * @param values double[] to receive 3 values per site, in descending order
+	 * @param vectors double[] to receive 9 values per site, the Cartesian unit
+	 *        axis of each value in turn, as from
+	 *        {@link Matrix3#symmetricEigen(double[], int, double[], int, double[], int)}
+	 * @param count int number of sites
+	 */
+	public void principalAxes(double[] uCif, int srcOffset, double[] values, double[] vectors, int count) {
+		for (int s = 0; s < count; s++) {
+			//U_cart is built in the site's slot of vectors, which the eigen-solver reads before it writes
+			cifToCartesian(uCif, srcOffset + 6 * s, vectors, 9 * s, 1);
+			Matrix3.symmetricEigen(vectors, 9 * s, values, 3 * s, vectors, 9 * s);
+		}
+	}
+
+	/**
+	 * Test whether a displacement tensor is positive definite, i.e.
+	 * describes a real ellipsoid. The test holds in every basis, so U_cif,
+	 * U*, beta or U_cart may be given.
+	 *
+	 * @param u double[] packed tensors
+	 * @param offset int index of the first component of the tensor
+	 * @return true if all leading minors are positive
+	 */
+	public static boolean isPositiveDefinite(double[] u, int offset) {
+		double u11 = u[offset], u22 = u[offset + 1], u33 = u[offset + 2];
+		double u12 = u[offset + 3], u13 = u[offset + 4], u23 = u[offset + 5];
+		double minor2 = u11 * u22 - u12 * u12;
+		double det = u11 * (u22 * u33 - u23 * u23) - u12 * (u12 * u33 - u23 * u13) + u13 * (u12 * u23 - u22 * u13);
+		return u11 > 0 && minor2 > 0 && det > 0;
+	}
+
+}
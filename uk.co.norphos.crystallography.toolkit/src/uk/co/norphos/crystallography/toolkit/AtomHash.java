@@ -0,0 +1,164 @@
+package uk.co.norphos.crystallography.toolkit;
+
+/**
+ * A periodic spatial hash of atoms in a unit cell, answering "distance to
+ * the nearest atom surface" queries in constant time on average.
+ * <br>
+ * Atoms are binned on a fractional grid with n_i = d_i / binSize bins
+ * along each axis, where d_i is the spacing of the (100), (010) or (001)
+ * planes, so every bin is at least binSize thick even in a very oblique
+ * triclinic cell. A query searches shells of bins outwards from the bin of
+ * the point, following bin indices past the cell edges into neighbouring
+ * images, until no unsearched bin can hold a closer surface.
+ *
+ * @author Michael Wharmby
+ *
+ */
+final class AtomHash {
+
+	private final int na, nb, nc;
+	private final double[] ortho = new double[9], frac = new double[9];
+	//Atom Cartesian coordinates and radii, grouped by bin
+	private final double[] cart, radii;
+	private final int[] binStart;
+	private final double thicknessA, thicknessB, thicknessC, maxRadius;
+
+	/**
+	 * Construct the hash.
+	 *
+	 * @param ws {@link CellWorkspace} of the unit cell
+	 * @param fracCoords double[] packed fractional coordinates of the atoms
+	 * @param atomRadii double[] one radius per atom in Angstroms
+	 * @param binSize double minimum bin thickness in Angstroms
+	 */
+	AtomHash(CellWorkspace ws, double[] fracCoords, double[] atomRadii, double binSize) {
+		int nAtoms = atomRadii.length;
+		ws.copyOrthogonalizationMatrix(ortho);
+		ws.copyFractionalizationMatrix(frac);
+		double da = 1 / ws.getAStar(), db = 1 / ws.getBStar(), dc = 1 / ws.getCStar();
+		na = Math.max(1, (int)(da / binSize));
+		nb = Math.max(1, (int)(db / binSize));
+		nc = Math.max(1, (int)(dc / binSize));
+		thicknessA = da / na;
+		thicknessB = db / nb;
+		thicknessC = dc / nc;
+
+		//Counting sort of the atoms into bins
+		int[] bins = new int[nAtoms];
+		binStart = new int[na * nb * nc + 1];
+		double rMax = 0;
+		for (int i = 0; i < nAtoms; i++) {
+			int bin = bin(wrap(fracCoords[3 * i]), na) + na * (bin(wrap(fracCoords[3 * i + 1]), nb)
+					+ nb * bin(wrap(fracCoords[3 * i + 2]), nc));
+			bins[i] = bin;
+			binStart[bin + 1]++;
+			rMax = Math.max(rMax, atomRadii[i]);
+		}
+		maxRadius = rMax;
+		for (int b = 0; b < binStart.length - 1; b++) {
+			binStart[b + 1] += binStart[b];
+		}
+		int[] fill = new int[binStart.length - 1];
+		cart = new double[3 * nAtoms];
+		radii = new double[nAtoms];
+		for (int i = 0; i < nAtoms; i++) {
+			int j = binStart[bins[i]] + fill[bins[i]]++;
+			double x = wrap(fracCoords[3 * i]), y = wrap(fracCoords[3 * i + 1]), z = wrap(fracCoords[3 * i + 2]);
+			cart[3 * j] = ortho[0] * x + ortho[1] * y + ortho[2] * z;
+			cart[3 * j + 1] = ortho[3] * x + ortho[4] * y + ortho[5] * z;
+			cart[3 * j + 2] = ortho[6] * x + ortho[7] * y + ortho[8] * z;
+			radii[j] = atomRadii[i];
+		}
+	}
+
+	private static double wrap(double f) {
+		return f - Math.floor(f);
+	}
+
+	private static int bin(double f, int n) {
+		return Math.min((int)(f * n), n - 1);
+	}
+
+	int getNumberOfAtoms() {
+		return radii.length;
+	}
+
+	/**
+	 * Return an atom in hash order.
+	 * @param i int
+	 * @return double[]{x, y, z, radius} with Cartesian coordinates of the
+	 *         atom wrapped into the cell
+	 */
+	double[] getAtom(int i) {
+		return new double[]{cart[3 * i], cart[3 * i + 1], cart[3 * i + 2], radii[i]};
+	}
+
+	/**
+	 * Return the distance from a point to the nearest atom surface,
+	 * min(|r - r_atom| - r_radius) over all atoms and their images. This is
+	 * negative inside an atom.
+	 *
+	 * @param x double Cartesian x in Angstroms
+	 * @param y double Cartesian y in Angstroms
+	 * @param z double Cartesian z in Angstroms
+	 * @param bound double known upper bound on the result (e.g. from a
+	 *        neighbouring point), or +infinity; the search stops early
+	 *        once nothing closer than this can be found
+	 * @return double in Angstroms, or +infinity if there are no atoms
+	 */
+	double nearestSurface(double x, double y, double z, double bound) {
+		if (radii.length == 0) return Double.POSITIVE_INFINITY;
+		double fx = frac[0] * x + frac[1] * y + frac[2] * z;
+		double fy = frac[3] * x + frac[4] * y + frac[5] * z;
+		double fz = frac[6] * x + frac[7] * y + frac[8] * z;
+		int ia = (int)Math.floor(fx * na), ib = (int)Math.floor(fy * nb), ic = (int)Math.floor(fz * nc);
+		//Distance from the point to the nearest face of its own bin along each axis
+		double ua = fx * na - ia, ub = fy * nb - ib, uc = fz * nc - ic;
+		double marginA = Math.min(ua, 1 - ua) * thicknessA;
+		double marginB = Math.min(ub, 1 - ub) * thicknessB;
+		double marginC = Math.min(uc, 1 - uc) * thicknessC;
+
+		double best = bound;
+		for (int s = 0; ; s++) {
+			for (int da = -s; da <= s; da++) {
+				boolean edgeA = da == -s || da == s;
+				for (int db = -s; db <= s; db++) {
+					if (edgeA || db == -s || db == s) {
+						for (int dc = -s; dc <= s; dc++) {
+							best = searchBin(ia + da, ib + db, ic + dc, x, y, z, best);
+						}
+					} else {
+						best = searchBin(ia + da, ib + db, ic - s, x, y, z, best);
+						if (s > 0) best = searchBin(ia + da, ib + db, ic + s, x, y, z, best);
+					}
+				}
+			}
+			//Every bin outside shell s is beyond s whole bins and the margin along some axis
+			double reach = Math.min(s * thicknessA + marginA, Math.min(s * thicknessB + marginB, s * thicknessC + marginC));
+			if (reach - maxRadius >= best) return best;
+		}
+	}
+
+	private double searchBin(int ia, int ib, int ic, double x, double y, double z, double best) {
+		int ta = Math.floorDiv(ia, na), tb = Math.floorDiv(ib, nb), tc = Math.floorDiv(ic, nc);
+		int bin = (ia - ta * na) + na * ((ib - tb * nb) + nb * (ic - tc * nc));
+		int end = binStart[bin + 1];
+		if (binStart[bin] == end) return best;
+		//Point relative to the image of the cell holding this bin
+		double px = x - (ortho[0] * ta + ortho[1] * tb + ortho[2] * tc);
+		double py = y - (ortho[3] * ta + ortho[4] * tb + ortho[5] * tc);
+		double pz = z - (ortho[6] * ta + ortho[7] * tb + ortho[8] * tc);
+		for (int j = binStart[bin]; j < end; j++) {
+			double dx = px - cart[3 * j], dy = py - cart[3 * j + 1], dz = pz - cart[3 * j + 2];
+			double r = radii[j];
+			double limit = best + r;
+			double d2 = dx * dx + dy * dy + dz * dz;
+			if (limit > 0 && d2 < limit * limit) {
+				double d = Math.sqrt(d2) - r;
+				if (d < best) best = d;
+			}
+		}
+		return best;
+	}
+
+}
@@ -0,0 +1,203 @@
+package uk.co.norphos.crystallography.toolkit;
+
+/**
+ * Solves symmetric positive definite systems with a banded block of n
+ * parameters bordered by a small dense block of m parameters:
+ * <pre>
+ *   | B   C | |x|   |r|
+ *   | C^T D | |y| = |s|
+ * </pre>
+ * This is the shape of the normal equations of a whole-pattern fit, where
+ * the intensities of peaks ordered by position only couple to their
+ * neighbours (B, half-bandwidth w) while the global parameters couple to
+ * everything (C, D). B is factorised by banded Cholesky in O(n.w^2), and
+ * the border through the Schur complement S = D - C^T.B^-1.C in
+ * O(n.w.m + m^3), rather than the O((n+m)^3) of a dense solve.
+ * <br>
+ * Only the upper triangles of B and D are read. Levenberg-Marquardt
+ * damping is applied to copies of the diagonals, so one system can be
+ * solved repeatedly with increasing damping.
+ *
+ * @author Michael Wharmby
+ *
+ */
+final class BorderedBandSolver {
+
+	private final int n, bandwidth, m;
+	//band[k*(w+1) + j] = B(k, k+j)
+	final double[] band;
+	//border[k*m + g] = C(k, g)
+	final double[] border;
+	//dense[g*m + h] = D(g, h)
+	final double[] dense;
+
+	private final double[] workBand, workBorder, workDense, workColumn, z;
+
+	BorderedBandSolver(int n, int bandwidth, int m) {
+		this.n = n;
+		this.bandwidth = bandwidth;
+		this.m = m;
+		band = new double[n * (bandwidth + 1)];
+		border = new double[n * m];
+		dense = new double[m * m];
+		workBand = new double[band.length];
+		workBorder = new double[border.length];
+		workDense = new double[dense.length];
+		workColumn = new double[n];
+		z = new double[n];
+	}
+
+	/**
+	 * Solve the system with the diagonal scaled by (1 + damping). Zero
+	 * diagonal elements (parameters with no effect) are replaced by one so
+	 * that their shifts are zero.
+	 *
+	 * @param damping double Levenberg-Marquardt lambda
+	 * @param rhs double[n + m] right-hand side
+	 * @param dest double[n + m] to receive the solution
+	 * @return boolean false if the damped system is not positive definite
+	 */
+	boolean solve(double damping, double[] rhs, double[] dest) {
+		int w1 = bandwidth + 1;
+		System.arraycopy(band, 0, workBand, 0, band.length);
+		System.arraycopy(border, 0, workBorder, 0, border.length);
+		System.arraycopy(dense, 0, workDense, 0, dense.length);
+		for (int k = 0; k < n; k++) {
+			double diag = workBand[k * w1];
+			workBand[k * w1] = diag == 0 ? 1 : diag * (1 + damping);
+		}
+		for (int g = 0; g < m; g++) {
+			double diag = workDense[g * m + g];
+			workDense[g * m + g] = diag == 0 ? 1 : diag * (1 + damping);
+		}
+
+		if (!factoriseBand(workBand)) return false;
+
+		//z = B^-1.r; C <- B^-1.C column by column
+		System.arraycopy(rhs, 0, z, 0, n);
+		solveBand(workBand, z);
+		for (int g = 0; g < m; g++) {
+			for (int k = 0; k < n; k++) {
+				workColumn[k] = workBorder[k * m + g];
+			}
+			solveBand(workBand, workColumn);
+			for (int k = 0; k < n; k++) {
+				workBorder[k * m + g] = workColumn[k];
+			}
+		}
+
+		//S = D - C^T.B^-1.C and s - C^T.z, using the original C
+		for (int g = 0; g < m; g++) {
+			double sum = rhs[n + g];
+			for (int k = 0; k < n; k++) {
+				sum -= border[k * m + g] * z[k];
+			}
+			dest[n + g] = sum;
+			for (int h = g; h < m; h++) {
+				double s = workDense[g * m + h];
+				for (int k = 0; k < n; k++) {
+					s -= border[k * m + g] * workBorder[k * m + h];
+				}
+				workDense[g * m + h] = s;
+			}
+		}
+		if (!solveDense(workDense, dest, n)) return false;
+
+		//x = z - B^-1.C.y
+		for (int k = 0; k < n; k++) {
+			double sum = z[k];
+			for (int g = 0; g < m; g++) {
+				sum -= workBorder[k * m + g] * dest[n + g];
+			}
+			dest[k] = sum;
+		}
+		return true;
+	}
+
+	/*
+	 * In place upper Cholesky factor U (B = U^T.U) in band storage.
+	 */
+	private boolean factoriseBand(double[] u) {
+		int w = bandwidth, w1 = w + 1;
+		for (int k = 0; k < n; k++) {
+			int iMin = Math.max(0, k - w);
+			double diag = u[k * w1];
+			for (int i = iMin; i < k; i++) {
+				double uik = u[i * w1 + (k - i)];
+				diag -= uik * uik;
+			}
+			if (!(diag > 0)) return false;
+			diag = Math.sqrt(diag);
+			u[k * w1] = diag;
+			int jMax = Math.min(w, n - 1 - k);
+			for (int j = 1; j <= jMax; j++) {
+				int c = k + j;
+				double sum = u[k * w1 + j];
+				for (int i = Math.max(0, c - w); i < k; i++) {
+					sum -= u[i * w1 + (k - i)] * u[i * w1 + (c - i)];
+				}
+				u[k * w1 + j] = sum / diag;
+			}
+		}
+		return true;
+	}
+
+	private void solveBand(double[] u, double[] x) {
+		int w = bandwidth, w1 = w + 1;
+		//U^T.y = x
+		for (int k = 0; k < n; k++) {
+			double sum = x[k];
+			for (int i = Math.max(0, k - w); i < k; i++) {
+				sum -= u[i * w1 + (k - i)] * x[i];
+			}
+			x[k] = sum / u[k * w1];
+		}
+		//U.x = y
+		for (int k = n - 1; k >= 0; k--) {
+			double sum = x[k];
+			int jMax = Math.min(w, n - 1 - k);
+			for (int j = 1; j <= jMax; j++) {
+				sum -= u[k * w1 + j] * x[k + j];
+			}
+			x[k] = sum / u[k * w1];
+		}
+	}
+
+	/*
+	 * Dense Cholesky solve of the m x m system in place, on x[offset..].
+	 */
+	private boolean solveDense(double[] a, double[] x, int offset) {
+		for (int k = 0; k < m; k++) {
+			double diag = a[k * m + k];
+			for (int i = 0; i < k; i++) {
+				diag -= a[i * m + k] * a[i * m + k];
+			}
+			if (!(diag > 0)) return false;
+			diag = Math.sqrt(diag);
+			a[k * m + k] = diag;
+			for (int c = k + 1; c < m; c++) {
+				double sum = a[k * m + c];
+				for (int i = 0; i < k; i++) {
+					sum -= a[i * m + k] * a[i * m + c];
+				}
+				a[k * m + c] = sum / diag;
+			}
+		}
+		for (int k = 0; k < m; k++) {
+			double sum = x[offset + k];
+			for (int i = 0; i < k; i++) {
+				sum -= a[i * m + k] * x[offset + i];
+			}
+			x[offset + k] = sum / a[k * m + k];
+		}
+		for (int k = m - 1; k >= 0; k--) {
+			double sum = x[offset + k];
+			for (int c = k + 1; c < m; c++) {
+				sum -= a[k * m + c] * x[offset + c];
+			}
+			x[offset + k] = sum / a[k * m + k];
+		}
+		return true;
+	}
+
+}
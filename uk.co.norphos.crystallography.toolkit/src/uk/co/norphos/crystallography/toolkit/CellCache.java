@@ -0,0 +1,456 @@
+package uk.co.norphos.crystallography.toolkit;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import uk.co.norphos.crystallography.api.Lattice;
+import uk.co.norphos.crystallography.toolkit.metrics.Counter;
+import uk.co.norphos.crystallography.toolkit.metrics.Metrics;
+import uk.co.norphos.crystallography.toolkit.metrics.Timer;
+
+/**
+ * Disk-backed cache of quantities derived from a {@link Lattice} which are
+ * worth keeping between runs: reflection lists and Niggli-reduced cells.
+ * Entries are keyed by the lattice parameters quantised to
+ * {@link #LENGTH_QUANTUM} and {@link #ANGLE_QUANTUM}, so lattices read
+ * from different files or runs which agree to that precision share an
+ * entry (and get the values calculated for the first of them).
+ * <br>
+ * The cache is a single append-only file of records, each with a CRC32,
+ * which is memory-mapped for reading; records appended since the file was
+ * mapped are read through the channel until they amount to as much again,
+ * when the file is mapped afresh. On opening, records are checked in
+ * turn and the file is cut back to the end of the last good one, so a run
+ * which dies part way through an append loses only that entry. When the
+ * file grows past its size limit the most recently used entries are
+ * copied to a new file, least recent first, which then replaces the old
+ * one; file order therefore carries recency over to the next run. If the
+ * new file cannot be put in place (e.g. on Windows, while the old one is
+ * still mapped), the old file is kept and no more is stored once it is
+ * full. Values too large to fit after compaction are never stored.
+ * <br>
+ * A cache file may be open in only one instance at a time. Within a
+ * process, instances are thread-safe; values are calculated outside the
+ * lock, so concurrent misses on the same key may both calculate.
+ *
+ * @author Michael Wharmby
+ *
+ */
+public final class CellCache implements Closeable {
+
+	private static final Timer OPEN_TIMER = Metrics.timer("cellcache.open");
+	private static final Counter HIT_COUNTER = Metrics.counter("cellcache.hits");
+	private static final Counter MISS_COUNTER = Metrics.counter("cellcache.misses");
+
+	/**
+	 * Resolution of the keys: cell lengths in Angstrom and d-spacing limits.
+	 */
+	public static final double LENGTH_QUANTUM = 1e-5;
+	/**
+	 * Resolution of the keys: cell angles in degrees.
+	 */
+	public static final double ANGLE_QUANTUM = 1e-4;
+
+	private static final byte[] MAGIC = "NPCCACHE".getBytes(StandardCharsets.US_ASCII);
+	private static final int VERSION = 1, FILE_HEADER_BYTES = 16;
+	//Record: kind, 7 key values, payload length, payload, CRC32 of all before it
+	private static final int KEY_VALUES = 7, RECORD_HEADER_BYTES = 4 + 8 * KEY_VALUES + 4, CRC_BYTES = 4;
+	private static final int REFLECTIONS = 1, NIGGLI = 2;
+	//Fraction of the limit kept by compaction
+	private static final double COMPACTED_FRACTION = 0.75;
+
+	private final Path path;
+	private final long maxBytes;
+	private final Map<Key, Slot> index = new LinkedHashMap<>(16, 0.75f, true);
+	private FileChannel channel;
+	private FileLock lock;
+	private MappedByteBuffer map;
+	private long end, liveBytes;
+	private boolean compactionFailed, closed;
+
+	private CellCache(Path path, long maxBytes) {
+		this.path = path;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Open a cache file, creating it if necessary. Damaged or incomplete
+	 * records at the end of the file are discarded.
+	 *
+	 * @param path Path of the cache file
+	 * @param maxBytes long size the file is allowed to reach before the
+	 *        least recently used entries are dropped
+	 * @return CellCache which must be closed after use
+	 * @throws IOException if the file cannot be opened, is in use or is not
+	 *         a cache file
+	 */
+	public static CellCache open(Path path, long maxBytes) throws IOException {
+		if (maxBytes <= FILE_HEADER_BYTES) throw new IllegalArgumentException("Cache limit of "+maxBytes+" bytes is too small");
+		long start = Metrics.ENABLED ? System.nanoTime() : 0;
+		CellCache cache = new CellCache(path, maxBytes);
+		try {
+			cache.openChannel();
+			cache.load();
+		} catch (IOException | RuntimeException e) {
+			cache.close();
+			throw e;
+		}
+		if (Metrics.ENABLED) OPEN_TIMER.recordSince(start);
+		return cache;
+	}
+
+	private void openChannel() throws IOException {
+		channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			lock = channel.tryLock();
+		} catch (OverlappingFileLockException e) {
+			lock = null;
+		}
+		if (lock == null) throw new IOException(path+" is already in use");
+	}
+
+	/*
+	 * Index the good records, cutting the file back after the last of them.
+	 */
+	private void load() throws IOException {
+		long size = channel.size();
+		if (size < FILE_HEADER_BYTES) {
+			ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			header.put(MAGIC).putInt(VERSION).putInt(0).flip();
+			channel.truncate(0);
+			writeFully(header, 0);
+			size = FILE_HEADER_BYTES;
+		}
+		if (size > Integer.MAX_VALUE) throw new IOException(path+" is larger than 2 GB");
+		map = mapFile(size);
+		byte[] magic = new byte[MAGIC.length];
+		map.get(magic);
+		if (!Arrays.equals(magic, MAGIC) || map.getInt(MAGIC.length) != VERSION) {
+			throw new IOException(path+" is not a cell cache file");
+		}
+		long position = FILE_HEADER_BYTES;
+		CRC32 crc = new CRC32();
+		while (position + RECORD_HEADER_BYTES + CRC_BYTES <= size) {
+			int p = (int)position;
+			int length = map.getInt(p + RECORD_HEADER_BYTES - 4);
+			long recordEnd = position + RECORD_HEADER_BYTES + (long)length + CRC_BYTES;
+			if (length < 0 || recordEnd > size) break;
+			ByteBuffer record = map.duplicate();
+			record.position(p).limit((int)recordEnd - CRC_BYTES);
+			crc.reset();
+			crc.update(record);
+			if ((int)crc.getValue() != map.getInt((int)recordEnd - CRC_BYTES)) break;
+
+			long[] values = new long[KEY_VALUES];
+			for (int i = 0; i < KEY_VALUES; i++) {
+				values[i] = map.getLong(p + 4 + 8 * i);
+			}
+			Slot old = index.put(new Key(map.getInt(p), values), new Slot(position, length));
+			if (old != null) liveBytes -= old.recordBytes();
+			liveBytes += recordEnd - position;
+			position = recordEnd;
+		}
+		if (position < size) {
+			channel.truncate(position);
+			map = mapFile(position);
+		}
+		end = position;
+	}
+
+	private MappedByteBuffer mapFile(long size) throws IOException {
+		MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		mapped.order(ByteOrder.LITTLE_ENDIAN);
+		return mapped;
+	}
+
+	private void writeFully(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+	}
+
+	/**
+	 * Return the reflections of a lattice within a d-spacing limit, as
+	 * {@link ReflectionList#enumerate(uk.co.norphos.crystallography.api.IUnitCell, double)},
+	 * enumerating and storing them if they are not in the cache.
+	 *
+	 * @param lattice {@link Lattice}
+	 * @param dMin double d-spacing limit in Angstrom
+	 * @return {@link ReflectionList}
+	 * @throws IOException if the cache file cannot be read or written
+	 */
+	public ReflectionList getReflections(Lattice lattice, double dMin) throws IOException {
+		Key key = new Key(REFLECTIONS, lattice, Math.round(dMin / LENGTH_QUANTUM));
+		ByteBuffer payload = lookup(key);
+		if (payload != null) {
+			int n = payload.getInt();
+			int[] hkl = new int[3 * n];
+			double[] dSpacings = new double[n];
+			payload.asIntBuffer().get(hkl);
+			payload.position(payload.position() + 12 * n);
+			payload.asDoubleBuffer().get(dSpacings);
+			return new ReflectionList(hkl, dSpacings);
+		}
+		ReflectionList reflections = ReflectionList.enumerate(new UnitCell(lattice), dMin);
+		int n = reflections.size();
+		ByteBuffer buffer = ByteBuffer.allocate(4 + 20 * n).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(n);
+		buffer.asIntBuffer().put(reflections.getIndices());
+		buffer.position(4 + 12 * n);
+		buffer.asDoubleBuffer().put(reflections.getDSpacings());
+		store(key, buffer.array());
+		return reflections;
+	}
+
+	/**
+	 * Return the Niggli-reduced cell of a lattice, as
+	 * {@link CellOperations#niggliReduce()}, reducing and storing it if it
+	 * is not in the cache.
+	 *
+	 * @param lattice {@link Lattice}
+	 * @return {@link Lattice} (all NaN if the reduction did not converge)
+	 * @throws IOException if the cache file cannot be read or written
+	 */
+	public Lattice getNiggliCell(Lattice lattice) throws IOException {
+		Key key = new Key(NIGGLI, lattice, 0);
+		ByteBuffer payload = lookup(key);
+		double[] cell = new double[6];
+		if (payload != null) {
+			payload.asDoubleBuffer().get(cell);
+		} else {
+			cell = new double[]{lattice.getA(), lattice.getB(), lattice.getC(), lattice.getAl(), lattice.getBe(), lattice.getGa()};
+			CellOperations.niggliReduce().apply(cell, null);
+			ByteBuffer buffer = ByteBuffer.allocate(8 * 6).order(ByteOrder.LITTLE_ENDIAN);
+			buffer.asDoubleBuffer().put(cell);
+			store(key, buffer.array());
+		}
+		return new Lattice(cell[0], cell[1], cell[2], cell[3], cell[4], cell[5]);
+	}
+
+	/*
+	 * Return a little-endian view of the payload of a key, or null.
+	 */
+	private synchronized ByteBuffer lookup(Key key) throws IOException {
+		if (channel == null && !closed) reopen();
+		Slot slot = index.get(key);
+		if (slot == null) {
+			if (Metrics.ENABLED) MISS_COUNTER.increment();
+			return null;
+		}
+		if (Metrics.ENABLED) HIT_COUNTER.increment();
+		//Remap only once the unmapped part is as large as the mapped part
+		if (slot.position + slot.recordBytes() > map.capacity() && end >= 2L * map.capacity()) map = mapFile(end);
+		long start = slot.position + RECORD_HEADER_BYTES;
+		if (start + slot.length <= map.capacity()) {
+			ByteBuffer payload = map.duplicate();
+			payload.position((int)start).limit((int)start + slot.length);
+			return payload.slice().order(ByteOrder.LITTLE_ENDIAN);
+		}
+		ByteBuffer payload = ByteBuffer.allocate(slot.length).order(ByteOrder.LITTLE_ENDIAN);
+		while (payload.hasRemaining()) {
+			if (channel.read(payload, start + payload.position()) < 0) throw new IOException(path+" was truncated");
+		}
+		payload.flip();
+		return payload;
+	}
+
+	private synchronized void store(Key key, byte[] payload) throws IOException {
+		if (closed) return;
+		if (channel == null) reopen();
+		if (index.containsKey(key)) return;
+		ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + payload.length + CRC_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		key.write(record);
+		record.putInt(payload.length).put(payload);
+		CRC32 crc = new CRC32();
+		crc.update(record.array(), 0, record.position());
+		record.putInt((int)crc.getValue()).flip();
+		if (end + record.limit() > Integer.MAX_VALUE) return;
+		//Would be evicted by the compaction it causes
+		if (FILE_HEADER_BYTES + record.limit() > COMPACTED_FRACTION * maxBytes) return;
+		//No room, and compaction has already failed once
+		if (compactionFailed && end + record.limit() > maxBytes) return;
+		writeFully(record, end);
+		index.put(key, new Slot(end, payload.length));
+		end += record.capacity();
+		liveBytes += record.capacity();
+		if (end > maxBytes && !compactionFailed) compact();
+	}
+
+	/*
+	 * Copy the most recently used entries, up to a fraction of the limit,
+	 * to a new file in order of use and put it in place of the old one.
+	 */
+	private void compact() throws IOException {
+		List<Map.Entry<Key, Slot>> kept = new ArrayList<>(index.entrySet());
+		long keptBytes = liveBytes;
+		int first = 0;
+		while (first < kept.size() && FILE_HEADER_BYTES + keptBytes > COMPACTED_FRACTION * maxBytes) {
+			keptBytes -= kept.get(first++).getValue().recordBytes();
+		}
+		kept = kept.subList(first, kept.size());
+
+		Path tmp = path.resolveSibling(path.getFileName()+".tmp");
+		boolean moved = false;
+		try {
+			try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING)) {
+				ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+				header.put(MAGIC).putInt(VERSION).putInt(0).flip();
+				while (header.hasRemaining()) out.write(header);
+				for (Map.Entry<Key, Slot> entry : kept) {
+					Slot slot = entry.getValue();
+					long position = slot.position, remaining = slot.recordBytes();
+					while (remaining > 0) {
+						long copied = channel.transferTo(position, remaining, out);
+						position += copied;
+						remaining -= copied;
+					}
+				}
+				out.force(true);
+			}
+			lock.release();
+			channel.close();
+			//A file cannot be replaced while mapped on some platforms
+			map = null;
+			Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			moved = true;
+		} catch (IOException e) {
+			compactionFailed = true;
+		} finally {
+			if (!moved) Files.deleteIfExists(tmp);
+			//Reopen whichever file is in place
+			if (!channel.isOpen()) reopen();
+		}
+	}
+
+	/*
+	 * Open the file again after compaction. If that fails (e.g. another
+	 * process has taken the lock), nothing is held and the next call tries
+	 * again.
+	 */
+	private void reopen() throws IOException {
+		clearIndex();
+		try {
+			openChannel();
+			load();
+		} catch (IOException | RuntimeException e) {
+			clearIndex();
+			lock = null;
+			try {
+				if (channel != null) channel.close();
+			} finally {
+				channel = null;
+			}
+			throw e;
+		}
+	}
+
+	private void clearIndex() {
+		index.clear();
+		liveBytes = 0;
+		end = 0;
+		map = null;
+	}
+
+	/**
+	 * Return the number of entries in the cache.
+	 * @return int
+	 */
+	public synchronized int size() {
+		return index.size();
+	}
+
+	/**
+	 * Return the current length of the cache file.
+	 * @return long bytes
+	 */
+	public synchronized long getFileSize() {
+		return end;
+	}
+
+	/**
+	 * Release the cache file. Nothing further is stored by this instance.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		closed = true;
+		if (channel == null) return;
+		try {
+			if (lock != null && lock.isValid()) lock.release();
+		} finally {
+			channel.close();
+			channel = null;
+		}
+	}
+
+	/*
+	 * Kind of entry and quantised lattice parameters and argument.
+	 */
+	private static final class Key {
+		private final int kind;
+		private final long[] values;
+
+		Key(int kind, long[] values) {
+			this.kind = kind;
+			this.values = values;
+		}
+
+		Key(int kind, Lattice lattice, long argument) {
+			this(kind, new long[]{Math.round(lattice.getA() / LENGTH_QUANTUM), Math.round(lattice.getB() / LENGTH_QUANTUM),
+					Math.round(lattice.getC() / LENGTH_QUANTUM), Math.round(lattice.getAl() / ANGLE_QUANTUM),
+					Math.round(lattice.getBe() / ANGLE_QUANTUM), Math.round(lattice.getGa() / ANGLE_QUANTUM), argument});
+		}
+
+		void write(ByteBuffer buffer) {
+			buffer.putInt(kind);
+			for (long value : values) {
+				buffer.putLong(value);
+			}
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * kind + Arrays.hashCode(values);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) return true;
+			if (!(obj instanceof Key)) return false;
+			Key other = (Key)obj;
+			return kind == other.kind && Arrays.equals(values, other.values);
+		}
+	}
+
+	private static final class Slot {
+		private final long position;
+		private final int length;
+
+		Slot(long position, int length) {
+			this.position = position;
+			this.length = length;
+		}
+
+		long recordBytes() {
+			return RECORD_HEADER_BYTES + (long)length + CRC_BYTES;
+		}
+	}
+
+}
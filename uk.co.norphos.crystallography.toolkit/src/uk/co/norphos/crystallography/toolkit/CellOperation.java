@@ -0,0 +1,24 @@
+package uk.co.norphos.crystallography.toolkit;
+
+/**
+ * One step of a {@link CellPipeline}: transforms a set of lattice
+ * parameters in place. Implementations must not allocate and must be
+ * safe to call from several threads at once (each thread passes its own
+ * arrays and workspace).
+ *
+ * @author Michael Wharmby
+ *
+ */
+public interface CellOperation {
+
+	/**
+	 * Transform lattice parameters in place.
+	 *
+	 * @param cell double[6] a, b, c (Angstroms), alpha, beta, gamma
+	 *        (degrees), indexed by {@link CellWorkspace#A} etc.
+	 * @param workspace {@link CellWorkspace} scratch owned by the calling
+	 *        thread, in no particular state
+	 */
+	void apply(double[] cell, CellWorkspace workspace);
+
+}
@@ -0,0 +1,212 @@
+package uk.co.norphos.crystallography.toolkit;
+
+import uk.co.norphos.crystallography.api.PrincipleAxis;
+
+/**
+ * Factory for the standard {@link CellOperation}s.
+ *
+ * @author Michael Wharmby
+ *
+ */
+public final class CellOperations {
+
+	/**
+	 * Default relative tolerance of the Niggli reduction.
+	 */
+	public static final double DEFAULT_NIGGLI_TOLERANCE = 1e-5;
+
+	private static final int MAX_NIGGLI_CYCLES = 1000;
+
+	private CellOperations() {
+		//Static methods only
+	}
+
+	/**
+	 * Return an operation which replaces a cell with its reciprocal (a*,
+	 * b*, c* in Angstrom^-1, without the factor of 2.pi).
+	 * @return {@link CellOperation}
+	 */
+	public static CellOperation reciprocal() {
+		return (cell, ws) -> {
+			ws.update(cell[0], cell[1], cell[2], cell[3], cell[4], cell[5]);
+			cell[0] = ws.getAStar();
+			cell[1] = ws.getBStar();
+			cell[2] = ws.getCStar();
+			cell[3] = ws.getAlphaStar();
+			cell[4] = ws.getBetaStar();
+			cell[5] = ws.getGammaStar();
+		};
+	}
+
+	/**
+	 * Return an operation which cyclically permutes the cell axes so that
+	 * the axis currently labelled from becomes the axis labelled to, e.g.
+	 * to change a monoclinic cell from unique axis b to unique axis c. A
+	 * cyclic permutation keeps the axes right-handed.
+	 *
+	 * @param from {@link PrincipleAxis} A, B or C
+	 * @param to {@link PrincipleAxis} A, B or C
+	 * @return {@link CellOperation}
+	 */
+	public static CellOperation permuteAxes(PrincipleAxis from, PrincipleAxis to) {
+		if (from == PrincipleAxis.NONE || to == PrincipleAxis.NONE) {
+			throw new IllegalArgumentException("Axes must be A, B or C");
+		}
+		//Axis i of the new cell is axis (i - shift) mod 3 of the old
+		final int shift = Math.floorMod(to.ordinal() - from.ordinal(), 3);
+		return (cell, ws) -> {
+			if (shift == 0) return;
+			for (int n = 0; n < shift; n++) {
+				double tmp = cell[2];
+				cell[2] = cell[1];
+				cell[1] = cell[0];
+				cell[0] = tmp;
+				tmp = cell[5];
+				cell[5] = cell[4];
+				cell[4] = cell[3];
+				cell[3] = tmp;
+			}
+		};
+	}
+
+	/**
+	 * Return an operation performing a Niggli reduction with the
+	 * {@link #DEFAULT_NIGGLI_TOLERANCE}.
+	 * @return {@link CellOperation}
+	 */
+	public static CellOperation niggliReduce() {
+		return niggliReduce(DEFAULT_NIGGLI_TOLERANCE);
+	}
+
+	/**
+	 * Return an operation performing a Niggli reduction, using the
+	 * algorithm of Krivy &amp; Gruber (1976) with the numerical tolerances
+	 * of Grosse-Kunstleve, Sauter &amp; Adams (2004), Acta Cryst. A60, 1-6.
+	 * The cell is treated as primitive. Cells which fail to converge are set
+	 * to NaN rather than halting a batch.
+	 *
+	 * @param tolerance double relative tolerance; comparisons of the G6
+	 *        parameters are made to within tolerance * V^(2/3)
+	 * @return {@link CellOperation}
+	 */
+	public static CellOperation niggliReduce(final double tolerance) {
+		return (cell, ws) -> {
+			double cosAl = Math.cos(Math.toRadians(cell[3]));
+			double cosBe = Math.cos(Math.toRadians(cell[4]));
+			double cosGa = Math.cos(Math.toRadians(cell[5]));
+			double volume = cell[0] * cell[1] * cell[2] * Math.sqrt(1 - cosAl * cosAl - cosBe * cosBe - cosGa * cosGa
+					+ 2 * cosAl * cosBe * cosGa);
+			double eps = tolerance * Math.pow(volume, 2. / 3);
+			//G6 parameters are reduced in the cell array itself
+			cell[3] = 2 * cell[1] * cell[2] * cosAl;
+			cell[4] = 2 * cell[0] * cell[2] * cosBe;
+			cell[5] = 2 * cell[0] * cell[1] * cosGa;
+			cell[0] *= cell[0];
+			cell[1] *= cell[1];
+			cell[2] *= cell[2];
+			if (!reduceG6(cell, eps)) {
+				for (int i = 0; i < 6; i++) cell[i] = Double.NaN;
+				return;
+			}
+			cell[0] = Math.sqrt(cell[0]);
+			cell[1] = Math.sqrt(cell[1]);
+			cell[2] = Math.sqrt(cell[2]);
+			cell[3] = Math.toDegrees(Math.acos(cell[3] / (2 * cell[1] * cell[2])));
+			cell[4] = Math.toDegrees(Math.acos(cell[4] / (2 * cell[0] * cell[2])));
+			cell[5] = Math.toDegrees(Math.acos(cell[5] / (2 * cell[0] * cell[1])));
+		};
+	}
+
+	/**
+	 * Niggli-reduce G6 parameters A = a.a, B = b.b, C = c.c, xi = 2b.c,
+	 * eta = 2a.c, zeta = 2a.b in place.
+	 *
+	 * @param g6 double[6]
+	 * @param eps double absolute tolerance
+	 * @return boolean true if the reduction converged
+	 */
+	static boolean reduceG6(double[] g6, double eps) {
+		double a = g6[0], b = g6[1], c = g6[2], xi = g6[3], eta = g6[4], zeta = g6[5];
+		for (int cycle = 0; cycle < MAX_NIGGLI_CYCLES; cycle++) {
+			//N1
+			if (a > b + eps || (Math.abs(a - b) < eps && Math.abs(xi) > Math.abs(eta) + eps)) {
+				double tmp = a; a = b; b = tmp;
+				tmp = xi; xi = eta; eta = tmp;
+			}
+			//N2
+			if (b > c + eps || (Math.abs(b - c) < eps && Math.abs(eta) > Math.abs(zeta) + eps)) {
+				double tmp = b; b = c; c = tmp;
+				tmp = eta; eta = zeta; zeta = tmp;
+				continue;
+			}
+			//N3/N4: make the angles all acute or all non-acute
+			int l = sign(xi, eps), m = sign(eta, eps), n = sign(zeta, eps);
+			if (l * m * n == 1) {
+				xi = Math.abs(xi);
+				eta = Math.abs(eta);
+				zeta = Math.abs(zeta);
+			} else {
+				int i = 1, j = 1, k = 1, zeroAt = -1;
+				if (l == 1) i = -1; else if (l == 0) zeroAt = 0;
+				if (m == 1) j = -1; else if (m == 0) zeroAt = 1;
+				if (n == 1) k = -1; else if (n == 0) zeroAt = 2;
+				if (i * j * k < 0) {
+					if (zeroAt == 0) i = -1;
+					else if (zeroAt == 1) j = -1;
+					else if (zeroAt == 2) k = -1;
+				}
+				xi *= i;
+				eta *= j;
+				zeta *= k;
+			}
+			//N5
+			if (Math.abs(xi) > b + eps || (Math.abs(b - xi) < eps && 2 * eta < zeta - eps)
+					|| (Math.abs(b + xi) < eps && zeta < -eps)) {
+				double s = Math.signum(xi);
+				c = b + c - xi * s;
+				eta = eta - zeta * s;
+				xi = xi - 2 * b * s;
+				continue;
+			}
+			//N6
+			if (Math.abs(eta) > a + eps || (Math.abs(a - eta) < eps && 2 * xi < zeta - eps)
+					|| (Math.abs(a + eta) < eps && zeta < -eps)) {
+				double s = Math.signum(eta);
+				c = a + c - eta * s;
+				xi = xi - zeta * s;
+				eta = eta - 2 * a * s;
+				continue;
+			}
+			//N7
+			if (Math.abs(zeta) > a + eps || (Math.abs(a - zeta) < eps && 2 * xi < eta - eps)
+					|| (Math.abs(a + zeta) < eps && eta < -eps)) {
+				double s = Math.signum(zeta);
+				b = a + b - zeta * s;
+				xi = xi - eta * s;
+				zeta = zeta - 2 * a * s;
+				continue;
+			}
+			//N8
+			double sum = xi + eta + zeta + a + b;
+			if (sum < -eps || (Math.abs(sum) < eps && 2 * (a + eta) + zeta > eps)) {
+				c = a + b + c + xi + eta + zeta;
+				xi = 2 * b + xi + zeta;
+				eta = 2 * a + eta + zeta;
+				continue;
+			}
+			g6[0] = a;
+			g6[1] = b;
+			g6[2] = c;
+			g6[3] = xi;
+			g6[4] = eta;
+			g6[5] = zeta;
+			return true;
+		}
+		return false;
+	}
+
+	private static int sign(double value, double eps) {
+		return value > eps ? 1 : value < -eps ? -1 : 0;
+	}
+
+}
@@ -0,0 +1,120 @@
+package uk.co.norphos.crystallography.toolkit;
+
+import java.util.stream.IntStream;
+
+/**
+ * A chain of {@link CellOperation}s applied to columns of lattice
+ * parameters in one fused, parallel pass. Each cell is loaded once, taken
+ * through every operation while it is in cache and written once, without
+ * building a {@link Lattice} or {@link UnitCell} for it. For example, to
+ * Niggli-reduce a column of cells and return the reciprocal of each:
+ * <pre>
+ * new CellPipeline(CellOperations.niggliReduce(), CellOperations.reciprocal())
+ *         .run(a, b, c, al, be, ga, a, b, c, al, be, ga, null);
+ * </pre>
+ * A pipeline holds no mutable state, so one instance can be shared.
+ *
+ * @author Michael Wharmby
+ *
+ */
+public final class CellPipeline {
+
+	private static final int CHUNK_SIZE = 1024;
+
+	private final CellOperation[] operations;
+
+	/**
+	 * Construct a pipeline applying operations in the order given.
+	 * @param operations {@link CellOperation}s
+	 */
+	public CellPipeline(CellOperation... operations) {
+		for (CellOperation op : operations) {
+			if (op == null) throw new IllegalArgumentException("Operations cannot be null");
+		}
+		this.operations = operations.clone();
+	}
+
+	public int getNumberOfOperations() {
+		return operations.length;
+	}
+
+	/**
+	 * Run the pipeline over columns of lattice parameters (lengths in
+	 * Angstroms, angles in degrees). Output columns may be the same arrays
+	 * as the input columns to transform in place.
+	 *
+	 * @param a double[]
+	 * @param b double[]
+	 * @param c double[]
+	 * @param alpha double[]
+	 * @param beta double[]
+	 * @param gamma double[]
+	 * @param aOut double[] to be filled with the transformed a
+	 * @param bOut double[]
+	 * @param cOut double[]
+	 * @param alphaOut double[]
+	 * @param betaOut double[]
+	 * @param gammaOut double[]
+	 * @param volumes double[] to be filled with the volume of each
+	 *        transformed cell, or null if not required
+	 */
+	public void run(double[] a, double[] b, double[] c, double[] alpha, double[] beta, double[] gamma,
+			double[] aOut, double[] bOut, double[] cOut, double[] alphaOut, double[] betaOut, double[] gammaOut,
+			double[] volumes) {
+		final int size = a.length;
+		if (b.length != size || c.length != size || alpha.length != size || beta.length != size
+				|| gamma.length != size) {
+			throw new IllegalArgumentException("Lattice parameter columns must all be the same length");
+		}
+		if (aOut.length < size || bOut.length < size || cOut.length < size || alphaOut.length < size
+				|| betaOut.length < size || gammaOut.length < size || (volumes != null && volumes.length < size)) {
+			throw new IllegalArgumentException("Output columns must hold at least "+size+" cells");
+		}
+		int nChunks = (size + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		IntStream.range(0, nChunks).parallel().forEach(chunk -> {
+			CellWorkspace ws = new CellWorkspace(1, 1, 1, 90, 90, 90);
+			double[] cell = new double[6];
+			int end = Math.min(size, (chunk + 1) * CHUNK_SIZE);
+			for (int i = chunk * CHUNK_SIZE; i < end; i++) {
+				cell[CellWorkspace.A] = a[i];
+				cell[CellWorkspace.B] = b[i];
+				cell[CellWorkspace.C] = c[i];
+				cell[CellWorkspace.ALPHA] = alpha[i];
+				cell[CellWorkspace.BETA] = beta[i];
+				cell[CellWorkspace.GAMMA] = gamma[i];
+				for (CellOperation op : operations) {
+					op.apply(cell, ws);
+				}
+				aOut[i] = cell[CellWorkspace.A];
+				bOut[i] = cell[CellWorkspace.B];
+				cOut[i] = cell[CellWorkspace.C];
+				alphaOut[i] = cell[CellWorkspace.ALPHA];
+				betaOut[i] = cell[CellWorkspace.BETA];
+				gammaOut[i] = cell[CellWorkspace.GAMMA];
+				if (volumes != null) {
+					volumes[i] = volume(cell);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Run the pipeline over a single cell.
+	 * @param cell double[6] a, b, c, alpha, beta, gamma; transformed in place
+	 */
+	public void run(double[] cell) {
+		CellWorkspace ws = new CellWorkspace(1, 1, 1, 90, 90, 90);
+		for (CellOperation op : operations) {
+			op.apply(cell, ws);
+		}
+	}
+
+	private static double volume(double[] cell) {
+		double cosAl = Math.cos(Math.toRadians(cell[CellWorkspace.ALPHA]));
+		double cosBe = Math.cos(Math.toRadians(cell[CellWorkspace.BETA]));
+		double cosGa = Math.cos(Math.toRadians(cell[CellWorkspace.GAMMA]));
+		return cell[CellWorkspace.A] * cell[CellWorkspace.B] * cell[CellWorkspace.C]
+				* Math.sqrt(1 - cosAl * cosAl - cosBe * cosBe - cosGa * cosGa + 2 * cosAl * cosBe * cosGa);
+	}
+
+}
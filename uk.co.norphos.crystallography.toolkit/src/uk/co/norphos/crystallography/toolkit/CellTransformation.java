@@ -0,0 +1,471 @@
+package uk.co.norphos.crystallography.toolkit;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import uk.co.norphos.crystallography.api.Lattice;
+import uk.co.norphos.crystallography.api.MillerIndex;
+import uk.co.norphos.crystallography.api.PrincipleAxis;
+
+/**
+ * A change of basis between two settings of the same lattice, held exactly
+ * as an integer matrix M over a common denominator d, so that P = M/d. The
+ * rows of P give the new basis vectors in terms of the old ones:
+ * <pre>
+ *   a'_i = sum_j P_ij a_j
+ * </pre>
+ * so that the metric tensor transforms as G' = P.G.P^T, Miller indices as
+ * h' = P.h and fractional coordinates as x' = (P^-1)^T.x. The inverse is
+ * computed exactly on construction, and compositions of transformations
+ * are cached so that chains of common settings changes are only multiplied
+ * out once.
+ * <br>
+ * Transformations are also {@link CellOperation}s, so they can be fused
+ * with other operations in a {@link CellPipeline}.
+ *
+ * @author Michael Wharmby
+ *
+ */
+public final class CellTransformation implements CellOperation {
+
+	private static final Map<String, CellTransformation> NAMED = new LinkedHashMap<>();
+	private static final int MAX_CACHED_COMPOSITIONS = 4096;
+	private static final Map<Composite, CellTransformation> COMPOSITIONS = new ConcurrentHashMap<>();
+
+	public static final CellTransformation IDENTITY = register("identity", 1, 1, 0, 0, 0, 1, 0, 0, 0, 1);
+	/**
+	 * A-centred to primitive: a' = a, b' = (b-c)/2, c' = (b+c)/2.
+	 */
+	public static final CellTransformation A_TO_P = register("A->P", 2, 2, 0, 0, 0, 1, -1, 0, 1, 1);
+	/**
+	 * B-centred to primitive: a' = (a-c)/2, b' = b, c' = (a+c)/2.
+	 */
+	public static final CellTransformation B_TO_P = register("B->P", 2, 1, 0, -1, 0, 2, 0, 1, 0, 1);
+	/**
+	 * C-centred to primitive: a' = (a-b)/2, b' = (a+b)/2, c' = c.
+	 */
+	public static final CellTransformation C_TO_P = register("C->P", 2, 1, -1, 0, 1, 1, 0, 0, 0, 2);
+	/**
+	 * Body-centred to primitive: a' = (-a+b+c)/2, b' = (a-b+c)/2,
+	 * c' = (a+b-c)/2.
+	 */
+	public static final CellTransformation I_TO_P = register("I->P", 2, -1, 1, 1, 1, -1, 1, 1, 1, -1);
+	/**
+	 * Face-centred to primitive: a' = (b+c)/2, b' = (a+c)/2, c' = (a+b)/2.
+	 */
+	public static final CellTransformation F_TO_P = register("F->P", 2, 0, 1, 1, 1, 0, 1, 1, 1, 0);
+	/**
+	 * Rhombohedral lattice from its obverse hexagonal setting:
+	 * a' = (2a+b+c)/3, b' = (-a+b+c)/3, c' = (-a-2b+c)/3.
+	 */
+	public static final CellTransformation HEXAGONAL_TO_RHOMBOHEDRAL = register("H->R", 3, 2, 1, 1, -1, 1, 1, -1, -2, 1);
+
+	static {
+		register("P->A", A_TO_P.inverse);
+		register("P->B", B_TO_P.inverse);
+		register("P->C", C_TO_P.inverse);
+		register("P->I", I_TO_P.inverse);
+		register("P->F", F_TO_P.inverse);
+		register("R->H", HEXAGONAL_TO_RHOMBOHEDRAL.inverse);
+	}
+
+	private final int[] numerator;
+	private final int denominator;
+	private final double[] p, q;
+	private final CellTransformation inverse;
+
+	/**
+	 * Construct a transformation P = M/d.
+	 *
+	 * @param denominator int d, greater than zero
+	 * @param numerator int[9] M, row-major
+	 * @throws IllegalArgumentException if P is singular or inverts the
+	 *         handedness of the axes
+	 */
+	public CellTransformation(int denominator, int... numerator) {
+		if (numerator.length != 9) {
+			throw new IllegalArgumentException("Transformation matrix must have 9 elements");
+		}
+		if (denominator <= 0) {
+			throw new IllegalArgumentException("Denominator must be positive (is "+denominator+")");
+		}
+		int[] m = numerator.clone();
+		int d = reduce(m, denominator);
+		long det = determinant(m);
+		if (det <= 0) {
+			throw new IllegalArgumentException("Transformation must have a positive determinant");
+		}
+		this.numerator = m;
+		this.denominator = d;
+		this.p = toDouble(m, d);
+
+		//(M/d)^-1 = d.adj(M)/det(M)
+		int[] adj = adjugate(m);
+		long[] scaled = new long[9];
+		for (int i = 0; i < 9; i++) {
+			scaled[i] = (long)adj[i] * d;
+		}
+		long invDenominator = det;
+		long gcd = invDenominator;
+		for (long v : scaled) gcd = gcd(gcd, Math.abs(v));
+		int[] invNumerator = new int[9];
+		for (int i = 0; i < 9; i++) {
+			invNumerator[i] = Math.toIntExact(scaled[i] / gcd);
+		}
+		this.inverse = new CellTransformation(invNumerator, Math.toIntExact(invDenominator / gcd), this);
+		this.q = inverse.p;
+	}
+
+	/*
+	 * Construct the inverse of an existing transformation.
+	 */
+	private CellTransformation(int[] numerator, int denominator, CellTransformation inverse) {
+		this.numerator = numerator;
+		this.denominator = denominator;
+		this.p = toDouble(numerator, denominator);
+		this.q = inverse.p;
+		this.inverse = inverse;
+	}
+
+	/**
+	 * Return the cyclic permutation of axes which moves the unique axis of a
+	 * monoclinic cell, consistent with
+	 * {@link CellOperations#permuteAxes(PrincipleAxis, PrincipleAxis)}.
+	 *
+	 * @param from {@link PrincipleAxis} A, B or C
+	 * @param to {@link PrincipleAxis} A, B or C
+	 * @return {@link CellTransformation}
+	 */
+	public static CellTransformation uniqueAxis(PrincipleAxis from, PrincipleAxis to) {
+		if (from == PrincipleAxis.NONE || to == PrincipleAxis.NONE) {
+			throw new IllegalArgumentException("Axes must be A, B or C");
+		}
+		int shift = Math.floorMod(to.ordinal() - from.ordinal(), 3);
+		int[] m = new int[9];
+		for (int i = 0; i < 3; i++) {
+			m[3 * i + Math.floorMod(i - shift, 3)] = 1;
+		}
+		return new CellTransformation(1, m);
+	}
+
+	/**
+	 * Return one of the named standard transformations, e.g. "C->P",
+	 * "P->I" or "H->R".
+	 *
+	 * @param name String
+	 * @return {@link CellTransformation}
+	 * @throws IllegalArgumentException if the name is unknown
+	 */
+	public static CellTransformation get(String name) {
+		CellTransformation transform = NAMED.get(name);
+		if (transform == null) {
+			throw new IllegalArgumentException("Unknown transformation "+name);
+		}
+		return transform;
+	}
+
+	/**
+	 * Return the named standard transformations.
+	 * @return unmodifiable Map of name to {@link CellTransformation}
+	 */
+	public static Map<String, CellTransformation> getNamedTransformations() {
+		return Collections.unmodifiableMap(NAMED);
+	}
+
+	private static CellTransformation register(String name, int denominator, int... numerator) {
+		return register(name, new CellTransformation(denominator, numerator));
+	}
+
+	private static CellTransformation register(String name, CellTransformation transform) {
+		NAMED.put(name, transform);
+		return transform;
+	}
+
+	public CellTransformation getInverse() {
+		return inverse;
+	}
+
+	/**
+	 * Return the transformation which applies this and then next. Results
+	 * are cached.
+	 *
+	 * @param next {@link CellTransformation} to apply second
+	 * @return {@link CellTransformation}
+	 */
+	public CellTransformation then(CellTransformation next) {
+		Composite key = new Composite(this, next);
+		CellTransformation composed = COMPOSITIONS.get(key);
+		if (composed == null) {
+			//a'' = P2.a' = P2.P1.a
+			long[] product = new long[9];
+			for (int i = 0; i < 3; i++) {
+				for (int j = 0; j < 3; j++) {
+					long sum = 0;
+					for (int k = 0; k < 3; k++) {
+						sum += (long)next.numerator[3 * i + k] * numerator[3 * k + j];
+					}
+					product[3 * i + j] = sum;
+				}
+			}
+			long d = (long)denominator * next.denominator;
+			long gcd = d;
+			for (long v : product) gcd = gcd(gcd, Math.abs(v));
+			int[] m = new int[9];
+			for (int i = 0; i < 9; i++) {
+				m[i] = Math.toIntExact(product[i] / gcd);
+			}
+			composed = new CellTransformation(Math.toIntExact(d / gcd), m);
+			if (COMPOSITIONS.size() >= MAX_CACHED_COMPOSITIONS) {
+				COMPOSITIONS.clear();
+			}
+			COMPOSITIONS.put(key, composed);
+		}
+		return composed;
+	}
+
+	/**
+	 * Return the change in cell volume, V'/V = det(P).
+	 * @return double
+	 */
+	public double getVolumeRatio() {
+		return (double)determinant(numerator) / ((long)denominator * denominator * denominator);
+	}
+
+	/**
+	 * Return the integer numerator M of P = M/d.
+	 * @return int[9] row-major
+	 */
+	public int[] getNumerator() {
+		return numerator.clone();
+	}
+
+	public int getDenominator() {
+		return denominator;
+	}
+
+	/**
+	 * Copy P into an array.
+	 * @param dest double[9] row-major
+	 */
+	public void copyMatrix(double[] dest) {
+		System.arraycopy(p, 0, dest, 0, 9);
+	}
+
+	/**
+	 * Transform a lattice into the new setting.
+	 * @param lattice {@link Lattice}
+	 * @return {@link Lattice}
+	 */
+	public Lattice transform(Lattice lattice) {
+		double[] cell = {lattice.getA(), lattice.getB(), lattice.getC(),
+				lattice.getAl(), lattice.getBe(), lattice.getGa()};
+		apply(cell, null);
+		return new Lattice(cell[0], cell[1], cell[2], cell[3], cell[4], cell[5]);
+	}
+
+	/**
+	 * Transform lattice parameters in place through G' = P.G.P^T. The
+	 * workspace is not used and may be null. Columns of cells are best
+	 * transformed by passing this to a {@link CellPipeline}.
+	 *
+	 * @param cell double[6] a, b, c, alpha, beta, gamma
+	 * @param workspace {@link CellWorkspace} (unused)
+	 */
+	@Override
+	public void apply(double[] cell, CellWorkspace workspace) {
+		double a = cell[0], b = cell[1], c = cell[2];
+		double ab = a * b * Math.cos(Math.toRadians(cell[5]));
+		double ac = a * c * Math.cos(Math.toRadians(cell[4]));
+		double bc = b * c * Math.cos(Math.toRadians(cell[3]));
+		double g00 = a * a, g11 = b * b, g22 = c * c;
+		//Rows of P.G
+		double[] p = this.p;
+		double r00 = p[0] * g00 + p[1] * ab + p[2] * ac;
+		double r01 = p[0] * ab + p[1] * g11 + p[2] * bc;
+		double r02 = p[0] * ac + p[1] * bc + p[2] * g22;
+		double r10 = p[3] * g00 + p[4] * ab + p[5] * ac;
+		double r11 = p[3] * ab + p[4] * g11 + p[5] * bc;
+		double r12 = p[3] * ac + p[4] * bc + p[5] * g22;
+		double r20 = p[6] * g00 + p[7] * ab + p[8] * ac;
+		double r21 = p[6] * ab + p[7] * g11 + p[8] * bc;
+		double r22 = p[6] * ac + p[7] * bc + p[8] * g22;
+		//(P.G).P^T, only the unique elements
+		double h00 = r00 * p[0] + r01 * p[1] + r02 * p[2];
+		double h11 = r10 * p[3] + r11 * p[4] + r12 * p[5];
+		double h22 = r20 * p[6] + r21 * p[7] + r22 * p[8];
+		double h01 = r00 * p[3] + r01 * p[4] + r02 * p[5];
+		double h02 = r00 * p[6] + r01 * p[7] + r02 * p[8];
+		double h12 = r10 * p[6] + r11 * p[7] + r12 * p[8];
+		cell[0] = Math.sqrt(h00);
+		cell[1] = Math.sqrt(h11);
+		cell[2] = Math.sqrt(h22);
+		cell[3] = Math.toDegrees(Math.acos(h12 / (cell[1] * cell[2])));
+		cell[4] = Math.toDegrees(Math.acos(h02 / (cell[0] * cell[2])));
+		cell[5] = Math.toDegrees(Math.acos(h01 / (cell[0] * cell[1])));
+	}
+
+	/**
+	 * Transform many fractional coordinates into the new setting,
+	 * x' = (P^-1)^T.x. Coordinates are packed as x,y,z triples; the input
+	 * and output arrays may be the same array.
+	 *
+	 * @param fracCoords double[] packed fractional coordinates
+	 * @param dest double[] to receive packed transformed coordinates
+	 */
+	public void transformCoordinates(double[] fracCoords, double[] dest) {
+		double[] q = this.q;
+		for (int i = 0; i + 2 < fracCoords.length; i += 3) {
+			double x = fracCoords[i], y = fracCoords[i + 1], z = fracCoords[i + 2];
+			dest[i]     = q[0] * x + q[3] * y + q[6] * z;
+			dest[i + 1] = q[1] * x + q[4] * y + q[7] * z;
+			dest[i + 2] = q[2] * x + q[5] * y + q[8] * z;
+		}
+	}
+
+	/**
+	 * Transform many Miller indices into the new setting, h' = P.h, exactly.
+	 * Reflections which have no integral index in the new setting (e.g.
+	 * those absent because of the lattice centring when going from a
+	 * centred to a primitive cell) are counted and their indices in dest
+	 * are left unchanged. Indices are packed as h,k,l triples; the input
+	 * and output arrays may be the same array.
+	 *
+	 * @param hkl int[] packed indices
+	 * @param dest int[] to receive packed transformed indices
+	 * @return int number of reflections with non-integral indices
+	 */
+	public int transformIndices(int[] hkl, int[] dest) {
+		int[] m = numerator;
+		int d = denominator, nonIntegral = 0;
+		for (int i = 0; i + 2 < hkl.length; i += 3) {
+			int h = hkl[i], k = hkl[i + 1], l = hkl[i + 2];
+			int hn = m[0] * h + m[1] * k + m[2] * l;
+			int kn = m[3] * h + m[4] * k + m[5] * l;
+			int ln = m[6] * h + m[7] * k + m[8] * l;
+			if (hn % d != 0 || kn % d != 0 || ln % d != 0) {
+				nonIntegral++;
+				continue;
+			}
+			dest[i] = hn / d;
+			dest[i + 1] = kn / d;
+			dest[i + 2] = ln / d;
+		}
+		return nonIntegral;
+	}
+
+	/**
+	 * Transform a Miller index into the new setting.
+	 * @param hkl {@link MillerIndex}
+	 * @return {@link MillerIndex}
+	 * @throws IllegalArgumentException if the reflection has no integral
+	 *         index in the new setting
+	 */
+	public MillerIndex transform(MillerIndex hkl) {
+		int[] idx = {(int)hkl.getX(), (int)hkl.getY(), (int)hkl.getZ()};
+		if (transformIndices(idx, idx) != 0) {
+			throw new IllegalArgumentException("Reflection "+hkl+" has no integral index in the new setting");
+		}
+		return new MillerIndex(idx[0], idx[1], idx[2]);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("(");
+		for (int i = 0; i < 9; i++) {
+			if (i > 0) sb.append(i % 3 == 0 ? "; " : ", ");
+			sb.append(numerator[i]);
+		}
+		sb.append(")");
+		if (denominator != 1) sb.append("/").append(denominator);
+		return sb.toString();
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + denominator;
+		result = prime * result + Arrays.hashCode(numerator);
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		CellTransformation other = (CellTransformation) obj;
+		if (denominator != other.denominator)
+			return false;
+		if (!Arrays.equals(numerator, other.numerator))
+			return false;
+		return true;
+	}
+
+	private static int reduce(int[] m, int d) {
+		int gcd = d;
+		for (int v : m) gcd = (int)gcd(gcd, Math.abs(v));
+		for (int i = 0; i < 9; i++) {
+			m[i] /= gcd;
+		}
+		return d / gcd;
+	}
+
+	private static long gcd(long a, long b) {
+		while (b != 0) {
+			long t = a % b;
+			a = b;
+			b = t;
+		}
+		return a;
+	}
+
+	private static long determinant(int[] m) {
+		return (long)m[0] * ((long)m[4] * m[8] - (long)m[5] * m[7])
+				- (long)m[1] * ((long)m[3] * m[8] - (long)m[5] * m[6])
+				+ (long)m[2] * ((long)m[3] * m[7] - (long)m[4] * m[6]);
+	}
+
+	private static int[] adjugate(int[] m) {
+		return new int[]{
+				m[4] * m[8] - m[5] * m[7], m[2] * m[7] - m[1] * m[8], m[1] * m[5] - m[2] * m[4],
+				m[5] * m[6] - m[3] * m[8], m[0] * m[8] - m[2] * m[6], m[2] * m[3] - m[0] * m[5],
+				m[3] * m[7] - m[4] * m[6], m[1] * m[6] - m[0] * m[7], m[0] * m[4] - m[1] * m[3]};
+	}
+
+	private static double[] toDouble(int[] m, int d) {
+		double[] p = new double[9];
+		for (int i = 0; i < 9; i++) {
+			p[i] = (double)m[i] / d;
+		}
+		return p;
+	}
+
+	private static final class Composite {
+		private final CellTransformation first, second;
+
+		private Composite(CellTransformation first, CellTransformation second) {
+			this.first = first;
+			this.second = second;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * first.hashCode() + second.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Composite)) return false;
+			Composite other = (Composite) obj;
+			return first.equals(other.first) && second.equals(other.second);
+		}
+	}
+
+}
@@ -0,0 +1,447 @@
+package uk.co.norphos.crystallography.toolkit;
+
+import uk.co.norphos.crystallography.api.Lattice;
+
+/**
+ * A mutable, reusable container for all of the quantities derived from a set
+ * of lattice parameters (metric tensors, volume, reciprocal lattice and the
+ * orthogonalization/fractionalization matrices).
+ *
+ * Unlike {@link UnitCell}, which is rebuilt from scratch for every new
+ * {@link Lattice}, a CellWorkspace is intended to be created once and then
+ * updated every step of e.g. a variable-cell MD run or a Rietveld refinement.
+ * All quantities are recalculated in place from closed-form expressions, so
+ * calls to update and to the calculation methods do not allocate.
+ *
+ * Matrices are stored as row-major double[9] arrays. The orthogonalization
+ * matrix follows the same convention as {@link UnitCell} (a parallel to x, b
+ * in the xy-plane). Angles passed to update methods are in degrees;
+ * derivatives with respect to angles are per radian.
+ *
+ * Instances are not thread-safe; use one workspace per thread.
+ *
+ * @author Michael Wharmby
+ *
+ */
+public class CellWorkspace {
+
+	/*
+	 * Indices of the six lattice parameters, used to select derivatives.
+	 */
+	public static final int A = 0, B = 1, C = 2, ALPHA = 3, BETA = 4, GAMMA = 5;
+
+	private double a, b, c, al, be, ga;
+	private double cosAl, cosBe, cosGa, sinAl, sinBe, sinGa;
+	private double volume;
+	private double aStar, bStar, cStar, cosAlStar, cosBeStar, cosGaStar;
+
+	private final double[] metricTensor = new double[9];
+	private final double[] reciprocalMetricTensor = new double[9];
+	private final double[] orthoMatrix = new double[9];
+	private final double[] fracMatrix = new double[9];
+
+	//Scratch space for the reciprocal metric tensor derivatives
+	private final double[] scratchDeriv = new double[9];
+	private final double[] scratchProd = new double[9];
+
+	/**
+	 * Construct a workspace initialised with the given {@link Lattice}.
+	 * @param lattice {@link Lattice} real-space lattice
+	 */
+	public CellWorkspace(Lattice lattice) {
+		update(lattice);
+	}
+
+	/**
+	 * Construct a workspace initialised with the given lattice parameters.
+	 *
+	 * @param a double in Angstroms
+	 * @param b double in Angstroms
+	 * @param c double in Angstroms
+	 * @param al double in degrees
+	 * @param be double in degrees
+	 * @param ga double in degrees
+	 */
+	public CellWorkspace(double a, double b, double c, double al, double be, double ga) {
+		update(a, b, c, al, be, ga);
+	}
+
+	/**
+	 * Recalculate all derived quantities for a new {@link Lattice}.
+	 * @param lattice {@link Lattice} real-space lattice
+	 */
+	public void update(Lattice lattice) {
+		update(lattice.getA(), lattice.getB(), lattice.getC(),
+				lattice.getAl(), lattice.getBe(), lattice.getGa());
+	}
+
+	/**
+	 * Recalculate all derived quantities for a new set of lattice parameters.
+	 * No objects are allocated.
+	 *
+	 * @param a double in Angstroms
+	 * @param b double in Angstroms
+	 * @param c double in Angstroms
+	 * @param al double in degrees
+	 * @param be double in degrees
+	 * @param ga double in degrees
+	 */
+	public void update(double a, double b, double c, double al, double be, double ga) {
+		this.a = a;
+		this.b = b;
+		this.c = c;
+		this.al = al;
+		this.be = be;
+		this.ga = ga;
+
+		double alR = Math.toRadians(al), beR = Math.toRadians(be), gaR = Math.toRadians(ga);
+		cosAl = Math.cos(alR);
+		cosBe = Math.cos(beR);
+		cosGa = Math.cos(gaR);
+		sinAl = Math.sin(alR);
+		sinBe = Math.sin(beR);
+		sinGa = Math.sin(gaR);
+
+		//Real-space metric tensor
+		double g01 = offAxis(a * b * cosGa);
+		double g02 = offAxis(a * c * cosBe);
+		double g12 = offAxis(b * c * cosAl);
+		setSymmetric(metricTensor, a * a, b * b, c * c, g01, g02, g12);
+
+		volume = a * b * c * Math.sqrt(1 - cosAl * cosAl - cosBe * cosBe - cosGa * cosGa
+				+ 2 * cosAl * cosBe * cosGa);
+
+		//Reciprocal lattice parameters, from the standard closed-form relations
+		aStar = b * c * sinAl / volume;
+		bStar = a * c * sinBe / volume;
+		cStar = a * b * sinGa / volume;
+		cosAlStar = (cosBe * cosGa - cosAl) / (sinBe * sinGa);
+		cosBeStar = (cosAl * cosGa - cosBe) / (sinAl * sinGa);
+		cosGaStar = (cosAl * cosBe - cosGa) / (sinAl * sinBe);
+		setSymmetric(reciprocalMetricTensor, aStar * aStar, bStar * bStar, cStar * cStar,
+				aStar * bStar * cosGaStar, aStar * cStar * cosBeStar, bStar * cStar * cosAlStar);
+
+		//Orthogonalization matrix is upper triangular, so its inverse is too
+		double m00 = a, m01 = b * cosGa, m02 = c * cosBe;
+		double m11 = b * sinGa, m12 = -c * sinBe * cosAlStar;
+		double m22 = 1 / cStar;
+		orthoMatrix[0] = m00; orthoMatrix[1] = m01; orthoMatrix[2] = m02;
+		orthoMatrix[3] = 0;   orthoMatrix[4] = m11; orthoMatrix[5] = m12;
+		orthoMatrix[6] = 0;   orthoMatrix[7] = 0;   orthoMatrix[8] = m22;
+
+		fracMatrix[0] = 1 / m00;
+		fracMatrix[1] = -m01 / (m00 * m11);
+		fracMatrix[2] = (m01 * m12 - m02 * m11) / (m00 * m11 * m22);
+		fracMatrix[3] = 0;
+		fracMatrix[4] = 1 / m11;
+		fracMatrix[5] = -m12 / (m11 * m22);
+		fracMatrix[6] = 0;
+		fracMatrix[7] = 0;
+		fracMatrix[8] = 1 / m22;
+	}
+
+	private static double offAxis(double value) {
+		//Same clean-up as UnitCell applies to the off-diagonal terms
+		if (Math.abs(value) < 1e-10) return 0.0;
+		return value;
+	}
+
+	private static void setSymmetric(double[] mat, double p00, double p11, double p22, double p01, double p02, double p12) {
+		mat[0] = p00; mat[1] = p01; mat[2] = p02;
+		mat[3] = p01; mat[4] = p11; mat[5] = p12;
+		mat[6] = p02; mat[7] = p12; mat[8] = p22;
+	}
+
+	/**
+	 * Write the derivative of the real-space metric tensor with respect to
+	 * one of the six lattice parameters into the given array. Derivatives
+	 * with respect to angles are per radian.
+	 *
+	 * @param parameter int one of {@link #A}, {@link #B}, {@link #C},
+	 *        {@link #ALPHA}, {@link #BETA} or {@link #GAMMA}
+	 * @param dest double[9] to hold row-major dG/dp
+	 */
+	public void getMetricTensorDerivative(int parameter, double[] dest) {
+		switch (parameter) {
+		case A:
+			setSymmetric(dest, 2 * a, 0, 0, b * cosGa, c * cosBe, 0);
+			break;
+		case B:
+			setSymmetric(dest, 0, 2 * b, 0, a * cosGa, 0, c * cosAl);
+			break;
+		case C:
+			setSymmetric(dest, 0, 0, 2 * c, 0, a * cosBe, b * cosAl);
+			break;
+		case ALPHA:
+			setSymmetric(dest, 0, 0, 0, 0, 0, -b * c * sinAl);
+			break;
+		case BETA:
+			setSymmetric(dest, 0, 0, 0, 0, -a * c * sinBe, 0);
+			break;
+		case GAMMA:
+			setSymmetric(dest, 0, 0, 0, -a * b * sinGa, 0, 0);
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown lattice parameter index "+parameter);
+		}
+	}
+
+	/**
+	 * Write the derivative of the reciprocal-space metric tensor with respect
+	 * to one of the six (real-space) lattice parameters into the given array.
+	 * Calculated as dG* /dp = -G* (dG/dp) G*.
+	 *
+	 * @param parameter int one of {@link #A}, {@link #B}, {@link #C},
+	 *        {@link #ALPHA}, {@link #BETA} or {@link #GAMMA}
+	 * @param dest double[9] to hold row-major dG* /dp
+	 */
+	public void getReciprocalMetricTensorDerivative(int parameter, double[] dest) {
+		getMetricTensorDerivative(parameter, scratchDeriv);
+		multiply(reciprocalMetricTensor, scratchDeriv, scratchProd);
+		multiply(scratchProd, reciprocalMetricTensor, dest);
+		for (int i = 0; i < 9; i++) {
+			dest[i] = -dest[i];
+		}
+	}
+
+	private static void multiply(double[] left, double[] right, double[] dest) {
+		for (int i = 0; i < 3; i++) {
+			for (int j = 0; j < 3; j++) {
+				dest[3 * i + j] = left[3 * i] * right[j] + left[3 * i + 1] * right[3 + j]
+						+ left[3 * i + 2] * right[6 + j];
+			}
+		}
+	}
+
+	/**
+	 * Derivative of the cell volume with respect to one of the six lattice
+	 * parameters. Derivatives with respect to angles are per radian.
+	 *
+	 * @param parameter int lattice parameter index
+	 * @return double dV/dp
+	 */
+	public double getVolumeDerivative(int parameter) {
+		switch (parameter) {
+		case A:
+			return volume / a;
+		case B:
+			return volume / b;
+		case C:
+			return volume / c;
+		case ALPHA:
+			return volumeAngleDerivative(sinAl, cosAl, cosBe, cosGa);
+		case BETA:
+			return volumeAngleDerivative(sinBe, cosBe, cosAl, cosGa);
+		case GAMMA:
+			return volumeAngleDerivative(sinGa, cosGa, cosAl, cosBe);
+		default:
+			throw new IllegalArgumentException("Unknown lattice parameter index "+parameter);
+		}
+	}
+
+	private double volumeAngleDerivative(double sinX, double cosX, double cosY, double cosZ) {
+		//V = abc.sqrt(D); dV/dx = (abc)^2 . sin(x) . (cos(x) - cos(y)cos(z)) / V
+		double abc = a * b * c;
+		return abc * abc * sinX * (cosX - cosY * cosZ) / volume;
+	}
+
+	/**
+	 * Calculate the length of a vector specified in fractional coordinates.
+	 *
+	 * @param x double fractional coordinate
+	 * @param y double fractional coordinate
+	 * @param z double fractional coordinate
+	 * @return double length in Angstroms
+	 */
+	public double calculateLength(double x, double y, double z) {
+		return Math.sqrt(quadraticForm(metricTensor, x, y, z));
+	}
+
+	/**
+	 * Calculate the distance between two sites specified in fractional
+	 * coordinates.
+	 *
+	 * @return double distance in Angstroms
+	 */
+	public double calculateDistance(double x1, double y1, double z1, double x2, double y2, double z2) {
+		return calculateLength(x2 - x1, y2 - y1, z2 - z1);
+	}
+
+	/**
+	 * Calculate the d-spacing of the lattice planes with the given indices.
+	 *
+	 * @param h double Miller index
+	 * @param k double Miller index
+	 * @param l double Miller index
+	 * @return double d-spacing in Angstroms
+	 */
+	public double calculateDSpacing(double h, double k, double l) {
+		return 1 / Math.sqrt(quadraticForm(reciprocalMetricTensor, h, k, l));
+	}
+
+	private static double quadraticForm(double[] g, double x, double y, double z) {
+		return g[0] * x * x + g[4] * y * y + g[8] * z * z
+				+ 2 * (g[1] * x * y + g[2] * x * z + g[5] * y * z);
+	}
+
+	/**
+	 * Convert fractional coordinates to Cartesian coordinates. Input and
+	 * output arrays hold packed x,y,z triples and may be the same array.
+	 *
+	 * @param frac double[] packed fractional coordinates
+	 * @param cart double[] to receive packed Cartesian coordinates
+	 */
+	public void orthogonalize(double[] frac, double[] cart) {
+		transform(orthoMatrix, frac, cart);
+	}
+
+	/**
+	 * Convert Cartesian coordinates to fractional coordinates. Input and
+	 * output arrays hold packed x,y,z triples and may be the same array.
+	 *
+	 * @param cart double[] packed Cartesian coordinates
+	 * @param frac double[] to receive packed fractional coordinates
+	 */
+	public void fractionalize(double[] cart, double[] frac) {
+		transform(fracMatrix, cart, frac);
+	}
+
+	private static void transform(double[] m, double[] in, double[] out) {
+		for (int i = 0; i + 2 < in.length; i += 3) {
+			double x = in[i], y = in[i + 1], z = in[i + 2];
+			out[i]     = m[0] * x + m[1] * y + m[2] * z;
+			out[i + 1] = m[3] * x + m[4] * y + m[5] * z;
+			out[i + 2] = m[6] * x + m[7] * y + m[8] * z;
+		}
+	}
+
+	/**
+	 * Create an immutable {@link UnitCell} from the current state of this
+	 * workspace. Note: this allocates.
+	 * @return {@link UnitCell}
+	 */
+	public UnitCell toUnitCell() {
+		return new UnitCell(new Lattice(a, b, c, al, be, ga));
+	}
+
+	public double getA() {
+		return a;
+	}
+
+	public double getB() {
+		return b;
+	}
+
+	public double getC() {
+		return c;
+	}
+
+	public double getAlpha() {
+		return al;
+	}
+
+	public double getBeta() {
+		return be;
+	}
+
+	public double getGamma() {
+		return ga;
+	}
+
+	public double getAStar() {
+		return aStar;
+	}
+
+	public double getBStar() {
+		return bStar;
+	}
+
+	public double getCStar() {
+		return cStar;
+	}
+
+	/**
+	 * Return the reciprocal lattice alpha* parameter
+	 * @return double in degrees
+	 */
+	public double getAlphaStar() {
+		return Math.toDegrees(Math.acos(cosAlStar));
+	}
+
+	/**
+	 * Return the reciprocal lattice beta* parameter
+	 * @return double in degrees
+	 */
+	public double getBetaStar() {
+		return Math.toDegrees(Math.acos(cosBeStar));
+	}
+
+	/**
+	 * Return the reciprocal lattice gamma* parameter
+	 * @return double in degrees
+	 */
+	public double getGammaStar() {
+		return Math.toDegrees(Math.acos(cosGaStar));
+	}
+
+	/**
+	 * Return the volume of the unit cell.
+	 * @return double volume in Angstrom^3
+	 */
+	public double getVolume() {
+		return volume;
+	}
+
+	/**
+	 * Return one element of the real-space metric tensor.
+	 * @param row int
+	 * @param col int
+	 * @return double G[row][col]
+	 */
+	public double getMetricTensor(int row, int col) {
+		return metricTensor[3 * row + col];
+	}
+
+	/**
+	 * Return one element of the reciprocal-space metric tensor.
+	 * @param row int
+	 * @param col int
+	 * @return double G*[row][col]
+	 */
+	public double getReciprocalMetricTensor(int row, int col) {
+		return reciprocalMetricTensor[3 * row + col];
+	}
+
+	/**
+	 * Copy the real-space metric tensor into the given array.
+	 * @param dest double[9] row-major
+	 */
+	public void copyMetricTensor(double[] dest) {
+		System.arraycopy(metricTensor, 0, dest, 0, 9);
+	}
+
+	/**
+	 * Copy the reciprocal-space metric tensor into the given array.
+	 * @param dest double[9] row-major
+	 */
+	public void copyReciprocalMetricTensor(double[] dest) {
+		System.arraycopy(reciprocalMetricTensor, 0, dest, 0, 9);
+	}
+
+	/**
+	 * Copy the orthogonalization matrix into the given array.
+	 * @param dest double[9] row-major
+	 */
+	public void copyOrthogonalizationMatrix(double[] dest) {
+		System.arraycopy(orthoMatrix, 0, dest, 0, 9);
+	}
+
+	/**
+	 * Copy the fractionalization matrix into the given array.
+	 * @param dest double[9] row-major
+	 */
+	public void copyFractionalizationMatrix(double[] dest) {
+		System.arraycopy(fracMatrix, 0, dest, 0, 9);
+	}
+
+}
@@ -0,0 +1,117 @@
+package uk.co.norphos.crystallography.toolkit;
+
+import uk.co.norphos.crystallography.api.UncertainLattice;
+
+/**
+ * Parses CIF numeric values, which may carry a standard uncertainty (s.u.)
+ * in parentheses in units of the last digit, e.g. 7.19196(2) is
+ * 7.19196 +/- 0.00002 and 1.25E-3(12) is 0.00125 +/- 0.00012. The CIF
+ * placeholders "?" (unknown) and "." (inapplicable) are read as NaN. This is
+ * the counterpart of {@link CifWriter#writeItemWithSu(String, double, double)}.
+ *
+ * @author Michael Wharmby
+ *
+ */
+public final class CifNumbers {
+
+	private CifNumbers() {
+		//Static methods only
+	}
+
+	/**
+	 * Parse the value of a CIF number, ignoring any s.u.
+	 *
+	 * @param text CharSequence e.g. "7.19196(2)"
+	 * @return double value, or NaN for "?" or "."
+	 * @throws NumberFormatException if the text is not a CIF number
+	 */
+	public static double parseValue(CharSequence text) {
+		if (isPlaceholder(text)) return Double.NaN;
+		int end = text.length();
+		int open = indexOf(text, '(');
+		if (open >= 0) {
+			if (text.charAt(end - 1) != ')') {
+				throw new NumberFormatException("Unterminated s.u. in "+text);
+			}
+			end = open;
+		}
+		return Double.parseDouble(text.subSequence(0, end).toString());
+	}
+
+	/**
+	 * Parse the standard uncertainty of a CIF number.
+	 *
+	 * @param text CharSequence e.g. "7.19196(2)"
+	 * @return double s.u., 0 if none is given, or NaN for "?" or "."
+	 * @throws NumberFormatException if the text is not a CIF number
+	 */
+	public static double parseSu(CharSequence text) {
+		if (isPlaceholder(text)) return Double.NaN;
+		int open = indexOf(text, '(');
+		if (open < 0) return 0;
+		int close = text.length() - 1;
+		if (close <= open + 1 || text.charAt(close) != ')') {
+			throw new NumberFormatException("Malformed s.u. in "+text);
+		}
+		long digits = 0;
+		for (int i = open + 1; i < close; i++) {
+			char ch = text.charAt(i);
+			if (ch < '0' || ch > '9') {
+				throw new NumberFormatException("Malformed s.u. in "+text);
+			}
+			digits = 10 * digits + (ch - '0');
+		}
+
+		//Scale is that of the last digit of the mantissa
+		int decimals = 0, exponent = 0, i = 0;
+		boolean inFraction = false;
+		for (; i < open; i++) {
+			char ch = text.charAt(i);
+			if (ch == '.') {
+				inFraction = true;
+			} else if (ch == 'e' || ch == 'E') {
+				exponent = Integer.parseInt(text.subSequence(i + 1, open).toString());
+				break;
+			} else if (inFraction) {
+				decimals++;
+			}
+		}
+		return digits * Math.pow(10, exponent - decimals);
+	}
+
+	/**
+	 * Build an {@link UncertainLattice} from the six CIF _cell_length_* and
+	 * _cell_angle_* values.
+	 *
+	 * @param a String e.g. "7.19196(2)"
+	 * @param b String
+	 * @param c String
+	 * @param al String
+	 * @param be String
+	 * @param ga String
+	 * @return {@link UncertainLattice}
+	 * @throws NumberFormatException if any value is not a CIF number
+	 */
+	public static UncertainLattice parseLattice(String a, String b, String c, String al, String be, String ga) {
+		return new UncertainLattice(parseValue(a), parseValue(b), parseValue(c),
+				parseValue(al), parseValue(be), parseValue(ga),
+				suOrZero(a), suOrZero(b), suOrZero(c), suOrZero(al), suOrZero(be), suOrZero(ga));
+	}
+
+	private static double suOrZero(String text) {
+		double su = parseSu(text);
+		return Double.isNaN(su) ? 0 : su;
+	}
+
+	private static boolean isPlaceholder(CharSequence text) {
+		return text.length() == 1 && (text.charAt(0) == '?' || text.charAt(0) == '.');
+	}
+
+	private static int indexOf(CharSequence text, char ch) {
+		for (int i = 0; i < text.length(); i++) {
+			if (text.charAt(i) == ch) return i;
+		}
+		return -1;
+	}
+
+}
@@ -0,0 +1,422 @@
+package uk.co.norphos.crystallography.toolkit;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+
+import uk.co.norphos.crystallography.api.Lattice;
+import uk.co.norphos.crystallography.api.Site;
+import uk.co.norphos.crystallography.api.UncertainLattice;
+
+/**
+ * Streams CIF data blocks to a {@link WritableByteChannel}. Output is
+ * assembled in a reusable buffer and numbers are formatted directly into
+ * it, so writing does not allocate per item; many structures may be
+ * written to one channel, each as its own data block.
+ *
+ * Numbers are written either with a fixed number of decimal places or
+ * with their standard uncertainty in the IUCr notation, e.g. 7.19196(2),
+ * with the s.u. given to two significant figures if they are 19 or less,
+ * otherwise to one.
+ *
+ * @author Michael Wharmby
+ *
+ */
+public class CifWriter implements Closeable, Flushable {
+
+	private static final int BUFFER_SIZE = 1 << 16;
+	//Longest single token formatted without checking for room
+	private static final int MAX_NUMBER_LENGTH = 64;
+	private static final int TAG_WIDTH = 34;
+	private static final long[] POWERS_OF_TEN = {1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L,
+			100000000L, 1000000000L, 10000000000L, 100000000000L, 1000000000000L, 10000000000000L,
+			100000000000000L, 1000000000000000L, 10000000000000000L, 100000000000000000L};
+	private static final int MAX_DECIMALS = 12;
+
+	public static final int LENGTH_DECIMALS = 5;
+	public static final int ANGLE_DECIMALS = 4;
+	public static final int VOLUME_DECIMALS = 3;
+	public static final int COORDINATE_DECIMALS = 5;
+
+	private final WritableByteChannel channel;
+	private final ByteBuffer buffer;
+
+	/**
+	 * Construct a writer on a channel. The channel is closed when this writer
+	 * is closed.
+	 * @param channel WritableByteChannel
+	 */
+	public CifWriter(WritableByteChannel channel) {
+		this.channel = channel;
+		buffer = ByteBuffer.allocate(BUFFER_SIZE);
+	}
+
+	/**
+	 * Write a complete data block for a crystal: its cell and its sites as
+	 * an atom site loop. Crystal holds no symmetry, so the structure is
+	 * written in P 1.
+	 *
+	 * @param blockName String data block name (without data_)
+	 * @param crystal {@link Crystal}
+	 * @throws IOException if the channel cannot be written
+	 */
+	public void writeCrystal(String blockName, Crystal crystal) throws IOException {
+		writeDataBlock(blockName);
+		writeUnitCell(crystal.getUnitCell());
+		writeItem("_symmetry_space_group_name_H-M", "P 1");
+		writeItem("_symmetry_Int_Tables_number", 1, 0);
+		newLine();
+
+		List<Site> sites = crystal.getSites();
+		writeLoopHeader("_atom_site_label", "_atom_site_type_symbol", "_atom_site_fract_x",
+				"_atom_site_fract_y", "_atom_site_fract_z", "_atom_site_occupancy");
+		for (Site site : sites) {
+			writeLoopValue(site.getLabel());
+			writeLoopValue(site.getElement());
+			writeLoopValue(site.getPosition().getX(), COORDINATE_DECIMALS);
+			writeLoopValue(site.getPosition().getY(), COORDINATE_DECIMALS);
+			writeLoopValue(site.getPosition().getZ(), COORDINATE_DECIMALS);
+			writeLoopValue(site.getOccupancy(), COORDINATE_DECIMALS);
+			newLine();
+		}
+		newLine();
+	}
+
+	/**
+	 * Write the start of a new data block.
+	 * @param blockName String data block name (without data_)
+	 * @throws IOException if the channel cannot be written
+	 */
+	public void writeDataBlock(String blockName) throws IOException {
+		putAscii("data_");
+		putAscii(blockName);
+		newLine();
+		newLine();
+	}
+
+	/**
+	 * Write the lattice parameters of a unit cell and its volume.
+	 * @param cell {@link UnitCell}
+	 * @throws IOException if the channel cannot be written
+	 */
+	public void writeUnitCell(UnitCell cell) throws IOException {
+		writeLattice(cell.getLattice());
+		writeItem("_cell_volume", cell.getVolume(), VOLUME_DECIMALS);
+	}
+
+	/**
+	 * Write lattice parameters, with their standard uncertainties if the
+	 * lattice is an {@link UncertainLattice}.
+	 * @param lattice {@link Lattice}
+	 * @throws IOException if the channel cannot be written
+	 */
+	public void writeLattice(Lattice lattice) throws IOException {
+		if (lattice instanceof UncertainLattice) {
+			writeLattice(lattice, ((UncertainLattice)lattice).getSus());
+			return;
+		}
+		writeItem("_cell_length_a", lattice.getA(), LENGTH_DECIMALS);
+		writeItem("_cell_length_b", lattice.getB(), LENGTH_DECIMALS);
+		writeItem("_cell_length_c", lattice.getC(), LENGTH_DECIMALS);
+		writeItem("_cell_angle_alpha", lattice.getAl(), ANGLE_DECIMALS);
+		writeItem("_cell_angle_beta", lattice.getBe(), ANGLE_DECIMALS);
+		writeItem("_cell_angle_gamma", lattice.getGa(), ANGLE_DECIMALS);
+	}
+
+	/**
+	 * Write lattice parameters with their standard uncertainties.
+	 * @param lattice {@link Lattice}
+	 * @param sus double[6] s.u.s of a, b, c, alpha, beta, gamma
+	 * @throws IOException if the channel cannot be written
+	 */
+	public void writeLattice(Lattice lattice, double[] sus) throws IOException {
+		writeItemWithSu("_cell_length_a", lattice.getA(), sus[0]);
+		writeItemWithSu("_cell_length_b", lattice.getB(), sus[1]);
+		writeItemWithSu("_cell_length_c", lattice.getC(), sus[2]);
+		writeItemWithSu("_cell_angle_alpha", lattice.getAl(), sus[3]);
+		writeItemWithSu("_cell_angle_beta", lattice.getBe(), sus[4]);
+		writeItemWithSu("_cell_angle_gamma", lattice.getGa(), sus[5]);
+	}
+
+	/**
+	 * Write an atom site loop directly from packed arrays.
+	 *
+	 * @param labels String[] site labels
+	 * @param types String[] element symbols
+	 * @param fracCoords double[] packed fractional x,y,z triples
+	 * @param occupancies double[] site occupancies, or null for fully
+	 *        occupied sites
+	 * @throws IOException if the channel cannot be written
+	 */
+	public void writeAtomSites(String[] labels, String[] types, double[] fracCoords, double[] occupancies) throws IOException {
+		writeLoopHeader("_atom_site_label", "_atom_site_type_symbol", "_atom_site_fract_x",
+				"_atom_site_fract_y", "_atom_site_fract_z", "_atom_site_occupancy");
+		for (int i = 0; i < labels.length; i++) {
+			writeLoopValue(labels[i]);
+			writeLoopValue(types[i]);
+			writeLoopValue(fracCoords[3 * i], COORDINATE_DECIMALS);
+			writeLoopValue(fracCoords[3 * i + 1], COORDINATE_DECIMALS);
+			writeLoopValue(fracCoords[3 * i + 2], COORDINATE_DECIMALS);
+			writeLoopValue(occupancies == null ? 1 : occupancies[i], COORDINATE_DECIMALS);
+			newLine();
+		}
+		newLine();
+	}
+
+	/**
+	 * Write the header of a loop.
+	 * @param tags String... data names of the loop columns
+	 * @throws IOException if the channel cannot be written
+	 */
+	public void writeLoopHeader(String... tags) throws IOException {
+		putAscii("loop_");
+		newLine();
+		for (String tag : tags) {
+			putAscii("   ");
+			putAscii(tag);
+			newLine();
+		}
+	}
+
+	/**
+	 * Write one value of a loop row. Call {@link #newLine()} to end the row.
+	 * @param value String, quoted if necessary
+	 * @throws IOException if the channel cannot be written
+	 */
+	public void writeLoopValue(String value) throws IOException {
+		ensure(1);
+		buffer.put((byte)' ');
+		putValue(value);
+	}
+
+	/**
+	 * Write one numeric value of a loop row.
+	 * @param value double
+	 * @param decimals int number of decimal places
+	 * @throws IOException if the channel cannot be written
+	 */
+	public void writeLoopValue(double value, int decimals) throws IOException {
+		ensure(MAX_NUMBER_LENGTH);
+		buffer.put((byte)' ');
+		putFixed(buffer, value, decimals);
+	}
+
+	/**
+	 * Write one numeric value of a loop row with its s.u.
+	 * @param value double
+	 * @param su double standard uncertainty (0 to write the value alone)
+	 * @throws IOException if the channel cannot be written
+	 */
+	public void writeLoopValueWithSu(double value, double su) throws IOException {
+		ensure(MAX_NUMBER_LENGTH);
+		buffer.put((byte)' ');
+		putWithSu(buffer, value, su);
+	}
+
+	public void writeItem(String tag, String value) throws IOException {
+		putTag(tag);
+		putValue(value);
+		newLine();
+	}
+
+	public void writeItem(String tag, double value, int decimals) throws IOException {
+		putTag(tag);
+		ensure(MAX_NUMBER_LENGTH);
+		putFixed(buffer, value, decimals);
+		newLine();
+	}
+
+	public void writeItemWithSu(String tag, double value, double su) throws IOException {
+		putTag(tag);
+		ensure(MAX_NUMBER_LENGTH);
+		putWithSu(buffer, value, su);
+		newLine();
+	}
+
+	public void newLine() throws IOException {
+		ensure(1);
+		buffer.put((byte)'\n');
+	}
+
+	private void putTag(String tag) throws IOException {
+		putAscii(tag);
+		int padding = Math.max(1, TAG_WIDTH - tag.length());
+		ensure(padding);
+		for (int i = 0; i < padding; i++) {
+			buffer.put((byte)' ');
+		}
+	}
+
+	private void putValue(String value) throws IOException {
+		if (!needsQuotes(value)) {
+			putAscii(value);
+			return;
+		}
+		byte quote = (byte)(value.indexOf('\'') >= 0 ? '"' : '\'');
+		ensure(1);
+		buffer.put(quote);
+		putAscii(value);
+		ensure(1);
+		buffer.put(quote);
+	}
+
+	private static boolean needsQuotes(String value) {
+		if (value.isEmpty()) return true;
+		char first = value.charAt(0);
+		if (first == '_' || first == '#' || first == '$' || first == '\'' || first == '"' || first == '['
+				|| first == ']' || first == ';') return true;
+		for (int i = 0; i < value.length(); i++) {
+			if (Character.isWhitespace(value.charAt(i))) return true;
+		}
+		return value.regionMatches(true, 0, "data_", 0, 5) || value.regionMatches(true, 0, "save_", 0, 5)
+				|| value.equalsIgnoreCase("loop_") || value.equalsIgnoreCase("global_")
+				|| value.equalsIgnoreCase("stop_") || value.equals(".") || value.equals("?");
+	}
+
+	private void putAscii(String text) throws IOException {
+		int length = text.length();
+		for (int start = 0; start < length; ) {
+			if (!buffer.hasRemaining()) flushBuffer();
+			int end = Math.min(length, start + buffer.remaining());
+			for (int i = start; i < end; i++) {
+				char ch = text.charAt(i);
+				buffer.put((byte)(ch < 128 ? ch : '?'));
+			}
+			start = end;
+		}
+	}
+
+	private void ensure(int bytes) throws IOException {
+		if (buffer.remaining() < bytes) flushBuffer();
+	}
+
+	private void flushBuffer() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Write any buffered output to the channel.
+	 */
+	@Override
+	public void flush() throws IOException {
+		flushBuffer();
+	}
+
+	/**
+	 * Flush buffered output and close the channel.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			flushBuffer();
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Format a number with a fixed number of decimal places, without
+	 * allocating. Values whose scaled magnitude does not fit in a long (or
+	 * which are not finite) are written with {@link Double#toString}. The
+	 * scaling is done in double, so the last digit may differ by one from
+	 * correct rounding once more than 15 significant figures are asked for.
+	 *
+	 * @param dest ByteBuffer with room for at least 64 bytes
+	 * @param value double
+	 * @param decimals int number of decimal places (0 to 12)
+	 */
+	static void putFixed(ByteBuffer dest, double value, int decimals) {
+		if (decimals < 0 || decimals > MAX_DECIMALS) {
+			throw new IllegalArgumentException("Decimal places must be between 0 and "+MAX_DECIMALS);
+		}
+		double scaled = Math.abs(value) * POWERS_OF_TEN[decimals];
+		if (!(scaled < 9e17)) {
+			String text = Double.toString(value);
+			for (int i = 0; i < text.length(); i++) {
+				dest.put((byte)text.charAt(i));
+			}
+			return;
+		}
+		long digits = Math.round(scaled);
+		if (value < 0 && digits != 0) {
+			dest.put((byte)'-');
+		}
+		long power = POWERS_OF_TEN[decimals];
+		putDigits(dest, digits / power, 1);
+		if (decimals > 0) {
+			dest.put((byte)'.');
+			putDigits(dest, digits % power, decimals);
+		}
+	}
+
+	/**
+	 * Format a number with its standard uncertainty in parentheses, as
+	 * value(su) with the su in units of the last digit, without allocating.
+	 * If su is not positive the value is written with
+	 * {@link #COORDINATE_DECIMALS} decimal places and no s.u.
+	 *
+	 * @param dest ByteBuffer with room for at least 64 bytes
+	 * @param value double
+	 * @param su double standard uncertainty
+	 */
+	static void putWithSu(ByteBuffer dest, double value, double su) {
+		if (!(su > 0) || Double.isInfinite(su)) {
+			putFixed(dest, value, COORDINATE_DECIMALS);
+			return;
+		}
+		//Scale su to two significant figures, t in [10, 100)
+		int exponent = (int)Math.floor(Math.log10(su));
+		double t = su * Math.pow(10, 1 - exponent);
+		if (t >= 99.5) {
+			exponent++;
+			t /= 10;
+		} else if (t < 9.5) {
+			exponent--;
+			t *= 10;
+		}
+		long suDigits = Math.round(t);
+		int decimals = 1 - exponent;
+		//Rule of 19: keep two figures only if they are 19 or less
+		if (suDigits > 19) {
+			suDigits = Math.round(t / 10);
+			decimals--;
+			if (suDigits == 10) {
+				suDigits = 1;
+				decimals--;
+			}
+		}
+		if (decimals < 0) {
+			suDigits = Math.round(su);
+			decimals = 0;
+		} else if (decimals > MAX_DECIMALS) {
+			suDigits = Math.max(1, Math.round(su * POWERS_OF_TEN[MAX_DECIMALS]));
+			decimals = MAX_DECIMALS;
+		}
+		putFixed(dest, value, decimals);
+		dest.put((byte)'(');
+		putDigits(dest, suDigits, 1);
+		dest.put((byte)')');
+	}
+
+	/*
+	 * Write a non-negative number with at least minDigits digits.
+	 */
+	private static void putDigits(ByteBuffer dest, long number, int minDigits) {
+		int nDigits = 1;
+		while (nDigits < POWERS_OF_TEN.length && number >= POWERS_OF_TEN[nDigits]) {
+			nDigits++;
+		}
+		nDigits = Math.max(nDigits, minDigits);
+		for (int i = nDigits - 1; i >= 0; i--) {
+			dest.put((byte)('0' + (number / POWERS_OF_TEN[i]) % 10));
+		}
+	}
+
+}
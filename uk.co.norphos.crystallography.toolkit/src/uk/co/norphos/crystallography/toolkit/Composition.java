@@ -0,0 +1,340 @@
+package uk.co.norphos.crystallography.toolkit;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Immutable elemental composition of a chemical formula, e.g. C6H4O2,
+ * Cu(NO3)2 or CuSO4&middot;5H2O. Element counts are stored as primitive arrays in
+ * order of increasing atomic number.
+ *
+ * Formulae are parsed with {@link #parse(String)}, which caches the result,
+ * so that repeated formulae in a database are only parsed once. Element
+ * symbols may be separated by whitespace (as in _chemical_formula_sum),
+ * groups may be enclosed in () or [] and nested, counts may be decimal and
+ * adducts may be joined by '&middot;' or '*' with an optional leading multiplier.
+ *
+ * @author Michael Wharmby
+ *
+ */
+public final class Composition {
+
+	private static final int CACHE_LIMIT = 1 << 16;
+	private static final ConcurrentHashMap<String, Composition> CACHE = new ConcurrentHashMap<>();
+
+	private final int[] atomicNumbers;
+	private final double[] counts;
+	private final double formulaMass;
+
+	private Composition(double[] dense) {
+		int nElements = 0;
+		for (int z = 1; z <= ElementTable.MAX_Z; z++) {
+			if (dense[z] != 0) nElements++;
+		}
+		atomicNumbers = new int[nElements];
+		counts = new double[nElements];
+		double mass = 0;
+		for (int z = 1, i = 0; z <= ElementTable.MAX_Z; z++) {
+			if (dense[z] == 0) continue;
+			atomicNumbers[i] = z;
+			counts[i] = dense[z];
+			mass += dense[z] * ElementTable.getAtomicWeight(z);
+			i++;
+		}
+		formulaMass = mass;
+	}
+
+	/**
+	 * Return the composition of a chemical formula. Results are cached.
+	 *
+	 * @param formula String chemical formula
+	 * @return {@link Composition}
+	 * @throws IllegalArgumentException if the formula cannot be parsed
+	 */
+	public static Composition parse(String formula) {
+		Composition composition = CACHE.get(formula);
+		if (composition == null) {
+			double[] dense = new double[ElementTable.MAX_Z + 1];
+			new Parser().parse(formula, dense);
+			composition = new Composition(dense);
+			if (CACHE.size() >= CACHE_LIMIT) {
+				CACHE.clear();
+			}
+			CACHE.put(formula, composition);
+		}
+		return composition;
+	}
+
+	/**
+	 * Return the number of distinct elements in this composition.
+	 * @return int
+	 */
+	public int getNumberOfElements() {
+		return atomicNumbers.length;
+	}
+
+	/**
+	 * Return the atomic number of the i-th element (in order of increasing
+	 * atomic number).
+	 * @param i int index
+	 * @return int
+	 */
+	public int getAtomicNumber(int i) {
+		return atomicNumbers[i];
+	}
+
+	/**
+	 * Return the count of the i-th element (in order of increasing atomic
+	 * number).
+	 * @param i int index
+	 * @return double
+	 */
+	public double getCount(int i) {
+		return counts[i];
+	}
+
+	/**
+	 * Return the count of an element in this composition.
+	 * @param symbol String element symbol
+	 * @return double, zero if the element is absent
+	 */
+	public double getCount(String symbol) {
+		int i = Arrays.binarySearch(atomicNumbers, ElementTable.getAtomicNumber(symbol));
+		return i < 0 ? 0 : counts[i];
+	}
+
+	/**
+	 * Return the total number of atoms in the formula.
+	 * @return double
+	 */
+	public double getNumberOfAtoms() {
+		double total = 0;
+		for (double count : counts) {
+			total += count;
+		}
+		return total;
+	}
+
+	/**
+	 * Return the formula mass from the standard atomic weights.
+	 * @return double in g/mol
+	 */
+	public double getFormulaMass() {
+		return formulaMass;
+	}
+
+	/**
+	 * Return the number of electrons in the formula (i.e. F(000) per formula
+	 * unit, ignoring anomalous scattering).
+	 * @return double
+	 */
+	public double getNumberOfElectrons() {
+		double total = 0;
+		for (int i = 0; i < counts.length; i++) {
+			total += atomicNumbers[i] * counts[i];
+		}
+		return total;
+	}
+
+	/**
+	 * Return the formula in Hill order (C, H, then alphabetical; or purely
+	 * alphabetical if there is no carbon), with space separated elements.
+	 */
+	@Override
+	public String toString() {
+		Integer[] order = new Integer[atomicNumbers.length];
+		for (int i = 0; i < order.length; i++) order[i] = i;
+		final boolean hasCarbon = Arrays.binarySearch(atomicNumbers, 6) >= 0;
+		Arrays.sort(order, (i, j) -> {
+			int zi = atomicNumbers[i], zj = atomicNumbers[j];
+			if (hasCarbon) {
+				int ri = zi == 6 ? 0 : zi == 1 ? 1 : 2, rj = zj == 6 ? 0 : zj == 1 ? 1 : 2;
+				if (ri != rj) return ri - rj;
+			}
+			return ElementTable.getSymbol(zi).compareTo(ElementTable.getSymbol(zj));
+		});
+		StringBuilder sb = new StringBuilder();
+		for (int i : order) {
+			if (sb.length() > 0) sb.append(' ');
+			sb.append(ElementTable.getSymbol(atomicNumbers[i]));
+			if (counts[i] != 1) {
+				if (counts[i] == Math.rint(counts[i])) {
+					sb.append((long)counts[i]);
+				} else {
+					sb.append(counts[i]);
+				}
+			}
+		}
+		return sb.toString();
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + Arrays.hashCode(atomicNumbers);
+		result = prime * result + Arrays.hashCode(counts);
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		Composition other = (Composition) obj;
+		if (!Arrays.equals(atomicNumbers, other.atomicNumbers))
+			return false;
+		if (!Arrays.equals(counts, other.counts))
+			return false;
+		return true;
+	}
+
+	/**
+	 * Reusable formula parser which accumulates element counts into a dense
+	 * array indexed by atomic number. Terms are kept on a flat stack so that
+	 * closing a group only has to scale the terms pushed since it opened.
+	 * Not thread-safe; use one instance per thread.
+	 */
+	static final class Parser {
+
+		private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8,
+				1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15};
+
+		private int[] termZ = new int[32];
+		private double[] termCount = new double[32];
+		private int[] groupStart = new int[8];
+		private char[] groupClose = new char[8];
+		private int nTerms, depth, pos;
+		private CharSequence formula;
+
+		/**
+		 * Parse a formula and add its element counts to dense (which is not
+		 * cleared first).
+		 *
+		 * @param formula CharSequence
+		 * @param dense double[ElementTable.MAX_Z + 1] indexed by atomic number
+		 * @throws IllegalArgumentException if the formula cannot be parsed
+		 */
+		void parse(CharSequence formula, double[] dense) {
+			this.formula = formula;
+			nTerms = 0;
+			depth = 0;
+			pos = 0;
+			int segmentStart = 0;
+			double segmentMultiplier = readLeadingNumber();
+			int length = formula.length();
+			while (pos < length) {
+				char ch = formula.charAt(pos);
+				if (ch >= 'A' && ch <= 'Z') {
+					char next = pos + 1 < length ? formula.charAt(pos + 1) : 0;
+					int z;
+					if (next >= 'a' && next <= 'z') {
+						z = ElementTable.getAtomicNumber(ch, next);
+						pos += 2;
+					} else {
+						z = ElementTable.getAtomicNumber(ch, (char)0);
+						pos++;
+					}
+					if (z == 0) {
+						throw new IllegalArgumentException("Unknown element in formula '"+formula+"' at position "+pos);
+					}
+					pushTerm(z, readCount());
+				} else if (ch == '(' || ch == '[') {
+					if (depth == groupStart.length) {
+						groupStart = Arrays.copyOf(groupStart, 2 * depth);
+						groupClose = Arrays.copyOf(groupClose, 2 * depth);
+					}
+					groupStart[depth] = nTerms;
+					groupClose[depth] = ch == '(' ? ')' : ']';
+					depth++;
+					pos++;
+				} else if (ch == ')' || ch == ']') {
+					if (depth == 0 || groupClose[depth - 1] != ch) {
+						throw new IllegalArgumentException("Unbalanced '"+ch+"' in formula '"+formula+"'");
+					}
+					pos++;
+					depth--;
+					scaleTerms(groupStart[depth], readCount());
+				} else if (ch == '\u00b7' || ch == '\u2022' || ch == '*') {
+					if (depth != 0) {
+						throw new IllegalArgumentException("Unclosed group in formula '"+formula+"'");
+					}
+					pos++;
+					scaleTerms(segmentStart, segmentMultiplier);
+					segmentStart = nTerms;
+					segmentMultiplier = readLeadingNumber();
+				} else if (Character.isWhitespace(ch)) {
+					pos++;
+				} else {
+					throw new IllegalArgumentException("Unexpected '"+ch+"' in formula '"+formula+"' at position "+pos);
+				}
+			}
+			if (depth != 0) {
+				throw new IllegalArgumentException("Unclosed group in formula '"+formula+"'");
+			}
+			scaleTerms(segmentStart, segmentMultiplier);
+			for (int i = 0; i < nTerms; i++) {
+				dense[termZ[i]] += termCount[i];
+			}
+			this.formula = null;
+		}
+
+		private void pushTerm(int z, double count) {
+			if (nTerms == termZ.length) {
+				termZ = Arrays.copyOf(termZ, 2 * nTerms);
+				termCount = Arrays.copyOf(termCount, 2 * nTerms);
+			}
+			termZ[nTerms] = z;
+			termCount[nTerms] = count;
+			nTerms++;
+		}
+
+		private void scaleTerms(int from, double factor) {
+			if (factor == 1) return;
+			for (int i = from; i < nTerms; i++) {
+				termCount[i] *= factor;
+			}
+		}
+
+		private double readLeadingNumber() {
+			while (pos < formula.length() && Character.isWhitespace(formula.charAt(pos))) pos++;
+			return readCount();
+		}
+
+		/*
+		 * Read an unsigned decimal number at the current position, returning
+		 * 1 if there is none.
+		 */
+		private double readCount() {
+			int length = formula.length();
+			long mantissa = 0;
+			int digits = 0, scale = 0;
+			boolean point = false;
+			while (pos < length) {
+				char ch = formula.charAt(pos);
+				if (ch >= '0' && ch <= '9') {
+					mantissa = 10 * mantissa + (ch - '0');
+					digits++;
+					if (point) scale++;
+				} else if (ch == '.' && !point && digits > 0) {
+					point = true;
+				} else {
+					break;
+				}
+				pos++;
+			}
+			if (digits == 0) return 1;
+			if (digits > 15) {
+				throw new IllegalArgumentException("Count too long in formula '"+formula+"'");
+			}
+			//Division by an exact power of ten gives a correctly rounded result
+			return mantissa / POWERS_OF_TEN[scale];
+		}
+
+	}
+
+}
@@ -0,0 +1,105 @@
+package uk.co.norphos.crystallography.toolkit;
+
+import uk.co.norphos.crystallography.api.Site;
+
+/**
+ * A close approach between a site of a crystal and a symmetry-generated,
+ * lattice-translated image of another (or the same) site, as found by
+ * {@link ContactFinder}. The image is the second site moved by
+ * {@link #getOperator()} and then by {@link #getTranslation()}.
+ *
+ * @author Michael Wharmby
+ *
+ */
+public final class Contact {
+
+	private final Site site1, site2;
+	private final int index1, index2;
+	private final SymmetryOperator operator;
+	private final int[] translation;
+	private final double distance, vdwSum;
+
+	Contact(Site site1, int index1, Site site2, int index2, SymmetryOperator operator, int[] translation,
+			double distance, double vdwSum) {
+		this.site1 = site1;
+		this.index1 = index1;
+		this.site2 = site2;
+		this.index2 = index2;
+		this.operator = operator;
+		this.translation = translation;
+		this.distance = distance;
+		this.vdwSum = vdwSum;
+	}
+
+	public Site getSite1() {
+		return site1;
+	}
+
+	/**
+	 * Return the index of the first site in the crystal.
+	 * @return int
+	 */
+	public int getIndex1() {
+		return index1;
+	}
+
+	public Site getSite2() {
+		return site2;
+	}
+
+	/**
+	 * Return the index of the second site in the crystal.
+	 * @return int
+	 */
+	public int getIndex2() {
+		return index2;
+	}
+
+	/**
+	 * Return the operator generating the image of the second site.
+	 * @return {@link SymmetryOperator}
+	 */
+	public SymmetryOperator getOperator() {
+		return operator;
+	}
+
+	/**
+	 * Return the lattice translation applied after the operator.
+	 * @return int[3]
+	 */
+	public int[] getTranslation() {
+		return translation.clone();
+	}
+
+	/**
+	 * Return the distance between the first site and the image.
+	 * @return double in Angstroms
+	 */
+	public double getDistance() {
+		return distance;
+	}
+
+	/**
+	 * Return the sum of the van der Waals radii of the two sites.
+	 * @return double in Angstroms
+	 */
+	public double getVdwSum() {
+		return vdwSum;
+	}
+
+	/**
+	 * Return how far the contact is inside the sum of the van der Waals
+	 * radii.
+	 * @return double in Angstroms, positive for a close approach
+	 */
+	public double getOverlap() {
+		return vdwSum - distance;
+	}
+
+	@Override
+	public String toString() {
+		return site1.getLabel()+"..."+site2.getLabel()+" ["+operator+" + ("+translation[0]+","+translation[1]+","
+				+translation[2]+")] "+distance;
+	}
+
+}
@@ -0,0 +1,489 @@
+package uk.co.norphos.crystallography.toolkit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import uk.co.norphos.crystallography.api.Site;
+import uk.co.norphos.crystallography.toolkit.metrics.Metrics;
+import uk.co.norphos.crystallography.toolkit.metrics.Timer;
+
+/**
+ * Finds the intermolecular contacts of a {@link Crystal}: every pair of a
+ * site and a symmetry-generated, lattice-translated image of a site which
+ * are closer than the sum of their van der Waals radii less a tolerance.
+ * <br>
+ * The sites of the crystal (usually the asymmetric unit) are first joined
+ * into molecules by covalent bonds, taken as distances within the sum of
+ * the covalent radii plus {@link #BOND_TOLERANCE}, across cell edges where
+ * necessary. For each operator in turn the images of the molecules are
+ * generated, and lattice translations are only tried where the bounding
+ * sphere of an image comes within reach of the bounding sphere of a
+ * molecule of the crystal. The atoms of surviving images are looked up in
+ * a grid of the crystal's atoms, whose cells are as wide as the longest
+ * possible contact or bond, and the distances of the candidate pairs found there
+ * are calculated with {@link UnitCell#calculateDistances(double[], double[], double[])}.
+ * Operators are evaluated in parallel.
+ * <br>
+ * Images bonded to a molecule are parts of the same molecule (e.g. one
+ * lying on an inversion centre), so are not in contact with it. Each
+ * contact is reported once: the contact from site i to the image of j
+ * under (g, t) is the same as that from j to the image of i under its
+ * inverse.
+ *
+ * @author Michael Wharmby
+ *
+ */
+public class ContactFinder {
+
+	private static final Timer FIND_TIMER = Metrics.timer("contacts.find");
+
+	/**
+	 * Distance, in Angstroms, beyond the sum of covalent radii within which
+	 * two sites are taken to be bonded.
+	 */
+	public static final double BOND_TOLERANCE = 0.4;
+
+	private final List<SymmetryOperator> operators;
+	private final int nOps;
+	private final int[] rotations;
+	private final double[] translations;
+	//Index of the inverse of each operator, and the lattice translation making it exact
+	private final int[] inverses;
+	private final int[] inverseShifts;
+	private final double tolerance;
+
+	/**
+	 * Construct a finder of contacts shorter than the sum of the van der
+	 * Waals radii.
+	 *
+	 * @param operators List of every {@link SymmetryOperator} of the space
+	 *        group, including the identity
+	 */
+	public ContactFinder(List<SymmetryOperator> operators) {
+		this(operators, 0);
+	}
+
+	/**
+	 * Construct a finder.
+	 *
+	 * @param operators List of every {@link SymmetryOperator} of the space
+	 *        group, including the identity
+	 * @param tolerance double subtracted from the sum of the van der Waals
+	 *        radii, in Angstroms
+	 */
+	public ContactFinder(List<SymmetryOperator> operators, double tolerance) {
+		if (!operators.stream().anyMatch(SymmetryOperator::isIdentity)) {
+			throw new IllegalArgumentException("Symmetry operators must include the identity");
+		}
+		this.operators = Collections.unmodifiableList(new ArrayList<>(operators));
+		this.tolerance = tolerance;
+		nOps = operators.size();
+		rotations = new int[9 * nOps];
+		translations = new double[3 * nOps];
+		for (int op = 0; op < nOps; op++) {
+			System.arraycopy(operators.get(op).getRotation(), 0, rotations, 9 * op, 9);
+			System.arraycopy(operators.get(op).getTranslation(), 0, translations, 3 * op, 3);
+		}
+
+		//The inverse of x' = Rx + s is x = R'x' - R's, where R' = R^-1
+		inverses = new int[nOps];
+		inverseShifts = new int[3 * nOps];
+		for (int op = 0; op < nOps; op++) {
+			inverses[op] = -1;
+			for (int inv = 0; inv < nOps && inverses[op] < 0; inv++) {
+				if (!isInverseRotation(inv, op)) continue;
+				double[] shift = new double[3];
+				boolean lattice = true;
+				for (int i = 0; i < 3; i++) {
+					for (int j = 0; j < 3; j++) {
+						shift[i] -= rotations[9 * inv + 3 * i + j] * translations[3 * op + j];
+					}
+					shift[i] -= translations[3 * inv + i];
+					lattice &= Math.abs(shift[i] - Math.rint(shift[i])) < 1e-6;
+				}
+				if (!lattice) continue;
+				inverses[op] = inv;
+				for (int i = 0; i < 3; i++) {
+					inverseShifts[3 * op + i] = (int)Math.rint(shift[i]);
+				}
+			}
+			if (inverses[op] < 0) {
+				throw new IllegalArgumentException("Symmetry operators are not a group: no inverse of "+operators.get(op));
+			}
+		}
+	}
+
+	private boolean isInverseRotation(int inv, int op) {
+		for (int i = 0; i < 3; i++) {
+			for (int j = 0; j < 3; j++) {
+				int sum = 0;
+				for (int k = 0; k < 3; k++) {
+					sum += rotations[9 * inv + 3 * i + k] * rotations[9 * op + 3 * k + j];
+				}
+				if (sum != (i == j ? 1 : 0)) return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Return the operators of the space group.
+	 * @return List of {@link SymmetryOperator}
+	 */
+	public List<SymmetryOperator> getOperators() {
+		return operators;
+	}
+
+	/**
+	 * Find the intermolecular contacts of a crystal.
+	 *
+	 * @param crystal {@link Crystal}
+	 * @return List of {@link Contact}s, shortest first
+	 */
+	public List<Contact> findContacts(Crystal crystal) {
+		long start = Metrics.ENABLED ? System.nanoTime() : 0;
+		Structure structure = new Structure(crystal);
+		List<List<Contact>> perOperator = IntStream.range(0, nOps).parallel()
+				.mapToObj(op -> findContacts(structure, op)).collect(Collectors.toList());
+		List<Contact> contacts = new ArrayList<>();
+		for (List<Contact> list : perOperator) {
+			contacts.addAll(list);
+		}
+		contacts.sort(Comparator.comparingDouble(Contact::getDistance).thenComparingInt(Contact::getIndex1)
+				.thenComparingInt(Contact::getIndex2));
+		if (Metrics.ENABLED) FIND_TIMER.recordSince(start);
+		return contacts;
+	}
+
+	private List<Contact> findContacts(Structure s, int op) {
+		int n = s.nAtoms;
+		int[] r = Arrays.copyOfRange(rotations, 9 * op, 9 * op + 9);
+		double[] image = new double[3 * n];
+		operators.get(op).apply(s.frac, image);
+		boolean identity = operators.get(op).isIdentity();
+
+		List<Contact> contacts = new ArrayList<>();
+		double[] cell = s.ortho;
+		for (int b = 0; b < s.nMolecules; b++) {
+			//Image of the centre of molecule b; its radius is unchanged
+			double[] centre = new double[3];
+			for (int i = 0; i < 3; i++) {
+				centre[i] = r[3 * i] * s.centresFrac[3 * b] + r[3 * i + 1] * s.centresFrac[3 * b + 1]
+						+ r[3 * i + 2] * s.centresFrac[3 * b + 2] + translations[3 * op + i];
+			}
+			for (long key : translationsInReach(s, b, centre)) {
+				int[] t = unpack(key);
+				findContacts(s, op, identity, b, image, t, cell, contacts);
+			}
+		}
+		return contacts;
+	}
+
+	/*
+	 * Lattice translations bringing the bounding sphere of the image of
+	 * molecule b within reach of some molecule of the crystal.
+	 */
+	private Set<Long> translationsInReach(Structure s, int b, double[] centre) {
+		Set<Long> reach = new LinkedHashSet<>();
+		for (int a = 0; a < s.nMolecules; a++) {
+			double limit = s.radii[a] + s.radii[b] + s.reach;
+			int[] lo = new int[3], hi = new int[3];
+			for (int i = 0; i < 3; i++) {
+				//A displacement along the normal of the planes of axis i is at least |df_i| / a*_i
+				double delta = s.centresFrac[3 * a + i] - centre[i];
+				lo[i] = (int)Math.ceil(delta - limit * s.reciprocal[i]);
+				hi[i] = (int)Math.floor(delta + limit * s.reciprocal[i]);
+			}
+			for (int ta = lo[0]; ta <= hi[0]; ta++) {
+				for (int tb = lo[1]; tb <= hi[1]; tb++) {
+					for (int tc = lo[2]; tc <= hi[2]; tc++) {
+						double dx = s.centresFrac[3 * a] - centre[0] - ta;
+						double dy = s.centresFrac[3 * a + 1] - centre[1] - tb;
+						double dz = s.centresFrac[3 * a + 2] - centre[2] - tc;
+						if (s.distanceSquared(dx, dy, dz) <= limit * limit) reach.add(pack(ta, tb, tc));
+					}
+				}
+			}
+		}
+		return reach;
+	}
+
+	private static long pack(int ta, int tb, int tc) {
+		return ((long)(ta & 0xFFFFF) << 40) | ((long)(tb & 0xFFFFF) << 20) | (tc & 0xFFFFF);
+	}
+
+	private static int[] unpack(long key) {
+		//Sign-extend each 20-bit field
+		return new int[]{(int)(key << 4 >> 44), (int)(key << 24 >> 44), (int)(key << 44 >> 44)};
+	}
+
+	/*
+	 * Contacts between the crystal and the image of molecule b under
+	 * operator op and translation t.
+	 */
+	private void findContacts(Structure s, int op, boolean identity, int b, double[] image, int[] t, double[] m,
+			List<Contact> contacts) {
+		boolean origin = t[0] == 0 && t[1] == 0 && t[2] == 0;
+		boolean[] bonded = new boolean[s.nMolecules];
+		if (identity && origin) bonded[b] = true;
+		//Candidate pairs, as crystal atom and image atom
+		int[] pairs = new int[16];
+		int nPairs = 0;
+		for (int k = s.moleculeStart[b]; k < s.moleculeStart[b + 1]; k++) {
+			int j = s.moleculeAtoms[k];
+			double fx = image[3 * j] + t[0], fy = image[3 * j + 1] + t[1], fz = image[3 * j + 2] + t[2];
+			double x = m[0] * fx + m[1] * fy + m[2] * fz;
+			double y = m[3] * fx + m[4] * fy + m[5] * fz;
+			double z = m[6] * fx + m[7] * fy + m[8] * fz;
+			int gx = s.gridIndex(x, 0), gy = s.gridIndex(y, 1), gz = s.gridIndex(z, 2);
+			for (int cx = Math.max(0, gx - 1); cx <= Math.min(s.gridSize[0] - 1, gx + 1); cx++) {
+				for (int cy = Math.max(0, gy - 1); cy <= Math.min(s.gridSize[1] - 1, gy + 1); cy++) {
+					for (int cz = Math.max(0, gz - 1); cz <= Math.min(s.gridSize[2] - 1, gz + 1); cz++) {
+						int bin = cx + s.gridSize[0] * (cy + s.gridSize[1] * cz);
+						for (int p = s.binStart[bin]; p < s.binStart[bin + 1]; p++) {
+							int i = s.binAtoms[p];
+							if (identity && origin && s.molecule[i] == b) continue;
+							double dx = x - s.cart[3 * i], dy = y - s.cart[3 * i + 1], dz = z - s.cart[3 * i + 2];
+							double d2 = dx * dx + dy * dy + dz * dz;
+							double bond = s.covalent[i] + s.covalent[j] + BOND_TOLERANCE;
+							if (d2 < bond * bond) {
+								bonded[s.molecule[i]] = true;
+								continue;
+							}
+							double limit = s.vdw[i] + s.vdw[j] - tolerance;
+							if (limit <= 0 || d2 >= limit * limit || !isCanonical(i, j, op, t)) continue;
+							if (2 * nPairs == pairs.length) pairs = Arrays.copyOf(pairs, 2 * pairs.length);
+							pairs[2 * nPairs] = i;
+							pairs[2 * nPairs++ + 1] = j;
+						}
+					}
+				}
+			}
+		}
+		if (nPairs == 0) return;
+
+		double[] sites1 = new double[3 * nPairs], sites2 = new double[3 * nPairs], distances = new double[nPairs];
+		for (int p = 0; p < nPairs; p++) {
+			int i = pairs[2 * p], j = pairs[2 * p + 1];
+			System.arraycopy(s.frac, 3 * i, sites1, 3 * p, 3);
+			for (int d = 0; d < 3; d++) {
+				sites2[3 * p + d] = image[3 * j + d] + t[d];
+			}
+		}
+		s.cell.calculateDistances(sites1, sites2, distances);
+		for (int p = 0; p < nPairs; p++) {
+			int i = pairs[2 * p], j = pairs[2 * p + 1];
+			double vdwSum = s.vdw[i] + s.vdw[j];
+			if (bonded[s.molecule[i]] || !(distances[p] < vdwSum - tolerance)) continue;
+			//Translation for the sites where they were given, rather than where the molecules were assembled
+			int[] given = new int[3];
+			for (int d = 0; d < 3; d++) {
+				given[d] = t[d] - s.shifts[3 * i + d];
+				for (int e = 0; e < 3; e++) {
+					given[d] += rotations[9 * op + 3 * d + e] * s.shifts[3 * j + e];
+				}
+			}
+			contacts.add(new Contact(s.sites.get(i), i, s.sites.get(j), j, operators.get(op), given, distances[p], vdwSum));
+		}
+	}
+
+	/*
+	 * Whether (i, j, op, t) is the representative of itself and its
+	 * inverse (j, i, op^-1, t'), where t' = shift - R^-1.t.
+	 */
+	private boolean isCanonical(int i, int j, int op, int[] t) {
+		if (i != j) return i < j;
+		int inv = inverses[op];
+		if (inv != op) return op < inv;
+		for (int d = 0; d < 3; d++) {
+			int tInv = inverseShifts[3 * op + d];
+			for (int e = 0; e < 3; e++) {
+				tInv -= rotations[9 * inv + 3 * d + e] * t[e];
+			}
+			if (t[d] != tInv) return t[d] < tInv;
+		}
+		return true;
+	}
+
+	/*
+	 * The sites of a crystal joined into molecules, with their unwrapped
+	 * coordinates, bounding spheres and a grid for neighbour lookup.
+	 */
+	private final class Structure {
+		private final List<Site> sites;
+		private final UnitCell cell;
+		private final int nAtoms, nMolecules;
+		private final double[] ortho = new double[9], metric = new double[9];
+		private final double[] reciprocal = new double[3];
+		private final double[] frac, cart, vdw, covalent;
+		private final int[] molecule, moleculeStart, moleculeAtoms;
+		private final double[] centresFrac, radii;
+		//Longest contact or bond
+		private final double reach;
+		//Lattice translation of each atom from its given position
+		private final int[] shifts;
+		//Grid of the crystal's atoms
+		private final double[] gridOrigin = new double[3];
+		private final int[] gridSize = new int[3];
+		private final double gridStep;
+		private final int[] binStart, binAtoms;
+
+		Structure(Crystal crystal) {
+			sites = crystal.getSites();
+			cell = crystal.getUnitCell();
+			nAtoms = sites.size();
+			CellWorkspace ws = new CellWorkspace(cell.getLattice());
+			ws.copyOrthogonalizationMatrix(ortho);
+			ws.copyMetricTensor(metric);
+			reciprocal[0] = ws.getAStar();
+			reciprocal[1] = ws.getBStar();
+			reciprocal[2] = ws.getCStar();
+			vdw = new double[nAtoms];
+			covalent = new double[nAtoms];
+			double maxVdw = 0, maxCovalent = 0;
+			for (int i = 0; i < nAtoms; i++) {
+				int z = ElementTable.getAtomicNumber(sites.get(i).getElement());
+				vdw[i] = ElementTable.getVdwRadius(z);
+				covalent[i] = ElementTable.getCovalentRadius(z);
+				maxVdw = Math.max(maxVdw, vdw[i]);
+				//An atom without a covalent radius is bonded to nothing
+				if (covalent[i] > maxCovalent) maxCovalent = covalent[i];
+			}
+			reach = Math.max(2 * maxVdw - tolerance, 2 * maxCovalent + BOND_TOLERANCE);
+
+			frac = crystal.getFractionalCoordinates();
+			double[] given = frac.clone();
+			molecule = new int[nAtoms];
+			nMolecules = joinMolecules();
+			moleculeStart = new int[nMolecules + 1];
+			moleculeAtoms = new int[nAtoms];
+			for (int i = 0; i < nAtoms; i++) {
+				moleculeStart[molecule[i] + 1]++;
+			}
+			for (int mol = 0; mol < nMolecules; mol++) {
+				moleculeStart[mol + 1] += moleculeStart[mol];
+			}
+			int[] fill = new int[nMolecules];
+			for (int i = 0; i < nAtoms; i++) {
+				moleculeAtoms[moleculeStart[molecule[i]] + fill[molecule[i]]++] = i;
+			}
+
+			//Bounding spheres, with each molecule moved to put its centre in the cell
+			centresFrac = new double[3 * nMolecules];
+			radii = new double[nMolecules];
+			for (int mol = 0; mol < nMolecules; mol++) {
+				int count = moleculeStart[mol + 1] - moleculeStart[mol];
+				for (int k = moleculeStart[mol]; k < moleculeStart[mol + 1]; k++) {
+					for (int d = 0; d < 3; d++) {
+						centresFrac[3 * mol + d] += frac[3 * moleculeAtoms[k] + d] / count;
+					}
+				}
+				for (int d = 0; d < 3; d++) {
+					double shift = Math.floor(centresFrac[3 * mol + d]);
+					centresFrac[3 * mol + d] -= shift;
+					for (int k = moleculeStart[mol]; k < moleculeStart[mol + 1]; k++) {
+						frac[3 * moleculeAtoms[k] + d] -= shift;
+					}
+				}
+				for (int k = moleculeStart[mol]; k < moleculeStart[mol + 1]; k++) {
+					int i = moleculeAtoms[k];
+					double d2 = distanceSquared(frac[3 * i] - centresFrac[3 * mol], frac[3 * i + 1] - centresFrac[3 * mol + 1],
+							frac[3 * i + 2] - centresFrac[3 * mol + 2]);
+					radii[mol] = Math.max(radii[mol], Math.sqrt(d2));
+				}
+			}
+			shifts = new int[3 * nAtoms];
+			for (int i = 0; i < 3 * nAtoms; i++) {
+				shifts[i] = (int)Math.rint(frac[i] - given[i]);
+			}
+			cart = new double[3 * nAtoms];
+			ws.orthogonalize(frac, cart);
+
+			//Grid cells as wide as the longest contact or bond, over the atoms' bounding box
+			gridStep = Math.max(reach, 1);
+			double[] max = new double[3];
+			Arrays.fill(gridOrigin, Double.POSITIVE_INFINITY);
+			Arrays.fill(max, Double.NEGATIVE_INFINITY);
+			for (int i = 0; i < nAtoms; i++) {
+				for (int d = 0; d < 3; d++) {
+					gridOrigin[d] = Math.min(gridOrigin[d], cart[3 * i + d]);
+					max[d] = Math.max(max[d], cart[3 * i + d]);
+				}
+			}
+			for (int d = 0; d < 3; d++) {
+				gridSize[d] = nAtoms == 0 ? 1 : (int)((max[d] - gridOrigin[d]) / gridStep) + 1;
+			}
+			binStart = new int[gridSize[0] * gridSize[1] * gridSize[2] + 1];
+			binAtoms = new int[nAtoms];
+			int[] bins = new int[nAtoms];
+			for (int i = 0; i < nAtoms; i++) {
+				bins[i] = gridIndex(cart[3 * i], 0) + gridSize[0] * (gridIndex(cart[3 * i + 1], 1)
+						+ gridSize[1] * gridIndex(cart[3 * i + 2], 2));
+				binStart[bins[i] + 1]++;
+			}
+			for (int bin = 0; bin < binStart.length - 1; bin++) {
+				binStart[bin + 1] += binStart[bin];
+			}
+			int[] binFill = new int[binStart.length - 1];
+			for (int i = 0; i < nAtoms; i++) {
+				binAtoms[binStart[bins[i]] + binFill[bins[i]]++] = i;
+			}
+		}
+
+		/*
+		 * Label the molecules by a breadth-first walk over the bonds,
+		 * moving each atom reached to the image bonded to its neighbour.
+		 */
+		private int joinMolecules() {
+			Arrays.fill(molecule, -1);
+			int[] queue = new int[nAtoms];
+			int nMol = 0;
+			for (int seed = 0; seed < nAtoms; seed++) {
+				if (molecule[seed] >= 0) continue;
+				molecule[seed] = nMol;
+				int head = 0, tail = 0;
+				queue[tail++] = seed;
+				while (head < tail) {
+					int i = queue[head++];
+					for (int j = 0; j < nAtoms; j++) {
+						if (molecule[j] >= 0) continue;
+						double dx = frac[3 * j] - frac[3 * i], dy = frac[3 * j + 1] - frac[3 * i + 1];
+						double dz = frac[3 * j + 2] - frac[3 * i + 2];
+						dx -= Math.rint(dx);
+						dy -= Math.rint(dy);
+						dz -= Math.rint(dz);
+						double bond = covalent[i] + covalent[j] + BOND_TOLERANCE;
+						if (!(distanceSquared(dx, dy, dz) < bond * bond)) continue;
+						frac[3 * j] = frac[3 * i] + dx;
+						frac[3 * j + 1] = frac[3 * i + 1] + dy;
+						frac[3 * j + 2] = frac[3 * i + 2] + dz;
+						molecule[j] = nMol;
+						queue[tail++] = j;
+					}
+				}
+				nMol++;
+			}
+			return nMol;
+		}
+
+		double distanceSquared(double dx, double dy, double dz) {
+			double[] g = metric;
+			return g[0] * dx * dx + g[4] * dy * dy + g[8] * dz * dz + 2 * (g[1] * dx * dy + g[2] * dx * dz + g[5] * dy * dz);
+		}
+
+		/*
+		 * Grid cell along an axis, which may lie outside the grid.
+		 */
+		int gridIndex(double x, int axis) {
+			return (int)Math.floor((x - gridOrigin[axis]) / gridStep);
+		}
+	}
+
+}
@@ -1,19 +1,67 @@
 package uk.co.norphos.crystallography.toolkit;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
+
 import uk.co.norphos.crystallography.api.CrystalSystem;
 import uk.co.norphos.crystallography.api.Lattice;
+import uk.co.norphos.crystallography.api.Site;
 
 public class Crystal {
-	
+
 	private UnitCell unitCell;
 	private CrystalSystem crystalSystem;
-	
+	private List<Site> sites = new ArrayList<>();
+
 	public Crystal(Lattice lattice) {
 		unitCell = new UnitCell(lattice);
 	}
-	
+
 	public UnitCell getUnitCell() {
 		return unitCell;
 	}
 
+	/**
+	 * Add an atom {@link Site} to the asymmetric unit of this crystal.
+	 * @param site {@link Site}
+	 */
+	public void addSite(Site site) {
+		sites.add(site);
+	}
+
+	/**
+	 * Return the atom sites of this crystal, in the order they were added.
+	 * @return unmodifiable List of {@link Site}
+	 */
+	public List<Site> getSites() {
+		return Collections.unmodifiableList(sites);
+	}
+
+	/**
+	 * Return the number of atom sites in this crystal.
+	 * @return int
+	 */
+	public int getNumberOfSites() {
+		return sites.size();
+	}
+
+	/**
+	 * Return the fractional coordinates of all sites as packed x,y,z
+	 * triples, suitable for the bulk methods of {@link UnitCell}.
+	 * @return double[3 * getNumberOfSites()]
+	 */
+	public double[] getFractionalCoordinates() {
+		double[] coords = new double[3 * sites.size()];
+		for (int i = 0; i < sites.size(); i++) {
+			Vector3D pos = sites.get(i).getPosition();
+			coords[3 * i] = pos.getX();
+			coords[3 * i + 1] = pos.getY();
+			coords[3 * i + 2] = pos.getZ();
+		}
+		return coords;
+	}
+
 }
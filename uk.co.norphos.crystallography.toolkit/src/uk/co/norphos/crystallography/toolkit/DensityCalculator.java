@@ -0,0 +1,116 @@
+package uk.co.norphos.crystallography.toolkit;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Calculates formula masses and crystallographic densities, singly or for
+ * whole columns of database entries in one parallel pass. The density is
+ * given by rho = Z.M / (N_A.V), where Z is the number of formula units in
+ * the cell, M the formula mass and V the cell volume.
+ *
+ * @author Michael Wharmby
+ *
+ */
+public final class DensityCalculator {
+
+	private static final int CHUNK_SIZE = 1024;
+
+	private DensityCalculator() {
+		//Static methods only
+	}
+
+	/**
+	 * Calculate density from the formula mass, number of formula units and
+	 * cell volume.
+	 *
+	 * @param formulaMass double in g/mol
+	 * @param z double number of formula units in the cell
+	 * @param volume double in Angstrom^3
+	 * @return double density in g/cm^3
+	 */
+	public static double calculateDensity(double formulaMass, double z, double volume) {
+		return z * formulaMass * ElementTable.AMU_PER_CUBIC_ANGSTROM_TO_G_PER_CC / volume;
+	}
+
+	/**
+	 * Calculate density of a structure from its composition, number of
+	 * formula units and unit cell.
+	 *
+	 * @param composition {@link Composition} of one formula unit
+	 * @param z double number of formula units in the cell
+	 * @param cell {@link UnitCell}
+	 * @return double density in g/cm^3
+	 */
+	public static double calculateDensity(Composition composition, double z, UnitCell cell) {
+		return calculateDensity(composition.getFormulaMass(), z, cell.getVolume());
+	}
+
+	/**
+	 * Calculate the formula mass and density of many entries. Formulae are
+	 * parsed with a reusable parser per chunk of entries rather than
+	 * through the {@link Composition} cache, so that the pass allocates
+	 * nothing per entry.
+	 *
+	 * @param formulas String[] chemical formula of each entry
+	 * @param z int[] number of formula units of each entry
+	 * @param volumes double[] cell volume of each entry in Angstrom^3
+	 * @param masses double[] to be filled with formula masses in g/mol
+	 * @param densities double[] to be filled with densities in g/cm^3
+	 * @throws IllegalArgumentException if any formula cannot be parsed
+	 */
+	public static void calculate(String[] formulas, int[] z, double[] volumes, double[] masses, double[] densities) {
+		calculate(formulas, z, masses, densities, (i, ws) -> volumes[i]);
+	}
+
+	/**
+	 * Calculate the formula mass and density of many entries from columns
+	 * of lattice parameters (lengths in Angstroms, angles in degrees). This
+	 * saves building a {@link UnitCell} for each entry.
+	 *
+	 * @param formulas String[] chemical formula of each entry
+	 * @param z int[] number of formula units of each entry
+	 * @param a double[]
+	 * @param b double[]
+	 * @param c double[]
+	 * @param alpha double[]
+	 * @param beta double[]
+	 * @param gamma double[]
+	 * @param masses double[] to be filled with formula masses in g/mol
+	 * @param densities double[] to be filled with densities in g/cm^3
+	 * @throws IllegalArgumentException if any formula cannot be parsed
+	 */
+	public static void calculate(String[] formulas, int[] z, double[] a, double[] b, double[] c,
+			double[] alpha, double[] beta, double[] gamma, double[] masses, double[] densities) {
+		calculate(formulas, z, masses, densities, (i, ws) -> {
+			ws.update(a[i], b[i], c[i], alpha[i], beta[i], gamma[i]);
+			return ws.getVolume();
+		});
+	}
+
+	private interface VolumeSource {
+		double getVolume(int entry, CellWorkspace workspace);
+	}
+
+	private static void calculate(String[] formulas, int[] z, double[] masses, double[] densities, VolumeSource volumes) {
+		int size = formulas.length;
+		int nChunks = (size + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		IntStream.range(0, nChunks).parallel().forEach(chunk -> {
+			Composition.Parser parser = new Composition.Parser();
+			CellWorkspace ws = new CellWorkspace(1, 1, 1, 90, 90, 90);
+			double[] dense = new double[ElementTable.MAX_Z + 1];
+			int end = Math.min(size, (chunk + 1) * CHUNK_SIZE);
+			for (int i = chunk * CHUNK_SIZE; i < end; i++) {
+				Arrays.fill(dense, 0);
+				parser.parse(formulas[i], dense);
+				double mass = 0;
+				for (int el = 1; el <= ElementTable.MAX_Z; el++) {
+					if (dense[el] != 0) mass += dense[el] * ElementTable.getAtomicWeight(el);
+				}
+				masses[i] = mass;
+				densities[i] = calculateDensity(mass, z[i], volumes.getVolume(i, ws));
+			}
+		});
+	}
+
+}
@@ -0,0 +1,228 @@
+package uk.co.norphos.crystallography.toolkit;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.stream.IntStream;
+
+/**
+ * A periodic map (electron density, difference density or Patterson) on a
+ * grid over the unit cell, stored off-heap as single precision values.
+ * Point (i, j, k) is at fractional coordinates (i/na, j/nb, k/nc) and is
+ * held at index i + na.(j + nb.k).
+ * <br>
+ * Values between grid points are interpolated trilinearly or by tricubic
+ * (Catmull-Rom) interpolation, which passes through the grid values and is
+ * continuous in slope. Indices outside the grid wrap around the cell.
+ *
+ * @author Michael Wharmby
+ *
+ */
+public final class DensityMap {
+
+	private static final int CHUNK_SIZE = 1024;
+
+	private final UnitCell cell;
+	private final int na, nb, nc;
+	private final FloatBuffer values;
+	private final double min, max, mean, rms;
+
+	/**
+	 * Construct a map around values already on the grid.
+	 *
+	 * @param cell {@link UnitCell}
+	 * @param na int grid points along a
+	 * @param nb int grid points along b
+	 * @param nc int grid points along c
+	 * @param values FloatBuffer of na.nb.nc values, which should not be
+	 *        changed afterwards
+	 */
+	DensityMap(UnitCell cell, int na, int nb, int nc, FloatBuffer values) {
+		this.cell = cell;
+		this.na = na;
+		this.nb = nb;
+		this.nc = nc;
+		this.values = values;
+
+		//Statistics over slabs, merged in order
+		double[][] slabs = new double[nc][];
+		IntStream.range(0, nc).parallel().forEach(k -> {
+			double sMin = Double.POSITIVE_INFINITY, sMax = Double.NEGATIVE_INFINITY, sum = 0, sumSq = 0;
+			for (int p = na * nb * k, end = p + na * nb; p < end; p++) {
+				double v = values.get(p);
+				sMin = Math.min(sMin, v);
+				sMax = Math.max(sMax, v);
+				sum += v;
+				sumSq += v * v;
+			}
+			slabs[k] = new double[]{sMin, sMax, sum, sumSq};
+		});
+		double sMin = Double.POSITIVE_INFINITY, sMax = Double.NEGATIVE_INFINITY, sum = 0, sumSq = 0;
+		for (double[] slab : slabs) {
+			sMin = Math.min(sMin, slab[0]);
+			sMax = Math.max(sMax, slab[1]);
+			sum += slab[2];
+			sumSq += slab[3];
+		}
+		long n = (long)na * nb * nc;
+		min = sMin;
+		max = sMax;
+		mean = sum / n;
+		rms = Math.sqrt(Math.max(sumSq / n - mean * mean, 0));
+	}
+
+	/**
+	 * Allocate off-heap storage for a grid.
+	 * @param nPoints int
+	 * @return FloatBuffer in native byte order
+	 */
+	static FloatBuffer allocate(int nPoints) {
+		return ByteBuffer.allocateDirect(4 * nPoints).order(ByteOrder.nativeOrder()).asFloatBuffer();
+	}
+
+	public UnitCell getUnitCell() {
+		return cell;
+	}
+
+	/**
+	 * Return the number of grid points along a, b and c.
+	 * @return int[3]
+	 */
+	public int[] getGridDimensions() {
+		return new int[]{na, nb, nc};
+	}
+
+	/**
+	 * Return the value at a grid point, wrapping indices into the cell.
+	 * @param i int index along a
+	 * @param j int index along b
+	 * @param k int index along c
+	 * @return double
+	 */
+	public double getValue(int i, int j, int k) {
+		return values.get(Math.floorMod(i, na) + na * (Math.floorMod(j, nb) + nb * Math.floorMod(k, nc)));
+	}
+
+	/**
+	 * Return a read-only view of the grid values, index i + na.(j + nb.k).
+	 * @return FloatBuffer
+	 */
+	public FloatBuffer getValues() {
+		return values.asReadOnlyBuffer();
+	}
+
+	public double getMin() {
+		return min;
+	}
+
+	public double getMax() {
+		return max;
+	}
+
+	public double getMean() {
+		return mean;
+	}
+
+	/**
+	 * Return the root-mean-square deviation from the mean (sigma of the
+	 * map).
+	 * @return double
+	 */
+	public double getRms() {
+		return rms;
+	}
+
+	/**
+	 * Interpolate the map trilinearly.
+	 * @param x double fractional coordinate
+	 * @param y double fractional coordinate
+	 * @param z double fractional coordinate
+	 * @return double
+	 */
+	public double interpolateLinear(double x, double y, double z) {
+		double gx = x * na, gy = y * nb, gz = z * nc;
+		int i = (int)Math.floor(gx), j = (int)Math.floor(gy), k = (int)Math.floor(gz);
+		double u = gx - i, v = gy - j, w = gz - k;
+		int i0 = Math.floorMod(i, na), i1 = i0 + 1 == na ? 0 : i0 + 1;
+		int j0 = Math.floorMod(j, nb) * na, j1 = (j0 + na == na * nb ? 0 : j0 + na);
+		int k0 = Math.floorMod(k, nc) * na * nb, k1 = (k0 + na * nb == na * nb * nc ? 0 : k0 + na * nb);
+		double c00 = values.get(i0 + j0 + k0) * (1 - u) + values.get(i1 + j0 + k0) * u;
+		double c10 = values.get(i0 + j1 + k0) * (1 - u) + values.get(i1 + j1 + k0) * u;
+		double c01 = values.get(i0 + j0 + k1) * (1 - u) + values.get(i1 + j0 + k1) * u;
+		double c11 = values.get(i0 + j1 + k1) * (1 - u) + values.get(i1 + j1 + k1) * u;
+		return (c00 * (1 - v) + c10 * v) * (1 - w) + (c01 * (1 - v) + c11 * v) * w;
+	}
+
+	/**
+	 * Interpolate the map by tricubic (Catmull-Rom) interpolation over the
+	 * surrounding 4x4x4 grid points.
+	 * @param x double fractional coordinate
+	 * @param y double fractional coordinate
+	 * @param z double fractional coordinate
+	 * @return double
+	 */
+	public double interpolateCubic(double x, double y, double z) {
+		double gx = x * na, gy = y * nb, gz = z * nc;
+		int i = (int)Math.floor(gx), j = (int)Math.floor(gy), k = (int)Math.floor(gz);
+		double u = gx - i, v = gy - j, w = gz - k;
+		double wx0 = catmullRom0(u), wx1 = catmullRom1(u), wx2 = catmullRom1(1 - u), wx3 = catmullRom0(1 - u);
+		double wy0 = catmullRom0(v), wy1 = catmullRom1(v), wy2 = catmullRom1(1 - v), wy3 = catmullRom0(1 - v);
+		double wz0 = catmullRom0(w), wz1 = catmullRom1(w), wz2 = catmullRom1(1 - w), wz3 = catmullRom0(1 - w);
+		int ia = Math.floorMod(i - 1, na), ib = next(ia, na), ic = next(ib, na), id = next(ic, na);
+
+		//Lines and planes are shifted through four scalars, so each is paired with its weight at the end
+		double p0 = 0, p1 = 0, p2 = 0, p3 = 0;
+		for (int dk = 0; dk < 4; dk++) {
+			int kk = Math.floorMod(k - 1 + dk, nc) * nb;
+			double l0 = 0, l1 = 0, l2 = 0, l3 = 0;
+			for (int dj = 0; dj < 4; dj++) {
+				int row = na * (Math.floorMod(j - 1 + dj, nb) + kk);
+				l0 = l1;
+				l1 = l2;
+				l2 = l3;
+				l3 = wx0 * values.get(row + ia) + wx1 * values.get(row + ib)
+						+ wx2 * values.get(row + ic) + wx3 * values.get(row + id);
+			}
+			p0 = p1;
+			p1 = p2;
+			p2 = p3;
+			p3 = wy0 * l0 + wy1 * l1 + wy2 * l2 + wy3 * l3;
+		}
+		return wz0 * p0 + wz1 * p1 + wz2 * p2 + wz3 * p3;
+	}
+
+	private static int next(int i, int n) {
+		return i + 1 == n ? 0 : i + 1;
+	}
+
+	/*
+	 * Catmull-Rom weights of the outer (distance 1 + t) and inner
+	 * (distance t) points for fractional offset t.
+	 */
+	private static double catmullRom0(double t) {
+		return 0.5 * t * (-1 + t * (2 - t));
+	}
+
+	private static double catmullRom1(double t) {
+		return 0.5 * (2 + t * t * (-5 + 3 * t));
+	}
+
+	/**
+	 * Interpolate the map at many points in parallel.
+	 *
+	 * @param fracCoords double[] packed fractional coordinates
+	 * @param dest double[] to be filled with one value per point
+	 * @param cubic boolean true for tricubic, false for trilinear
+	 */
+	public void interpolate(double[] fracCoords, double[] dest, boolean cubic) {
+		int n = fracCoords.length / 3;
+		int nChunks = (n + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		IntStream.range(0, nChunks).parallel().forEach(c -> {
+			for (int p = c * CHUNK_SIZE, end = Math.min(n, p + CHUNK_SIZE); p < end; p++) {
+				double x = fracCoords[3 * p], y = fracCoords[3 * p + 1], z = fracCoords[3 * p + 2];
+				dest[p] = cubic ? interpolateCubic(x, y, z) : interpolateLinear(x, y, z);
+			}
+		});
+	}
+
+}
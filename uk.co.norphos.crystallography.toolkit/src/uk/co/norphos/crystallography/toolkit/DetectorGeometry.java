@@ -0,0 +1,111 @@
+package uk.co.norphos.crystallography.toolkit;
+
+/**
+ * Geometry of a flat area detector in the laboratory frame, in which the
+ * sample is at the origin and the X-ray beam travels along +z. The detector
+ * is described by the position of the corner of its first pixel and unit
+ * vectors along its fast (row) and slow (column) pixel directions. Lengths
+ * are in mm.
+ *
+ * @author Michael Wharmby
+ *
+ */
+public class DetectorGeometry {
+
+	private final double[] origin, fastAxis, slowAxis, normal;
+	private final double pixelSize;
+	private final int nFast, nSlow;
+
+	/**
+	 * Construct a detector with arbitrary position and orientation.
+	 *
+	 * @param origin double[3] position of the corner of pixel (0,0)
+	 * @param fastAxis double[3] direction of increasing fast pixel index
+	 * @param slowAxis double[3] direction of increasing slow pixel index
+	 *        (perpendicular to fastAxis)
+	 * @param pixelSize double edge length of a square pixel
+	 * @param nFast int number of pixels along the fast axis
+	 * @param nSlow int number of pixels along the slow axis
+	 */
+	public DetectorGeometry(double[] origin, double[] fastAxis, double[] slowAxis, double pixelSize, int nFast, int nSlow) {
+		this.origin = origin.clone();
+		this.fastAxis = normalise(fastAxis);
+		this.slowAxis = normalise(slowAxis);
+		if (Math.abs(dot(this.fastAxis, this.slowAxis)) > 1e-6) {
+			throw new IllegalArgumentException("Fast and slow axes must be perpendicular");
+		}
+		normal = new double[]{
+				this.fastAxis[1] * this.slowAxis[2] - this.fastAxis[2] * this.slowAxis[1],
+				this.fastAxis[2] * this.slowAxis[0] - this.fastAxis[0] * this.slowAxis[2],
+				this.fastAxis[0] * this.slowAxis[1] - this.fastAxis[1] * this.slowAxis[0]};
+		this.pixelSize = pixelSize;
+		this.nFast = nFast;
+		this.nSlow = nSlow;
+	}
+
+	/**
+	 * Construct a detector perpendicular to the beam, with its fast axis
+	 * along x and slow axis along y.
+	 *
+	 * @param distance double sample to detector distance
+	 * @param beamCentreFast double fast pixel coordinate of the direct beam
+	 * @param beamCentreSlow double slow pixel coordinate of the direct beam
+	 * @param pixelSize double edge length of a square pixel
+	 * @param nFast int number of pixels along the fast axis
+	 * @param nSlow int number of pixels along the slow axis
+	 * @return DetectorGeometry
+	 */
+	public static DetectorGeometry normalToBeam(double distance, double beamCentreFast, double beamCentreSlow,
+			double pixelSize, int nFast, int nSlow) {
+		return new DetectorGeometry(new double[]{-beamCentreFast * pixelSize, -beamCentreSlow * pixelSize, distance},
+				new double[]{1, 0, 0}, new double[]{0, 1, 0}, pixelSize, nFast, nSlow);
+	}
+
+	/**
+	 * Find where a ray from the sample along direction (x,y,z) meets the
+	 * detector plane.
+	 *
+	 * @param x double
+	 * @param y double
+	 * @param z double
+	 * @param dest double[2] to receive fast and slow pixel coordinates
+	 * @return boolean true if the ray meets the detector within its active
+	 *         area, in which case dest has been filled
+	 */
+	public boolean intersect(double x, double y, double z, double[] dest) {
+		double along = x * normal[0] + y * normal[1] + z * normal[2];
+		double planeDistance = dot(origin, normal);
+		//Ray must travel towards the detector plane
+		if (along == 0 || planeDistance / along <= 0) return false;
+		double t = planeDistance / along;
+		double px = t * x - origin[0], py = t * y - origin[1], pz = t * z - origin[2];
+		double fast = (px * fastAxis[0] + py * fastAxis[1] + pz * fastAxis[2]) / pixelSize;
+		double slow = (px * slowAxis[0] + py * slowAxis[1] + pz * slowAxis[2]) / pixelSize;
+		if (fast < 0 || fast >= nFast || slow < 0 || slow >= nSlow) return false;
+		dest[0] = fast;
+		dest[1] = slow;
+		return true;
+	}
+
+	public double getPixelSize() {
+		return pixelSize;
+	}
+
+	public int getNumberOfFastPixels() {
+		return nFast;
+	}
+
+	public int getNumberOfSlowPixels() {
+		return nSlow;
+	}
+
+	private static double dot(double[] u, double[] v) {
+		return u[0] * v[0] + u[1] * v[1] + u[2] * v[2];
+	}
+
+	private static double[] normalise(double[] v) {
+		double norm = Math.sqrt(dot(v, v));
+		return new double[]{v[0] / norm, v[1] / norm, v[2] / norm};
+	}
+
+}
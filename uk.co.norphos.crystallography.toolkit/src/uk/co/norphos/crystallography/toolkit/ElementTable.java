@@ -0,0 +1,353 @@
+package uk.co.norphos.crystallography.toolkit;
+
+/**
+ * Compiled table of element properties, indexed by atomic number Z (1-98).
+ *
+ * All data are held in primitive arrays so that look-ups in bulk
+ * calculations are a single array access. Atomic weights are the IUPAC 2013
+ * standard atomic weights abridged to five significant figures (Meija et
+ * al., Pure Appl. Chem. 88 (2016) 265; see the references directory). For
+ * elements with no standard atomic weight, the mass number of the
+ * longest-lived isotope is given and the uncertainty is NaN. Properties
+ * which are not tabulated for an element are NaN.
+ *
+ * @author Michael Wharmby
+ *
+ */
+public final class ElementTable {
+
+	/**
+	 * Highest atomic number in the table.
+	 */
+	public static final int MAX_Z = 98;
+
+	/**
+	 * Van der Waals radius to use where none is tabulated, as is the
+	 * convention of the CSD.
+	 */
+	public static final double DEFAULT_VDW_RADIUS = 2.0;
+
+	/**
+	 * Conversion from atomic mass units per cubic Angstrom to g/cm^3.
+	 */
+	public static final double AMU_PER_CUBIC_ANGSTROM_TO_G_PER_CC = 1.66053906660;
+
+	private static final String[] SYMBOLS = {
+		null, //0 (unused)
+		"H", "He", "Li", "Be", "B", "C", "N", "O", "F", "Ne", //1-10
+		"Na", "Mg", "Al", "Si", "P", "S", "Cl", "Ar", "K", "Ca", //11-20
+		"Sc", "Ti", "V", "Cr", "Mn", "Fe", "Co", "Ni", "Cu", "Zn", //21-30
+		"Ga", "Ge", "As", "Se", "Br", "Kr", "Rb", "Sr", "Y", "Zr", //31-40
+		"Nb", "Mo", "Tc", "Ru", "Rh", "Pd", "Ag", "Cd", "In", "Sn", //41-50
+		"Sb", "Te", "I", "Xe", "Cs", "Ba", "La", "Ce", "Pr", "Nd", //51-60
+		"Pm", "Sm", "Eu", "Gd", "Tb", "Dy", "Ho", "Er", "Tm", "Yb", //61-70
+		"Lu", "Hf", "Ta", "W", "Re", "Os", "Ir", "Pt", "Au", "Hg", //71-80
+		"Tl", "Pb", "Bi", "Po", "At", "Rn", "Fr", "Ra", "Ac", "Th", //81-90
+		"Pa", "U", "Np", "Pu", "Am", "Cm", "Bk", "Cf" //91-98
+	};
+
+	//IUPAC 2013 standard atomic weights abridged to five significant figures; mass number of the longest-lived isotope where there is no standard weight
+	private static final double[] WEIGHTS = {
+		Double.NaN, //0 (unused)
+		1.0080, 4.0026, 6.94, 9.0122, 10.81, 12.011, 14.007, 15.999, 18.998, 20.180, //1-10
+		22.990, 24.305, 26.982, 28.085, 30.974, 32.06, 35.45, 39.948, 39.098, 40.078, //11-20
+		44.956, 47.867, 50.942, 51.996, 54.938, 55.845, 58.933, 58.693, 63.546, 65.38, //21-30
+		69.723, 72.630, 74.922, 78.971, 79.904, 83.798, 85.468, 87.62, 88.906, 91.224, //31-40
+		92.906, 95.95, 98.0, 101.07, 102.91, 106.42, 107.87, 112.41, 114.82, 118.71, //41-50
+		121.76, 127.60, 126.90, 131.29, 132.91, 137.33, 138.91, 140.12, 140.91, 144.24, //51-60
+		145.0, 150.36, 151.96, 157.25, 158.93, 162.50, 164.93, 167.26, 168.93, 173.05, //61-70
+		174.97, 178.49, 180.95, 183.84, 186.21, 190.23, 192.22, 195.08, 196.97, 200.59, //71-80
+		204.38, 207.2, 208.98, 209.0, 210.0, 222.0, 223.0, 226.0, 227.0, 232.04, //81-90
+		231.04, 238.03, 237.0, 244.0, 243.0, 247.0, 247.0, 251.0 //91-98
+	};
+
+	//Uncertainty of the abridged standard atomic weights
+	private static final double[] WEIGHT_UNCERTAINTIES = {
+		Double.NaN, //0 (unused)
+		0.0002, 0.0001, 0.06, 0.0001, 0.02, 0.002, 0.001, 0.001, 0.001, 0.001, //1-10
+		0.001, 0.002, 0.001, 0.001, 0.001, 0.02, 0.01, 0.001, 0.001, 0.004, //11-20
+		0.001, 0.001, 0.001, 0.001, 0.001, 0.002, 0.001, 0.001, 0.003, 0.02, //21-30
+		0.001, 0.008, 0.001, 0.008, 0.003, 0.002, 0.001, 0.01, 0.001, 0.002, //31-40
+		0.001, 0.01, Double.NaN, 0.02, 0.01, 0.01, 0.01, 0.01, 0.01, 0.01, //41-50
+		0.01, 0.03, 0.01, 0.01, 0.01, 0.01, 0.01, 0.01, 0.01, 0.01, //51-60
+		Double.NaN, 0.02, 0.01, 0.03, 0.01, 0.01, 0.01, 0.01, 0.01, 0.01, //61-70
+		0.01, 0.02, 0.01, 0.01, 0.01, 0.03, 0.01, 0.02, 0.01, 0.01, //71-80
+		0.01, 0.1, 0.01, Double.NaN, Double.NaN, Double.NaN, Double.NaN, Double.NaN, Double.NaN, 0.01, //81-90
+		0.01, 0.01, Double.NaN, Double.NaN, Double.NaN, Double.NaN, Double.NaN, Double.NaN //91-98
+	};
+
+	//Cordero et al., Dalton Trans. (2008) 2832 (sp3 C, low-spin Mn/Fe/Co)
+	private static final double[] COVALENT_RADII = {
+		Double.NaN, //0 (unused)
+		0.31, 0.28, 1.28, 0.96, 0.84, 0.76, 0.71, 0.66, 0.57, 0.58, //1-10
+		1.66, 1.41, 1.21, 1.11, 1.07, 1.05, 1.02, 1.06, 2.03, 1.76, //11-20
+		1.70, 1.60, 1.53, 1.39, 1.39, 1.32, 1.26, 1.24, 1.32, 1.22, //21-30
+		1.22, 1.20, 1.19, 1.20, 1.20, 1.16, 2.20, 1.95, 1.90, 1.75, //31-40
+		1.64, 1.54, 1.47, 1.46, 1.42, 1.39, 1.45, 1.44, 1.42, 1.39, //41-50
+		1.39, 1.38, 1.39, 1.40, 2.44, 2.15, 2.07, 2.04, 2.03, 2.01, //51-60
+		1.99, 1.98, 1.98, 1.96, 1.94, 1.92, 1.92, 1.89, 1.90, 1.87, //61-70
+		1.87, 1.75, 1.70, 1.62, 1.51, 1.44, 1.41, 1.36, 1.36, 1.32, //71-80
+		1.45, 1.46, 1.48, 1.40, 1.50, 1.50, 2.60, 2.21, 2.15, 2.06, //81-90
+		2.00, 1.96, 1.90, 1.87, 1.80, 1.69, Double.NaN, Double.NaN //91-98
+	};
+
+	//Bondi, J. Phys. Chem. 68 (1964) 441, supplemented by Mantina et al., J. Phys. Chem. A 113 (2009) 5806
+	private static final double[] VDW_RADII = {
+		Double.NaN, //0 (unused)
+		1.20, 1.40, 1.82, 1.53, 1.92, 1.70, 1.55, 1.52, 1.47, 1.54, //1-10
+		2.27, 1.73, 1.84, 2.10, 1.80, 1.80, 1.75, 1.88, 2.75, 2.31, //11-20
+		Double.NaN, Double.NaN, Double.NaN, Double.NaN, Double.NaN, Double.NaN, Double.NaN, 1.63, 1.40, 1.39, //21-30
+		1.87, 2.11, 1.85, 1.90, 1.85, 2.02, 3.03, 2.49, Double.NaN, Double.NaN, //31-40
+		Double.NaN, Double.NaN, Double.NaN, Double.NaN, Double.NaN, 1.63, 1.72, 1.58, 1.93, 2.17, //41-50
+		2.06, 2.06, 1.98, 2.16, 3.43, 2.68, Double.NaN, Double.NaN, Double.NaN, Double.NaN, //51-60
+		Double.NaN, Double.NaN, Double.NaN, Double.NaN, Double.NaN, Double.NaN, Double.NaN, Double.NaN, Double.NaN, Double.NaN, //61-70
+		Double.NaN, Double.NaN, Double.NaN, Double.NaN, Double.NaN, Double.NaN, Double.NaN, 1.72, 1.66, 1.55, //71-80
+		1.96, 2.02, 2.07, 1.97, 2.02, 2.20, 3.48, 2.83, Double.NaN, Double.NaN, //81-90
+		Double.NaN, 1.86, Double.NaN, Double.NaN, Double.NaN, Double.NaN, Double.NaN, Double.NaN //91-98
+	};
+
+	//Cromer-Mann coefficients a1, b1, a2, b2, a3, b3, a4, b4, c (International Tables Vol. C, Table 6.1.1.4), Z = 1-98
+	private static final double[] CROMER_MANN = {
+		0.489918, 20.6593, 0.262003, 7.74039, 0.196767, 49.5519, 0.049879, 2.20159, 0.001305, //H
+		0.8734, 9.1037, 0.6309, 3.3568, 0.3112, 22.9276, 0.178, 0.9821, 0.0064, //He
+		1.1282, 3.9546, 0.7508, 1.0524, 0.6175, 85.3905, 0.4653, 168.261, 0.0377, //Li
+		1.5919, 43.6427, 1.1278, 1.8623, 0.5391, 103.483, 0.7029, 0.542, 0.0385, //Be
+		2.0545, 23.2185, 1.3326, 1.021, 1.0979, 60.3498, 0.7068, 0.1403, -0.1932, //B
+		2.31, 20.8439, 1.02, 10.2075, 1.5886, 0.5687, 0.865, 51.6512, 0.2156, //C
+		12.2126, 0.0057, 3.1322, 9.8933, 2.0125, 28.9975, 1.1663, 0.5826, -11.529, //N
+		3.0485, 13.2771, 2.2868, 5.7011, 1.5463, 0.3239, 0.867, 32.9089, 0.2508, //O
+		3.5392, 10.2825, 2.6412, 4.2944, 1.517, 0.2615, 1.0243, 26.1476, 0.2776, //F
+		3.9553, 8.4042, 3.1125, 3.4262, 1.4546, 0.2306, 1.1251, 21.7184, 0.3515, //Ne
+		4.7626, 3.285, 3.1736, 8.8422, 1.2674, 0.3136, 1.1128, 129.424, 0.676, //Na
+		5.4204, 2.8275, 2.1735, 79.2611, 1.2269, 0.3808, 2.3073, 7.1937, 0.8584, //Mg
+		6.4202, 3.0387, 1.9002, 0.7426, 1.5936, 31.5472, 1.9646, 85.0886, 1.1151, //Al
+		6.2915, 2.4386, 3.0353, 32.3337, 1.9891, 0.6785, 1.541, 81.6937, 1.1407, //Si
+		6.4345, 1.9067, 4.1791, 27.157, 1.78, 0.526, 1.4908, 68.1645, 1.1149, //P
+		6.9053, 1.4679, 5.2034, 22.2151, 1.4379, 0.2536, 1.5863, 56.172, 0.8669, //S
+		11.4604, 0.0104, 7.1962, 1.1662, 6.2556, 18.5194, 1.6455, 47.7784, -9.5574, //Cl
+		7.4845, 0.9072, 6.7723, 14.8407, 0.6539, 43.8983, 1.6442, 33.3929, 1.4445, //Ar
+		8.2186, 12.7949, 7.4398, 0.7748, 1.0519, 213.187, 0.8659, 41.6841, 1.4228, //K
+		8.6266, 10.4421, 7.3873, 0.6599, 1.5899, 85.7484, 1.0211, 178.437, 1.3751, //Ca
+		9.189, 9.0213, 7.3679, 0.5729, 1.6409, 136.108, 1.468, 51.3531, 1.3329, //Sc
+		9.7595, 7.8508, 7.3558, 0.5, 1.6991, 35.6338, 1.9021, 116.105, 1.2807, //Ti
+		10.2971, 6.8657, 7.3511, 0.4385, 2.0703, 26.8938, 2.0571, 102.478, 1.2199, //V
+		10.6406, 6.1038, 7.3537, 0.392, 3.324, 20.2626, 1.4922, 98.7399, 1.1832, //Cr
+		11.2819, 5.3409, 7.3573, 0.3432, 3.0193, 17.8674, 2.2441, 83.7543, 1.0896, //Mn
+		11.7695, 4.7611, 7.3573, 0.3072, 3.5222, 15.3535, 2.3045, 76.8805, 1.0369, //Fe
+		12.2841, 4.2791, 7.3409, 0.2784, 4.0034, 13.5359, 2.3488, 71.1692, 1.0118, //Co
+		12.8376, 3.8785, 7.292, 0.2565, 4.4438, 12.1763, 2.38, 66.3421, 1.0341, //Ni
+		13.338, 3.5828, 7.1676, 0.247, 5.6158, 11.3966, 1.6735, 64.8126, 1.191, //Cu
+		14.0743, 3.2655, 7.0318, 0.2333, 5.1652, 10.3163, 2.41, 58.7097, 1.3041, //Zn
+		15.2354, 3.0669, 6.7006, 0.2412, 4.3591, 10.7805, 2.9623, 61.4135, 1.7189, //Ga
+		16.0816, 2.8509, 6.3747, 0.2516, 3.7068, 11.4468, 3.683, 54.7625, 2.1313, //Ge
+		16.6723, 2.6345, 6.0701, 0.2647, 3.4313, 12.9479, 4.2779, 47.7972, 2.531, //As
+		17.0006, 2.4098, 5.8196, 0.2726, 3.9731, 15.2372, 4.3543, 43.8163, 2.8409, //Se
+		17.1789, 2.1723, 5.2358, 16.5796, 5.6377, 0.2609, 3.9851, 41.4328, 2.9557, //Br
+		17.3555, 1.9384, 6.7286, 16.5623, 5.5493, 0.2261, 3.5375, 39.3972, 2.825, //Kr
+		17.1784, 1.7888, 9.6435, 17.3151, 5.1399, 0.2748, 1.5292, 164.934, 3.4873, //Rb
+		17.5663, 1.5564, 9.8184, 14.0988, 5.422, 0.1664, 2.6694, 132.376, 2.5064, //Sr
+		17.776, 1.4029, 10.2946, 12.8006, 5.72629, 0.125599, 3.26588, 104.354, 1.91213, //Y
+		17.8765, 1.27618, 10.948, 11.916, 5.41732, 0.117622, 3.65721, 87.6627, 2.06929, //Zr
+		17.6142, 1.18865, 12.0144, 11.766, 4.04183, 0.204785, 3.53346, 69.7957, 3.75591, //Nb
+		3.7025, 0.2772, 17.2356, 1.0958, 12.8876, 11.004, 3.7429, 61.6584, 4.3875, //Mo
+		19.1301, 0.864132, 11.0948, 8.14487, 4.64901, 21.5707, 2.71263, 86.8472, 5.40428, //Tc
+		19.2674, 0.80852, 12.9182, 8.43467, 4.86337, 24.7997, 1.56756, 94.2928, 5.37874, //Ru
+		19.2957, 0.751536, 14.3501, 8.21758, 4.73425, 25.8749, 1.28918, 98.6062, 5.328, //Rh
+		19.3319, 0.698655, 15.5017, 7.98929, 5.29537, 25.2052, 0.605844, 76.8986, 5.26593, //Pd
+		19.2808, 0.6446, 16.6885, 7.4726, 4.8045, 24.6605, 1.0463, 99.8156, 5.179, //Ag
+		19.2214, 0.5946, 17.6444, 6.9089, 4.461, 24.7008, 1.6029, 87.4825, 5.0694, //Cd
+		19.1624, 0.5476, 18.5596, 6.3776, 4.2948, 25.8499, 2.0396, 92.8029, 4.9391, //In
+		19.1889, 5.8303, 19.1005, 0.5031, 4.4585, 26.8909, 2.4663, 83.9571, 4.7821, //Sn
+		19.6418, 5.3034, 19.0455, 0.4607, 5.0371, 27.9074, 2.6827, 75.2825, 4.5909, //Sb
+		19.9644, 4.81742, 19.0138, 0.420885, 6.14487, 28.5284, 2.5239, 70.8403, 4.352, //Te
+		20.1472, 4.347, 18.9949, 0.3814, 7.5138, 27.766, 2.2735, 66.8776, 4.0712, //I
+		20.2933, 3.9282, 19.0298, 0.344, 8.9767, 26.4659, 1.99, 64.2658, 3.7118, //Xe
+		20.3892, 3.569, 19.1062, 0.3107, 10.662, 24.3879, 1.4953, 213.904, 3.3352, //Cs
+		20.3361, 3.216, 19.297, 0.2756, 10.888, 20.2073, 2.6959, 167.202, 2.7731, //Ba
+		20.578, 2.94817, 19.599, 0.244475, 11.3727, 18.7726, 3.28719, 133.124, 2.14678, //La
+		21.1671, 2.81219, 19.7695, 0.226836, 11.8513, 17.6083, 3.33049, 127.113, 1.86264, //Ce
+		22.044, 2.77393, 19.6697, 0.222087, 12.3856, 16.7669, 2.82428, 143.644, 2.0583, //Pr
+		22.6845, 2.66248, 19.6847, 0.210628, 12.774, 15.885, 2.85137, 137.903, 1.98486, //Nd
+		23.3405, 2.5627, 19.6095, 0.202088, 13.1235, 15.1009, 2.87516, 132.721, 2.02876, //Pm
+		24.0042, 2.47274, 19.4258, 0.196451, 13.4396, 14.3996, 2.89604, 128.007, 2.20963, //Sm
+		24.6274, 2.3879, 19.0886, 0.1942, 13.7603, 13.7546, 2.9227, 123.174, 2.5745, //Eu
+		25.0709, 2.25341, 19.0798, 0.181951, 13.8518, 12.9331, 3.54545, 101.398, 2.4196, //Gd
+		25.8976, 2.24256, 18.2185, 0.196143, 14.3167, 12.6648, 2.95354, 115.362, 3.58324, //Tb
+		26.507, 2.1802, 17.6383, 0.202172, 14.5596, 12.1899, 2.96577, 111.874, 4.29728, //Dy
+		26.9049, 2.07051, 17.294, 0.19794, 14.5583, 11.4407, 3.63837, 92.6566, 4.56796, //Ho
+		27.6563, 2.07356, 16.4285, 0.223545, 14.9779, 11.3604, 2.98233, 105.703, 5.92046, //Er
+		28.1819, 2.02859, 15.8851, 0.238849, 15.1542, 10.9975, 2.98706, 102.961, 6.75621, //Tm
+		28.6641, 1.9889, 15.4345, 0.257119, 15.3087, 10.6647, 2.98963, 100.417, 7.56672, //Yb
+		28.9476, 1.90182, 15.2208, 9.98519, 15.1, 0.261033, 3.71601, 84.3298, 7.97628, //Lu
+		29.144, 1.83262, 15.1726, 9.5999, 14.7586, 0.275116, 4.30013, 72.029, 8.58154, //Hf
+		29.2024, 1.77333, 15.2293, 9.37046, 14.5135, 0.295977, 4.76492, 63.3644, 9.24354, //Ta
+		29.0818, 1.72029, 15.43, 9.2259, 14.4327, 0.321703, 5.11982, 57.056, 9.8875, //W
+		28.7621, 1.67191, 15.7189, 9.09227, 14.5564, 0.3505, 5.44174, 52.0861, 10.472, //Re
+		28.1894, 1.62903, 16.155, 8.97948, 14.9305, 0.382661, 5.67589, 48.1647, 11.0005, //Os
+		27.3049, 1.59279, 16.7296, 8.86553, 15.6115, 0.417916, 5.83377, 45.0011, 11.4722, //Ir
+		27.0059, 1.51293, 17.7639, 8.81174, 15.7131, 0.424593, 5.7837, 38.6103, 11.6883, //Pt
+		16.8819, 0.4611, 18.5913, 8.6216, 25.5582, 1.4826, 5.86, 36.3956, 12.0658, //Au
+		20.6809, 0.545, 19.0417, 8.4484, 21.6575, 1.5729, 5.9676, 38.3246, 12.6089, //Hg
+		27.5446, 0.65515, 19.1584, 8.70751, 15.538, 1.96347, 5.52593, 45.8149, 13.1746, //Tl
+		31.0617, 0.6902, 13.0637, 2.3576, 18.442, 8.618, 5.9696, 47.2579, 13.4118, //Pb
+		33.3689, 0.704, 12.951, 2.9238, 16.5877, 8.7937, 6.4692, 48.0093, 13.5782, //Bi
+		34.6726, 0.700999, 15.4733, 3.55078, 13.1138, 9.55642, 7.02588, 47.0045, 13.677, //Po
+		35.3163, 0.68587, 19.0211, 3.97458, 9.49887, 11.3824, 7.42518, 45.4715, 13.7108, //At
+		35.5631, 0.6631, 21.2816, 4.0691, 8.0037, 14.0422, 7.4433, 44.2473, 13.6905, //Rn
+		35.9299, 0.646453, 23.0547, 4.17619, 12.1439, 23.1052, 2.11253, 150.645, 13.7247, //Fr
+		35.763, 0.616341, 22.9064, 3.87135, 12.4739, 19.9887, 3.21097, 142.325, 13.6211, //Ra
+		35.6597, 0.589092, 23.1032, 3.65155, 12.5977, 18.599, 4.08655, 117.02, 13.5266, //Ac
+		35.5645, 0.563359, 23.4219, 3.46204, 12.7473, 17.8309, 4.80703, 99.1722, 13.4314, //Th
+		35.8847, 0.547751, 23.2948, 3.41519, 14.1891, 16.9235, 4.17287, 105.251, 13.4287, //Pa
+		36.0228, 0.5293, 23.4128, 3.3253, 14.9491, 16.0927, 4.188, 100.613, 13.3966, //U
+		36.1874, 0.511929, 23.5964, 3.25396, 15.6402, 15.3622, 4.1855, 97.4908, 13.3573, //Np
+		36.5254, 0.499384, 23.8083, 3.26371, 16.7707, 14.9455, 3.47947, 105.98, 13.3812, //Pu
+		36.6706, 0.483629, 24.0992, 3.20647, 17.3415, 14.3136, 3.49331, 102.273, 13.3592, //Am
+		36.6488, 0.465154, 24.4096, 3.08997, 17.399, 13.4346, 4.21665, 88.4834, 13.2887, //Cm
+		36.7881, 0.451018, 24.7736, 3.04619, 17.8919, 12.8946, 4.23284, 86.003, 13.2754, //Bk
+		36.9185, 0.437533, 25.1995, 3.00775, 18.3317, 12.4044, 4.24391, 83.7881, 13.2674 //Cf
+	};
+
+	//Two-character key (first char * 128 + second char, or first char alone) to Z
+	private static final byte[] SYMBOL_LOOKUP = new byte[128 * 128];
+
+	static {
+		for (int z = 1; z <= MAX_Z; z++) {
+			String symbol = SYMBOLS[z];
+			SYMBOL_LOOKUP[symbolKey(symbol.charAt(0), symbol.length() > 1 ? symbol.charAt(1) : 0)] = (byte)z;
+		}
+	}
+
+	private ElementTable() {
+		//Static data only
+	}
+
+	private static int symbolKey(char first, char second) {
+		return (first & 0x7f) * 128 + (second & 0x7f);
+	}
+
+	/**
+	 * Return the atomic number of an element from its one or two character
+	 * symbol, without creating a String. Returns 0 if the symbol is unknown.
+	 *
+	 * @param first char upper-case first character
+	 * @param second char lower-case second character, or 0 for one character
+	 *        symbols
+	 * @return int atomic number or 0
+	 */
+	public static int getAtomicNumber(char first, char second) {
+		if (first >= 128 || second >= 128) return 0;
+		return SYMBOL_LOOKUP[symbolKey(first, second)];
+	}
+
+	/**
+	 * Return the atomic number of an element from its symbol. Symbols are
+	 * case-sensitive (e.g. Co, not CO).
+	 *
+	 * @param symbol String element symbol
+	 * @return int atomic number
+	 * @throws IllegalArgumentException if the symbol is not recognised
+	 */
+	public static int getAtomicNumber(String symbol) {
+		int z = 0;
+		if (symbol.length() == 1) {
+			z = getAtomicNumber(symbol.charAt(0), (char)0);
+		} else if (symbol.length() == 2) {
+			z = getAtomicNumber(symbol.charAt(0), symbol.charAt(1));
+		}
+		if (z == 0) {
+			throw new IllegalArgumentException("Unknown element symbol '"+symbol+"'");
+		}
+		return z;
+	}
+
+	/**
+	 * Return the symbol of an element.
+	 * @param z int atomic number
+	 * @return String
+	 */
+	public static String getSymbol(int z) {
+		checkZ(z);
+		return SYMBOLS[z];
+	}
+
+	/**
+	 * Return the standard atomic weight of an element (or the mass number of
+	 * its longest-lived isotope if it has no standard atomic weight).
+	 * @param z int atomic number
+	 * @return double in atomic mass units
+	 */
+	public static double getAtomicWeight(int z) {
+		checkZ(z);
+		return WEIGHTS[z];
+	}
+
+	/**
+	 * Return the uncertainty of the standard atomic weight of an element.
+	 * @param z int atomic number
+	 * @return double in atomic mass units, NaN if no standard weight
+	 */
+	public static double getAtomicWeightUncertainty(int z) {
+		checkZ(z);
+		return WEIGHT_UNCERTAINTIES[z];
+	}
+
+	/**
+	 * Return whether an element has an IUPAC standard atomic weight.
+	 * @param z int atomic number
+	 * @return boolean
+	 */
+	public static boolean hasStandardAtomicWeight(int z) {
+		checkZ(z);
+		return !Double.isNaN(WEIGHT_UNCERTAINTIES[z]);
+	}
+
+	/**
+	 * Return the covalent radius of an element.
+	 * @param z int atomic number
+	 * @return double in Angstroms, NaN if not tabulated
+	 */
+	public static double getCovalentRadius(int z) {
+		checkZ(z);
+		return COVALENT_RADII[z];
+	}
+
+	/**
+	 * Return the van der Waals radius of an element, or
+	 * {@link #DEFAULT_VDW_RADIUS} if none is tabulated.
+	 * @param z int atomic number
+	 * @return double in Angstroms
+	 */
+	public static double getVdwRadius(int z) {
+		checkZ(z);
+		double radius = VDW_RADII[z];
+		return Double.isNaN(radius) ? DEFAULT_VDW_RADIUS : radius;
+	}
+
+	/**
+	 * Calculate the X-ray scattering factor of a neutral atom from the
+	 * Cromer-Mann coefficients, f(s) = sum(a_i.exp(-b_i.s^2)) + c.
+	 *
+	 * @param z int atomic number
+	 * @param sinThetaOverLambda double s = sin(theta)/lambda in Angstrom^-1
+	 * @return double scattering factor in electrons
+	 * @throws IllegalArgumentException if z is not in the table
+	 */
+	public static double getXRayScatteringFactor(int z, double sinThetaOverLambda) {
+		checkZ(z);
+		int offset = 9 * (z - 1);
+		double s2 = sinThetaOverLambda * sinThetaOverLambda;
+		return CROMER_MANN[offset] * Math.exp(-CROMER_MANN[offset + 1] * s2)
+				+ CROMER_MANN[offset + 2] * Math.exp(-CROMER_MANN[offset + 3] * s2)
+				+ CROMER_MANN[offset + 4] * Math.exp(-CROMER_MANN[offset + 5] * s2)
+				+ CROMER_MANN[offset + 6] * Math.exp(-CROMER_MANN[offset + 7] * s2)
+				+ CROMER_MANN[offset + 8];
+	}
+
+	private static void checkZ(int z) {
+		if (z < 1 || z > MAX_Z) {
+			throw new IllegalArgumentException("Atomic number "+z+" outside table (1-"+MAX_Z+")");
+		}
+	}
+
+}
@@ -0,0 +1,82 @@
+package uk.co.norphos.crystallography.toolkit;
+
+/**
+ * The energy terms, forces and parameters of an {@link EwaldSummation}.
+ * Energies are in eV, forces in eV/Angstrom and cut-offs in Angstrom (real
+ * space) or Angstrom^-1 (reciprocal space, including the factor of 2.pi).
+ *
+ * @author Michael Wharmby
+ *
+ */
+public class EwaldResult {
+
+	private final double realSpaceEnergy, reciprocalSpaceEnergy, selfEnergy, chargedCellEnergy;
+	private final double[] forces;
+	private final double alpha, realSpaceCutoff, reciprocalSpaceCutoff;
+
+	EwaldResult(double realSpaceEnergy, double reciprocalSpaceEnergy, double selfEnergy, double chargedCellEnergy,
+			double[] forces, double alpha, double realSpaceCutoff, double reciprocalSpaceCutoff) {
+		this.realSpaceEnergy = realSpaceEnergy;
+		this.reciprocalSpaceEnergy = reciprocalSpaceEnergy;
+		this.selfEnergy = selfEnergy;
+		this.chargedCellEnergy = chargedCellEnergy;
+		this.forces = forces;
+		this.alpha = alpha;
+		this.realSpaceCutoff = realSpaceCutoff;
+		this.reciprocalSpaceCutoff = reciprocalSpaceCutoff;
+	}
+
+	/**
+	 * Return the total electrostatic energy of the cell.
+	 * @return double in eV
+	 */
+	public double getEnergy() {
+		return realSpaceEnergy + reciprocalSpaceEnergy + selfEnergy + chargedCellEnergy;
+	}
+
+	public double getRealSpaceEnergy() {
+		return realSpaceEnergy;
+	}
+
+	public double getReciprocalSpaceEnergy() {
+		return reciprocalSpaceEnergy;
+	}
+
+	public double getSelfEnergy() {
+		return selfEnergy;
+	}
+
+	/**
+	 * Return the energy of the uniform neutralising background, which is
+	 * non-zero only if the cell carries a net charge.
+	 * @return double in eV
+	 */
+	public double getChargedCellEnergy() {
+		return chargedCellEnergy;
+	}
+
+	/**
+	 * Return the Cartesian forces on all sites as packed x,y,z triples.
+	 * @return double[] in eV/Angstrom
+	 */
+	public double[] getForces() {
+		return forces.clone();
+	}
+
+	/**
+	 * Return the Ewald splitting parameter used.
+	 * @return double in Angstrom^-1
+	 */
+	public double getAlpha() {
+		return alpha;
+	}
+
+	public double getRealSpaceCutoff() {
+		return realSpaceCutoff;
+	}
+
+	public double getReciprocalSpaceCutoff() {
+		return reciprocalSpaceCutoff;
+	}
+
+}
@@ -0,0 +1,442 @@
+package uk.co.norphos.crystallography.toolkit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.special.Erf;
+
+import uk.co.norphos.crystallography.api.Site;
+
+/**
+ * Calculates the electrostatic energy of, and forces in, a periodic array of
+ * point charges by Ewald summation.
+ *
+ * The Ewald parameter and the real- and reciprocal-space cut-offs are chosen
+ * automatically for the requested accuracy: with s = sqrt(-ln(accuracy)),
+ * r_c = s / alpha and k_c = 2.alpha.s, so that the neglected terms in both
+ * sums are of order exp(-s^2). Alpha is chosen to balance the cost of the
+ * two sums for the number of charges and cell volume (Fincham, Mol. Simul.
+ * 13 (1994) 1).
+ *
+ * The real-space sum is evaluated in parallel over blocks of atoms, each
+ * with its part of a neighbour list of the (atom, lattice image) pairs
+ * within r_c, which is built once per structure from a cell list. The
+ * reciprocal-space sum is evaluated in parallel over chunks of k-vectors,
+ * using only one of each +/-k pair and building structure factors from
+ * precomputed per-atom phase factors. For screening many structures at
+ * once it is usually faster to run structures concurrently and to construct
+ * the summation with parallel set to false.
+ *
+ * Charges are taken from {@link Site#getCharge()} weighted by the site
+ * occupancy. Energies are in eV and forces in eV/Angstrom.
+ *
+ * @author Michael Wharmby
+ *
+ */
+public class EwaldSummation {
+
+	/**
+	 * Coulomb constant e^2/(4.pi.epsilon0) in eV.Angstrom
+	 */
+	public static final double COULOMB_CONSTANT = 14.399645478;
+
+	private static final double SQRT_PI = Math.sqrt(Math.PI);
+	private static final int ATOM_BLOCK_SIZE = 32;
+	private static final int K_CHUNK_SIZE = 256;
+
+	private final double accuracy;
+	private final boolean parallel;
+
+	/**
+	 * Construct a parallel Ewald summation with the given target accuracy.
+	 * @param accuracy double relative accuracy, e.g. 1e-8
+	 */
+	public EwaldSummation(double accuracy) {
+		this(accuracy, true);
+	}
+
+	/**
+	 * Construct an Ewald summation with the given target accuracy.
+	 * @param accuracy double relative accuracy, e.g. 1e-8
+	 * @param parallel boolean whether to split the sums across threads
+	 */
+	public EwaldSummation(double accuracy, boolean parallel) {
+		if (accuracy <= 0 || accuracy >= 1) {
+			throw new IllegalArgumentException("Accuracy must be between 0 and 1");
+		}
+		this.accuracy = accuracy;
+		this.parallel = parallel;
+	}
+
+	/**
+	 * Calculate the electrostatic energy and forces of a {@link Crystal}.
+	 * @param crystal {@link Crystal} with charged sites
+	 * @return {@link EwaldResult}
+	 */
+	public EwaldResult calculate(Crystal crystal) {
+		List<Site> sites = crystal.getSites();
+		double[] charges = new double[sites.size()];
+		for (int i = 0; i < charges.length; i++) {
+			charges[i] = sites.get(i).getCharge() * sites.get(i).getOccupancy();
+		}
+		return calculate(crystal.getUnitCell(), crystal.getFractionalCoordinates(), charges);
+	}
+
+	/**
+	 * Calculate the electrostatic energy and forces for charges at the given
+	 * positions in a unit cell.
+	 *
+	 * @param cell {@link UnitCell}
+	 * @param fracCoords double[] packed fractional coordinates
+	 * @param charges double[] one charge per site, in units of e
+	 * @return {@link EwaldResult}
+	 */
+	public EwaldResult calculate(UnitCell cell, double[] fracCoords, double[] charges) {
+		final int nAtoms = charges.length;
+		if (fracCoords.length != 3 * nAtoms) {
+			throw new IllegalArgumentException("Expected "+3 * nAtoms+" coordinates, got "+fracCoords.length);
+		}
+		double volume = cell.getVolume();
+
+		//Wrap into the cell so translation ranges are bounded
+		double[] frac = new double[3 * nAtoms];
+		for (int i = 0; i < frac.length; i++) {
+			frac[i] = fracCoords[i] - Math.floor(fracCoords[i]);
+		}
+		double[] cart = new double[3 * nAtoms];
+		cell.orthogonalize(frac, cart);
+
+		//Cut-offs for the target accuracy
+		double s = Math.sqrt(-Math.log(accuracy));
+		double alpha = SQRT_PI * Math.pow(Math.max(nAtoms, 1) / (volume * volume), 1. / 6.);
+		double rCut = s / alpha;
+		double kCut = 2 * alpha * s;
+
+		double totalCharge = 0, sumSquares = 0;
+		for (double q : charges) {
+			totalCharge += q;
+			sumSquares += q * q;
+		}
+
+		double[] forces = new double[3 * nAtoms];
+		double realEnergy = realSpaceSum(cell, frac, cart, charges, alpha, rCut, forces);
+		double recipEnergy = reciprocalSpaceSum(cell, frac, charges, alpha, kCut, forces);
+		double selfEnergy = -alpha / SQRT_PI * sumSquares;
+		//Neutralising background for charged cells
+		double chargedCellEnergy = -Math.PI * totalCharge * totalCharge / (2 * volume * alpha * alpha);
+
+		for (int i = 0; i < forces.length; i++) {
+			forces[i] *= COULOMB_CONSTANT;
+		}
+		return new EwaldResult(COULOMB_CONSTANT * realEnergy, COULOMB_CONSTANT * recipEnergy,
+				COULOMB_CONSTANT * selfEnergy, COULOMB_CONSTANT * chargedCellEnergy, forces, alpha, rCut, kCut);
+	}
+
+	private double realSpaceSum(UnitCell cell, double[] frac, double[] cart, double[] charges, double alpha, double rCut,
+			double[] forces) {
+		final NeighbourBlock[] neighbours = neighbourList(cell, frac, cart, charges, rCut);
+		final ErfcTable erfc = ErfcTable.INSTANCE;
+		final double gaussPrefactor = 2 * alpha / SQRT_PI;
+
+		IntStream blocks = IntStream.range(0, neighbours.length);
+		if (parallel) blocks = blocks.parallel();
+		//Each block writes only the forces on its own atoms, so no reduction is needed for forces
+		return blocks.mapToDouble(block -> {
+			NeighbourBlock list = neighbours[block];
+			double energy = 0;
+			for (int i = list.first; i < list.first + list.start.length - 1; i++) {
+				double qi = charges[i];
+				double fx = 0, fy = 0, fz = 0, ei = 0;
+				for (int n = list.start[i - list.first]; n < list.start[i - list.first + 1]; n++) {
+					double qj = charges[list.atoms[n]];
+					double dx = list.displacements[3 * n], dy = list.displacements[3 * n + 1], dz = list.displacements[3 * n + 2];
+					double r2 = dx * dx + dy * dy + dz * dz;
+					double r = Math.sqrt(r2);
+					double ar = alpha * r;
+					double erfcTerm = erfc.value(ar);
+					ei += qj * erfcTerm / r;
+					double b = qj * (erfcTerm / r + gaussPrefactor * Math.exp(-ar * ar)) / r2;
+					fx -= b * dx;
+					fy -= b * dy;
+					fz -= b * dz;
+				}
+				energy += 0.5 * qi * ei;
+				forces[3 * i] += qi * fx;
+				forces[3 * i + 1] += qi * fy;
+				forces[3 * i + 2] += qi * fz;
+			}
+			return energy;
+		}).sum();
+	}
+
+	/*
+	 * Every pair of charged atoms within rCut, as the neighbour j and the
+	 * Cartesian displacement to its lattice image, grouped in blocks of
+	 * atoms i. Neighbours are found with a cell list: the cell is divided
+	 * into bins at least rCut across perpendicular to each axis (or the
+	 * whole cell, if it is narrower), so only nearby bins, and their
+	 * lattice images, need be searched.
+	 */
+	private NeighbourBlock[] neighbourList(UnitCell cell, double[] frac, double[] cart, double[] charges, double rCut) {
+		final int nAtoms = charges.length;
+		final double rCutSq = rCut * rCut;
+		double[] recip = {cell.getAStar(), cell.getBStar(), cell.getCStar()};
+		final int[] nBins = new int[3], reach = new int[3];
+		for (int d = 0; d < 3; d++) {
+			//Spacing between (100) planes is 1/a*, etc.
+			nBins[d] = Math.max(1, (int)(1 / (rCut * recip[d])));
+			reach[d] = (int)Math.ceil(rCut * recip[d] * nBins[d]);
+		}
+		final double[] lattice = new double[9];
+		cell.orthogonalize(new double[]{1, 0, 0, 0, 1, 0, 0, 0, 1}, lattice);
+
+		final int[] bin = new int[nAtoms];
+		final int[] binStart = new int[nBins[0] * nBins[1] * nBins[2] + 1];
+		for (int i = 0; i < nAtoms; i++) {
+			if (charges[i] == 0) continue;
+			int[] b = new int[3];
+			for (int d = 0; d < 3; d++) {
+				b[d] = Math.min(nBins[d] - 1, (int)(frac[3 * i + d] * nBins[d]));
+			}
+			bin[i] = b[0] + nBins[0] * (b[1] + nBins[1] * b[2]);
+			binStart[bin[i] + 1]++;
+		}
+		for (int b = 0; b < binStart.length - 1; b++) {
+			binStart[b + 1] += binStart[b];
+		}
+		final int[] binAtoms = new int[binStart[binStart.length - 1]];
+		int[] fill = new int[binStart.length - 1];
+		for (int i = 0; i < nAtoms; i++) {
+			if (charges[i] != 0) binAtoms[binStart[bin[i]] + fill[bin[i]]++] = i;
+		}
+
+		int nBlocks = (nAtoms + ATOM_BLOCK_SIZE - 1) / ATOM_BLOCK_SIZE;
+		IntStream blocks = IntStream.range(0, nBlocks);
+		if (parallel) blocks = blocks.parallel();
+		return blocks.mapToObj(block -> {
+			int first = block * ATOM_BLOCK_SIZE, end = Math.min(nAtoms, first + ATOM_BLOCK_SIZE);
+			NeighbourBlock list = new NeighbourBlock(first, end - first);
+			for (int i = first; i < end; i++) {
+				list.start[i - first] = list.size;
+				if (charges[i] == 0) continue;
+				int bx = bin[i] % nBins[0], by = bin[i] / nBins[0] % nBins[1], bz = bin[i] / (nBins[0] * nBins[1]);
+				//Bins are taken unwrapped, so each is searched once for each lattice image in reach
+				for (int ux = bx - reach[0]; ux <= bx + reach[0]; ux++) {
+					int tx = Math.floorDiv(ux, nBins[0]), wx = ux - tx * nBins[0];
+					for (int uy = by - reach[1]; uy <= by + reach[1]; uy++) {
+						int ty = Math.floorDiv(uy, nBins[1]), wy = uy - ty * nBins[1];
+						for (int uz = bz - reach[2]; uz <= bz + reach[2]; uz++) {
+							int tz = Math.floorDiv(uz, nBins[2]), wz = uz - tz * nBins[2];
+							double sx = tx * lattice[0] + ty * lattice[3] + tz * lattice[6] - cart[3 * i];
+							double sy = tx * lattice[1] + ty * lattice[4] + tz * lattice[7] - cart[3 * i + 1];
+							double sz = tx * lattice[2] + ty * lattice[5] + tz * lattice[8] - cart[3 * i + 2];
+							int w = wx + nBins[0] * (wy + nBins[1] * wz);
+							for (int p = binStart[w]; p < binStart[w + 1]; p++) {
+								int j = binAtoms[p];
+								double dx = cart[3 * j] + sx, dy = cart[3 * j + 1] + sy, dz = cart[3 * j + 2] + sz;
+								double r2 = dx * dx + dy * dy + dz * dz;
+								if (r2 >= rCutSq || r2 < 1e-20) continue;
+								list.add(j, dx, dy, dz);
+							}
+						}
+					}
+				}
+			}
+			list.start[end - first] = list.size;
+			return list;
+		}).toArray(NeighbourBlock[]::new);
+	}
+
+	private double reciprocalSpaceSum(UnitCell cell, double[] frac, double[] charges, double alpha, double kCut, double[] forces) {
+		final int nAtoms = charges.length;
+		final double volume = cell.getVolume();
+		final double twoPi = 2 * Math.PI;
+		//|h| <= |k|.|a| / 2.pi
+		final int hMax = (int)Math.floor(kCut * cell.getA() / twoPi);
+		final int kMax = (int)Math.floor(kCut * cell.getB() / twoPi);
+		final int lMax = (int)Math.floor(kCut * cell.getC() / twoPi);
+
+		//Half-space of k-vectors within the cut-off: (h,k,l) > (0,0,0) lexicographically
+		RealMatrix frac2Cart = cell.getFractionalizationMatrix();
+		double b00 = frac2Cart.getEntry(0, 0), b01 = frac2Cart.getEntry(0, 1), b02 = frac2Cart.getEntry(0, 2);
+		double b10 = frac2Cart.getEntry(1, 0), b11 = frac2Cart.getEntry(1, 1), b12 = frac2Cart.getEntry(1, 2);
+		double b20 = frac2Cart.getEntry(2, 0), b21 = frac2Cart.getEntry(2, 1), b22 = frac2Cart.getEntry(2, 2);
+		final double kCutSq = kCut * kCut;
+		List<int[]> hklList = new ArrayList<>();
+		List<double[]> kVecList = new ArrayList<>();
+		for (int h = 0; h <= hMax; h++) {
+			for (int k = (h == 0 ? 0 : -kMax); k <= kMax; k++) {
+				for (int l = (h == 0 && k == 0 ? 1 : -lMax); l <= lMax; l++) {
+					//k = 2.pi.B^T.hkl, where B is the fractionalization matrix
+					double kx = twoPi * (b00 * h + b10 * k + b20 * l);
+					double ky = twoPi * (b01 * h + b11 * k + b21 * l);
+					double kz = twoPi * (b02 * h + b12 * k + b22 * l);
+					double k2 = kx * kx + ky * ky + kz * kz;
+					if (k2 > kCutSq) continue;
+					hklList.add(new int[]{h, k, l});
+					kVecList.add(new double[]{kx, ky, kz, k2});
+				}
+			}
+		}
+		final int nK = hklList.size();
+		if (nK == 0) return 0;
+
+		//Per-atom phase factors exp(2.pi.i.h.x) for each axis, index h + hMax
+		final double[] cosX = new double[nAtoms * (2 * hMax + 1)], sinX = new double[cosX.length];
+		final double[] cosY = new double[nAtoms * (2 * kMax + 1)], sinY = new double[cosY.length];
+		final double[] cosZ = new double[nAtoms * (2 * lMax + 1)], sinZ = new double[cosZ.length];
+		phaseFactors(frac, 0, hMax, cosX, sinX);
+		phaseFactors(frac, 1, kMax, cosY, sinY);
+		phaseFactors(frac, 2, lMax, cosZ, sinZ);
+
+		final double fourAlphaSq = 4 * alpha * alpha;
+		int nChunks = (nK + K_CHUNK_SIZE - 1) / K_CHUNK_SIZE;
+		IntStream chunks = IntStream.range(0, nChunks);
+		if (parallel) chunks = chunks.parallel();
+		ReciprocalPartial total = chunks.mapToObj(chunk -> {
+			ReciprocalPartial partial = new ReciprocalPartial(nAtoms);
+			double[] cosTheta = new double[nAtoms], sinTheta = new double[nAtoms];
+			int end = Math.min(nK, (chunk + 1) * K_CHUNK_SIZE);
+			for (int n = chunk * K_CHUNK_SIZE; n < end; n++) {
+				int[] hkl = hklList.get(n);
+				double[] kVec = kVecList.get(n);
+				int ih = hkl[0] + hMax, ik = hkl[1] + kMax, il = hkl[2] + lMax;
+				double sRe = 0, sIm = 0;
+				for (int j = 0; j < nAtoms; j++) {
+					//exp(i.theta) = exp(2.pi.i.hx).exp(2.pi.i.ky).exp(2.pi.i.lz)
+					int jx = j * (2 * hMax + 1) + ih, jy = j * (2 * kMax + 1) + ik, jz = j * (2 * lMax + 1) + il;
+					double re = cosX[jx] * cosY[jy] - sinX[jx] * sinY[jy];
+					double im = cosX[jx] * sinY[jy] + sinX[jx] * cosY[jy];
+					double c = re * cosZ[jz] - im * sinZ[jz];
+					double s = re * sinZ[jz] + im * cosZ[jz];
+					cosTheta[j] = c;
+					sinTheta[j] = s;
+					sRe += charges[j] * c;
+					sIm += charges[j] * s;
+				}
+				double k2 = kVec[3];
+				double weight = Math.exp(-k2 / fourAlphaSq) / k2;
+				//Factor of two for the omitted -k half-space
+				partial.energy += 2 * weight * (sRe * sRe + sIm * sIm);
+				for (int j = 0; j < nAtoms; j++) {
+					double f = 4 * weight * charges[j] * (sRe * sinTheta[j] - sIm * cosTheta[j]);
+					partial.forces[3 * j] += f * kVec[0];
+					partial.forces[3 * j + 1] += f * kVec[1];
+					partial.forces[3 * j + 2] += f * kVec[2];
+				}
+			}
+			return partial;
+		}).reduce(new ReciprocalPartial(nAtoms), ReciprocalPartial::combine);
+
+		double prefactor = 2 * Math.PI / volume;
+		for (int i = 0; i < forces.length; i++) {
+			forces[i] += prefactor * total.forces[i];
+		}
+		return prefactor * total.energy;
+	}
+
+	private static void phaseFactors(double[] frac, int axis, int max, double[] cos, double[] sin) {
+		int nAtoms = frac.length / 3;
+		int width = 2 * max + 1;
+		for (int j = 0; j < nAtoms; j++) {
+			double theta = 2 * Math.PI * frac[3 * j + axis];
+			double c1 = Math.cos(theta), s1 = Math.sin(theta);
+			int zero = j * width + max;
+			cos[zero] = 1;
+			sin[zero] = 0;
+			//Build up powers by recurrence; negative indices are conjugates
+			for (int h = 1; h <= max; h++) {
+				double c = cos[zero + h - 1] * c1 - sin[zero + h - 1] * s1;
+				double s = sin[zero + h - 1] * c1 + cos[zero + h - 1] * s1;
+				cos[zero + h] = c;
+				sin[zero + h] = s;
+				cos[zero - h] = c;
+				sin[zero - h] = -s;
+			}
+		}
+	}
+
+	/*
+	 * Neighbours of a block of atoms, with the neighbours of atom first + n
+	 * from start[n] to start[n + 1].
+	 */
+	private static final class NeighbourBlock {
+		private final int first;
+		private final int[] start;
+		private int[] atoms = new int[64];
+		private double[] displacements = new double[3 * 64];
+		private int size;
+
+		private NeighbourBlock(int first, int nAtoms) {
+			this.first = first;
+			start = new int[nAtoms + 1];
+		}
+
+		private void add(int atom, double dx, double dy, double dz) {
+			if (size == atoms.length) {
+				atoms = Arrays.copyOf(atoms, 2 * size);
+				displacements = Arrays.copyOf(displacements, 6 * size);
+			}
+			atoms[size] = atom;
+			displacements[3 * size] = dx;
+			displacements[3 * size + 1] = dy;
+			displacements[3 * size + 2] = dz;
+			size++;
+		}
+	}
+
+	private static final class ReciprocalPartial {
+		private double energy;
+		private final double[] forces;
+
+		private ReciprocalPartial(int nAtoms) {
+			forces = new double[3 * nAtoms];
+		}
+
+		private ReciprocalPartial combine(ReciprocalPartial other) {
+			ReciprocalPartial result = new ReciprocalPartial(forces.length / 3);
+			result.energy = energy + other.energy;
+			for (int i = 0; i < forces.length; i++) {
+				result.forces[i] = forces[i] + other.forces[i];
+			}
+			return result;
+		}
+	}
+
+	/*
+	 * Tabulated erfc with cubic Hermite interpolation, using the analytic
+	 * derivative. The interpolation error is below 1e-13 over the table.
+	 */
+	private static final class ErfcTable {
+		private static final ErfcTable INSTANCE = new ErfcTable();
+		private static final double MAX_X = 8;
+		private static final int POINTS_PER_UNIT = 512;
+
+		private final double[] values, derivatives;
+
+		private ErfcTable() {
+			int n = (int)(MAX_X * POINTS_PER_UNIT) + 2;
+			values = new double[n];
+			derivatives = new double[n];
+			for (int i = 0; i < n; i++) {
+				double x = (double)i / POINTS_PER_UNIT;
+				values[i] = Erf.erfc(x);
+				derivatives[i] = -2 / SQRT_PI * Math.exp(-x * x);
+			}
+		}
+
+		private double value(double x) {
+			if (x >= MAX_X) return 0;
+			double pos = x * POINTS_PER_UNIT;
+			int i = (int)pos;
+			double t = pos - i, h = 1. / POINTS_PER_UNIT;
+			double t2 = t * t, t3 = t2 * t;
+			return (2 * t3 - 3 * t2 + 1) * values[i] + (t3 - 2 * t2 + t) * h * derivatives[i]
+					+ (-2 * t3 + 3 * t2) * values[i + 1] + (t3 - t2) * h * derivatives[i + 1];
+		}
+	}
+
+}
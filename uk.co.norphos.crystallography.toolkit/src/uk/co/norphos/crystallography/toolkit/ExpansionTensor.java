@@ -0,0 +1,63 @@
+package uk.co.norphos.crystallography.toolkit;
+
+/**
+ * The result of fitting a linear expansion (or compressibility) tensor to a
+ * {@link StrainSeries}. Holds the packed tensor together with its principal
+ * coefficients and axes.
+ *
+ * @author Michael Wharmby
+ *
+ */
+public class ExpansionTensor {
+
+	private final double[] tensor;
+	private final double[] principalCoefficients = new double[3];
+	private final double[] principalAxes = new double[9];
+
+	/**
+	 * Construct from a packed tensor {11, 22, 33, 12, 13, 23}.
+	 * @param tensor double[6]
+	 */
+	public ExpansionTensor(double[] tensor) {
+		this.tensor = tensor.clone();
+		Matrix3.symmetricEigen(this.tensor, 0, principalCoefficients, 0, principalAxes, 0);
+	}
+
+	/**
+	 * Return the packed tensor {11, 22, 33, 12, 13, 23} in the Cartesian
+	 * frame of the reference cell.
+	 * @return double[6]
+	 */
+	public double[] getTensor() {
+		return tensor.clone();
+	}
+
+	/**
+	 * Return the principal coefficients in descending order.
+	 * @return double[3]
+	 */
+	public double[] getPrincipalCoefficients() {
+		return principalCoefficients.clone();
+	}
+
+	/**
+	 * Return the principal axis for the given coefficient as a Cartesian
+	 * unit vector.
+	 * @param index int 0, 1 or 2 (matches {@link #getPrincipalCoefficients()})
+	 * @return double[3]
+	 */
+	public double[] getPrincipalAxis(int index) {
+		double[] axis = new double[3];
+		System.arraycopy(principalAxes, 3 * index, axis, 0, 3);
+		return axis;
+	}
+
+	/**
+	 * Return the volumetric coefficient, i.e. the trace of the tensor.
+	 * @return double
+	 */
+	public double getVolumetricCoefficient() {
+		return tensor[0] + tensor[1] + tensor[2];
+	}
+
+}
@@ -0,0 +1,198 @@
+package uk.co.norphos.crystallography.toolkit;
+
+/**
+ * One-dimensional complex FFT of any length, by the self-sorting Stockham
+ * algorithm with mixed radices. Lengths with only the factors 2, 3 and 5
+ * (see {@link #nextFastSize(int)}) are fastest; other prime factors are
+ * handled by a direct DFT of that size at one stage.
+ * <br>
+ * A plan holds only precomputed twiddle factors, so one instance can be
+ * shared between threads, each passing its own work arrays.
+ *
+ * @author Michael Wharmby
+ *
+ */
+final class FFT {
+
+	private final int n;
+	private final int[] factors;
+	//Per stage: w^(j.t) for j < m, t < p, where w = exp(-2.pi.i / (current length))
+	private final double[][] twiddleRe, twiddleIm;
+	//Per stage: exp(-2.pi.i.r / p) for r < p
+	private final double[][] rootRe, rootIm;
+
+	FFT(int n) {
+		if (n < 1) throw new IllegalArgumentException("FFT length must be positive");
+		this.n = n;
+		factors = factorise(n);
+		int stages = factors.length;
+		twiddleRe = new double[stages][];
+		twiddleIm = new double[stages][];
+		rootRe = new double[stages][];
+		rootIm = new double[stages][];
+		int length = n;
+		for (int s = 0; s < stages; s++) {
+			int p = factors[s], m = length / p;
+			twiddleRe[s] = new double[m * p];
+			twiddleIm[s] = new double[m * p];
+			for (int j = 0; j < m; j++) {
+				for (int t = 0; t < p; t++) {
+					double angle = -2 * Math.PI * ((long)j * t % length) / length;
+					twiddleRe[s][j * p + t] = Math.cos(angle);
+					twiddleIm[s][j * p + t] = Math.sin(angle);
+				}
+			}
+			rootRe[s] = new double[p];
+			rootIm[s] = new double[p];
+			for (int r = 0; r < p; r++) {
+				double angle = -2 * Math.PI * r / p;
+				rootRe[s][r] = Math.cos(angle);
+				rootIm[s][r] = Math.sin(angle);
+			}
+			length = m;
+		}
+	}
+
+	/*
+	 * Radix 4 first, as it needs no multiplications in its butterfly.
+	 */
+	private static int[] factorise(int n) {
+		int[] found = new int[32];
+		int count = 0;
+		while (n % 4 == 0) {
+			found[count++] = 4;
+			n /= 4;
+		}
+		for (int p = 2; n > 1; p++) {
+			while (n % p == 0) {
+				found[count++] = p;
+				n /= p;
+			}
+			if ((long)p * p > n && n > 1) {
+				found[count++] = n;
+				n = 1;
+			}
+		}
+		int[] factors = new int[count];
+		System.arraycopy(found, 0, factors, 0, count);
+		return factors;
+	}
+
+	/**
+	 * Return the smallest length of at least n with no prime factors
+	 * other than 2, 3 and 5.
+	 * @param n int
+	 * @return int
+	 */
+	static int nextFastSize(int n) {
+		for (int size = Math.max(n, 1); ; size++) {
+			int m = size;
+			while (m % 2 == 0) m /= 2;
+			while (m % 3 == 0) m /= 3;
+			while (m % 5 == 0) m /= 5;
+			if (m == 1) return size;
+		}
+	}
+
+	int getLength() {
+		return n;
+	}
+
+	/**
+	 * Transform in place: X[k] = sum_j x[j].exp(-/+2.pi.i.j.k/n), without
+	 * normalisation.
+	 *
+	 * @param re double[n] real parts
+	 * @param im double[n] imaginary parts
+	 * @param workRe double[n] work array
+	 * @param workIm double[n] work array
+	 * @param inverse boolean true for exp(+2.pi.i.j.k/n)
+	 */
+	void transform(double[] re, double[] im, double[] workRe, double[] workIm, boolean inverse) {
+		double sign = inverse ? -1 : 1;
+		double[] xRe = re, xIm = im, yRe = workRe, yIm = workIm;
+		int length = n, stride = 1;
+		for (int s = 0; s < factors.length; s++) {
+			int p = factors[s], m = length / p;
+			double[] twRe = twiddleRe[s], twIm = twiddleIm[s];
+			if (p == 2) {
+				for (int j = 0; j < m; j++) {
+					double wr = twRe[j * 2 + 1], wi = sign * twIm[j * 2 + 1];
+					for (int q = 0; q < stride; q++) {
+						int i0 = q + stride * j, i1 = i0 + stride * m;
+						double ar = xRe[i0], ai = xIm[i0], br = xRe[i1], bi = xIm[i1];
+						int o = q + stride * 2 * j;
+						yRe[o] = ar + br;
+						yIm[o] = ai + bi;
+						double dr = ar - br, di = ai - bi;
+						yRe[o + stride] = dr * wr - di * wi;
+						yIm[o + stride] = dr * wi + di * wr;
+					}
+				}
+			} else if (p == 4) {
+				for (int j = 0; j < m; j++) {
+					int t = j * 4;
+					double w1r = twRe[t + 1], w1i = sign * twIm[t + 1];
+					double w2r = twRe[t + 2], w2i = sign * twIm[t + 2];
+					double w3r = twRe[t + 3], w3i = sign * twIm[t + 3];
+					for (int q = 0; q < stride; q++) {
+						int i0 = q + stride * j, sm = stride * m;
+						double ar = xRe[i0], ai = xIm[i0];
+						double br = xRe[i0 + sm], bi = xIm[i0 + sm];
+						double cr = xRe[i0 + 2 * sm], ci = xIm[i0 + 2 * sm];
+						double dr = xRe[i0 + 3 * sm], di = xIm[i0 + 3 * sm];
+						double apcr = ar + cr, apci = ai + ci, amcr = ar - cr, amci = ai - ci;
+						double bpdr = br + dr, bpdi = bi + di;
+						//-i.(b - d) forward, +i.(b - d) inverse
+						double jbmdr = sign * (bi - di), jbmdi = -sign * (br - dr);
+						int o = q + stride * 4 * j;
+						yRe[o] = apcr + bpdr;
+						yIm[o] = apci + bpdi;
+						double y1r = amcr + jbmdr, y1i = amci + jbmdi;
+						yRe[o + stride] = y1r * w1r - y1i * w1i;
+						yIm[o + stride] = y1r * w1i + y1i * w1r;
+						double y2r = apcr - bpdr, y2i = apci - bpdi;
+						yRe[o + 2 * stride] = y2r * w2r - y2i * w2i;
+						yIm[o + 2 * stride] = y2r * w2i + y2i * w2r;
+						double y3r = amcr - jbmdr, y3i = amci - jbmdi;
+						yRe[o + 3 * stride] = y3r * w3r - y3i * w3i;
+						yIm[o + 3 * stride] = y3r * w3i + y3i * w3r;
+					}
+				}
+			} else {
+				double[] roRe = rootRe[s], roIm = rootIm[s];
+				for (int j = 0; j < m; j++) {
+					for (int q = 0; q < stride; q++) {
+						int i0 = q + stride * j, o = q + stride * p * j;
+						for (int t = 0; t < p; t++) {
+							double sr = 0, si = 0;
+							for (int r = 0, rt = 0; r < p; r++, rt += t) {
+								if (rt >= p) rt -= p;
+								double wr = roRe[rt], wi = sign * roIm[rt];
+								int i = i0 + r * stride * m;
+								sr += xRe[i] * wr - xIm[i] * wi;
+								si += xRe[i] * wi + xIm[i] * wr;
+							}
+							double wr = twRe[j * p + t], wi = sign * twIm[j * p + t];
+							yRe[o + stride * t] = sr * wr - si * wi;
+							yIm[o + stride * t] = sr * wi + si * wr;
+						}
+					}
+				}
+			}
+			double[] tmp = xRe;
+			xRe = yRe;
+			yRe = tmp;
+			tmp = xIm;
+			xIm = yIm;
+			yIm = tmp;
+			length = m;
+			stride *= p;
+		}
+		if (xRe != re) {
+			System.arraycopy(xRe, 0, re, 0, n);
+			System.arraycopy(xIm, 0, im, 0, n);
+		}
+	}
+
+}
@@ -0,0 +1,264 @@
+package uk.co.norphos.crystallography.toolkit;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.util.BitSet;
+import java.util.stream.IntStream;
+
+import uk.co.norphos.crystallography.toolkit.metrics.Metrics;
+import uk.co.norphos.crystallography.toolkit.metrics.Timer;
+
+/**
+ * Fourier synthesis of electron density, difference density and Patterson
+ * maps from structure factors,
+ * <pre>
+ *   rho(x) = 1/V . sum_h F(h).exp(-2.pi.i.h.x)
+ * </pre>
+ * by a three-dimensional FFT. Reflections are given as packed h,k,l
+ * triples (as from {@link ReflectionList#getIndices()}) with amplitudes and
+ * phases in degrees. A reflection whose Friedel mate is not given stands
+ * for both, with F(-h) = F(h)*, so either a unique set or a full sphere may
+ * be used. Where both mates are given but differ (anomalous data) the map
+ * is the real part of the synthesis, i.e. of their average.
+ * <br>
+ * The grid is sized from the cell and d_min so that the spacing is at
+ * most d_min/3 along each axis, which holds every index within d_min,
+ * rounded up to lengths with only the factors 2, 3 and 5. The complex grid
+ * is held off-heap and transformed in parallel over slabs, one axis at a
+ * time.
+ *
+ * @author Michael Wharmby
+ *
+ */
+public class FourierSynthesis {
+
+	private static final Timer SYNTHESIS_TIMER = Metrics.timer("fourier.synthesis");
+
+	/**
+	 * Default grid points per d_min along each axis.
+	 */
+	public static final double DEFAULT_SAMPLING = 3;
+
+	private final UnitCell cell;
+	private final int na, nb, nc;
+	private final FFT fftA, fftB, fftC;
+
+	/**
+	 * Construct a synthesis with a grid sized from the cell and resolution,
+	 * at {@link #DEFAULT_SAMPLING} points per d_min.
+	 *
+	 * @param cell {@link UnitCell}
+	 * @param dMin double resolution limit of the data in Angstroms
+	 */
+	public FourierSynthesis(UnitCell cell, double dMin) {
+		this(cell, gridSize(cell.getLattice().getA(), dMin), gridSize(cell.getLattice().getB(), dMin),
+				gridSize(cell.getLattice().getC(), dMin));
+	}
+
+	/**
+	 * Construct a synthesis on a given grid.
+	 *
+	 * @param cell {@link UnitCell}
+	 * @param na int grid points along a
+	 * @param nb int grid points along b
+	 * @param nc int grid points along c
+	 */
+	public FourierSynthesis(UnitCell cell, int na, int nb, int nc) {
+		if (na < 1 || nb < 1 || nc < 1) {
+			throw new IllegalArgumentException("Grid dimensions must be positive");
+		}
+		if ((long)na * nb * nc > Integer.MAX_VALUE / 16) {
+			throw new IllegalArgumentException("Grid of "+na+"x"+nb+"x"+nc+" points is too large");
+		}
+		this.cell = cell;
+		this.na = na;
+		this.nb = nb;
+		this.nc = nc;
+		fftA = new FFT(na);
+		fftB = nb == na ? fftA : new FFT(nb);
+		fftC = nc == na ? fftA : nc == nb ? fftB : new FFT(nc);
+	}
+
+	private static int gridSize(double length, double dMin) {
+		if (!(dMin > 0)) throw new IllegalArgumentException("d_min must be positive");
+		return FFT.nextFastSize((int)Math.ceil(DEFAULT_SAMPLING * length / dMin));
+	}
+
+	/**
+	 * Return the number of grid points along a, b and c.
+	 * @return int[3]
+	 */
+	public int[] getGridDimensions() {
+		return new int[]{na, nb, nc};
+	}
+
+	/**
+	 * Calculate an electron density map.
+	 *
+	 * @param hkl int[] packed Miller indices
+	 * @param amplitudes double[] |F| of each reflection, in electrons
+	 * @param phases double[] phase of each reflection in degrees
+	 * @return {@link DensityMap} in electrons/Angstrom^3
+	 */
+	public DensityMap electronDensity(int[] hkl, double[] amplitudes, double[] phases) {
+		int n = checkLengths(hkl, amplitudes, phases);
+		double[] re = new double[n], im = new double[n];
+		for (int r = 0; r < n; r++) {
+			double phi = Math.toRadians(phases[r]);
+			re[r] = amplitudes[r] * Math.cos(phi);
+			im[r] = amplitudes[r] * Math.sin(phi);
+		}
+		return synthesise(hkl, re, im);
+	}
+
+	/**
+	 * Calculate a difference map with coefficients (|Fo| - |Fc|).exp(i.phi_c).
+	 *
+	 * @param hkl int[] packed Miller indices
+	 * @param observed double[] |Fo| of each reflection
+	 * @param calculated double[] |Fc| of each reflection
+	 * @param phases double[] calculated phase of each reflection in degrees
+	 * @return {@link DensityMap} in electrons/Angstrom^3
+	 */
+	public DensityMap differenceMap(int[] hkl, double[] observed, double[] calculated, double[] phases) {
+		int n = checkLengths(hkl, observed, phases);
+		if (calculated.length != n) {
+			throw new IllegalArgumentException("Expected "+n+" calculated amplitudes, got "+calculated.length);
+		}
+		double[] difference = new double[n];
+		for (int r = 0; r < n; r++) {
+			difference[r] = observed[r] - calculated[r];
+		}
+		return electronDensity(hkl, difference, phases);
+	}
+
+	/**
+	 * Calculate a Patterson map with coefficients |F|^2.
+	 *
+	 * @param hkl int[] packed Miller indices
+	 * @param amplitudes double[] |F| of each reflection
+	 * @return {@link DensityMap} in electrons^2/Angstrom^3
+	 */
+	public DensityMap pattersonMap(int[] hkl, double[] amplitudes) {
+		int n = checkLengths(hkl, amplitudes, amplitudes);
+		double[] re = new double[n];
+		for (int r = 0; r < n; r++) {
+			re[r] = amplitudes[r] * amplitudes[r];
+		}
+		return synthesise(hkl, re, new double[n]);
+	}
+
+	private static int checkLengths(int[] hkl, double[] values, double[] phases) {
+		int n = hkl.length / 3;
+		if (hkl.length != 3 * n || values.length != n || phases.length != n) {
+			throw new IllegalArgumentException("Expected "+n+" amplitudes and phases for "+hkl.length+" indices");
+		}
+		return n;
+	}
+
+	/**
+	 * Calculate a map from complex structure factors.
+	 *
+	 * @param hkl int[] packed Miller indices
+	 * @param real double[] real part of each F(h)
+	 * @param imaginary double[] imaginary part of each F(h)
+	 * @return {@link DensityMap}
+	 */
+	public DensityMap synthesise(int[] hkl, double[] real, double[] imaginary) {
+		int n = checkLengths(hkl, real, imaginary);
+		long start = Metrics.ENABLED ? System.nanoTime() : 0;
+		int nPoints = na * nb * nc;
+		DoubleBuffer grid = ByteBuffer.allocateDirect(16 * nPoints).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+
+		//Place the given reflections, then any missing Friedel mates
+		BitSet given = new BitSet(nPoints);
+		for (int r = 0; r < n; r++) {
+			int p = gridIndex(hkl[3 * r], hkl[3 * r + 1], hkl[3 * r + 2]);
+			grid.put(2 * p, real[r]);
+			grid.put(2 * p + 1, imaginary[r]);
+			given.set(p);
+		}
+		for (int r = 0; r < n; r++) {
+			int p = gridIndex(-hkl[3 * r], -hkl[3 * r + 1], -hkl[3 * r + 2]);
+			if (given.get(p)) continue;
+			grid.put(2 * p, real[r]);
+			grid.put(2 * p + 1, -imaginary[r]);
+		}
+
+		transform(grid);
+
+		FloatBuffer values = DensityMap.allocate(nPoints);
+		double scale = 1 / cell.getVolume();
+		IntStream.range(0, nc).parallel().forEach(k -> {
+			for (int p = na * nb * k, end = p + na * nb; p < end; p++) {
+				values.put(p, (float)(scale * grid.get(2 * p)));
+			}
+		});
+		DensityMap map = new DensityMap(cell, na, nb, nc, values);
+		if (Metrics.ENABLED) SYNTHESIS_TIMER.recordSince(start);
+		return map;
+	}
+
+	private int gridIndex(int h, int k, int l) {
+		if (Math.abs(h) > (na - 1) / 2 || Math.abs(k) > (nb - 1) / 2 || Math.abs(l) > (nc - 1) / 2) {
+			throw new IllegalArgumentException("Reflection "+h+" "+k+" "+l+" is beyond the "+na+"x"+nb+"x"+nc+" grid");
+		}
+		return Math.floorMod(h, na) + na * (Math.floorMod(k, nb) + nb * Math.floorMod(l, nc));
+	}
+
+	/*
+	 * Forward transform of the interleaved complex grid along a and b
+	 * (parallel over c slabs) and then along c (parallel over b slabs).
+	 */
+	private void transform(DoubleBuffer grid) {
+		IntStream.range(0, nc).parallel().forEach(k -> {
+			Lines lines = new Lines(Math.max(na, nb));
+			for (int j = 0; j < nb; j++) {
+				lines.transform(fftA, grid, na * (j + nb * k), 1);
+			}
+			for (int i = 0; i < na; i++) {
+				lines.transform(fftB, grid, i + na * nb * k, na);
+			}
+		});
+		IntStream.range(0, nb).parallel().forEach(j -> {
+			Lines lines = new Lines(nc);
+			for (int i = 0; i < na; i++) {
+				lines.transform(fftC, grid, i + na * j, na * nb);
+			}
+		});
+	}
+
+	/*
+	 * Work arrays for transforming one grid line at a time.
+	 */
+	private static final class Lines {
+		private final double[] re, im, workRe, workIm;
+
+		Lines(int length) {
+			re = new double[length];
+			im = new double[length];
+			workRe = new double[length];
+			workIm = new double[length];
+		}
+
+		void transform(FFT fft, DoubleBuffer grid, int first, int stride) {
+			int n = fft.getLength();
+			boolean empty = true;
+			for (int t = 0, p = first; t < n; t++, p += stride) {
+				re[t] = grid.get(2 * p);
+				im[t] = grid.get(2 * p + 1);
+				empty &= re[t] == 0 && im[t] == 0;
+			}
+			//Lines beyond the resolution limit are all zero before the first pass
+			if (empty) return;
+			fft.transform(re, im, workRe, workIm, false);
+			for (int t = 0, p = first; t < n; t++, p += stride) {
+				grid.put(2 * p, re[t]);
+				grid.put(2 * p + 1, im[t]);
+			}
+		}
+	}
+
+}
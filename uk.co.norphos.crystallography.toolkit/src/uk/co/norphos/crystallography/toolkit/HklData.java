@@ -0,0 +1,152 @@
+package uk.co.norphos.crystallography.toolkit;
+
+import java.util.stream.IntStream;
+
+import uk.co.norphos.crystallography.api.MillerIndex;
+
+/**
+ * Immutable set of integrated reflection intensities, as read from or
+ * written to a SHELX HKLF 4/5 file by {@link HklReader} and
+ * {@link HklWriter}. Miller indices are held packed as h,k,l triples, as in
+ * {@link ReflectionList}, with intensities, standard uncertainties and
+ * (where the file has them) batch numbers in parallel arrays. In HKLF 5
+ * files the batch number is the twin component, negative for all but the
+ * last component contributing to an observation.
+ *
+ * @author Michael Wharmby
+ *
+ */
+public final class HklData {
+
+	private static final int CHUNK_SIZE = 1024;
+
+	private final int[] hkl;
+	private final double[] intensities, sigmas;
+	private final int[] batches;
+
+	/**
+	 * Construct from packed arrays, which are not copied.
+	 *
+	 * @param hkl int[] packed Miller indices
+	 * @param intensities double[] intensity of each reflection
+	 * @param sigmas double[] standard uncertainty of each intensity
+	 * @param batches int[] batch number of each reflection, or null
+	 */
+	public HklData(int[] hkl, double[] intensities, double[] sigmas, int[] batches) {
+		int n = intensities.length;
+		if (hkl.length != 3 * n || sigmas.length != n || (batches != null && batches.length != n)) {
+			throw new IllegalArgumentException("Expected "+(3 * n)+" indices and "+n+" sigmas and batches");
+		}
+		this.hkl = hkl;
+		this.intensities = intensities;
+		this.sigmas = sigmas;
+		this.batches = batches;
+	}
+
+	/**
+	 * Return the number of reflections.
+	 * @return int
+	 */
+	public int size() {
+		return intensities.length;
+	}
+
+	public int getH(int i) {
+		return hkl[3 * i];
+	}
+
+	public int getK(int i) {
+		return hkl[3 * i + 1];
+	}
+
+	public int getL(int i) {
+		return hkl[3 * i + 2];
+	}
+
+	/**
+	 * Return the Miller index of the i-th reflection.
+	 * @param i int
+	 * @return {@link MillerIndex}
+	 */
+	public MillerIndex getMillerIndex(int i) {
+		return new MillerIndex(hkl[3 * i], hkl[3 * i + 1], hkl[3 * i + 2]);
+	}
+
+	public double getIntensity(int i) {
+		return intensities[i];
+	}
+
+	public double getSigma(int i) {
+		return sigmas[i];
+	}
+
+	/**
+	 * Return whether the reflections have batch numbers.
+	 * @return boolean
+	 */
+	public boolean hasBatches() {
+		return batches != null;
+	}
+
+	/**
+	 * Return the batch number of the i-th reflection.
+	 * @param i int
+	 * @return int, or 0 if there are no batch numbers
+	 */
+	public int getBatch(int i) {
+		return batches == null ? 0 : batches[i];
+	}
+
+	/**
+	 * Return a copy of the Miller indices as packed h,k,l triples.
+	 * @return int[3 * size()]
+	 */
+	public int[] getIndices() {
+		return hkl.clone();
+	}
+
+	/**
+	 * Return a copy of the intensities.
+	 * @return double[size()]
+	 */
+	public double[] getIntensities() {
+		return intensities.clone();
+	}
+
+	/**
+	 * Return a copy of the standard uncertainties of the intensities.
+	 * @return double[size()]
+	 */
+	public double[] getSigmas() {
+		return sigmas.clone();
+	}
+
+	/**
+	 * Return a copy of the batch numbers.
+	 * @return int[size()], or null if there are none
+	 */
+	public int[] getBatches() {
+		return batches == null ? null : batches.clone();
+	}
+
+	/**
+	 * Calculate the d-spacing of every reflection in a cell.
+	 * @param cell {@link UnitCell}
+	 * @return double[size()] in Angstroms
+	 */
+	public double[] calculateDSpacings(UnitCell cell) {
+		//Only read once built, so may be shared between threads
+		CellWorkspace workspace = new CellWorkspace(cell.getLattice());
+		int n = size();
+		double[] dSpacings = new double[n];
+		int nChunks = (n + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		IntStream.range(0, nChunks).parallel().forEach(chunk -> {
+			int end = Math.min(n, (chunk + 1) * CHUNK_SIZE);
+			for (int i = chunk * CHUNK_SIZE; i < end; i++) {
+				dSpacings[i] = workspace.calculateDSpacing(hkl[3 * i], hkl[3 * i + 1], hkl[3 * i + 2]);
+			}
+		});
+		return dSpacings;
+	}
+
+}
@@ -0,0 +1,230 @@
+package uk.co.norphos.crystallography.toolkit;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.IntStream;
+
+import uk.co.norphos.crystallography.toolkit.metrics.Metrics;
+import uk.co.norphos.crystallography.toolkit.metrics.Timer;
+
+/**
+ * Reads SHELX HKLF 4 and HKLF 5 reflection files: fixed columns of
+ * h, k, l (3I4), intensity and sigma (2F8) and, optionally, a batch
+ * number (I4), ending at the first line with h = k = l = 0. Blank fields
+ * read as zero and anything after column 32 is ignored.
+ * <br>
+ * Files are memory-mapped and the fields parsed straight from the mapped
+ * bytes, without creating Strings. The buffer is split into chunks of
+ * about 1 MB at line boundaries, which are parsed in parallel and then
+ * joined in order up to the terminating line.
+ *
+ * @author Michael Wharmby
+ *
+ */
+public final class HklReader {
+
+	private static final Timer READ_TIMER = Metrics.timer("hkl.read");
+
+	static final int CHUNK_BYTES = 1 << 20;
+	//Field widths of 3I4, 2F8, I4
+	private static final int INDEX_WIDTH = 4, VALUE_WIDTH = 8, BATCH_END = 32;
+
+	private HklReader() {
+		//Static methods only
+	}
+
+	/**
+	 * Read a reflection file.
+	 * @param path Path
+	 * @return {@link HklData}
+	 * @throws IOException if the file cannot be read or has a bad field
+	 */
+	public static HklData read(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) throw new IOException(path+" is larger than 2 GB");
+			return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		} catch (IllegalArgumentException e) {
+			throw new IOException(path+": "+e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Read reflections from the remaining bytes of a buffer, e.g. one
+	 * mapped from part of a larger file. The buffer's position is not
+	 * changed.
+	 * @param buffer ByteBuffer of ASCII text
+	 * @return {@link HklData}
+	 * @throws IllegalArgumentException if a field cannot be parsed
+	 */
+	public static HklData read(ByteBuffer buffer) {
+		long start = Metrics.ENABLED ? System.nanoTime() : 0;
+		int first = buffer.position(), end = buffer.limit();
+		int nChunks = Math.max(1, (end - first) / CHUNK_BYTES);
+		int[] bounds = new int[nChunks + 1];
+		bounds[0] = first;
+		bounds[nChunks] = end;
+		for (int c = 1; c < nChunks; c++) {
+			//Each chunk starts after the line break at or beyond its nominal start
+			int p = Math.max(bounds[c - 1], first + c * CHUNK_BYTES - 1);
+			while (p < end && buffer.get(p) != '\n') p++;
+			bounds[c] = Math.min(end, p + 1);
+		}
+		Chunk[] chunks = new Chunk[nChunks];
+		IntStream.range(0, nChunks).parallel().forEach(c -> chunks[c] = new Chunk(buffer, bounds[c], bounds[c + 1]));
+
+		//Join chunks up to the terminator
+		int n = 0, used = 0;
+		boolean batches = false;
+		while (used < nChunks) {
+			n += chunks[used].n;
+			batches |= chunks[used].hasBatches;
+			if (chunks[used++].terminated) break;
+		}
+		int[] hkl = new int[3 * n];
+		double[] intensities = new double[n], sigmas = new double[n];
+		int[] batch = batches ? new int[n] : null;
+		int offset = 0;
+		for (int c = 0; c < used; c++) {
+			Chunk chunk = chunks[c];
+			System.arraycopy(chunk.hkl, 0, hkl, 3 * offset, 3 * chunk.n);
+			System.arraycopy(chunk.intensities, 0, intensities, offset, chunk.n);
+			System.arraycopy(chunk.sigmas, 0, sigmas, offset, chunk.n);
+			if (batches) System.arraycopy(chunk.batches, 0, batch, offset, chunk.n);
+			offset += chunk.n;
+		}
+		HklData data = new HklData(hkl, intensities, sigmas, batch);
+		if (Metrics.ENABLED) READ_TIMER.recordSince(start);
+		return data;
+	}
+
+	/*
+	 * The reflections of a run of whole lines.
+	 */
+	private static final class Chunk {
+		private int n;
+		private final int[] hkl;
+		private final double[] intensities, sigmas;
+		private final int[] batches;
+		private boolean terminated, hasBatches;
+
+		Chunk(ByteBuffer buffer, int start, int end) {
+			int lines = 1;
+			for (int p = start; p < end; p++) {
+				if (buffer.get(p) == '\n') lines++;
+			}
+			hkl = new int[3 * lines];
+			intensities = new double[lines];
+			sigmas = new double[lines];
+			batches = new int[lines];
+
+			for (int p = start; p < end && !terminated; ) {
+				int eol = p;
+				while (eol < end && buffer.get(eol) != '\n') eol++;
+				int next = eol + 1;
+				if (eol > p && buffer.get(eol - 1) == '\r') eol--;
+				if (!isBlank(buffer, p, eol)) {
+					int h = parseInt(buffer, p, eol, 0, INDEX_WIDTH);
+					int k = parseInt(buffer, p, eol, INDEX_WIDTH, 2 * INDEX_WIDTH);
+					int l = parseInt(buffer, p, eol, 2 * INDEX_WIDTH, 3 * INDEX_WIDTH);
+					if (h == 0 && k == 0 && l == 0) {
+						terminated = true;
+					} else {
+						int valueStart = 3 * INDEX_WIDTH;
+						hkl[3 * n] = h;
+						hkl[3 * n + 1] = k;
+						hkl[3 * n + 2] = l;
+						intensities[n] = parseReal(buffer, p, eol, valueStart, valueStart + VALUE_WIDTH);
+						sigmas[n] = parseReal(buffer, p, eol, valueStart + VALUE_WIDTH, valueStart + 2 * VALUE_WIDTH);
+						if (!isBlank(buffer, Math.min(eol, p + valueStart + 2 * VALUE_WIDTH), Math.min(eol, p + BATCH_END))) {
+							batches[n] = parseInt(buffer, p, eol, valueStart + 2 * VALUE_WIDTH, BATCH_END);
+							hasBatches = true;
+						}
+						n++;
+					}
+				}
+				p = next;
+			}
+		}
+	}
+
+	private static boolean isBlank(ByteBuffer buffer, int start, int end) {
+		for (int p = start; p < end; p++) {
+			if (buffer.get(p) != ' ') return false;
+		}
+		return true;
+	}
+
+	/*
+	 * Parse the integer in columns [from, to) of the line starting at
+	 * lineStart, ending at lineEnd.
+	 */
+	private static int parseInt(ByteBuffer buffer, int lineStart, int lineEnd, int from, int to) {
+		int p = lineStart + from, end = Math.min(lineEnd, lineStart + to);
+		while (p < end && buffer.get(p) == ' ') p++;
+		boolean negative = false;
+		if (p < end && (buffer.get(p) == '-' || buffer.get(p) == '+')) {
+			negative = buffer.get(p++) == '-';
+		}
+		int value = 0;
+		for (; p < end; p++) {
+			int digit = buffer.get(p) - '0';
+			if (digit < 0 || digit > 9) throw badField(buffer, lineStart, lineEnd, from);
+			value = 10 * value + digit;
+		}
+		return negative ? -value : value;
+	}
+
+	private static double parseReal(ByteBuffer buffer, int lineStart, int lineEnd, int from, int to) {
+		int p = lineStart + from, end = Math.min(lineEnd, lineStart + to);
+		while (p < end && buffer.get(p) == ' ') p++;
+		while (end > p && buffer.get(end - 1) == ' ') end--;
+		boolean negative = false;
+		if (p < end && (buffer.get(p) == '-' || buffer.get(p) == '+')) {
+			negative = buffer.get(p++) == '-';
+		}
+		long mantissa = 0;
+		int scale = 0, digits = 0;
+		boolean point = false;
+		for (; p < end; p++) {
+			byte ch = buffer.get(p);
+			if (ch >= '0' && ch <= '9') {
+				mantissa = 10 * mantissa + (ch - '0');
+				digits++;
+				if (point) scale++;
+			} else if (ch == '.' && !point) {
+				point = true;
+			} else {
+				break;
+			}
+		}
+		int exponent = 0;
+		if (p < end) {
+			//Exponent, as from a Fortran E or D edit descriptor
+			byte ch = buffer.get(p);
+			if (digits == 0 || (ch != 'E' && ch != 'e' && ch != 'D' && ch != 'd')) {
+				throw badField(buffer, lineStart, lineEnd, from);
+			}
+			exponent = parseInt(buffer, lineStart, end, p + 1 - lineStart, end - lineStart);
+		}
+		if (digits > 18) throw badField(buffer, lineStart, lineEnd, from);
+		double value = mantissa;
+		int power = exponent - scale;
+		if (power < 0) value /= Math.pow(10, -power);
+		else if (power > 0) value *= Math.pow(10, power);
+		return negative ? -value : value;
+	}
+
+	private static IllegalArgumentException badField(ByteBuffer buffer, int lineStart, int lineEnd, int column) {
+		byte[] line = new byte[lineEnd - lineStart];
+		for (int i = 0; i < line.length; i++) {
+			line[i] = buffer.get(lineStart + i);
+		}
+		return new IllegalArgumentException("Bad field at column "+(column + 1)+" of line '"
+				+new String(line, StandardCharsets.US_ASCII)+"' (byte "+lineStart+")");
+	}
+
+}
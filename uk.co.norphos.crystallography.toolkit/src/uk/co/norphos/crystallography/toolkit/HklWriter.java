@@ -0,0 +1,189 @@
+package uk.co.norphos.crystallography.toolkit;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Streams reflections to a {@link WritableByteChannel} as a SHELX HKLF 4
+ * or HKLF 5 file (3I4, 2F8.2 and, with batch numbers, I4). Lines are
+ * formatted directly into a reusable buffer, so writing does not allocate
+ * per reflection. Intensities too large for F8.2 are written with fewer
+ * decimal places, which fixed-column readers accept; closing the writer
+ * adds the terminating 0 0 0 line.
+ *
+ * @author Michael Wharmby
+ *
+ */
+public class HklWriter implements Closeable, Flushable {
+
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final int INDEX_WIDTH = 4, VALUE_WIDTH = 8, DECIMALS = 2;
+	private static final int LINE_LENGTH = 3 * INDEX_WIDTH + 2 * VALUE_WIDTH + INDEX_WIDTH + 1;
+	private static final long[] POWERS_OF_TEN = {1L, 10L, 100L};
+
+	private final WritableByteChannel channel;
+	private final ByteBuffer buffer;
+	private boolean batches;
+
+	/**
+	 * Construct a writer on a channel. The channel is closed when this writer
+	 * is closed.
+	 * @param channel WritableByteChannel
+	 */
+	public HklWriter(WritableByteChannel channel) {
+		this.channel = channel;
+		buffer = ByteBuffer.allocate(BUFFER_SIZE);
+	}
+
+	/**
+	 * Write one reflection without a batch number (HKLF 4).
+	 *
+	 * @param h int
+	 * @param k int
+	 * @param l int
+	 * @param intensity double
+	 * @param sigma double
+	 * @throws IOException if the channel cannot be written
+	 */
+	public void writeReflection(int h, int k, int l, double intensity, double sigma) throws IOException {
+		putLine(h, k, l, intensity, sigma, 0, false);
+	}
+
+	/**
+	 * Write one reflection with a batch number (or HKLF 5 component).
+	 *
+	 * @param h int
+	 * @param k int
+	 * @param l int
+	 * @param intensity double
+	 * @param sigma double
+	 * @param batch int
+	 * @throws IOException if the channel cannot be written
+	 */
+	public void writeReflection(int h, int k, int l, double intensity, double sigma, int batch) throws IOException {
+		putLine(h, k, l, intensity, sigma, batch, true);
+		batches = true;
+	}
+
+	/**
+	 * Write all of a set of reflections, with batch numbers if it has them.
+	 * @param data {@link HklData}
+	 * @throws IOException if the channel cannot be written
+	 */
+	public void writeAll(HklData data) throws IOException {
+		for (int i = 0; i < data.size(); i++) {
+			if (data.hasBatches()) {
+				writeReflection(data.getH(i), data.getK(i), data.getL(i), data.getIntensity(i), data.getSigma(i), data.getBatch(i));
+			} else {
+				writeReflection(data.getH(i), data.getK(i), data.getL(i), data.getIntensity(i), data.getSigma(i));
+			}
+		}
+	}
+
+	private void putLine(int h, int k, int l, double intensity, double sigma, int batch, boolean withBatch) throws IOException {
+		if (buffer.remaining() < LINE_LENGTH) flushBuffer();
+		int start = buffer.position();
+		try {
+			putInt(h, INDEX_WIDTH);
+			putInt(k, INDEX_WIDTH);
+			putInt(l, INDEX_WIDTH);
+			putReal(intensity);
+			putReal(sigma);
+			if (withBatch) putInt(batch, INDEX_WIDTH);
+			buffer.put((byte)'\n');
+		} catch (IllegalArgumentException e) {
+			//Leave no partial line
+			buffer.position(start);
+			throw e;
+		}
+	}
+
+	private void putInt(int value, int width) {
+		long magnitude = Math.abs((long)value);
+		int digits = 1;
+		for (long v = magnitude / 10; v > 0; v /= 10) digits++;
+		int length = digits + (value < 0 ? 1 : 0);
+		if (length > width) throw new IllegalArgumentException(value+" does not fit in "+width+" columns");
+		for (int i = length; i < width; i++) {
+			buffer.put((byte)' ');
+		}
+		if (value < 0) buffer.put((byte)'-');
+		putDigits(magnitude, digits);
+	}
+
+	/*
+	 * Right-justified in VALUE_WIDTH columns with DECIMALS places, or as
+	 * many as fit.
+	 */
+	private void putReal(double value) {
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			throw new IllegalArgumentException(value+" cannot be written to an HKL file");
+		}
+		for (int decimals = DECIMALS; decimals >= 0; decimals--) {
+			long scaled = Math.round(Math.abs(value) * POWERS_OF_TEN[decimals]);
+			boolean negative = value < 0 && scaled != 0;
+			int digits = 1;
+			for (long v = scaled / 10; v > 0; v /= 10) digits++;
+			//At least one digit before the point
+			int intDigits = Math.max(1, digits - decimals);
+			int length = (negative ? 1 : 0) + intDigits + (decimals > 0 ? 1 + decimals : 1);
+			if (length > VALUE_WIDTH) continue;
+			for (int i = length; i < VALUE_WIDTH; i++) {
+				buffer.put((byte)' ');
+			}
+			if (negative) buffer.put((byte)'-');
+			long divisor = POWERS_OF_TEN[decimals];
+			putDigits(scaled / divisor, intDigits);
+			buffer.put((byte)'.');
+			if (decimals > 0) putDigits(scaled % divisor, decimals);
+			return;
+		}
+		throw new IllegalArgumentException(value+" does not fit in "+VALUE_WIDTH+" columns");
+	}
+
+	/*
+	 * Write exactly count digits of value, with leading zeros.
+	 */
+	private void putDigits(long value, int count) {
+		int position = buffer.position();
+		for (int i = count - 1; i >= 0; i--) {
+			buffer.put(position + i, (byte)('0' + value % 10));
+			value /= 10;
+		}
+		buffer.position(position + count);
+	}
+
+	private void flushBuffer() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Write any buffered output to the channel.
+	 */
+	@Override
+	public void flush() throws IOException {
+		flushBuffer();
+	}
+
+	/**
+	 * Write the terminating line, flush buffered output and close the
+	 * channel.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			putLine(0, 0, 0, 0, 0, 0, batches);
+			flushBuffer();
+		} finally {
+			channel.close();
+		}
+	}
+
+}
@@ -0,0 +1,112 @@
+package uk.co.norphos.crystallography.toolkit;
+
+import org.apache.commons.math3.linear.RealMatrix;
+
+import uk.co.norphos.crystallography.api.IUnitCell;
+
+/**
+ * Calculates the strain relating two unit cells, based on their
+ * orthogonalization matrices.
+ *
+ * The deformation gradient taking the reference cell to the deformed cell is
+ * F = M' M^-1, where M and M' are the orthogonalization matrices of the
+ * reference and deformed cells. Since both matrices use the same Cartesian
+ * convention (a parallel to x, b in the xy-plane), the strain is expressed
+ * in that frame. Strain tensors are returned packed as {11, 22, 33, 12, 13,
+ * 23} (tensor, not engineering, shear components), as used by
+ * {@link Matrix3}.
+ *
+ * @author Michael Wharmby
+ *
+ */
+public final class LatticeStrain {
+
+	//Row and column of each packed component
+	private static final int[] ROW = {0, 1, 2, 0, 0, 1};
+	private static final int[] COL = {0, 1, 2, 1, 2, 2};
+
+	private LatticeStrain() {
+		//Static helpers only
+	}
+
+	/**
+	 * Calculate the deformation gradient F which maps the Cartesian basis of
+	 * reference onto that of deformed.
+	 *
+	 * @param reference {@link IUnitCell} undeformed cell
+	 * @param deformed {@link IUnitCell} deformed cell
+	 * @param dest double[9] row-major F
+	 */
+	public static void calculateDeformationGradient(IUnitCell reference, IUnitCell deformed, double[] dest) {
+		double[] ortho = toArray(deformed.getOrthogonalizationMatrix());
+		double[] frac = toArray(reference.getFractionalizationMatrix());
+		Matrix3.multiply(ortho, frac, dest);
+	}
+
+	/**
+	 * Calculate the infinitesimal (linear) strain, e = (F + F^T)/2 - I,
+	 * between two unit cells.
+	 *
+	 * @param reference {@link IUnitCell} undeformed cell
+	 * @param deformed {@link IUnitCell} deformed cell
+	 * @param dest double[6] packed strain tensor
+	 */
+	public static void calculateStrain(IUnitCell reference, IUnitCell deformed, double[] dest) {
+		double[] defGrad = new double[9];
+		calculateDeformationGradient(reference, deformed, defGrad);
+		infinitesimalStrain(defGrad, dest, 0);
+	}
+
+	/**
+	 * Calculate the finite Lagrangian strain, E = (F^T F - I)/2, between two
+	 * unit cells.
+	 *
+	 * @param reference {@link IUnitCell} undeformed cell
+	 * @param deformed {@link IUnitCell} deformed cell
+	 * @param dest double[6] packed strain tensor
+	 */
+	public static void calculateLagrangianStrain(IUnitCell reference, IUnitCell deformed, double[] dest) {
+		double[] defGrad = new double[9];
+		calculateDeformationGradient(reference, deformed, defGrad);
+		lagrangianStrain(defGrad, dest, 0);
+	}
+
+	/**
+	 * Calculate the principal strains (eigenvalues, descending) and principal
+	 * axes (Cartesian unit vectors, one per row) of a packed strain tensor.
+	 *
+	 * @param strain double[6] packed strain tensor
+	 * @param values double[3] principal strains
+	 * @param axes double[9] principal axes, axis k in axes[3k..3k+2]
+	 */
+	public static void calculatePrincipalStrains(double[] strain, double[] values, double[] axes) {
+		Matrix3.symmetricEigen(strain, 0, values, 0, axes, 0);
+	}
+
+	static void infinitesimalStrain(double[] defGrad, double[] dest, int offset) {
+		Matrix3.packSymmetric(defGrad, dest, offset);
+		dest[offset] -= 1;
+		dest[offset + 1] -= 1;
+		dest[offset + 2] -= 1;
+	}
+
+	static void lagrangianStrain(double[] f, double[] dest, int offset) {
+		//Components of F^T F, which is symmetric
+		for (int k = 0; k < 6; k++) {
+			int i = ROW[k], j = COL[k];
+			double sum = f[i] * f[j] + f[3 + i] * f[3 + j] + f[6 + i] * f[6 + j];
+			dest[offset + k] = 0.5 * (k < 3 ? sum - 1 : sum);
+		}
+	}
+
+	private static double[] toArray(RealMatrix matrix) {
+		double[] array = new double[9];
+		for (int i = 0; i < 3; i++) {
+			for (int j = 0; j < 3; j++) {
+				array[3 * i + j] = matrix.getEntry(i, j);
+			}
+		}
+		return array;
+	}
+
+}
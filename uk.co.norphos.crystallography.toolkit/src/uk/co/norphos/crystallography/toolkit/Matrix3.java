@@ -0,0 +1,233 @@
+package uk.co.norphos.crystallography.toolkit;
+
+/**
+ * Static helpers for 3x3 matrices stored as row-major double[9] arrays and
+ * for symmetric second-rank tensors stored in packed form as double[6] with
+ * the order {11, 22, 33, 12, 13, 23} (the same order as CIF U_ij).
+ *
+ * These avoid the overhead of RealMatrix and general decompositions for the
+ * small, fixed-size problems found in crystallographic calculations. None of
+ * the methods allocate; output arrays may not alias inputs unless stated.
+ *
+ * @author Michael Wharmby
+ *
+ */
+public final class Matrix3 {
+
+	private static final int MAX_JACOBI_SWEEPS = 50;
+
+	private Matrix3() {
+		//Static helpers only
+	}
+
+	/**
+	 * dest = left . right
+	 * @param left double[9]
+	 * @param right double[9]
+	 * @param dest double[9], not the same array as either argument
+	 */
+	public static void multiply(double[] left, double[] right, double[] dest) {
+		for (int i = 0; i < 3; i++) {
+			for (int j = 0; j < 3; j++) {
+				dest[3 * i + j] = left[3 * i] * right[j] + left[3 * i + 1] * right[3 + j]
+						+ left[3 * i + 2] * right[6 + j];
+			}
+		}
+	}
+
+	/**
+	 * dest = transpose(mat)
+	 * @param mat double[9]
+	 * @param dest double[9], not the same array as mat
+	 */
+	public static void transpose(double[] mat, double[] dest) {
+		for (int i = 0; i < 3; i++) {
+			for (int j = 0; j < 3; j++) {
+				dest[3 * j + i] = mat[3 * i + j];
+			}
+		}
+	}
+
+	/**
+	 * Determinant of a 3x3 matrix.
+	 * @param m double[9]
+	 * @return double determinant
+	 */
+	public static double determinant(double[] m) {
+		return m[0] * (m[4] * m[8] - m[5] * m[7])
+				- m[1] * (m[3] * m[8] - m[5] * m[6])
+				+ m[2] * (m[3] * m[7] - m[4] * m[6]);
+	}
+
+	/**
+	 * Invert a 3x3 matrix by the adjugate method.
+	 * @param m double[9]
+	 * @param dest double[9], not the same array as m
+	 * @return double determinant of m
+	 * @throws ArithmeticException if the matrix is singular
+	 */
+	public static double invert(double[] m, double[] dest) {
+		double det = determinant(m);
+		if (det == 0) {
+			throw new ArithmeticException("Matrix is singular");
+		}
+		double invDet = 1 / det;
+		dest[0] = (m[4] * m[8] - m[5] * m[7]) * invDet;
+		dest[1] = (m[2] * m[7] - m[1] * m[8]) * invDet;
+		dest[2] = (m[1] * m[5] - m[2] * m[4]) * invDet;
+		dest[3] = (m[5] * m[6] - m[3] * m[8]) * invDet;
+		dest[4] = (m[0] * m[8] - m[2] * m[6]) * invDet;
+		dest[5] = (m[2] * m[3] - m[0] * m[5]) * invDet;
+		dest[6] = (m[3] * m[7] - m[4] * m[6]) * invDet;
+		dest[7] = (m[1] * m[6] - m[0] * m[7]) * invDet;
+		dest[8] = (m[0] * m[4] - m[1] * m[3]) * invDet;
+		return det;
+	}
+
+	/**
+	 * Expand a packed symmetric tensor into a full 3x3 matrix.
+	 * @param packed double[6] {11, 22, 33, 12, 13, 23}, read from offset
+	 * @param offset int index of the first component in packed
+	 * @param dest double[9]
+	 */
+	public static void unpack(double[] packed, int offset, double[] dest) {
+		dest[0] = packed[offset];
+		dest[4] = packed[offset + 1];
+		dest[8] = packed[offset + 2];
+		dest[1] = dest[3] = packed[offset + 3];
+		dest[2] = dest[6] = packed[offset + 4];
+		dest[5] = dest[7] = packed[offset + 5];
+	}
+
+	/**
+	 * Pack the symmetric part of a 3x3 matrix, i.e. (M + M^T)/2.
+	 * @param mat double[9]
+	 * @param dest double[] receiving {11, 22, 33, 12, 13, 23} from offset
+	 * @param offset int index at which to write the first component
+	 */
+	public static void packSymmetric(double[] mat, double[] dest, int offset) {
+		dest[offset] = mat[0];
+		dest[offset + 1] = mat[4];
+		dest[offset + 2] = mat[8];
+		dest[offset + 3] = 0.5 * (mat[1] + mat[3]);
+		dest[offset + 4] = 0.5 * (mat[2] + mat[6]);
+		dest[offset + 5] = 0.5 * (mat[5] + mat[7]);
+	}
+
+	/**
+	 * Eigen-decomposition of a packed symmetric tensor by the cyclic Jacobi
+	 * method. Eigenvalues are returned in descending order; eigenvector k is
+	 * written to vectors[3k..3k+2] (i.e. the rows of vectors are the
+	 * normalised principal axes) and forms a right-handed set.
+	 *
+	 * @param packed double[] holding {11, 22, 33, 12, 13, 23} from inOffset
+	 * @param inOffset int
+	 * @param values double[] receiving 3 eigenvalues from valOffset
+	 * @param valOffset int
+	 * @param vectors double[] receiving 9 components from vecOffset
+	 * @param vecOffset int
+	 */
+	public static void symmetricEigen(double[] packed, int inOffset, double[] values, int valOffset,
+			double[] vectors, int vecOffset) {
+		double d0 = packed[inOffset], d1 = packed[inOffset + 1], d2 = packed[inOffset + 2];
+		double o01 = packed[inOffset + 3], o02 = packed[inOffset + 4], o12 = packed[inOffset + 5];
+		//Accumulated rotation, column k is eigenvector k
+		double v00 = 1, v01 = 0, v02 = 0, v10 = 0, v11 = 1, v12 = 0, v20 = 0, v21 = 0, v22 = 1;
+
+		for (int sweep = 0; sweep < MAX_JACOBI_SWEEPS; sweep++) {
+			double off = o01 * o01 + o02 * o02 + o12 * o12;
+			double diag = d0 * d0 + d1 * d1 + d2 * d2;
+			if (off <= 1e-30 * diag || off == 0) break;
+
+			double t, c, s, g, h;
+			if (o01 != 0) {
+				t = rotationTangent(d0, d1, o01);
+				c = 1 / Math.sqrt(t * t + 1);
+				s = t * c;
+				d0 -= t * o01;
+				d1 += t * o01;
+				o01 = 0;
+				g = o02; h = o12;
+				o02 = c * g - s * h;
+				o12 = s * g + c * h;
+				g = v00; h = v01; v00 = c * g - s * h; v01 = s * g + c * h;
+				g = v10; h = v11; v10 = c * g - s * h; v11 = s * g + c * h;
+				g = v20; h = v21; v20 = c * g - s * h; v21 = s * g + c * h;
+			}
+			if (o02 != 0) {
+				t = rotationTangent(d0, d2, o02);
+				c = 1 / Math.sqrt(t * t + 1);
+				s = t * c;
+				d0 -= t * o02;
+				d2 += t * o02;
+				o02 = 0;
+				g = o01; h = o12;
+				o01 = c * g - s * h;
+				o12 = s * g + c * h;
+				g = v00; h = v02; v00 = c * g - s * h; v02 = s * g + c * h;
+				g = v10; h = v12; v10 = c * g - s * h; v12 = s * g + c * h;
+				g = v20; h = v22; v20 = c * g - s * h; v22 = s * g + c * h;
+			}
+			if (o12 != 0) {
+				t = rotationTangent(d1, d2, o12);
+				c = 1 / Math.sqrt(t * t + 1);
+				s = t * c;
+				d1 -= t * o12;
+				d2 += t * o12;
+				o12 = 0;
+				g = o01; h = o02;
+				o01 = c * g - s * h;
+				o02 = s * g + c * h;
+				g = v01; h = v02; v01 = c * g - s * h; v02 = s * g + c * h;
+				g = v11; h = v12; v11 = c * g - s * h; v12 = s * g + c * h;
+				g = v21; h = v22; v21 = c * g - s * h; v22 = s * g + c * h;
+			}
+		}
+
+		//Sort indices by descending eigenvalue, then write out (eigenvector k -> row k)
+		int i0 = 0, i1 = 1, i2 = 2, tmp;
+		if (valueAt(d0, d1, d2, i0) < valueAt(d0, d1, d2, i1)) { tmp = i0; i0 = i1; i1 = tmp; }
+		if (valueAt(d0, d1, d2, i1) < valueAt(d0, d1, d2, i2)) { tmp = i1; i1 = i2; i2 = tmp; }
+		if (valueAt(d0, d1, d2, i0) < valueAt(d0, d1, d2, i1)) { tmp = i0; i0 = i1; i1 = tmp; }
+
+		writeEigenPair(i0, 0, d0, d1, d2, v00, v01, v02, v10, v11, v12, v20, v21, v22, values, valOffset, vectors, vecOffset);
+		writeEigenPair(i1, 1, d0, d1, d2, v00, v01, v02, v10, v11, v12, v20, v21, v22, values, valOffset, vectors, vecOffset);
+		writeEigenPair(i2, 2, d0, d1, d2, v00, v01, v02, v10, v11, v12, v20, v21, v22, values, valOffset, vectors, vecOffset);
+
+		//Ensure right-handedness: axis2 = axis0 x axis1
+		int r0 = vecOffset, r1 = vecOffset + 3, r2 = vecOffset + 6;
+		double cx = vectors[r0 + 1] * vectors[r1 + 2] - vectors[r0 + 2] * vectors[r1 + 1];
+		double cy = vectors[r0 + 2] * vectors[r1] - vectors[r0] * vectors[r1 + 2];
+		double cz = vectors[r0] * vectors[r1 + 1] - vectors[r0 + 1] * vectors[r1];
+		if (cx * vectors[r2] + cy * vectors[r2 + 1] + cz * vectors[r2 + 2] < 0) {
+			vectors[r2] = -vectors[r2];
+			vectors[r2 + 1] = -vectors[r2 + 1];
+			vectors[r2 + 2] = -vectors[r2 + 2];
+		}
+	}
+
+	private static double rotationTangent(double app, double aqq, double apq) {
+		double theta = (aqq - app) / (2 * apq);
+		double t = 1 / (Math.abs(theta) + Math.sqrt(theta * theta + 1));
+		return theta < 0 ? -t : t;
+	}
+
+	private static double valueAt(double d0, double d1, double d2, int index) {
+		return index == 0 ? d0 : (index == 1 ? d1 : d2);
+	}
+
+	private static void writeEigenPair(int index, int slot, double d0, double d1, double d2,
+			double v00, double v01, double v02, double v10, double v11, double v12,
+			double v20, double v21, double v22, double[] values, int valOffset, double[] vectors, int vecOffset) {
+		values[valOffset + slot] = valueAt(d0, d1, d2, index);
+		int row = vecOffset + 3 * slot;
+		if (index == 0) {
+			vectors[row] = v00; vectors[row + 1] = v10; vectors[row + 2] = v20;
+		} else if (index == 1) {
+			vectors[row] = v01; vectors[row + 1] = v11; vectors[row + 2] = v21;
+		} else {
+			vectors[row] = v02; vectors[row + 1] = v12; vectors[row + 2] = v22;
+		}
+	}
+
+}
@@ -0,0 +1,365 @@
+package uk.co.norphos.crystallography.toolkit;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import uk.co.norphos.crystallography.api.Site;
+import uk.co.norphos.crystallography.toolkit.metrics.Metrics;
+import uk.co.norphos.crystallography.toolkit.metrics.Timer;
+
+/**
+ * Calculates the void space of a framework for screening porous materials:
+ * void fraction, probe-accessible volume, largest cavity and pore limiting
+ * diameters and accessible surface area.
+ * <br>
+ * Atoms are hard spheres. The distance from every point of a fractional
+ * grid to the nearest atom surface is found through an {@link AtomHash},
+ * with the grid split into parallel slabs along c. A probe sphere can be
+ * centred wherever this distance is at least its radius; that region is
+ * split into connected pockets with periodic union-find, where a pocket
+ * which joins onto its own image in a neighbouring cell is a channel
+ * through the framework. Adding grid points in order of decreasing
+ * distance, the pore limiting diameter is twice the distance at which the
+ * first channel forms.
+ * <br>
+ * The grid follows the cell axes, so it respects a triclinic metric
+ * exactly; its spacing along each axis is at most the requested spacing.
+ * Coordinates must cover the whole cell, as no symmetry is applied.
+ *
+ * @author Michael Wharmby
+ *
+ */
+public class PorosityCalculator {
+
+	private static final Timer CALCULATE_TIMER = Metrics.timer("porosity.calculate");
+
+	/**
+	 * Default number of points sampled on each atom for surface areas.
+	 */
+	public static final int DEFAULT_SURFACE_POINTS = 500;
+
+	private static final double BIN_SIZE = 3.0;
+
+	private final double probeRadius, gridSpacing;
+	private int surfacePoints = DEFAULT_SURFACE_POINTS;
+
+	/**
+	 * Construct a calculator for the given probe and grid.
+	 *
+	 * @param probeRadius double in Angstroms (e.g. 1.2 for He, 1.82 for N2)
+	 * @param gridSpacing double maximum grid spacing in Angstroms (e.g. 0.2)
+	 */
+	public PorosityCalculator(double probeRadius, double gridSpacing) {
+		if (probeRadius < 0) {
+			throw new IllegalArgumentException("Probe radius must not be negative");
+		}
+		if (!(gridSpacing > 0)) {
+			throw new IllegalArgumentException("Grid spacing must be positive");
+		}
+		this.probeRadius = probeRadius;
+		this.gridSpacing = gridSpacing;
+	}
+
+	/**
+	 * Set the number of points sampled on each atom sphere when calculating
+	 * surface areas.
+	 * @param points int
+	 */
+	public void setSurfacePoints(int points) {
+		if (points < 1) throw new IllegalArgumentException("At least one surface point is required");
+		this.surfacePoints = points;
+	}
+
+	/**
+	 * Calculate the porosity of a {@link Crystal}, with atoms given their
+	 * van der Waals radii from {@link ElementTable}.
+	 * @param crystal {@link Crystal} with every atom of the cell as a site
+	 * @return {@link PorosityResult}
+	 */
+	public PorosityResult calculate(Crystal crystal) {
+		List<Site> sites = crystal.getSites();
+		double[] radii = new double[sites.size()];
+		for (int i = 0; i < radii.length; i++) {
+			radii[i] = ElementTable.getVdwRadius(ElementTable.getAtomicNumber(sites.get(i).getElement()));
+		}
+		return calculate(crystal.getUnitCell(), crystal.getFractionalCoordinates(), radii);
+	}
+
+	/**
+	 * Calculate the porosity of atoms of the given radii in a unit cell.
+	 *
+	 * @param cell {@link UnitCell}
+	 * @param fracCoords double[] packed fractional coordinates of every atom
+	 *        in the cell
+	 * @param radii double[] one radius per atom in Angstroms
+	 * @return {@link PorosityResult}
+	 */
+	public PorosityResult calculate(UnitCell cell, double[] fracCoords, double[] radii) {
+		if (fracCoords.length != 3 * radii.length) {
+			throw new IllegalArgumentException("Expected "+3 * radii.length+" coordinates, got "+fracCoords.length);
+		}
+		long start = Metrics.ENABLED ? System.nanoTime() : 0;
+		CellWorkspace ws = new CellWorkspace(cell.getLattice());
+		AtomHash hash = new AtomHash(ws, fracCoords, radii, BIN_SIZE);
+		double[] ortho = new double[9];
+		ws.copyOrthogonalizationMatrix(ortho);
+
+		int na = (int)Math.ceil(ws.getA() / gridSpacing);
+		int nb = (int)Math.ceil(ws.getB() / gridSpacing);
+		int nc = (int)Math.ceil(ws.getC() / gridSpacing);
+		int nPoints = na * nb * nc;
+		float[] distance = calculateDistances(hash, ortho, na, nb, nc);
+
+		//Sort the void points by decreasing distance; non-negative floats order as their bits
+		int nVoid = 0;
+		double maxDistance = 0;
+		for (float d : distance) {
+			if (d >= 0) {
+				nVoid++;
+				maxDistance = Math.max(maxDistance, d);
+			}
+		}
+		long[] keys = new long[nVoid];
+		for (int p = 0, n = 0; p < nPoints; p++) {
+			if (distance[p] >= 0) keys[n++] = (long)Float.floatToIntBits(distance[p]) << 32 | p;
+		}
+		Arrays.parallelSort(keys);
+
+		PeriodicUnionFind components = new PeriodicUnionFind(na, nb, nc);
+		boolean[] accessible = null;
+		int nAccessible = 0, nPocket = 0, channelMask = 0;
+		double limitingDistance = -1;
+		for (int n = nVoid - 1; n >= -1; n--) {
+			double d = n >= 0 ? distance[(int)keys[n]] : Double.NEGATIVE_INFINITY;
+			if (accessible == null && d < probeRadius) {
+				//All probe-centre points added: split into channels and pockets
+				accessible = new boolean[nPoints];
+				for (int m = nVoid - 1; m > n; m--) {
+					int p = (int)keys[m];
+					int mask = components.getPercolationMask(p);
+					if (mask != 0) {
+						accessible[p] = true;
+						channelMask |= mask;
+						nAccessible++;
+					} else {
+						nPocket++;
+					}
+				}
+			}
+			if (n < 0 || (limitingDistance >= 0 && accessible != null)) break;
+			int p = (int)keys[n];
+			components.add(p);
+			if (limitingDistance < 0 && components.getPercolationMask(p) != 0) limitingDistance = d;
+		}
+
+		double[] surface = calculateSurfaceAreas(hash, ws, ortho, accessible, na, nb, nc);
+		double volume = ws.getVolume();
+		PorosityResult result = new PorosityResult(probeRadius, new int[]{na, nb, nc}, volume,
+				(double)nVoid / nPoints, (double)nAccessible / nPoints, (double)nPocket / nPoints,
+				2 * maxDistance, 2 * Math.max(limitingDistance, 0), channelMask,
+				surface[0], surface[1]);
+		if (Metrics.ENABLED) CALCULATE_TIMER.recordSince(start);
+		return result;
+	}
+
+	/*
+	 * Distance to the nearest atom surface at every grid point, index
+	 * i + na.(j + nb.k), in parallel over slabs of constant k. Along a row
+	 * the previous point's distance plus the step bounds the next.
+	 */
+	private static float[] calculateDistances(AtomHash hash, double[] ortho, int na, int nb, int nc) {
+		float[] distance = new float[na * nb * nc];
+		double step = Math.sqrt(ortho[0] * ortho[0] + ortho[3] * ortho[3] + ortho[6] * ortho[6]) / na;
+		IntStream.range(0, nc).parallel().forEach(k -> {
+			double fz = (double)k / nc;
+			for (int j = 0; j < nb; j++) {
+				double fy = (double)j / nb;
+				double bound = Double.POSITIVE_INFINITY;
+				int row = na * (j + nb * k);
+				for (int i = 0; i < na; i++) {
+					double fx = (double)i / na;
+					double x = ortho[0] * fx + ortho[1] * fy + ortho[2] * fz;
+					double y = ortho[3] * fx + ortho[4] * fy + ortho[5] * fz;
+					double z = ortho[6] * fx + ortho[7] * fy + ortho[8] * fz;
+					double d = hash.nearestSurface(x, y, z, bound + 1e-9);
+					distance[row + i] = (float)d;
+					bound = d + step;
+				}
+			}
+		});
+		return distance;
+	}
+
+	/*
+	 * Total and accessible surface of the spheres swept by the probe centre
+	 * (atom radius plus probe radius), sampled on a Fibonacci lattice on
+	 * each sphere. A sample is accessible if any corner of its grid cell is
+	 * in a channel. Returns {accessible, non-accessible} in Angstrom^2.
+	 */
+	private double[] calculateSurfaceAreas(AtomHash hash, CellWorkspace ws, double[] ortho, boolean[] accessible,
+			int na, int nb, int nc) {
+		int nAtoms = hash.getNumberOfAtoms();
+		double[] unitSphere = fibonacciSphere(surfacePoints);
+		double[] frac = new double[9];
+		ws.copyFractionalizationMatrix(frac);
+		double[] accessibleArea = new double[nAtoms], pocketArea = new double[nAtoms];
+		double tolerance = 1e-9 * (1 + probeRadius);
+		IntStream.range(0, nAtoms).parallel().forEach(a -> {
+			double[] centre = hash.getAtom(a);
+			double r = centre[3] + probeRadius;
+			int nAccessible = 0, nPocket = 0;
+			for (int s = 0; s < surfacePoints; s++) {
+				double x = centre[0] + r * unitSphere[3 * s];
+				double y = centre[1] + r * unitSphere[3 * s + 1];
+				double z = centre[2] + r * unitSphere[3 * s + 2];
+				if (hash.nearestSurface(x, y, z, probeRadius) < probeRadius - tolerance) continue;
+				double fx = frac[0] * x + frac[1] * y + frac[2] * z;
+				double fy = frac[3] * x + frac[4] * y + frac[5] * z;
+				double fz = frac[6] * x + frac[7] * y + frac[8] * z;
+				if (accessible != null && isCellAccessible(accessible, fx, fy, fz, na, nb, nc)) {
+					nAccessible++;
+				} else {
+					nPocket++;
+				}
+			}
+			double sphereArea = 4 * Math.PI * r * r;
+			accessibleArea[a] = sphereArea * nAccessible / surfacePoints;
+			pocketArea[a] = sphereArea * nPocket / surfacePoints;
+		});
+		double sumAccessible = 0, sumPocket = 0;
+		for (int a = 0; a < nAtoms; a++) {
+			sumAccessible += accessibleArea[a];
+			sumPocket += pocketArea[a];
+		}
+		return new double[]{sumAccessible, sumPocket};
+	}
+
+	private static boolean isCellAccessible(boolean[] accessible, double fx, double fy, double fz, int na, int nb, int nc) {
+		int i = (int)Math.floor(fx * na), j = (int)Math.floor(fy * nb), k = (int)Math.floor(fz * nc);
+		for (int c = 0; c < 8; c++) {
+			int ii = Math.floorMod(i + (c & 1), na);
+			int jj = Math.floorMod(j + ((c >> 1) & 1), nb);
+			int kk = Math.floorMod(k + ((c >> 2) & 1), nc);
+			if (accessible[ii + na * (jj + nb * kk)]) return true;
+		}
+		return false;
+	}
+
+	/*
+	 * Near-uniform points on the unit sphere, packed as xyz triples.
+	 */
+	private static double[] fibonacciSphere(int n) {
+		double[] points = new double[3 * n];
+		double golden = Math.PI * (3 - Math.sqrt(5));
+		for (int s = 0; s < n; s++) {
+			double z = 1 - (2 * s + 1.0) / n;
+			double rho = Math.sqrt(1 - z * z);
+			points[3 * s] = rho * Math.cos(golden * s);
+			points[3 * s + 1] = rho * Math.sin(golden * s);
+			points[3 * s + 2] = z;
+		}
+		return points;
+	}
+
+	/**
+	 * Union-find over a periodic grid which keeps, for each point, the
+	 * lattice translation from its representative. Joining two points which
+	 * are already connected, but through a different translation, means
+	 * the component is connected to its own image: it percolates along that
+	 * translation.
+	 */
+	private static final class PeriodicUnionFind {
+		private final int na, nb, nc;
+		private final int[] parent, offset;
+		private final byte[] mask;
+
+		PeriodicUnionFind(int na, int nb, int nc) {
+			this.na = na;
+			this.nb = nb;
+			this.nc = nc;
+			int n = na * nb * nc;
+			parent = new int[n];
+			Arrays.fill(parent, -1);
+			offset = new int[3 * n];
+			mask = new byte[n];
+		}
+
+		void add(int p) {
+			parent[p] = p;
+			int i = p % na, j = (p / na) % nb, k = p / (na * nb);
+			join(p, i + 1, j, k);
+			join(p, i - 1, j, k);
+			join(p, i, j + 1, k);
+			join(p, i, j - 1, k);
+			join(p, i, j, k + 1);
+			join(p, i, j, k - 1);
+		}
+
+		/*
+		 * Axes (bits 1, 2 and 4 for a, b and c) along which the component
+		 * of p joins onto its own image.
+		 */
+		int getPercolationMask(int p) {
+			return mask[find(p)];
+		}
+
+		/*
+		 * Join p to its grid neighbour (i,j,k), which may lie in the next
+		 * cell, if that neighbour has been added.
+		 */
+		private void join(int p, int i, int j, int k) {
+			int ta = Math.floorDiv(i, na), tb = Math.floorDiv(j, nb), tc = Math.floorDiv(k, nc);
+			int q = (i - ta * na) + na * ((j - tb * nb) + nb * (k - tc * nc));
+			if (parent[q] < 0) return;
+			int rp = find(p), rq = find(q);
+			//Translation of the image of q next to p, relative to rp's frame
+			int wa = offset[3 * p] + ta - offset[3 * q];
+			int wb = offset[3 * p + 1] + tb - offset[3 * q + 1];
+			int wc = offset[3 * p + 2] + tc - offset[3 * q + 2];
+			if (rp == rq) {
+				int wrap = (wa != 0 ? 1 : 0) | (wb != 0 ? 2 : 0) | (wc != 0 ? 4 : 0);
+				mask[rp] |= wrap;
+			} else {
+				parent[rq] = rp;
+				offset[3 * rq] = wa;
+				offset[3 * rq + 1] = wb;
+				offset[3 * rq + 2] = wc;
+				mask[rp] |= mask[rq];
+			}
+		}
+
+		/*
+		 * Find the representative of p, compressing the path so that every
+		 * point on it points at the root with its total offset.
+		 */
+		private int find(int p) {
+			int root = p;
+			while (parent[root] != root) {
+				root = parent[root];
+			}
+			//Offsets are relative to the parent, so accumulate from the root end
+			int node = p, depth = 0;
+			while (parent[node] != root && node != root) {
+				node = parent[node];
+				depth++;
+			}
+			if (depth == 0) return root;
+			int[] path = new int[depth + 1];
+			node = p;
+			for (int n = 0; n <= depth; n++) {
+				path[n] = node;
+				node = parent[node];
+			}
+			for (int n = depth - 1; n >= 0; n--) {
+				int child = path[n], up = path[n + 1];
+				offset[3 * child] += offset[3 * up];
+				offset[3 * child + 1] += offset[3 * up + 1];
+				offset[3 * child + 2] += offset[3 * up + 2];
+				parent[child] = root;
+			}
+			return root;
+		}
+	}
+
+}
@@ -0,0 +1,153 @@
+package uk.co.norphos.crystallography.toolkit;
+
+/**
+ * The void space of a framework found by a {@link PorosityCalculator}.
+ * Volumes are of the region the probe centre can reach (the convention of
+ * accessible volume in pore analysis) and surface areas are of the surface
+ * traced by the probe centre rolling over the atoms.
+ *
+ * @author Michael Wharmby
+ *
+ */
+public class PorosityResult {
+
+	private final double probeRadius;
+	private final int[] gridDimensions;
+	private final double cellVolume, voidFraction, accessibleFraction, inaccessibleFraction;
+	private final double largestCavityDiameter, poreLimitingDiameter;
+	private final int channelMask;
+	private final double accessibleSurfaceArea, inaccessibleSurfaceArea;
+
+	PorosityResult(double probeRadius, int[] gridDimensions, double cellVolume, double voidFraction,
+			double accessibleFraction, double inaccessibleFraction, double largestCavityDiameter,
+			double poreLimitingDiameter, int channelMask, double accessibleSurfaceArea, double inaccessibleSurfaceArea) {
+		this.probeRadius = probeRadius;
+		this.gridDimensions = gridDimensions;
+		this.cellVolume = cellVolume;
+		this.voidFraction = voidFraction;
+		this.accessibleFraction = accessibleFraction;
+		this.inaccessibleFraction = inaccessibleFraction;
+		this.largestCavityDiameter = largestCavityDiameter;
+		this.poreLimitingDiameter = poreLimitingDiameter;
+		this.channelMask = channelMask;
+		this.accessibleSurfaceArea = accessibleSurfaceArea;
+		this.inaccessibleSurfaceArea = inaccessibleSurfaceArea;
+	}
+
+	public double getProbeRadius() {
+		return probeRadius;
+	}
+
+	/**
+	 * Return the number of grid points along a, b and c.
+	 * @return int[3]
+	 */
+	public int[] getGridDimensions() {
+		return gridDimensions.clone();
+	}
+
+	/**
+	 * Return the fraction of the cell outside every atom (the geometric
+	 * void fraction for a probe of zero radius).
+	 * @return double
+	 */
+	public double getVoidFraction() {
+		return voidFraction;
+	}
+
+	/**
+	 * Return the fraction of the cell the probe centre can reach through
+	 * channels which run through the framework.
+	 * @return double
+	 */
+	public double getAccessibleFraction() {
+		return accessibleFraction;
+	}
+
+	/**
+	 * Return the volume the probe centre can reach through channels.
+	 * @return double in Angstrom^3
+	 */
+	public double getAccessibleVolume() {
+		return accessibleFraction * cellVolume;
+	}
+
+	/**
+	 * Return the fraction of the cell in pockets large enough for the probe
+	 * but closed off from the channels.
+	 * @return double
+	 */
+	public double getInaccessibleFraction() {
+		return inaccessibleFraction;
+	}
+
+	/**
+	 * Return the inaccessible pocket volume.
+	 * @return double in Angstrom^3
+	 */
+	public double getInaccessibleVolume() {
+		return inaccessibleFraction * cellVolume;
+	}
+
+	/**
+	 * Return the diameter of the largest sphere which fits anywhere in the
+	 * framework.
+	 * @return double in Angstroms
+	 */
+	public double getLargestCavityDiameter() {
+		return largestCavityDiameter;
+	}
+
+	/**
+	 * Return the diameter of the largest sphere which can pass through the
+	 * framework, or zero if none can.
+	 * @return double in Angstroms
+	 */
+	public double getPoreLimitingDiameter() {
+		return poreLimitingDiameter;
+	}
+
+	/**
+	 * Return whether the probe can pass through the framework.
+	 * @return boolean
+	 */
+	public boolean isPercolating() {
+		return channelMask != 0;
+	}
+
+	/**
+	 * Return whether a channel accessible to the probe runs through the
+	 * framework with a component along the given axis.
+	 * @param axis int 0, 1 or 2 for a, b or c
+	 * @return boolean
+	 */
+	public boolean percolatesAlong(int axis) {
+		return (channelMask & (1 << axis)) != 0;
+	}
+
+	/**
+	 * Return the surface area accessible to the probe through channels.
+	 * @return double in Angstrom^2 per cell
+	 */
+	public double getAccessibleSurfaceArea() {
+		return accessibleSurfaceArea;
+	}
+
+	/**
+	 * Return the accessible surface area per volume of the framework.
+	 * @return double in m^2/cm^3
+	 */
+	public double getVolumetricSurfaceArea() {
+		//1 Angstrom^-1 = 10^4 m^2/cm^3
+		return 1e4 * accessibleSurfaceArea / cellVolume;
+	}
+
+	/**
+	 * Return the surface area of closed pockets.
+	 * @return double in Angstrom^2 per cell
+	 */
+	public double getInaccessibleSurfaceArea() {
+		return inaccessibleSurfaceArea;
+	}
+
+}
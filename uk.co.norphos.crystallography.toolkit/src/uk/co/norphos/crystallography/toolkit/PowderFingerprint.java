@@ -0,0 +1,168 @@
+package uk.co.norphos.crystallography.toolkit;
+
+import java.util.Arrays;
+import java.util.List;
+
+import uk.co.norphos.crystallography.api.Site;
+
+/**
+ * A compact description of a powder pattern for phase identification: its
+ * strongest peaks, as d-spacings with intensities scaled so that the
+ * strongest is 100. Peaks are held in order of decreasing d-spacing.
+ * <br>
+ * Fingerprints of reference phases are calculated from their structure;
+ * those of measured patterns from a peak list. Both are then matched
+ * through a {@link PowderIndex}.
+ *
+ * @author Michael Wharmby
+ *
+ */
+public final class PowderFingerprint {
+
+	/**
+	 * Default number of peaks kept.
+	 */
+	public static final int DEFAULT_PEAKS = 20;
+
+	//Equivalent reflections differ in d only by rounding
+	private static final double MERGE_TOLERANCE = 1e-6;
+	//Relative intensity below which calculated peaks (e.g. absences) are dropped
+	private static final double MIN_INTENSITY = 1e-6;
+
+	private final double[] dSpacings, intensities;
+
+	PowderFingerprint(double[] dSpacings, double[] intensities) {
+		this.dSpacings = dSpacings;
+		this.intensities = intensities;
+	}
+
+	/**
+	 * Build a fingerprint from a peak list, keeping the strongest peaks.
+	 *
+	 * @param dSpacings double[] peak d-spacings in Angstroms
+	 * @param intensities double[] peak intensities on any scale
+	 * @param maxPeaks int number of peaks to keep
+	 * @return PowderFingerprint
+	 */
+	public static PowderFingerprint fromPeaks(double[] dSpacings, double[] intensities, int maxPeaks) {
+		if (dSpacings.length != intensities.length) {
+			throw new IllegalArgumentException("Expected "+dSpacings.length+" intensities, got "+intensities.length);
+		}
+		if (maxPeaks < 1) throw new IllegalArgumentException("At least one peak must be kept");
+		int n = dSpacings.length;
+		double max = 0;
+		for (double intensity : intensities) {
+			max = Math.max(max, intensity);
+		}
+
+		//Strongest first, then the kept peaks back into d order
+		Integer[] order = new Integer[n];
+		int count = 0;
+		for (int i = 0; i < n; i++) {
+			if (intensities[i] > MIN_INTENSITY * max && dSpacings[i] > 0) order[count++] = i;
+		}
+		Arrays.sort(order, 0, count, (i, j) -> Double.compare(intensities[j], intensities[i]));
+		int kept = Math.min(count, maxPeaks);
+		Arrays.sort(order, 0, kept, (i, j) -> Double.compare(dSpacings[j], dSpacings[i]));
+		double[] d = new double[kept], scaled = new double[kept];
+		for (int p = 0; p < kept; p++) {
+			d[p] = dSpacings[order[p]];
+			scaled[p] = 100 * intensities[order[p]] / max;
+		}
+		return new PowderFingerprint(d, scaled);
+	}
+
+	/**
+	 * Calculate the fingerprint of a structure. Intensities are
+	 * |F|^2.Lp for X-rays of the given wavelength, with neutral-atom
+	 * scattering factors and site occupancies and no thermal motion.
+	 * Reflections with equal d-spacing are summed, giving the multiplicity.
+	 *
+	 * @param crystal {@link Crystal} with every atom of the cell as a site
+	 * @param wavelength double in Angstroms
+	 * @param dMin double smallest d-spacing in Angstroms
+	 * @param maxPeaks int number of peaks to keep
+	 * @return PowderFingerprint
+	 * @throws IllegalArgumentException if a site is not an element of the
+	 *         {@link ElementTable} (H-Cf)
+	 */
+	public static PowderFingerprint fromCrystal(Crystal crystal, double wavelength, double dMin, int maxPeaks) {
+		ReflectionList reflections = ReflectionList.enumerate(crystal.getUnitCell(), Math.max(dMin, wavelength / 2));
+		List<Site> sites = crystal.getSites();
+		int nSites = sites.size();
+		double[] frac = crystal.getFractionalCoordinates();
+		int[] z = new int[nSites];
+		double[] occupancy = new double[nSites];
+		for (int s = 0; s < nSites; s++) {
+			z[s] = ElementTable.getAtomicNumber(sites.get(s).getElement());
+			occupancy[s] = sites.get(s).getOccupancy();
+		}
+
+		int n = reflections.size();
+		double[] d = new double[n], intensity = new double[n];
+		double[] f = new double[nSites];
+		int peaks = 0;
+		double lastD = Double.NaN;
+		for (int r = 0; r < n; r++) {
+			double dr = reflections.getDSpacing(r);
+			double s = 1 / (2 * dr);
+			double sinTheta = wavelength * s, cos2Theta = 1 - 2 * sinTheta * sinTheta;
+			if (!(sinTheta < 1)) continue;
+			if (!(dr == lastD)) {
+				for (int i = 0; i < nSites; i++) {
+					f[i] = occupancy[i] * ElementTable.getXRayScatteringFactor(z[i], s);
+				}
+			}
+			int h = reflections.getH(r), k = reflections.getK(r), l = reflections.getL(r);
+			double re = 0, im = 0;
+			for (int i = 0; i < nSites; i++) {
+				double arg = 2 * Math.PI * (h * frac[3 * i] + k * frac[3 * i + 1] + l * frac[3 * i + 2]);
+				re += f[i] * Math.cos(arg);
+				im += f[i] * Math.sin(arg);
+			}
+			double lp = (1 + cos2Theta * cos2Theta) / (sinTheta * sinTheta * Math.sqrt(1 - sinTheta * sinTheta));
+			double value = (re * re + im * im) * lp;
+			if (peaks > 0 && Math.abs(d[peaks - 1] - dr) <= MERGE_TOLERANCE * dr) {
+				intensity[peaks - 1] += value;
+			} else {
+				d[peaks] = dr;
+				intensity[peaks++] = value;
+			}
+			lastD = dr;
+		}
+		return fromPeaks(Arrays.copyOf(d, peaks), Arrays.copyOf(intensity, peaks), maxPeaks);
+	}
+
+	public int getNumberOfPeaks() {
+		return dSpacings.length;
+	}
+
+	/**
+	 * Return the d-spacing of a peak.
+	 * @param i int peak, in order of decreasing d
+	 * @return double in Angstroms
+	 */
+	public double getDSpacing(int i) {
+		return dSpacings[i];
+	}
+
+	/**
+	 * Return the intensity of a peak.
+	 * @param i int peak, in order of decreasing d
+	 * @return double relative to 100 for the strongest peak
+	 */
+	public double getIntensity(int i) {
+		return intensities[i];
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("PowderFingerprint[");
+		for (int i = 0; i < dSpacings.length; i++) {
+			if (i > 0) sb.append(", ");
+			sb.append(String.format("%.4f:%.0f", dSpacings[i], intensities[i]));
+		}
+		return sb.append(']').toString();
+	}
+
+}
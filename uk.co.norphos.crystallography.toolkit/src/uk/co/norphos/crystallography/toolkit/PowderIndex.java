@@ -0,0 +1,412 @@
+package uk.co.norphos.crystallography.toolkit;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import uk.co.norphos.crystallography.toolkit.metrics.Metrics;
+import uk.co.norphos.crystallography.toolkit.metrics.Timer;
+
+/**
+ * A memory-mapped index of reference {@link PowderFingerprint}s for phase
+ * identification.
+ * <br>
+ * Each peak d-spacing falls in a bin of ln(d) of width ln(1 + tolerance),
+ * and the index holds, for every bin, the list of phases with a peak in
+ * it. A query votes for the phases posted in the bin of each of its peaks,
+ * the bin above and as many bins below as ln(1 - tolerance) reaches (two,
+ * as |ln(1 - tolerance)| is a little wider than a bin), so any reference
+ * peak within the tolerance is found.
+ * The best supported candidates are then scored in parallel against their
+ * full fingerprints, by the fraction of query and reference intensity
+ * matched and the closeness of the matched d-spacings.
+ * <br>
+ * The file is read through a read-only mapping, so opening an index costs
+ * nothing whatever its size and many processes share one copy of it in
+ * the page cache. Searches may run concurrently. The layout (all values
+ * little-endian) is a 40 byte header, {magic, version, phases, peaks,
+ * tolerance (double), first bin, bins, postings, name bytes}, then the
+ * sections int[phases+1] peak starts, float[peaks] d-spacings,
+ * float[peaks] intensities, int[bins+1] posting starts, int[postings]
+ * phases, int[phases+1] name starts and UTF-8 names.
+ *
+ * @author Michael Wharmby
+ *
+ */
+public final class PowderIndex implements Closeable {
+
+	private static final Timer SEARCH_TIMER = Metrics.timer("powderindex.search");
+
+	/**
+	 * Default relative tolerance on d-spacings.
+	 */
+	public static final double DEFAULT_TOLERANCE = 0.005;
+
+	private static final int MAGIC = 0x4E504649; //NPFI
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 40;
+	//Candidates scored in full per result requested, and at least
+	private static final int CANDIDATES_PER_RESULT = 10, MIN_CANDIDATES = 200;
+
+	private final FileChannel channel;
+	private final int nPhases, minBin, nBins;
+	private final double tolerance, logStep;
+	//Bins below a query peak's which can hold a peak within the tolerance
+	private final int binsBelow;
+	private final IntBuffer peakStart, binStart, postings, nameStart;
+	private final FloatBuffer peakD, peakIntensity;
+	private final ByteBuffer names;
+
+	private PowderIndex(FileChannel channel, MappedByteBuffer map) throws IOException {
+		this.channel = channel;
+		map.order(ByteOrder.LITTLE_ENDIAN);
+		if (map.capacity() < HEADER_SIZE || map.getInt(0) != MAGIC) {
+			throw new IOException("Not a powder index");
+		}
+		if (map.getInt(4) != VERSION) {
+			throw new IOException("Unsupported powder index version "+map.getInt(4));
+		}
+		nPhases = map.getInt(8);
+		int nPeaks = map.getInt(12);
+		tolerance = map.getDouble(16);
+		logStep = Math.log1p(tolerance);
+		binsBelow = (int)Math.ceil(-Math.log1p(-tolerance) / logStep);
+		minBin = map.getInt(24);
+		nBins = map.getInt(28);
+		int nPostings = map.getInt(32);
+		int nameBytes = map.getInt(36);
+		long expected = HEADER_SIZE + 4L * ((nPhases + 1) + 2 * nPeaks + (nBins + 1) + nPostings + (nPhases + 1)) + nameBytes;
+		if (map.capacity() != expected) {
+			throw new IOException("Powder index is "+map.capacity()+" bytes, expected "+expected);
+		}
+		int offset = HEADER_SIZE;
+		peakStart = section(map, offset, nPhases + 1).asIntBuffer();
+		offset += 4 * (nPhases + 1);
+		peakD = section(map, offset, nPeaks).asFloatBuffer();
+		offset += 4 * nPeaks;
+		peakIntensity = section(map, offset, nPeaks).asFloatBuffer();
+		offset += 4 * nPeaks;
+		binStart = section(map, offset, nBins + 1).asIntBuffer();
+		offset += 4 * (nBins + 1);
+		postings = section(map, offset, nPostings).asIntBuffer();
+		offset += 4 * nPostings;
+		nameStart = section(map, offset, nPhases + 1).asIntBuffer();
+		offset += 4 * (nPhases + 1);
+		map.position(offset);
+		names = map.slice();
+	}
+
+	private static ByteBuffer section(ByteBuffer map, int offset, int count) {
+		ByteBuffer view = map.duplicate();
+		view.position(offset).limit(offset + 4 * count);
+		return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Open an index file.
+	 * @param path Path
+	 * @return PowderIndex which must be closed after use
+	 * @throws IOException if the file cannot be read or is not an index
+	 */
+	public static PowderIndex open(Path path) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			if (channel.size() > Integer.MAX_VALUE) throw new IOException("Powder index larger than 2 GB");
+			return new PowderIndex(channel, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Write an index of reference phases.
+	 *
+	 * @param path Path to write, replacing any existing file
+	 * @param phaseNames String[] name of each phase
+	 * @param fingerprints PowderFingerprint[] of each phase
+	 * @param tolerance double relative d-spacing tolerance of searches
+	 * @throws IOException if the file cannot be written
+	 */
+	public static void write(Path path, String[] phaseNames, PowderFingerprint[] fingerprints, double tolerance) throws IOException {
+		int nPhases = fingerprints.length;
+		if (phaseNames.length != nPhases) {
+			throw new IllegalArgumentException("Expected "+nPhases+" names, got "+phaseNames.length);
+		}
+		if (!(tolerance > 0 && tolerance < 1)) {
+			throw new IllegalArgumentException("Tolerance must be between 0 and 1");
+		}
+		double logStep = Math.log1p(tolerance);
+
+		int nPeaks = 0, minBin = Integer.MAX_VALUE, maxBin = Integer.MIN_VALUE;
+		for (PowderFingerprint fingerprint : fingerprints) {
+			for (int p = 0; p < fingerprint.getNumberOfPeaks(); p++) {
+				int bin = bin(fingerprint.getDSpacing(p), logStep);
+				minBin = Math.min(minBin, bin);
+				maxBin = Math.max(maxBin, bin);
+			}
+			nPeaks += fingerprint.getNumberOfPeaks();
+		}
+		if (nPeaks == 0) minBin = maxBin = 0;
+		int nBins = maxBin - minBin + 1;
+
+		//Postings: each phase once per bin, by counting sort
+		int[] binStart = new int[nBins + 1];
+		int[] lastPhase = new int[nBins];
+		Arrays.fill(lastPhase, -1);
+		for (int i = 0; i < nPhases; i++) {
+			for (int p = 0; p < fingerprints[i].getNumberOfPeaks(); p++) {
+				int b = bin(fingerprints[i].getDSpacing(p), logStep) - minBin;
+				if (lastPhase[b] == i) continue;
+				lastPhase[b] = i;
+				binStart[b + 1]++;
+			}
+		}
+		for (int b = 0; b < nBins; b++) {
+			binStart[b + 1] += binStart[b];
+		}
+		int nPostings = binStart[nBins];
+		int[] postings = new int[nPostings], fill = binStart.clone();
+		Arrays.fill(lastPhase, -1);
+		for (int i = 0; i < nPhases; i++) {
+			for (int p = 0; p < fingerprints[i].getNumberOfPeaks(); p++) {
+				int b = bin(fingerprints[i].getDSpacing(p), logStep) - minBin;
+				if (lastPhase[b] == i) continue;
+				lastPhase[b] = i;
+				postings[fill[b]++] = i;
+			}
+		}
+
+		byte[][] nameBytes = new byte[nPhases][];
+		int totalNameBytes = 0;
+		for (int i = 0; i < nPhases; i++) {
+			nameBytes[i] = phaseNames[i].getBytes(StandardCharsets.UTF_8);
+			totalNameBytes += nameBytes[i].length;
+		}
+
+		long size = HEADER_SIZE + 4L * ((nPhases + 1) + 2 * nPeaks + (nBins + 1) + nPostings + (nPhases + 1)) + totalNameBytes;
+		if (size > Integer.MAX_VALUE) throw new IOException("Powder index would be larger than 2 GB");
+		ByteBuffer out = ByteBuffer.allocate((int)size).order(ByteOrder.LITTLE_ENDIAN);
+		out.putInt(MAGIC).putInt(VERSION).putInt(nPhases).putInt(nPeaks).putDouble(tolerance)
+				.putInt(minBin).putInt(nBins).putInt(nPostings).putInt(totalNameBytes);
+		int start = 0;
+		for (PowderFingerprint fingerprint : fingerprints) {
+			out.putInt(start);
+			start += fingerprint.getNumberOfPeaks();
+		}
+		out.putInt(start);
+		for (PowderFingerprint fingerprint : fingerprints) {
+			for (int p = 0; p < fingerprint.getNumberOfPeaks(); p++) {
+				out.putFloat((float)fingerprint.getDSpacing(p));
+			}
+		}
+		for (PowderFingerprint fingerprint : fingerprints) {
+			for (int p = 0; p < fingerprint.getNumberOfPeaks(); p++) {
+				out.putFloat((float)fingerprint.getIntensity(p));
+			}
+		}
+		for (int b : binStart) {
+			out.putInt(b);
+		}
+		for (int phase : postings) {
+			out.putInt(phase);
+		}
+		start = 0;
+		for (byte[] name : nameBytes) {
+			out.putInt(start);
+			start += name.length;
+		}
+		out.putInt(start);
+		for (byte[] name : nameBytes) {
+			out.put(name);
+		}
+		out.flip();
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (out.hasRemaining()) {
+				channel.write(out);
+			}
+		}
+	}
+
+	private static int bin(double d, double logStep) {
+		return (int)Math.floor(Math.log(d) / logStep);
+	}
+
+	/**
+	 * Return the number of phases in the index.
+	 * @return int
+	 */
+	public int size() {
+		return nPhases;
+	}
+
+	/**
+	 * Return the relative d-spacing tolerance the index was built with.
+	 * @return double
+	 */
+	public double getTolerance() {
+		return tolerance;
+	}
+
+	/**
+	 * Return the name of a phase.
+	 * @param phase int
+	 * @return String
+	 */
+	public String getName(int phase) {
+		int start = nameStart.get(phase), end = nameStart.get(phase + 1);
+		byte[] bytes = new byte[end - start];
+		ByteBuffer view = names.duplicate();
+		view.position(start);
+		view.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Return the stored fingerprint of a phase.
+	 * @param phase int
+	 * @return {@link PowderFingerprint}
+	 */
+	public PowderFingerprint getFingerprint(int phase) {
+		int start = peakStart.get(phase), n = peakStart.get(phase + 1) - start;
+		double[] d = new double[n], intensities = new double[n];
+		for (int p = 0; p < n; p++) {
+			d[p] = peakD.get(start + p);
+			intensities[p] = peakIntensity.get(start + p);
+		}
+		return new PowderFingerprint(d, intensities);
+	}
+
+	/**
+	 * Find the reference phases which best match a pattern.
+	 *
+	 * @param query {@link PowderFingerprint} of the measured pattern
+	 * @param maxResults int largest number of matches to return
+	 * @return List of {@link PowderMatch} in order of decreasing score
+	 */
+	public List<PowderMatch> search(PowderFingerprint query, int maxResults) {
+		long start = Metrics.ENABLED ? System.nanoTime() : 0;
+		int nQuery = query.getNumberOfPeaks();
+
+		//Vote with the query intensity for each phase with a peak near each query peak
+		double[] votes = new double[nPhases];
+		int[] lastPeak = new int[nPhases];
+		Arrays.fill(lastPeak, -1);
+		int nCandidates = 0;
+		int[] candidates = new int[Math.min(nPhases, 1024)];
+		for (int q = 0; q < nQuery; q++) {
+			int centre = bin(query.getDSpacing(q), logStep) - minBin;
+			for (int b = Math.max(0, centre - binsBelow); b <= Math.min(nBins - 1, centre + 1); b++) {
+				for (int p = binStart.get(b), end = binStart.get(b + 1); p < end; p++) {
+					int phase = postings.get(p);
+					if (lastPeak[phase] == q) continue;
+					lastPeak[phase] = q;
+					if (votes[phase] == 0) {
+						if (nCandidates == candidates.length) candidates = Arrays.copyOf(candidates, 2 * nCandidates);
+						candidates[nCandidates++] = phase;
+					}
+					votes[phase] += query.getIntensity(q);
+				}
+			}
+		}
+
+		//Score only the best supported candidates in full
+		int nScored = Math.min(nCandidates, Math.max(MIN_CANDIDATES, CANDIDATES_PER_RESULT * maxResults));
+		long[] keys = new long[nCandidates];
+		for (int c = 0; c < nCandidates; c++) {
+			int phase = candidates[c];
+			keys[c] = (long)Float.floatToIntBits((float)votes[phase]) << 32 | phase;
+		}
+		Arrays.sort(keys);
+		int[] scored = new int[nScored];
+		for (int c = 0; c < nScored; c++) {
+			scored[c] = (int)keys[nCandidates - 1 - c];
+		}
+		double[] scores = new double[nScored];
+		int[] matched = new int[nScored];
+		IntStream.range(0, nScored).parallel().forEach(c -> {
+			score(query, scored[c], scores, matched, c);
+		});
+
+		Integer[] order = new Integer[nScored];
+		for (int c = 0; c < nScored; c++) {
+			order[c] = c;
+		}
+		Arrays.sort(order, (a, b) -> scores[a] != scores[b] ? Double.compare(scores[b], scores[a]) : Integer.compare(scored[a], scored[b]));
+		List<PowderMatch> results = new ArrayList<>();
+		for (int c = 0; c < nScored && results.size() < maxResults; c++) {
+			int i = order[c];
+			if (scores[i] > 0) results.add(new PowderMatch(scored[i], getName(scored[i]), scores[i], matched[i]));
+		}
+		if (Metrics.ENABLED) SEARCH_TIMER.recordSince(start);
+		return results;
+	}
+
+	/*
+	 * Figure of merit: fraction of query intensity matched x fraction of
+	 * reference intensity matched (over the d range of the query) x mean
+	 * positional agreement, where a perfect position scores 1 and one at
+	 * the tolerance 1/2.
+	 */
+	private void score(PowderFingerprint query, int phase, double[] scores, int[] matched, int c) {
+		int first = peakStart.get(phase), last = peakStart.get(phase + 1);
+		int nQuery = query.getNumberOfPeaks();
+		if (nQuery == 0 || last == first) return;
+		double dMax = query.getDSpacing(0) * (1 + tolerance), dMin = query.getDSpacing(nQuery - 1) * (1 - tolerance);
+
+		double queryTotal = 0, queryMatched = 0, errorSum = 0;
+		int nMatched = 0;
+		boolean[] used = new boolean[last - first];
+		for (int q = 0; q < nQuery; q++) {
+			double d = query.getDSpacing(q), intensity = query.getIntensity(q);
+			queryTotal += intensity;
+			//Reference peaks are in decreasing d
+			int best = -1;
+			double bestError = tolerance;
+			for (int r = first; r < last; r++) {
+				double error = Math.abs(peakD.get(r) - d) / d;
+				if (error <= bestError) {
+					bestError = error;
+					best = r;
+				}
+				if (peakD.get(r) < d * (1 - tolerance)) break;
+			}
+			if (best >= 0) {
+				queryMatched += intensity;
+				errorSum += intensity * bestError;
+				used[best - first] = true;
+				nMatched++;
+			}
+		}
+		double refTotal = 0, refMatched = 0;
+		for (int r = first; r < last; r++) {
+			double d = peakD.get(r);
+			if (d > dMax || d < dMin) continue;
+			refTotal += peakIntensity.get(r);
+			if (used[r - first]) refMatched += peakIntensity.get(r);
+		}
+		if (queryMatched == 0 || refTotal == 0) return;
+		double position = 1 - 0.5 * errorSum / (queryMatched * tolerance);
+		scores[c] = (queryMatched / queryTotal) * (refMatched / refTotal) * position;
+		matched[c] = nMatched;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+}
@@ -0,0 +1,57 @@
+package uk.co.norphos.crystallography.toolkit;
+
+/**
+ * A candidate phase found by searching a {@link PowderIndex}.
+ *
+ * @author Michael Wharmby
+ *
+ */
+public final class PowderMatch {
+
+	private final int index;
+	private final String name;
+	private final double score;
+	private final int matchedPeaks;
+
+	PowderMatch(int index, String name, double score, int matchedPeaks) {
+		this.index = index;
+		this.name = name;
+		this.score = score;
+		this.matchedPeaks = matchedPeaks;
+	}
+
+	/**
+	 * Return the position of the phase in the index.
+	 * @return int
+	 */
+	public int getIndex() {
+		return index;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Return the figure of merit of the match, from 0 (no peaks matched)
+	 * to 1 (every peak matched exactly, both ways).
+	 * @return double
+	 */
+	public double getScore() {
+		return score;
+	}
+
+	/**
+	 * Return the number of query peaks matched by a reference peak.
+	 * @return int
+	 */
+	public int getMatchedPeaks() {
+		return matchedPeaks;
+	}
+
+	@Override
+	public String toString() {
+		return "PowderMatch["+name+", score="+score+", matched="+matchedPeaks+"]";
+	}
+
+}
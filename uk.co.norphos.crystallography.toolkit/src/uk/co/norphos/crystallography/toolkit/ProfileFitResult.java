@@ -0,0 +1,194 @@
+package uk.co.norphos.crystallography.toolkit;
+
+import uk.co.norphos.crystallography.api.Lattice;
+import uk.co.norphos.crystallography.api.MillerIndex;
+
+/**
+ * The outcome of a whole-pattern fit by {@link ProfileFitter}: refined
+ * lattice, zero shift, profile and background parameters, extracted peak
+ * intensities and agreement factors. A result can be passed back to the
+ * fitter to start the fit of the next pattern of a series from it.
+ *
+ * @author Michael Wharmby
+ *
+ */
+public final class ProfileFitResult {
+
+	private final ProfileFitter.State state;
+	private final Lattice lattice;
+	private final double[] positions, calculated;
+	private final double rwp, rp, chiSquared;
+	private final int iterations;
+	private final boolean converged;
+
+	ProfileFitResult(ProfileFitter.State state, Lattice lattice, double[] positions, double[] calculated,
+			double rwp, double rp, double chiSquared, int iterations, boolean converged) {
+		this.state = state;
+		this.lattice = lattice;
+		this.positions = positions;
+		this.calculated = calculated;
+		this.rwp = rwp;
+		this.rp = rp;
+		this.chiSquared = chiSquared;
+		this.iterations = iterations;
+		this.converged = converged;
+	}
+
+	ProfileFitter.State getState() {
+		return state;
+	}
+
+	/**
+	 * Return the refined lattice.
+	 * @return {@link Lattice}
+	 */
+	public Lattice getLattice() {
+		return lattice;
+	}
+
+	/**
+	 * Return the refined zero shift.
+	 * @return double in degrees 2theta
+	 */
+	public double getZeroShift() {
+		return state.globals[state.zeroIndex()];
+	}
+
+	/**
+	 * Return the Caglioti U parameter, where FWHM^2 = U.tan^2(theta) +
+	 * V.tan(theta) + W.
+	 * @return double in degrees^2
+	 */
+	public double getU() {
+		return state.globals[state.zeroIndex() + 1];
+	}
+
+	/**
+	 * Return the Caglioti V parameter.
+	 * @return double in degrees^2
+	 */
+	public double getV() {
+		return state.globals[state.zeroIndex() + 2];
+	}
+
+	/**
+	 * Return the Caglioti W parameter.
+	 * @return double in degrees^2
+	 */
+	public double getW() {
+		return state.globals[state.zeroIndex() + 3];
+	}
+
+	/**
+	 * Return the pseudo-Voigt Lorentzian fraction.
+	 * @return double
+	 */
+	public double getEta() {
+		return state.globals[state.zeroIndex() + 4];
+	}
+
+	/**
+	 * Return the coefficients of the Chebyshev background.
+	 * @return double[]
+	 */
+	public double[] getBackground() {
+		double[] background = new double[state.backgroundTerms];
+		System.arraycopy(state.globals, 0, background, 0, background.length);
+		return background;
+	}
+
+	/**
+	 * Return the number of peaks fitted. Reflections which coincide in the
+	 * starting lattice (e.g. symmetry equivalents) are fitted as one peak.
+	 * @return int
+	 */
+	public int getNumberOfPeaks() {
+		return state.intensities.length;
+	}
+
+	/**
+	 * Return the index of one reflection contributing to a peak.
+	 * @param peak int
+	 * @return {@link MillerIndex}
+	 */
+	public MillerIndex getMillerIndex(int peak) {
+		return new MillerIndex(state.hkl[3 * peak], state.hkl[3 * peak + 1], state.hkl[3 * peak + 2]);
+	}
+
+	/**
+	 * Return the number of reflections contributing to a peak.
+	 * @param peak int
+	 * @return int
+	 */
+	public int getMultiplicity(int peak) {
+		return state.multiplicities[peak];
+	}
+
+	/**
+	 * Return the integrated intensity of a peak.
+	 * @param peak int
+	 * @return double in counts.degrees
+	 */
+	public double getIntensity(int peak) {
+		return state.intensities[peak];
+	}
+
+	/**
+	 * Return the refined position of a peak, including the zero shift.
+	 * @param peak int
+	 * @return double in degrees 2theta
+	 */
+	public double getPosition(int peak) {
+		return positions[peak];
+	}
+
+	/**
+	 * Return the calculated pattern.
+	 * @return double[] at each point of the fitted pattern
+	 */
+	public double[] getCalculated() {
+		return calculated.clone();
+	}
+
+	/**
+	 * Return the weighted profile R-factor.
+	 * @return double
+	 */
+	public double getRwp() {
+		return rwp;
+	}
+
+	/**
+	 * Return the profile R-factor.
+	 * @return double
+	 */
+	public double getRp() {
+		return rp;
+	}
+
+	/**
+	 * Return the reduced chi^2 (goodness of fit squared).
+	 * @return double
+	 */
+	public double getChiSquared() {
+		return chiSquared;
+	}
+
+	/**
+	 * Return the number of least-squares cycles taken.
+	 * @return int
+	 */
+	public int getIterations() {
+		return iterations;
+	}
+
+	/**
+	 * Return whether the fit met the convergence tolerance within the
+	 * maximum number of cycles.
+	 * @return boolean
+	 */
+	public boolean isConverged() {
+		return converged;
+	}
+
+}
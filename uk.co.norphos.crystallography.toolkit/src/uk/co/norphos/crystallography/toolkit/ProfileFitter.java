@@ -0,0 +1,759 @@
+package uk.co.norphos.crystallography.toolkit;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import uk.co.norphos.crystallography.api.CrystalSystem;
+import uk.co.norphos.crystallography.api.Lattice;
+import uk.co.norphos.crystallography.api.PrincipleAxis;
+import uk.co.norphos.crystallography.toolkit.metrics.Metrics;
+import uk.co.norphos.crystallography.toolkit.metrics.Timer;
+
+/**
+ * Whole-pattern profile fitting of a powder diffraction pattern by the
+ * Pawley or Le Bail method, refining lattice parameters, zero shift, peak
+ * profile and background without a structural model.
+ * <br>
+ * Peaks are pseudo-Voigts normalised to unit area, with FWHM^2 =
+ * U.tan^2(theta) + V.tan(theta) + W and a constant Lorentzian fraction eta.
+ * The background is a Chebyshev polynomial over the 2theta range. Lattice
+ * parameters are constrained by the {@link CrystalSystem} and
+ * {@link PrincipleAxis} of the starting lattice (e.g. only a and c are
+ * refined for a tetragonal lattice).
+ * <ul>
+ * <li>PAWLEY refines the peak intensities by least squares along with the
+ * other parameters. Since each peak overlaps only its neighbours, the
+ * normal matrix is banded in the intensities, bordered by the global
+ * parameters, and is solved by {@link BorderedBandSolver}.</li>
+ * <li>LE_BAIL refines only the global parameters and re-partitions the
+ * observed intensity between overlapping peaks after every cycle.</li>
+ * </ul>
+ * Refinement is by Levenberg-Marquardt. The calculated pattern, residuals
+ * and normal equations are evaluated in parallel over chunks of the
+ * pattern, each chunk accumulating only the rows of the peaks under it.
+ * <br>
+ * A fitter holds the fixed 2theta grid of a series of patterns and its
+ * settings; it is not thread-safe to change settings while fitting, but
+ * fits themselves keep no state in the fitter.
+ *
+ * @author Michael Wharmby
+ *
+ */
+public final class ProfileFitter {
+
+	public enum Method {
+		PAWLEY, LE_BAIL;
+	}
+
+	private static final Timer FIT_TIMER = Metrics.timer("profilefitter.fit");
+
+	private static final int CHUNK_SIZE = 1024;
+	private static final double FOUR_LN2 = 4 * Math.log(2);
+	private static final double GAUSS_NORM = 2 * Math.sqrt(Math.log(2) / Math.PI);
+	private static final double MIN_FWHM = 1e-4;
+	private static final int LE_BAIL_CYCLES = 3;
+	private static final double MAX_DAMPING = 1e10;
+
+	private final double wavelength;
+	private final double[] twoTheta;
+
+	private Method method = Method.PAWLEY;
+	private int backgroundTerms = 6;
+	private double profileRange = 10;
+	private int maxIterations = 50;
+	private double tolerance = 1e-6;
+	private boolean refineZeroShift = true, refineCaglioti = false;
+	private double initialU = 0, initialV = 0, initialW = 0.01, initialEta = 0.5;
+
+	/**
+	 * Construct a fitter for patterns measured on a fixed 2theta grid.
+	 *
+	 * @param wavelength double in Angstroms
+	 * @param twoTheta double[] increasing 2theta of each point in degrees
+	 */
+	public ProfileFitter(double wavelength, double[] twoTheta) {
+		if (twoTheta.length < 2) {
+			throw new IllegalArgumentException("Pattern must have at least two points");
+		}
+		for (int i = 1; i < twoTheta.length; i++) {
+			if (!(twoTheta[i] > twoTheta[i - 1])) {
+				throw new IllegalArgumentException("2theta must be strictly increasing (at point "+i+")");
+			}
+		}
+		this.wavelength = wavelength;
+		this.twoTheta = twoTheta.clone();
+	}
+
+	public void setMethod(Method method) {
+		this.method = method;
+	}
+
+	/**
+	 * Set the number of Chebyshev background coefficients.
+	 * @param terms int at least 1
+	 */
+	public void setBackgroundTerms(int terms) {
+		if (terms < 1) throw new IllegalArgumentException("At least one background term is required");
+		this.backgroundTerms = terms;
+	}
+
+	/**
+	 * Set how far either side of its position a peak is calculated.
+	 * @param fwhms double range in multiples of the FWHM
+	 */
+	public void setProfileRange(double fwhms) {
+		this.profileRange = fwhms;
+	}
+
+	public void setMaxIterations(int maxIterations) {
+		this.maxIterations = maxIterations;
+	}
+
+	/**
+	 * Set the convergence tolerance.
+	 * @param tolerance double relative decrease of chi^2 below which a cycle
+	 *        is taken to have converged
+	 */
+	public void setTolerance(double tolerance) {
+		this.tolerance = tolerance;
+	}
+
+	public void setRefineZeroShift(boolean refine) {
+		this.refineZeroShift = refine;
+	}
+
+	/**
+	 * Set whether the Caglioti U and V parameters are refined (W and eta
+	 * always are).
+	 * @param refine boolean
+	 */
+	public void setRefineCaglioti(boolean refine) {
+		this.refineCaglioti = refine;
+	}
+
+	/**
+	 * Set the starting peak profile of fits not started from a previous
+	 * result.
+	 *
+	 * @param u double Caglioti U in degrees^2
+	 * @param v double Caglioti V in degrees^2
+	 * @param w double Caglioti W in degrees^2
+	 * @param eta double Lorentzian fraction
+	 */
+	public void setInitialProfile(double u, double v, double w, double eta) {
+		this.initialU = u;
+		this.initialV = v;
+		this.initialW = w;
+		this.initialEta = eta;
+	}
+
+	/**
+	 * Fit a pattern starting from a lattice. Reflections which coincide in
+	 * the starting lattice are fitted as single peaks, so the lattice should
+	 * carry its crystal system.
+	 *
+	 * @param start {@link Lattice} starting lattice
+	 * @param observed double[] intensity at each point
+	 * @param weights double[] least-squares weight of each point (normally
+	 *        1/sigma^2), or null for 1/max(observed, 1)
+	 * @return {@link ProfileFitResult}
+	 */
+	public ProfileFitResult fit(Lattice start, double[] observed, double[] weights) {
+		State state = new State(start, backgroundTerms);
+		double minY = Double.MAX_VALUE;
+		for (double y : observed) {
+			minY = Math.min(minY, y);
+		}
+		state.globals[0] = minY;
+		int z = state.zeroIndex();
+		state.globals[z + 1] = initialU;
+		state.globals[z + 2] = initialV;
+		state.globals[z + 3] = initialW;
+		state.globals[z + 4] = initialEta;
+		initialiseReflections(state, observed);
+		return refine(state, observed, weights);
+	}
+
+	/**
+	 * Fit a pattern starting from the result of a previous fit, e.g. the
+	 * preceding pattern of an in-situ series. The reflections, intensities,
+	 * profile and background of the previous fit are all taken as the
+	 * starting point.
+	 *
+	 * @param previous {@link ProfileFitResult} on the same 2theta grid
+	 * @param observed double[] intensity at each point
+	 * @param weights double[] least-squares weight of each point, or null
+	 * @return {@link ProfileFitResult}
+	 */
+	public ProfileFitResult fit(ProfileFitResult previous, double[] observed, double[] weights) {
+		return refine(previous.getState().copy(), observed, weights);
+	}
+
+	private void initialiseReflections(State state, double[] observed) {
+		double margin = 2;
+		double maxTheta = Math.toRadians(Math.min(179, twoTheta[twoTheta.length - 1] + margin) / 2);
+		double minTheta = Math.toRadians(Math.max(0.5, twoTheta[0] - margin) / 2);
+		double dMin = wavelength / (2 * Math.sin(maxTheta));
+		double dMax = wavelength / (2 * Math.sin(minTheta));
+		ReflectionList reflections = ReflectionList.enumerate(new UnitCell(state.lattice()), dMin);
+
+		//Group coincident reflections (in decreasing d order) into peaks
+		int[] hkl = new int[3 * reflections.size()];
+		int[] multiplicities = new int[reflections.size()];
+		int n = 0;
+		double lastD = Double.NaN;
+		for (int i = 0; i < reflections.size(); i++) {
+			double d = reflections.getDSpacing(i);
+			if (d > dMax) continue;
+			if (n > 0 && Math.abs(lastD - d) <= 1e-9 * d) {
+				multiplicities[n - 1]++;
+				continue;
+			}
+			hkl[3 * n] = reflections.getH(i);
+			hkl[3 * n + 1] = reflections.getK(i);
+			hkl[3 * n + 2] = reflections.getL(i);
+			multiplicities[n++] = 1;
+			lastD = d;
+		}
+		state.hkl = Arrays.copyOf(hkl, 3 * n);
+		state.multiplicities = Arrays.copyOf(multiplicities, n);
+		state.intensities = new double[n];
+
+		//Intensity estimate: height above background times FWHM
+		Peaks peaks = calculatePeaks(state);
+		for (int k = 0; k < n; k++) {
+			int i = Arrays.binarySearch(twoTheta, peaks.position[k]);
+			if (i < 0) i = Math.min(-i - 1, twoTheta.length - 1);
+			state.intensities[k] = Math.max(observed[i] - state.globals[0], 0) * peaks.fwhm[k];
+		}
+	}
+
+	private ProfileFitResult refine(State state, double[] observed, double[] weights) {
+		if (observed.length != twoTheta.length || (weights != null && weights.length != twoTheta.length)) {
+			throw new IllegalArgumentException("Pattern must have "+twoTheta.length+" points");
+		}
+		if (state.backgroundTerms != backgroundTerms) {
+			throw new IllegalArgumentException("Previous fit has "+state.backgroundTerms+" background terms, not "+backgroundTerms);
+		}
+		long start = Metrics.ENABLED ? System.nanoTime() : 0;
+		boolean pawley = method == Method.PAWLEY;
+
+		Evaluation current = evaluate(state, observed, weights, pawley);
+		if (!pawley) {
+			for (int cycle = 0; cycle < LE_BAIL_CYCLES; cycle++) {
+				current.partitionIntensities(state);
+				current = evaluate(state, observed, weights, pawley);
+			}
+		}
+
+		double damping = 1e-3;
+		boolean converged = false;
+		int iteration = 0;
+		while (iteration < maxIterations) {
+			iteration++;
+			double[] shift = new double[current.rhs.length];
+			if (!current.solver.solve(damping, current.rhs, shift)) {
+				damping *= 10;
+				if (damping > MAX_DAMPING) break;
+				continue;
+			}
+			State trial = state.copy();
+			trial.applyShift(shift, pawley);
+			Evaluation next = evaluate(trial, observed, weights, pawley);
+			if (next.chi2 < current.chi2) {
+				boolean small = current.chi2 - next.chi2 <= tolerance * current.chi2;
+				state = trial;
+				current = next;
+				if (!pawley) {
+					current.partitionIntensities(state);
+					current = evaluate(state, observed, weights, pawley);
+				}
+				damping = Math.max(damping / 10, 1e-12);
+				if (small) {
+					converged = true;
+					break;
+				}
+			} else {
+				damping *= 10;
+				if (damping > MAX_DAMPING) {
+					//No downhill step left: at the minimum to working precision
+					converged = true;
+					break;
+				}
+			}
+		}
+
+		double sumWY2 = 0, sumAbsR = 0, sumAbsY = 0;
+		for (int i = 0; i < observed.length; i++) {
+			double w = weight(weights, observed, i);
+			double r = observed[i] - current.calculated[i];
+			sumWY2 += w * observed[i] * observed[i];
+			sumAbsR += Math.abs(r);
+			sumAbsY += Math.abs(observed[i]);
+		}
+		int nParameters = (pawley ? state.intensities.length : 0) + countRefinedGlobals(state);
+		double chiSquared = current.chi2 / Math.max(1, observed.length - nParameters);
+		Peaks peaks = calculatePeaks(state);
+		ProfileFitResult result = new ProfileFitResult(state, state.lattice(), peaks.position, current.calculated,
+				Math.sqrt(current.chi2 / sumWY2), sumAbsR / sumAbsY, chiSquared, iteration, converged);
+		if (Metrics.ENABLED) FIT_TIMER.recordSince(start);
+		return result;
+	}
+
+	private int countRefinedGlobals(State state) {
+		int count = state.backgroundTerms + 2 + state.nLattice;
+		if (refineZeroShift) count++;
+		if (refineCaglioti) count += 2;
+		return count;
+	}
+
+	private static double weight(double[] weights, double[] observed, int i) {
+		return weights != null ? weights[i] : 1 / Math.max(observed[i], 1);
+	}
+
+	/*
+	 * Peak positions, widths and their derivatives for the current state.
+	 * Peaks of the state are first put in order of position so that the
+	 * peaks under any point are contiguous.
+	 */
+	private Peaks calculatePeaks(State state) {
+		double[] cell = state.latticeParameters();
+		CellWorkspace ws = new CellWorkspace(cell[0], cell[1], cell[2], cell[3], cell[4], cell[5]);
+		double[] gStar = new double[9];
+		ws.copyReciprocalMetricTensor(gStar);
+		double[][] dGStar = new double[6][9];
+		for (int p = 0; p < 6; p++) {
+			if (state.latticeMap[p] >= 0) ws.getReciprocalMetricTensorDerivative(p, dGStar[p]);
+		}
+		int n = state.intensities.length, nLat = state.nLattice;
+		Peaks peaks = new Peaks(n, nLat);
+		int z = state.zeroIndex();
+		double zero = state.globals[z], u = state.globals[z + 1], v = state.globals[z + 2], w = state.globals[z + 3];
+		for (int k = 0; k < n; k++) {
+			double h = state.hkl[3 * k], kk = state.hkl[3 * k + 1], l = state.hkl[3 * k + 2];
+			double q = quadraticForm(gStar, h, kk, l);
+			double sinTheta = wavelength * Math.sqrt(q) / 2;
+			if (!(sinTheta < 1)) {
+				//Beyond back-scattering: never calculated
+				peaks.position[k] = Double.POSITIVE_INFINITY;
+				peaks.fwhm[k] = 1;
+				continue;
+			}
+			double theta = Math.asin(sinTheta), cosTheta = Math.cos(theta), tanTheta = sinTheta / cosTheta;
+			peaks.position[k] = Math.toDegrees(2 * theta) + zero;
+			//d(2theta)/dQ in degrees, where Q = h^T.G*.h
+			double dTwoThetadQ = Math.toDegrees(wavelength / (2 * Math.sqrt(q) * cosTheta));
+			for (int p = 0; p < 6; p++) {
+				int j = state.latticeMap[p];
+				if (j < 0) continue;
+				double scale = p > 2 ? Math.PI / 180 : 1;
+				peaks.dPosition[k * nLat + j] += dTwoThetadQ * quadraticForm(dGStar[p], h, kk, l) * scale;
+			}
+			double fwhm2 = u * tanTheta * tanTheta + v * tanTheta + w;
+			if (fwhm2 > MIN_FWHM * MIN_FWHM) {
+				double fwhm = Math.sqrt(fwhm2);
+				peaks.fwhm[k] = fwhm;
+				peaks.dFwhmdU[k] = tanTheta * tanTheta / (2 * fwhm);
+				peaks.dFwhmdV[k] = tanTheta / (2 * fwhm);
+				peaks.dFwhmdW[k] = 1 / (2 * fwhm);
+			} else {
+				peaks.fwhm[k] = MIN_FWHM;
+			}
+		}
+		return peaks;
+	}
+
+	private static double quadraticForm(double[] m, double x, double y, double z) {
+		return m[0] * x * x + m[4] * y * y + m[8] * z * z + 2 * (m[1] * x * y + m[2] * x * z + m[5] * y * z);
+	}
+
+	private Evaluation evaluate(State state, double[] observed, double[] weights, boolean pawley) {
+		Peaks unsorted = calculatePeaks(state);
+		Peaks peaks = unsorted.sortInto(state) ? calculatePeaks(state) : unsorted;
+		int nPeaks = state.intensities.length;
+		double maxRange = 0;
+		for (int k = 0; k < nPeaks; k++) {
+			if (peaks.position[k] != Double.POSITIVE_INFINITY) maxRange = Math.max(maxRange, profileRange * peaks.fwhm[k]);
+		}
+		final double range = maxRange;
+		int m = state.globals.length;
+		int nChunks = (twoTheta.length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		Chunk[] chunks = new Chunk[nChunks];
+		double[] calculated = new double[twoTheta.length];
+		IntStream.range(0, nChunks).parallel().forEach(c -> {
+			chunks[c] = evaluateChunk(c, state, peaks, range, observed, weights, calculated, pawley);
+		});
+
+		//Merge the chunks in order so that the sums are reproducible
+		int bandwidth = 0;
+		for (Chunk chunk : chunks) {
+			bandwidth = Math.max(bandwidth, chunk.bandwidth);
+		}
+		int n = pawley ? nPeaks : 0;
+		BorderedBandSolver solver = new BorderedBandSolver(n, bandwidth, m);
+		double[] rhs = new double[n + m];
+		double chi2 = 0;
+		double[] numerator = pawley ? null : new double[nPeaks], denominator = pawley ? null : new double[nPeaks];
+		for (Chunk chunk : chunks) {
+			chi2 += chunk.chi2;
+			for (int g = 0; g < m; g++) {
+				rhs[n + g] += chunk.gradient[chunk.nLocal + g];
+				for (int h = g; h < m; h++) {
+					solver.dense[g * m + h] += chunk.dense[g * m + h];
+				}
+			}
+			for (int kl = 0; kl < chunk.nLocal; kl++) {
+				int k = chunk.firstPeak + kl;
+				if (pawley) {
+					rhs[k] += chunk.gradient[kl];
+					for (int j = 0; j <= chunk.bandwidth; j++) {
+						solver.band[k * (bandwidth + 1) + j] += chunk.band[kl * (chunk.bandwidth + 1) + j];
+					}
+					for (int g = 0; g < m; g++) {
+						solver.border[k * m + g] += chunk.border[kl * m + g];
+					}
+				} else {
+					numerator[k] += chunk.numerator[kl];
+					denominator[k] += chunk.denominator[kl];
+				}
+			}
+		}
+		return new Evaluation(solver, rhs, chi2, calculated, numerator, denominator);
+	}
+
+	private Chunk evaluateChunk(int c, State state, Peaks peaks, double range, double[] observed, double[] weights,
+			double[] calculated, boolean pawley) {
+		int start = c * CHUNK_SIZE, end = Math.min(twoTheta.length, start + CHUNK_SIZE);
+		int nPeaks = state.intensities.length;
+		double[] position = peaks.position;
+
+		//Peaks which can reach any point of this chunk, and the most under one point
+		int firstPeak = lowerBound(position, twoTheta[start] - range);
+		int lastPeak = lowerBound(position, Math.nextUp(twoTheta[end - 1] + range));
+		int bandwidth = 0;
+		for (int i = start, lo = firstPeak, hi = firstPeak; i < end; i++) {
+			while (lo < lastPeak && position[lo] < twoTheta[i] - range) lo++;
+			while (hi < lastPeak && position[hi] <= twoTheta[i] + range) hi++;
+			bandwidth = Math.max(bandwidth, hi - lo - 1);
+		}
+		Chunk chunk = new Chunk(firstPeak, lastPeak - firstPeak, bandwidth, state.globals.length, pawley);
+
+		int m = state.globals.length, nb = state.backgroundTerms, z = state.zeroIndex(), lat = z + 5;
+		int nLat = state.nLattice, w1 = bandwidth + 1;
+		double[] globals = state.globals, intensities = state.intensities;
+		double eta = globals[z + 4];
+		double xMin = twoTheta[0], xScale = 2 / (twoTheta[twoTheta.length - 1] - xMin);
+		double[] jPeak = new double[bandwidth + 1], jGlobal = new double[m];
+		double[] lorentzMinusGauss = new double[bandwidth + 1];
+
+		for (int i = start, lo = firstPeak, hi = firstPeak; i < end; i++) {
+			double x = twoTheta[i];
+			while (lo < lastPeak && position[lo] < x - range) lo++;
+			while (hi < lastPeak && position[hi] <= x + range) hi++;
+			Arrays.fill(jGlobal, 0);
+
+			//Chebyshev background
+			double t = (x - xMin) * xScale - 1;
+			double tPrev = 1, tCurr = t;
+			jGlobal[0] = 1;
+			if (nb > 1) jGlobal[1] = t;
+			for (int b = 2; b < nb; b++) {
+				double tNext = 2 * t * tCurr - tPrev;
+				tPrev = tCurr;
+				tCurr = tNext;
+				jGlobal[b] = tNext;
+			}
+			double background = 0;
+			for (int b = 0; b < nb; b++) {
+				background += globals[b] * jGlobal[b];
+			}
+
+			double yCalc = background;
+			for (int k = lo; k < hi; k++) {
+				int j = k - lo;
+				double fwhm = peaks.fwhm[k], dx = x - position[k];
+				if (Math.abs(dx) > profileRange * fwhm) {
+					jPeak[j] = 0;
+					lorentzMinusGauss[j] = 0;
+					continue;
+				}
+				double hInv = 1 / fwhm, s = dx * hInv, s2 = s * s;
+				double gauss = GAUSS_NORM * hInv * Math.exp(-FOUR_LN2 * s2);
+				double denom = 1 + 4 * s2;
+				double lorentz = 2 / Math.PI * hInv / denom;
+				double pv = eta * lorentz + (1 - eta) * gauss;
+				double dPvdx = (eta * (-lorentz * 8 * s / denom) + (1 - eta) * (-gauss * 2 * FOUR_LN2 * s)) * hInv;
+				double dPvdH = (eta * lorentz * (8 * s2 / denom - 1) + (1 - eta) * gauss * (2 * FOUR_LN2 * s2 - 1)) * hInv;
+				double intensity = intensities[k];
+				yCalc += intensity * pv;
+				jPeak[j] = pv;
+				lorentzMinusGauss[j] = lorentz - gauss;
+
+				double dPosition = -intensity * dPvdx;
+				if (refineZeroShift) jGlobal[z] += dPosition;
+				double dWidth = intensity * dPvdH;
+				if (refineCaglioti) {
+					jGlobal[z + 1] += dWidth * peaks.dFwhmdU[k];
+					jGlobal[z + 2] += dWidth * peaks.dFwhmdV[k];
+				}
+				jGlobal[z + 3] += dWidth * peaks.dFwhmdW[k];
+				jGlobal[z + 4] += intensity * (lorentz - gauss);
+				for (int q = 0; q < nLat; q++) {
+					jGlobal[lat + q] += dPosition * peaks.dPosition[k * nLat + q];
+				}
+			}
+			calculated[i] = yCalc;
+			double weight = weight(weights, observed, i);
+			double residual = observed[i] - yCalc;
+			chunk.chi2 += weight * residual * residual;
+
+			for (int g = 0; g < m; g++) {
+				double wj = weight * jGlobal[g];
+				if (wj == 0) continue;
+				chunk.gradient[chunk.nLocal + g] += wj * residual;
+				for (int h = g; h < m; h++) {
+					chunk.dense[g * m + h] += wj * jGlobal[h];
+				}
+			}
+			if (pawley) {
+				for (int k = lo; k < hi; k++) {
+					double wj = weight * jPeak[k - lo];
+					if (wj == 0) continue;
+					int kl = k - firstPeak;
+					chunk.gradient[kl] += wj * residual;
+					for (int l = k; l < hi; l++) {
+						chunk.band[kl * w1 + (l - k)] += wj * jPeak[l - lo];
+					}
+					for (int g = 0; g < m; g++) {
+						chunk.border[kl * m + g] += wj * jGlobal[g];
+					}
+				}
+			} else {
+				//Le Bail partition of the observed intensity above background
+				double peakCalc = yCalc - background;
+				if (peakCalc > 0) {
+					double ratio = (observed[i] - background) / peakCalc;
+					for (int k = lo; k < hi; k++) {
+						double pv = jPeak[k - lo];
+						chunk.numerator[k - firstPeak] += pv * ratio;
+						chunk.denominator[k - firstPeak] += pv;
+					}
+				}
+			}
+		}
+		return chunk;
+	}
+
+	/*
+	 * First index whose value is >= key (values sorted, may end in +inf).
+	 */
+	private static int lowerBound(double[] values, double key) {
+		int lo = 0, hi = values.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (values[mid] < key) lo = mid + 1;
+			else hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * The refined state of a fit. Globals are the background coefficients,
+	 * zero shift, U, V, W, eta and the independent lattice parameters, in
+	 * that order.
+	 */
+	static final class State {
+		final int backgroundTerms, nLattice;
+		//Index into the independent lattice parameters of each of a..gamma, or -1 if fixed
+		final int[] latticeMap;
+		final double[] fixedLattice;
+		final CrystalSystem crystalSystem;
+		final PrincipleAxis principleAxis;
+		double[] globals;
+		int[] hkl, multiplicities;
+		double[] intensities;
+
+		State(Lattice start, int backgroundTerms) {
+			this.backgroundTerms = backgroundTerms;
+			crystalSystem = start.getCrystalSystem() == null ? CrystalSystem.TRICLINIC : start.getCrystalSystem();
+			principleAxis = start.getPrincipleAxis() == null ? PrincipleAxis.NONE : start.getPrincipleAxis();
+			latticeMap = latticeConstraints(crystalSystem, principleAxis);
+			fixedLattice = new double[]{start.getA(), start.getB(), start.getC(), start.getAl(), start.getBe(), start.getGa()};
+			int count = 0;
+			for (int j : latticeMap) count = Math.max(count, j + 1);
+			nLattice = count;
+			globals = new double[backgroundTerms + 5 + nLattice];
+			for (int p = 0; p < 6; p++) {
+				if (latticeMap[p] >= 0) globals[zeroIndex() + 5 + latticeMap[p]] = fixedLattice[p];
+			}
+		}
+
+		private State(State other) {
+			backgroundTerms = other.backgroundTerms;
+			nLattice = other.nLattice;
+			latticeMap = other.latticeMap;
+			fixedLattice = other.fixedLattice;
+			crystalSystem = other.crystalSystem;
+			principleAxis = other.principleAxis;
+			globals = other.globals.clone();
+			hkl = other.hkl.clone();
+			multiplicities = other.multiplicities.clone();
+			intensities = other.intensities.clone();
+		}
+
+		State copy() {
+			return new State(this);
+		}
+
+		int zeroIndex() {
+			return backgroundTerms;
+		}
+
+		double[] latticeParameters() {
+			double[] cell = fixedLattice.clone();
+			for (int p = 0; p < 6; p++) {
+				if (latticeMap[p] >= 0) cell[p] = globals[zeroIndex() + 5 + latticeMap[p]];
+			}
+			return cell;
+		}
+
+		Lattice lattice() {
+			double[] cell = latticeParameters();
+			return new Lattice(cell[0], cell[1], cell[2], cell[3], cell[4], cell[5], null, crystalSystem, principleAxis);
+		}
+
+		void applyShift(double[] shift, boolean pawley) {
+			int n = pawley ? intensities.length : 0;
+			for (int k = 0; k < n; k++) {
+				intensities[k] += shift[k];
+			}
+			for (int g = 0; g < globals.length; g++) {
+				globals[g] += shift[n + g];
+			}
+			//Keep the Lorentzian fraction physical
+			int eta = zeroIndex() + 4;
+			globals[eta] = Math.max(0, Math.min(1, globals[eta]));
+		}
+
+		private static int[] latticeConstraints(CrystalSystem system, PrincipleAxis axis) {
+			switch (system) {
+			case CUBIC:
+				return new int[]{0, 0, 0, -1, -1, -1};
+			case TETRAGONAL:
+			case HEXAGONAL:
+			case TRIGONAL:
+				return new int[]{0, 0, 1, -1, -1, -1};
+			case RHOMBOHEDRAL:
+				return new int[]{0, 0, 0, 1, 1, 1};
+			case ORTHORHOMBIC:
+				return new int[]{0, 1, 2, -1, -1, -1};
+			case MONOCLINIC:
+				if (axis == PrincipleAxis.A) return new int[]{0, 1, 2, 3, -1, -1};
+				if (axis == PrincipleAxis.C) return new int[]{0, 1, 2, -1, -1, 3};
+				return new int[]{0, 1, 2, -1, 3, -1};
+			default:
+				return new int[]{0, 1, 2, 3, 4, 5};
+			}
+		}
+	}
+
+	/*
+	 * Per-peak quantities for one evaluation, indexed in state order.
+	 */
+	private static final class Peaks {
+		final double[] position, fwhm, dFwhmdU, dFwhmdV, dFwhmdW, dPosition;
+
+		Peaks(int n, int nLattice) {
+			position = new double[n];
+			fwhm = new double[n];
+			dFwhmdU = new double[n];
+			dFwhmdV = new double[n];
+			dFwhmdW = new double[n];
+			dPosition = new double[n * nLattice];
+		}
+
+		/*
+		 * Put the peaks of the state in order of position, returning true if
+		 * any moved. Peaks are nearly always already in order.
+		 */
+		boolean sortInto(State state) {
+			boolean moved = false;
+			int n = position.length;
+			double[] pos = position.clone();
+			for (int i = 1; i < n; i++) {
+				for (int j = i; j > 0 && pos[j - 1] > pos[j]; j--) {
+					moved = true;
+					swap(pos, j);
+					swap(state.intensities, j);
+					swap(state.multiplicities, j);
+					for (int c = 0; c < 3; c++) {
+						int tmp = state.hkl[3 * j + c];
+						state.hkl[3 * j + c] = state.hkl[3 * (j - 1) + c];
+						state.hkl[3 * (j - 1) + c] = tmp;
+					}
+				}
+			}
+			return moved;
+		}
+
+		private static void swap(double[] values, int j) {
+			double tmp = values[j];
+			values[j] = values[j - 1];
+			values[j - 1] = tmp;
+		}
+
+		private static void swap(int[] values, int j) {
+			int tmp = values[j];
+			values[j] = values[j - 1];
+			values[j - 1] = tmp;
+		}
+	}
+
+	/*
+	 * Partial sums of one chunk of the pattern, over the peaks under it.
+	 */
+	private static final class Chunk {
+		final int firstPeak, nLocal, bandwidth;
+		final double[] band, border, dense, gradient, numerator, denominator;
+		double chi2;
+
+		Chunk(int firstPeak, int nLocal, int bandwidth, int m, boolean pawley) {
+			this.firstPeak = firstPeak;
+			this.nLocal = nLocal;
+			this.bandwidth = bandwidth;
+			band = pawley ? new double[nLocal * (bandwidth + 1)] : null;
+			border = pawley ? new double[nLocal * m] : null;
+			dense = new double[m * m];
+			gradient = new double[nLocal + m];
+			numerator = pawley ? null : new double[nLocal];
+			denominator = pawley ? null : new double[nLocal];
+		}
+	}
+
+	private static final class Evaluation {
+		final BorderedBandSolver solver;
+		final double[] rhs, calculated, numerator, denominator;
+		final double chi2;
+
+		Evaluation(BorderedBandSolver solver, double[] rhs, double chi2, double[] calculated,
+				double[] numerator, double[] denominator) {
+			this.solver = solver;
+			this.rhs = rhs;
+			this.chi2 = chi2;
+			this.calculated = calculated;
+			this.numerator = numerator;
+			this.denominator = denominator;
+		}
+
+		/*
+		 * Le Bail: I_k <- I_k . sum(pv_k . yObs/yCalc) / sum(pv_k), above
+		 * background.
+		 */
+		void partitionIntensities(State state) {
+			for (int k = 0; k < state.intensities.length; k++) {
+				if (denominator[k] > 0) state.intensities[k] *= numerator[k] / denominator[k];
+			}
+		}
+	}
+
+}
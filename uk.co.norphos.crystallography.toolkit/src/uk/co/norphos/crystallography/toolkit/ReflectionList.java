@@ -0,0 +1,190 @@
+package uk.co.norphos.crystallography.toolkit;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import org.apache.commons.math3.linear.RealMatrix;
+
+import uk.co.norphos.crystallography.api.IUnitCell;
+import uk.co.norphos.crystallography.api.MillerIndex;
+import uk.co.norphos.crystallography.toolkit.metrics.Metrics;
+import uk.co.norphos.crystallography.toolkit.metrics.Timer;
+
+/**
+ * Immutable list of the reflections of a unit cell within a d-spacing
+ * limit, in order of decreasing d-spacing. Miller indices are held packed
+ * as h,k,l triples.
+ *
+ * @author Michael Wharmby
+ *
+ */
+public final class ReflectionList {
+
+	/**
+	 * Largest number of reflections that will be enumerated.
+	 */
+	public static final int MAX_REFLECTIONS = 2_000_000;
+
+	private static final Timer ENUMERATE_TIMER = Metrics.timer("reflections.enumerate");
+
+	private final int[] hkl;
+	private final double[] dSpacings;
+
+	ReflectionList(int[] hkl, double[] dSpacings) {
+		this.hkl = hkl;
+		this.dSpacings = dSpacings;
+	}
+
+	/**
+	 * Enumerate all reflections (excluding 000) with d >= dMin. Both members
+	 * of each Friedel pair are included.
+	 *
+	 * @param cell {@link IUnitCell}
+	 * @param dMin double d-spacing limit in Angstrom
+	 * @return ReflectionList
+	 * @throws IllegalArgumentException if dMin is not positive or there
+	 *         would be more than {@link #MAX_REFLECTIONS} reflections
+	 */
+	public static ReflectionList enumerate(IUnitCell cell, double dMin) {
+		if (!(dMin > 0)) {
+			throw new IllegalArgumentException("dMin must be positive");
+		}
+		//Reciprocal lattice points in the sphere of radius 1/dMin
+		double estimate = 4 * Math.PI / 3 * cell.getVolume() / (dMin * dMin * dMin);
+		if (!(estimate <= MAX_REFLECTIONS)) {
+			throw new IllegalArgumentException("dMin "+dMin+" gives about "+(long)estimate
+					+" reflections, more than "+MAX_REFLECTIONS);
+		}
+		long start = Metrics.ENABLED ? System.nanoTime() : 0;
+		MillerIndex max = cell.getMaxMillerIndex(dMin);
+		int hMax = (int)max.getX(), kMax = (int)max.getY(), lMax = (int)max.getZ();
+		RealMatrix gStar = cell.getReciprocalMetricTensor();
+		double g00 = gStar.getEntry(0, 0), g11 = gStar.getEntry(1, 1), g22 = gStar.getEntry(2, 2);
+		double g01 = 2 * gStar.getEntry(0, 1), g02 = 2 * gStar.getEntry(0, 2), g12 = 2 * gStar.getEntry(1, 2);
+		double maxQ2 = 1 / (dMin * dMin);
+
+		//Collect each h plane independently, holding 1/d^2 until the end
+		int[][] planeHkl = new int[2 * hMax + 1][];
+		double[][] planeQ2 = new double[2 * hMax + 1][];
+		IntStream.rangeClosed(-hMax, hMax).parallel().forEach(h -> {
+			int[] indices = new int[3 * 64];
+			double[] q2s = new double[64];
+			int n = 0;
+			for (int k = -kMax; k <= kMax; k++) {
+				for (int l = -lMax; l <= lMax; l++) {
+					double q2 = g00 * h * h + g11 * k * k + g22 * l * l + g01 * h * k + g02 * h * l + g12 * k * l;
+					if (q2 > maxQ2 || (h == 0 && k == 0 && l == 0)) continue;
+					if (n == q2s.length) {
+						indices = Arrays.copyOf(indices, 6 * n);
+						q2s = Arrays.copyOf(q2s, 2 * n);
+					}
+					indices[3 * n] = h;
+					indices[3 * n + 1] = k;
+					indices[3 * n + 2] = l;
+					q2s[n++] = q2;
+				}
+			}
+			planeHkl[h + hMax] = Arrays.copyOf(indices, 3 * n);
+			planeQ2[h + hMax] = Arrays.copyOf(q2s, n);
+		});
+
+		int total = 0;
+		for (double[] plane : planeQ2) {
+			total += plane.length;
+		}
+		int[] unsortedHkl = new int[3 * total];
+		double[] unsortedQ2 = new double[total];
+		for (int p = 0, offset = 0; p < planeQ2.length; p++) {
+			System.arraycopy(planeHkl[p], 0, unsortedHkl, 3 * offset, planeHkl[p].length);
+			System.arraycopy(planeQ2[p], 0, unsortedQ2, offset, planeQ2[p].length);
+			offset += planeQ2[p].length;
+		}
+
+		//Positive floats order as their bits; sort on those with the index in the low word
+		long[] keys = new long[total];
+		for (int i = 0; i < total; i++) {
+			keys[i] = (long)Float.floatToIntBits((float)unsortedQ2[i]) << 32 | i;
+		}
+		Arrays.parallelSort(keys);
+		int[] hkl = new int[3 * total];
+		double[] q2 = new double[total];
+		for (int i = 0; i < total; i++) {
+			int j = (int)keys[i];
+			q2[i] = unsortedQ2[j];
+			System.arraycopy(unsortedHkl, 3 * j, hkl, 3 * i, 3);
+		}
+		//Rounding to float can leave close neighbours out of order
+		for (int i = 1; i < total; i++) {
+			for (int j = i; j > 0 && q2[j - 1] > q2[j]; j--) {
+				double tmp = q2[j];
+				q2[j] = q2[j - 1];
+				q2[j - 1] = tmp;
+				for (int n = 0; n < 3; n++) {
+					int itmp = hkl[3 * j + n];
+					hkl[3 * j + n] = hkl[3 * (j - 1) + n];
+					hkl[3 * (j - 1) + n] = itmp;
+				}
+			}
+		}
+		for (int i = 0; i < total; i++) {
+			q2[i] = 1 / Math.sqrt(q2[i]);
+		}
+		if (Metrics.ENABLED) ENUMERATE_TIMER.recordSince(start);
+		return new ReflectionList(hkl, q2);
+	}
+
+	/**
+	 * Return the number of reflections.
+	 * @return int
+	 */
+	public int size() {
+		return dSpacings.length;
+	}
+
+	public int getH(int i) {
+		return hkl[3 * i];
+	}
+
+	public int getK(int i) {
+		return hkl[3 * i + 1];
+	}
+
+	public int getL(int i) {
+		return hkl[3 * i + 2];
+	}
+
+	/**
+	 * Return the Miller index of the i-th reflection.
+	 * @param i int
+	 * @return {@link MillerIndex}
+	 */
+	public MillerIndex getMillerIndex(int i) {
+		return new MillerIndex(hkl[3 * i], hkl[3 * i + 1], hkl[3 * i + 2]);
+	}
+
+	/**
+	 * Return the d-spacing of the i-th reflection.
+	 * @param i int
+	 * @return double in Angstrom
+	 */
+	public double getDSpacing(int i) {
+		return dSpacings[i];
+	}
+
+	/**
+	 * Return a copy of the Miller indices as packed h,k,l triples.
+	 * @return int[3 * size()]
+	 */
+	public int[] getIndices() {
+		return hkl.clone();
+	}
+
+	/**
+	 * Return a copy of the d-spacings.
+	 * @return double[size()] in Angstrom
+	 */
+	public double[] getDSpacings() {
+		return dSpacings.clone();
+	}
+
+}
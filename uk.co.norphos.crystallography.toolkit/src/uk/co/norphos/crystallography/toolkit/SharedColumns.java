@@ -0,0 +1,307 @@
+package uk.co.norphos.crystallography.toolkit;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
+
+import uk.co.norphos.crystallography.api.Lattice;
+import uk.co.norphos.crystallography.api.Site;
+
+/**
+ * A memory-mapped file of named columns, for exchanging cells, coordinates
+ * and reflection tables with the Python norphos-crystallography package
+ * (crystal_toolkit.shared_columns) without text conversion. Either side
+ * writes a file and the other maps it; numeric columns are read in place,
+ * as NIO buffers here and numpy arrays there.
+ * <br>
+ * The layout is little-endian throughout, with every column starting on a
+ * 64 byte boundary as in Apache Arrow:
+ * <pre>
+ *   0   magic "NPCOLUMN", int32 version, int32 columns, int64 file length,
+ *       zero padded to 64 bytes
+ *   64  one 64 byte entry per column: name (UTF-8, NUL padded to 32 bytes),
+ *       int32 type, int32 width, int64 rows, int64 offset, int64 data bytes
+ *   ... column data, each at its offset (aligned)
+ * </pre>
+ * Numeric columns hold rows x width values, row-major. A string column
+ * (width 1) holds rows + 1 int32 offsets, then (aligned) the UTF-8 bytes,
+ * as an Arrow utf8 array.
+ *
+ * @author Michael Wharmby
+ *
+ */
+public final class SharedColumns implements Closeable {
+
+	/**
+	 * Column types.
+	 */
+	public static final int INT32 = 1, INT64 = 2, FLOAT32 = 3, FLOAT64 = 4, UTF8 = 5;
+
+	static final byte[] MAGIC = "NPCOLUMN".getBytes(StandardCharsets.US_ASCII);
+	static final int VERSION = 1;
+	static final int HEADER_BYTES = 64, ENTRY_BYTES = 64, NAME_BYTES = 32, ALIGNMENT = 64;
+
+	private final FileChannel channel;
+	private final MappedByteBuffer map;
+	private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+	private SharedColumns(FileChannel channel, MappedByteBuffer map) throws IOException {
+		this.channel = channel;
+		this.map = map;
+		map.order(ByteOrder.LITTLE_ENDIAN);
+		byte[] magic = new byte[MAGIC.length];
+		if (map.capacity() < HEADER_BYTES) throw new IOException("Not a shared columns file");
+		map.get(magic);
+		if (!Arrays.equals(magic, MAGIC)) throw new IOException("Not a shared columns file");
+		int version = map.getInt(8);
+		if (version != VERSION) throw new IOException("Unsupported shared columns version "+version);
+		int nColumns = map.getInt(12);
+		if (map.getLong(16) != map.capacity()) {
+			throw new IOException("Shared columns file is "+map.capacity()+" bytes, expected "+map.getLong(16));
+		}
+		for (int c = 0; c < nColumns; c++) {
+			int base = HEADER_BYTES + ENTRY_BYTES * c;
+			int length = 0;
+			while (length < NAME_BYTES && map.get(base + length) != 0) length++;
+			byte[] name = new byte[length];
+			for (int i = 0; i < length; i++) {
+				name[i] = map.get(base + i);
+			}
+			Entry entry = new Entry(map.getInt(base + NAME_BYTES), map.getInt(base + NAME_BYTES + 4),
+					map.getLong(base + NAME_BYTES + 8), map.getLong(base + NAME_BYTES + 16), map.getLong(base + NAME_BYTES + 24));
+			long end = entry.type == UTF8 ? align(entry.offset + 4 * (entry.rows + 1)) + entry.dataBytes
+					: entry.offset + entry.rows * entry.width * elementSize(entry.type);
+			if (entry.offset % ALIGNMENT != 0 || end > map.capacity()) {
+				throw new IOException("Column "+new String(name, StandardCharsets.UTF_8)+" lies outside the file");
+			}
+			entries.put(new String(name, StandardCharsets.UTF_8), entry);
+		}
+	}
+
+	static long align(long offset) {
+		return (offset + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+	}
+
+	static int elementSize(int type) {
+		switch (type) {
+		case INT32:
+		case FLOAT32:
+			return 4;
+		case INT64:
+		case FLOAT64:
+			return 8;
+		default:
+			throw new IllegalArgumentException("Unknown column type "+type);
+		}
+	}
+
+	/**
+	 * Map a shared columns file.
+	 * @param path Path
+	 * @return SharedColumns which must be closed after use
+	 * @throws IOException if the file cannot be read or is not valid
+	 */
+	public static SharedColumns open(Path path) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			if (channel.size() > Integer.MAX_VALUE) throw new IOException(path+" is larger than 2 GB");
+			return new SharedColumns(channel, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Return the names of the columns in file order.
+	 * @return List of String
+	 */
+	public List<String> getColumnNames() {
+		return Collections.unmodifiableList(new ArrayList<>(entries.keySet()));
+	}
+
+	public boolean hasColumn(String name) {
+		return entries.containsKey(name);
+	}
+
+	/**
+	 * Return the type of a column, e.g. {@link #FLOAT64}.
+	 * @param name String
+	 * @return int
+	 */
+	public int getType(String name) {
+		return entry(name).type;
+	}
+
+	/**
+	 * Return the number of values in each row of a column.
+	 * @param name String
+	 * @return int
+	 */
+	public int getWidth(String name) {
+		return entry(name).width;
+	}
+
+	/**
+	 * Return the number of rows of a column.
+	 * @param name String
+	 * @return int
+	 */
+	public int getRows(String name) {
+		return (int)entry(name).rows;
+	}
+
+	private Entry entry(String name) {
+		Entry entry = entries.get(name);
+		if (entry == null) throw new IllegalArgumentException("No column '"+name+"'");
+		return entry;
+	}
+
+	private ByteBuffer view(String name, int type) {
+		Entry entry = entry(name);
+		if (entry.type != type) {
+			throw new IllegalArgumentException("Column '"+name+"' has type "+entry.type+", not "+type);
+		}
+		ByteBuffer view = map.duplicate();
+		view.position((int)entry.offset).limit((int)(entry.offset + entry.rows * entry.width * elementSize(type)));
+		return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Return a read-only view of an int32 column, without copying.
+	 * @param name String
+	 * @return IntBuffer of rows x width values
+	 */
+	public IntBuffer getInts(String name) {
+		return view(name, INT32).asIntBuffer().asReadOnlyBuffer();
+	}
+
+	/**
+	 * Return a read-only view of an int64 column, without copying.
+	 * @param name String
+	 * @return LongBuffer of rows x width values
+	 */
+	public LongBuffer getLongs(String name) {
+		return view(name, INT64).asLongBuffer().asReadOnlyBuffer();
+	}
+
+	/**
+	 * Return a read-only view of a float32 column, without copying.
+	 * @param name String
+	 * @return FloatBuffer of rows x width values
+	 */
+	public FloatBuffer getFloats(String name) {
+		return view(name, FLOAT32).asFloatBuffer().asReadOnlyBuffer();
+	}
+
+	/**
+	 * Return a read-only view of a float64 column, without copying.
+	 * @param name String
+	 * @return DoubleBuffer of rows x width values
+	 */
+	public DoubleBuffer getDoubles(String name) {
+		return view(name, FLOAT64).asDoubleBuffer().asReadOnlyBuffer();
+	}
+
+	/**
+	 * Decode a string column.
+	 * @param name String
+	 * @return String[] one per row
+	 */
+	public String[] getStrings(String name) {
+		Entry entry = entry(name);
+		if (entry.type != UTF8) {
+			throw new IllegalArgumentException("Column '"+name+"' has type "+entry.type+", not "+UTF8);
+		}
+		int rows = (int)entry.rows, data = (int)align(entry.offset + 4L * (rows + 1));
+		String[] values = new String[rows];
+		ByteBuffer bytes = map.duplicate();
+		for (int i = 0; i < rows; i++) {
+			int start = map.getInt((int)entry.offset + 4 * i), end = map.getInt((int)entry.offset + 4 * (i + 1));
+			if (start < 0 || end < start || end > entry.dataBytes) {
+				throw new IllegalArgumentException("Bad string offsets in column '"+name+"'");
+			}
+			byte[] value = new byte[end - start];
+			bytes.position(data + start);
+			bytes.get(value);
+			values[i] = new String(value, StandardCharsets.UTF_8);
+		}
+		return values;
+	}
+
+	private static double[] toArray(DoubleBuffer buffer) {
+		double[] values = new double[buffer.remaining()];
+		buffer.get(values);
+		return values;
+	}
+
+	private static int[] toArray(IntBuffer buffer) {
+		int[] values = new int[buffer.remaining()];
+		buffer.get(values);
+		return values;
+	}
+
+	/**
+	 * Read a crystal written with {@link SharedColumnsWriter#addCrystal(String, Crystal)}.
+	 * @param prefix String
+	 * @return {@link Crystal}
+	 */
+	public Crystal readCrystal(String prefix) {
+		DoubleBuffer cell = getDoubles(prefix+".lattice");
+		Crystal crystal = new Crystal(new Lattice(cell.get(0), cell.get(1), cell.get(2), cell.get(3), cell.get(4), cell.get(5)));
+		String[] labels = getStrings(prefix+".label"), elements = getStrings(prefix+".element");
+		DoubleBuffer frac = getDoubles(prefix+".frac"), occupancy = getDoubles(prefix+".occupancy"), charge = getDoubles(prefix+".charge");
+		for (int i = 0; i < labels.length; i++) {
+			crystal.addSite(new Site(labels[i], elements[i], new Vector3D(frac.get(3 * i), frac.get(3 * i + 1), frac.get(3 * i + 2)),
+					occupancy.get(i), charge.get(i)));
+		}
+		return crystal;
+	}
+
+	/**
+	 * Read reflections written with {@link SharedColumnsWriter#addReflections(String, HklData)}.
+	 * @param prefix String
+	 * @return {@link HklData}
+	 */
+	public HklData readReflections(String prefix) {
+		return new HklData(toArray(getInts(prefix+".hkl")), toArray(getDoubles(prefix+".intensity")),
+				toArray(getDoubles(prefix+".sigma")), hasColumn(prefix+".batch") ? toArray(getInts(prefix+".batch")) : null);
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	private static final class Entry {
+		private final int type, width;
+		private final long rows, offset, dataBytes;
+
+		Entry(int type, int width, long rows, long offset, long dataBytes) {
+			this.type = type;
+			this.width = width;
+			this.rows = rows;
+			this.offset = offset;
+			this.dataBytes = dataBytes;
+		}
+	}
+
+}
@@ -0,0 +1,242 @@
+package uk.co.norphos.crystallography.toolkit;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import uk.co.norphos.crystallography.api.Lattice;
+import uk.co.norphos.crystallography.api.Site;
+
+/**
+ * Collects columns of primitive values and strings and writes them to a
+ * {@link SharedColumns} file, by mapping the file and copying each column
+ * straight into place. Columns are written in the order they were added;
+ * arrays are held, not copied, until {@link #write(Path)}.
+ * <br>
+ * Crystals and reflection sets are added as groups of columns under a
+ * prefix, e.g. "crystal.frac", which {@link SharedColumns} and the Python
+ * crystal_toolkit.shared_columns module read back.
+ *
+ * @author Michael Wharmby
+ *
+ */
+public class SharedColumnsWriter {
+
+	private final List<Column> columns = new ArrayList<>();
+	private final Set<String> names = new HashSet<>();
+
+	/**
+	 * Add a column of 32-bit integers.
+	 * @param name String of at most 31 UTF-8 bytes
+	 * @param width int values per row
+	 * @param values int[] row-major, a multiple of width long
+	 * @return this writer
+	 */
+	public SharedColumnsWriter addInts(String name, int width, int[] values) {
+		return add(name, SharedColumns.INT32, width, values.length, values);
+	}
+
+	/**
+	 * Add a column of 64-bit integers.
+	 * @param name String of at most 31 UTF-8 bytes
+	 * @param width int values per row
+	 * @param values long[] row-major, a multiple of width long
+	 * @return this writer
+	 */
+	public SharedColumnsWriter addLongs(String name, int width, long[] values) {
+		return add(name, SharedColumns.INT64, width, values.length, values);
+	}
+
+	/**
+	 * Add a column of 32-bit floats.
+	 * @param name String of at most 31 UTF-8 bytes
+	 * @param width int values per row
+	 * @param values float[] row-major, a multiple of width long
+	 * @return this writer
+	 */
+	public SharedColumnsWriter addFloats(String name, int width, float[] values) {
+		return add(name, SharedColumns.FLOAT32, width, values.length, values);
+	}
+
+	/**
+	 * Add a column of 64-bit floats.
+	 * @param name String of at most 31 UTF-8 bytes
+	 * @param width int values per row
+	 * @param values double[] row-major, a multiple of width long
+	 * @return this writer
+	 */
+	public SharedColumnsWriter addDoubles(String name, int width, double[] values) {
+		return add(name, SharedColumns.FLOAT64, width, values.length, values);
+	}
+
+	/**
+	 * Add a column of strings.
+	 * @param name String of at most 31 UTF-8 bytes
+	 * @param values String[] one per row
+	 * @return this writer
+	 */
+	public SharedColumnsWriter addStrings(String name, String[] values) {
+		byte[][] encoded = new byte[values.length][];
+		for (int i = 0; i < values.length; i++) {
+			encoded[i] = values[i].getBytes(StandardCharsets.UTF_8);
+		}
+		return add(name, SharedColumns.UTF8, 1, values.length, encoded);
+	}
+
+	/**
+	 * Add the cell and sites of a crystal as the columns prefix.lattice
+	 * (a, b, c, alpha, beta, gamma), prefix.label, prefix.element,
+	 * prefix.frac (x, y, z), prefix.occupancy and prefix.charge.
+	 * @param prefix String
+	 * @param crystal {@link Crystal}
+	 * @return this writer
+	 */
+	public SharedColumnsWriter addCrystal(String prefix, Crystal crystal) {
+		Lattice lattice = crystal.getUnitCell().getLattice();
+		List<Site> sites = crystal.getSites();
+		int n = sites.size();
+		String[] labels = new String[n], elements = new String[n];
+		double[] occupancies = new double[n], charges = new double[n];
+		for (int i = 0; i < n; i++) {
+			Site site = sites.get(i);
+			labels[i] = site.getLabel();
+			elements[i] = site.getElement();
+			occupancies[i] = site.getOccupancy();
+			charges[i] = site.getCharge();
+		}
+		addDoubles(prefix+".lattice", 6, new double[]{lattice.getA(), lattice.getB(), lattice.getC(),
+				lattice.getAl(), lattice.getBe(), lattice.getGa()});
+		addStrings(prefix+".label", labels);
+		addStrings(prefix+".element", elements);
+		addDoubles(prefix+".frac", 3, crystal.getFractionalCoordinates());
+		addDoubles(prefix+".occupancy", 1, occupancies);
+		return addDoubles(prefix+".charge", 1, charges);
+	}
+
+	/**
+	 * Add a set of reflections as the columns prefix.hkl, prefix.intensity,
+	 * prefix.sigma and, if it has them, prefix.batch.
+	 * @param prefix String
+	 * @param data {@link HklData}
+	 * @return this writer
+	 */
+	public SharedColumnsWriter addReflections(String prefix, HklData data) {
+		addInts(prefix+".hkl", 3, data.getIndices());
+		addDoubles(prefix+".intensity", 1, data.getIntensities());
+		addDoubles(prefix+".sigma", 1, data.getSigmas());
+		if (data.hasBatches()) addInts(prefix+".batch", 1, data.getBatches());
+		return this;
+	}
+
+	private SharedColumnsWriter add(String name, int type, int width, int length, Object values) {
+		byte[] encoded = name.getBytes(StandardCharsets.UTF_8);
+		if (encoded.length == 0 || encoded.length >= SharedColumns.NAME_BYTES) {
+			throw new IllegalArgumentException("Column name '"+name+"' must be 1 to "+(SharedColumns.NAME_BYTES - 1)+" bytes");
+		}
+		if (width < 1 || length % width != 0) {
+			throw new IllegalArgumentException("Column '"+name+"' of "+length+" values is not in rows of "+width);
+		}
+		if (!names.add(name)) throw new IllegalArgumentException("Duplicate column '"+name+"'");
+		columns.add(new Column(encoded, type, width, length / width, values));
+		return this;
+	}
+
+	/**
+	 * Write the columns, replacing any existing file.
+	 * @param path Path
+	 * @throws IOException if the file cannot be written
+	 */
+	public void write(Path path) throws IOException {
+		//Lay out the columns
+		long offset = SharedColumns.align(SharedColumns.HEADER_BYTES + (long)SharedColumns.ENTRY_BYTES * columns.size());
+		for (Column column : columns) {
+			column.offset = offset;
+			if (column.type == SharedColumns.UTF8) {
+				long data = SharedColumns.align(offset + 4L * (column.rows + 1));
+				column.dataBytes = 0;
+				for (byte[] value : (byte[][])column.values) {
+					column.dataBytes += value.length;
+				}
+				offset = SharedColumns.align(data + column.dataBytes);
+			} else {
+				column.dataBytes = column.rows * column.width * SharedColumns.elementSize(column.type);
+				offset = SharedColumns.align(offset + column.dataBytes);
+			}
+		}
+		if (offset > Integer.MAX_VALUE) throw new IOException("Columns would be larger than 2 GB");
+
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, 0, offset);
+			map.order(ByteOrder.LITTLE_ENDIAN);
+			map.put(SharedColumns.MAGIC);
+			map.putInt(SharedColumns.VERSION).putInt(columns.size()).putLong(offset);
+			for (int c = 0; c < columns.size(); c++) {
+				Column column = columns.get(c);
+				map.position(SharedColumns.HEADER_BYTES + SharedColumns.ENTRY_BYTES * c);
+				map.put(column.name);
+				map.position(SharedColumns.HEADER_BYTES + SharedColumns.ENTRY_BYTES * c + SharedColumns.NAME_BYTES);
+				map.putInt(column.type).putInt(column.width).putLong(column.rows).putLong(column.offset).putLong(column.dataBytes);
+				writeValues(map, column);
+			}
+			map.force();
+		}
+	}
+
+	private static void writeValues(ByteBuffer map, Column column) {
+		ByteBuffer view = map.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		view.position((int)column.offset);
+		switch (column.type) {
+		case SharedColumns.INT32:
+			view.asIntBuffer().put((int[])column.values);
+			break;
+		case SharedColumns.INT64:
+			view.asLongBuffer().put((long[])column.values);
+			break;
+		case SharedColumns.FLOAT32:
+			view.asFloatBuffer().put((float[])column.values);
+			break;
+		case SharedColumns.FLOAT64:
+			view.asDoubleBuffer().put((double[])column.values);
+			break;
+		default:
+			//Arrow-style strings: rows + 1 offsets, then the bytes
+			byte[][] values = (byte[][])column.values;
+			int end = 0;
+			view.putInt(end);
+			for (byte[] value : values) {
+				view.putInt(end += value.length);
+			}
+			view.position((int)SharedColumns.align(column.offset + 4L * (column.rows + 1)));
+			for (byte[] value : values) {
+				view.put(value);
+			}
+		}
+	}
+
+	private static final class Column {
+		private final byte[] name;
+		private final int type, width;
+		private final long rows;
+		private final Object values;
+		private long offset, dataBytes;
+
+		Column(byte[] name, int type, int width, long rows, Object values) {
+			this.name = name;
+			this.type = type;
+			this.width = width;
+			this.rows = rows;
+			this.values = values;
+		}
+	}
+
+}
@@ -0,0 +1,295 @@
+package uk.co.norphos.crystallography.toolkit;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import org.apache.commons.math3.linear.RealMatrix;
+
+import uk.co.norphos.crystallography.api.IUnitCell;
+import uk.co.norphos.crystallography.toolkit.metrics.Metrics;
+import uk.co.norphos.crystallography.toolkit.metrics.Timer;
+
+/**
+ * Predicts the positions of single-crystal diffraction spots on an area
+ * detector for a rotation scan.
+ *
+ * The laboratory frame is that of {@link DetectorGeometry}, with the beam
+ * along +z. At rotation angle phi = 0 the reciprocal lattice vector of
+ * reflection hkl is r = U.B.h, where B is the orthogonalization matrix of
+ * the reciprocal unit cell ({@link IUnitCell#getReciprocal()}, so |r| = 1/d)
+ * and U is the orientation matrix. Rotating the crystal by phi about the
+ * rotation axis brings reflection hkl into the diffracting condition where
+ * |s0 + R(phi).r| = |s0| = 1/lambda.
+ *
+ * Rather than testing reflections frame by frame, the angles at which each
+ * reflection inside the limiting sphere crosses the Ewald sphere are solved
+ * analytically once, when the predictor is constructed. Reflections in the
+ * blind region, which never cross, are discarded. The crossings which hit
+ * the detector are stored in order of phi, so predicting a frame is a pair
+ * of binary searches and a copy of the crossings between them.
+ *
+ * @author Michael Wharmby
+ *
+ */
+public class SpotPredictor {
+
+	private static final double TWO_PI = 2 * Math.PI;
+	private static final Timer BUILD_TIMER = Metrics.timer("spotpredictor.build");
+	private static final Timer PREDICT_TIMER = Metrics.timer("spotpredictor.predict");
+
+	private final int nSpots;
+	private final int[] hkl;
+	private final double[] phi, positions;
+
+	/**
+	 * Construct a predictor for a full rotation about the given axis.
+	 *
+	 * @param cell {@link IUnitCell} of the crystal
+	 * @param orientation double[9] row-major rotation matrix U
+	 * @param wavelength double in Angstroms
+	 * @param rotationAxis double[3] rotation axis in the laboratory frame
+	 * @param detector {@link DetectorGeometry}
+	 * @param dMin double resolution limit in Angstroms
+	 */
+	public SpotPredictor(IUnitCell cell, double[] orientation, double wavelength, double[] rotationAxis,
+			DetectorGeometry detector, double dMin) {
+		long start = Metrics.ENABLED ? System.nanoTime() : 0;
+		//Nothing beyond the limiting sphere can diffract
+		double dLimit = Math.max(dMin, wavelength / 2);
+		double maxR2 = 1 / (dLimit * dLimit);
+		double s0 = 1 / wavelength;
+
+		RealMatrix recipOrtho = cell.getReciprocal().getOrthogonalizationMatrix();
+		double[] b = new double[9], ub = new double[9];
+		for (int i = 0; i < 9; i++) {
+			b[i] = recipOrtho.getEntry(i / 3, i % 3);
+		}
+		Matrix3.multiply(orientation, b, ub);
+
+		double axisNorm = Math.sqrt(rotationAxis[0] * rotationAxis[0] + rotationAxis[1] * rotationAxis[1]
+				+ rotationAxis[2] * rotationAxis[2]);
+		double ex = rotationAxis[0] / axisNorm, ey = rotationAxis[1] / axisNorm, ez = rotationAxis[2] / axisNorm;
+
+		int hMax = (int)Math.floor(cell.getA() / dLimit);
+		int kMax = (int)Math.floor(cell.getB() / dLimit);
+		int lMax = (int)Math.floor(cell.getC() / dLimit);
+
+		//Each h plane is independent; gather crossings per plane then merge
+		Crossings[] planes = new Crossings[2 * hMax + 1];
+		IntStream.rangeClosed(-hMax, hMax).parallel().forEach(h -> {
+			Crossings crossings = new Crossings();
+			double[] pixel = new double[2];
+			for (int k = -kMax; k <= kMax; k++) {
+				for (int l = -lMax; l <= lMax; l++) {
+					double rx = ub[0] * h + ub[1] * k + ub[2] * l;
+					double ry = ub[3] * h + ub[4] * k + ub[5] * l;
+					double rz = ub[6] * h + ub[7] * k + ub[8] * l;
+					double r2 = rx * rx + ry * ry + rz * rz;
+					if (r2 > maxR2 || r2 == 0) continue;
+
+					//R(phi).r = par.e + cos(phi).perp + sin(phi).(e x r)
+					double par = rx * ex + ry * ey + rz * ez;
+					double px = rx - par * ex, py = ry - par * ey, pz = rz - par * ez;
+					double cx = ey * rz - ez * ry, cy = ez * rx - ex * rz, cz = ex * ry - ey * rx;
+					//Diffracting condition 2.s0.R(phi).r + r^2 = 0 as A.cos(phi) + B.sin(phi) = C
+					double aCoeff = s0 * pz, bCoeff = s0 * cz, cCoeff = -r2 / 2 - s0 * par * ez;
+					double amplitude = Math.sqrt(aCoeff * aCoeff + bCoeff * bCoeff);
+					if (amplitude == 0 || Math.abs(cCoeff) > amplitude) continue;
+
+					double base = Math.atan2(bCoeff, aCoeff);
+					double delta = Math.acos(cCoeff / amplitude);
+					for (int sign = 1; sign >= -1; sign -= 2) {
+						double angle = base + sign * delta;
+						angle -= TWO_PI * Math.floor(angle / TWO_PI);
+						if (angle >= TWO_PI) angle = 0;
+						double cos = Math.cos(angle), sin = Math.sin(angle);
+						double s1x = par * ex + cos * px + sin * cx;
+						double s1y = par * ey + cos * py + sin * cy;
+						double s1z = par * ez + cos * pz + sin * cz + s0;
+						if (detector.intersect(s1x, s1y, s1z, pixel)) {
+							crossings.add(h, k, l, angle, pixel[0], pixel[1]);
+						}
+						if (delta == 0) break;
+					}
+				}
+			}
+			planes[h + hMax] = crossings;
+		});
+
+		int total = 0;
+		for (Crossings plane : planes) {
+			total += plane.size;
+		}
+		nSpots = total;
+		hkl = new int[3 * total];
+		phi = new double[total];
+		positions = new double[2 * total];
+
+		//Sort on phi quantised to 2^-31 turn in the high word, original index in the low word
+		int[] unsortedHkl = new int[3 * total];
+		double[] unsortedPhi = new double[total], unsortedPositions = new double[2 * total];
+		long[] keys = new long[total];
+		int offset = 0;
+		for (Crossings plane : planes) {
+			System.arraycopy(plane.hkl, 0, unsortedHkl, 3 * offset, 3 * plane.size);
+			System.arraycopy(plane.phi, 0, unsortedPhi, offset, plane.size);
+			System.arraycopy(plane.positions, 0, unsortedPositions, 2 * offset, 2 * plane.size);
+			offset += plane.size;
+		}
+		for (int i = 0; i < total; i++) {
+			long quantised = Math.min((long)(unsortedPhi[i] / TWO_PI * (1L << 31)), (1L << 31) - 1);
+			keys[i] = quantised << 32 | i;
+		}
+		Arrays.parallelSort(keys);
+		for (int i = 0; i < total; i++) {
+			int j = (int)keys[i];
+			phi[i] = unsortedPhi[j];
+			System.arraycopy(unsortedHkl, 3 * j, hkl, 3 * i, 3);
+			System.arraycopy(unsortedPositions, 2 * j, positions, 2 * i, 2);
+		}
+		//Quantisation can leave neighbours within 2^-31 turn out of order
+		for (int i = 1; i < total; i++) {
+			for (int j = i; j > 0 && phi[j - 1] > phi[j]; j--) {
+				swap(j - 1, j);
+			}
+		}
+		if (Metrics.ENABLED) BUILD_TIMER.recordSince(start);
+	}
+
+	private void swap(int i, int j) {
+		double tmp = phi[i];
+		phi[i] = phi[j];
+		phi[j] = tmp;
+		for (int n = 0; n < 3; n++) {
+			int itmp = hkl[3 * i + n];
+			hkl[3 * i + n] = hkl[3 * j + n];
+			hkl[3 * j + n] = itmp;
+		}
+		for (int n = 0; n < 2; n++) {
+			tmp = positions[2 * i + n];
+			positions[2 * i + n] = positions[2 * j + n];
+			positions[2 * j + n] = tmp;
+		}
+	}
+
+	/**
+	 * Return the number of spots which hit the detector over a full
+	 * rotation.
+	 * @return int
+	 */
+	public int getNumberOfSpots() {
+		return nSpots;
+	}
+
+	/**
+	 * Return the number of spots which hit the detector on a frame.
+	 *
+	 * @param phiStart double start angle of the frame in degrees
+	 * @param phiEnd double end angle of the frame in degrees (greater than
+	 *        phiStart, by at most 360)
+	 * @return int
+	 */
+	public int countSpots(double phiStart, double phiEnd) {
+		return predict(phiStart, phiEnd, null, null, null);
+	}
+
+	/**
+	 * Predict the spots which hit the detector on a frame, i.e. reflections
+	 * which cross the Ewald sphere between phiStart (inclusive) and phiEnd
+	 * (exclusive). Spots are returned in order of phi from phiStart.
+	 *
+	 * @param phiStart double start angle of the frame in degrees
+	 * @param phiEnd double end angle of the frame in degrees (greater than
+	 *        phiStart, by at most 360)
+	 * @param hklDest int[] to receive packed h,k,l triples, or null
+	 * @param positionDest double[] to receive packed fast,slow pixel
+	 *        coordinates, or null
+	 * @param phiDest double[] to receive the diffracting angles in degrees in
+	 *        the range [phiStart, phiEnd), or null
+	 * @return int number of spots
+	 * @throws IllegalArgumentException if a destination array is too small
+	 */
+	public int predict(double phiStart, double phiEnd, int[] hklDest, double[] positionDest, double[] phiDest) {
+		long startTime = Metrics.ENABLED ? System.nanoTime() : 0;
+		double width = Math.toRadians(phiEnd - phiStart);
+		if (!(width > 0) || width > TWO_PI + 1e-12) {
+			throw new IllegalArgumentException("Frame must span more than 0 and at most 360 degrees");
+		}
+		double start = Math.toRadians(phiStart);
+		double turns = Math.floor(start / TWO_PI);
+		start -= TWO_PI * turns;
+		double end = start + width;
+
+		int first = lowerBound(start);
+		int count;
+		if (end <= TWO_PI) {
+			count = lowerBound(end) - first;
+		} else {
+			count = nSpots - first + lowerBound(end - TWO_PI);
+		}
+		count = Math.min(count, nSpots);
+		if ((hklDest != null && hklDest.length < 3 * count) || (positionDest != null && positionDest.length < 2 * count)
+				|| (phiDest != null && phiDest.length < count)) {
+			throw new IllegalArgumentException("Destination arrays too small for "+count+" spots");
+		}
+		double phiOffset = Math.toDegrees(TWO_PI * turns);
+		for (int n = 0, i = first; n < count; n++, i++) {
+			//Frames spanning phi = 360 continue from the start of the table
+			double wrap = 0;
+			if (i >= nSpots) {
+				i -= nSpots;
+			}
+			if (i < first) {
+				wrap = 360;
+			}
+			if (hklDest != null) System.arraycopy(hkl, 3 * i, hklDest, 3 * n, 3);
+			if (positionDest != null) System.arraycopy(positions, 2 * i, positionDest, 2 * n, 2);
+			if (phiDest != null) phiDest[n] = Math.toDegrees(phi[i]) + phiOffset + wrap;
+		}
+		if (Metrics.ENABLED) PREDICT_TIMER.recordSince(startTime);
+		return count;
+	}
+
+	/*
+	 * Index of the first spot with phi >= angle (radians).
+	 */
+	private int lowerBound(double angle) {
+		int low = 0, high = nSpots;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (phi[mid] < angle) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Growable columns of crossings found in one plane of reciprocal space.
+	 */
+	private static final class Crossings {
+
+		private int[] hkl = new int[3 * 64];
+		private double[] phi = new double[64], positions = new double[2 * 64];
+		private int size;
+
+		private void add(int h, int k, int l, double angle, double fast, double slow) {
+			if (size == phi.length) {
+				hkl = Arrays.copyOf(hkl, 6 * size);
+				phi = Arrays.copyOf(phi, 2 * size);
+				positions = Arrays.copyOf(positions, 4 * size);
+			}
+			hkl[3 * size] = h;
+			hkl[3 * size + 1] = k;
+			hkl[3 * size + 2] = l;
+			phi[size] = angle;
+			positions[2 * size] = fast;
+			positions[2 * size + 1] = slow;
+			size++;
+		}
+
+	}
+
+}
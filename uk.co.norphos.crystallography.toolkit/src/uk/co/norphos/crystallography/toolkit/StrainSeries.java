@@ -0,0 +1,159 @@
+package uk.co.norphos.crystallography.toolkit;
+
+import java.util.stream.IntStream;
+
+/**
+ * A series of unit cells (e.g. from a variable temperature or pressure
+ * experiment) held as columns of lattice parameters, for bulk calculation
+ * of strains, principal strains and fitted expansion/compressibility
+ * tensors.
+ *
+ * No {@link UnitCell} objects are created; each worker thread uses a single
+ * {@link CellWorkspace} and the closed-form 3x3 routines in {@link Matrix3}.
+ * Strains are infinitesimal, relative to a chosen reference cell in the
+ * series and are packed as described in {@link LatticeStrain}.
+ *
+ * @author Michael Wharmby
+ *
+ */
+public class StrainSeries {
+
+	private static final int CHUNK_SIZE = 1024;
+
+	private final double[] a, b, c, al, be, ga;
+	private final int size;
+
+	/**
+	 * Construct a series from columns of lattice parameters. All arrays must
+	 * have the same length. The arrays are not copied.
+	 *
+	 * @param a double[] in Angstroms
+	 * @param b double[] in Angstroms
+	 * @param c double[] in Angstroms
+	 * @param al double[] in degrees
+	 * @param be double[] in degrees
+	 * @param ga double[] in degrees
+	 */
+	public StrainSeries(double[] a, double[] b, double[] c, double[] al, double[] be, double[] ga) {
+		size = a.length;
+		if (b.length != size || c.length != size || al.length != size || be.length != size || ga.length != size) {
+			throw new IllegalArgumentException("All lattice parameter columns must have the same length");
+		}
+		this.a = a;
+		this.b = b;
+		this.c = c;
+		this.al = al;
+		this.be = be;
+		this.ga = ga;
+	}
+
+	/**
+	 * Return number of cells in the series.
+	 * @return int
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Calculate the strain of every cell in the series relative to the cell
+	 * at referenceIndex.
+	 *
+	 * @param referenceIndex int index of the reference cell
+	 * @param dest double[6 * size()] receiving packed strains
+	 */
+	public void calculateStrains(int referenceIndex, double[] dest) {
+		double[] refFrac = new double[9];
+		new CellWorkspace(a[referenceIndex], b[referenceIndex], c[referenceIndex],
+				al[referenceIndex], be[referenceIndex], ga[referenceIndex]).copyFractionalizationMatrix(refFrac);
+
+		int nChunks = (size + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		IntStream.range(0, nChunks).parallel().forEach(chunk -> {
+			CellWorkspace ws = new CellWorkspace(a[referenceIndex], b[referenceIndex], c[referenceIndex],
+					al[referenceIndex], be[referenceIndex], ga[referenceIndex]);
+			double[] ortho = new double[9], defGrad = new double[9];
+			int end = Math.min(size, (chunk + 1) * CHUNK_SIZE);
+			for (int i = chunk * CHUNK_SIZE; i < end; i++) {
+				ws.update(a[i], b[i], c[i], al[i], be[i], ga[i]);
+				ws.copyOrthogonalizationMatrix(ortho);
+				Matrix3.multiply(ortho, refFrac, defGrad);
+				LatticeStrain.infinitesimalStrain(defGrad, dest, 6 * i);
+			}
+		});
+	}
+
+	/**
+	 * Calculate the principal strains and axes of every cell in the series
+	 * relative to the cell at referenceIndex.
+	 *
+	 * @param referenceIndex int index of the reference cell
+	 * @param values double[3 * size()] receiving principal strains
+	 *        (descending for each cell)
+	 * @param axes double[9 * size()] receiving Cartesian principal axes
+	 */
+	public void calculatePrincipalStrains(int referenceIndex, double[] values, double[] axes) {
+		double[] strains = new double[6 * size];
+		calculateStrains(referenceIndex, strains);
+		IntStream.range(0, size).parallel().forEach(i ->
+			Matrix3.symmetricEigen(strains, 6 * i, values, 3 * i, axes, 9 * i));
+	}
+
+	/**
+	 * Fit the linear thermal expansion tensor, de/dT, across the whole
+	 * series.
+	 *
+	 * @param temperatures double[] one value per cell
+	 * @param referenceIndex int index of the reference cell
+	 * @return {@link ExpansionTensor} in units of inverse temperature
+	 */
+	public ExpansionTensor fitExpansionTensor(double[] temperatures, int referenceIndex) {
+		return new ExpansionTensor(fitSlopes(temperatures, referenceIndex, 1));
+	}
+
+	/**
+	 * Fit the linear compressibility tensor, -de/dP, across the whole series.
+	 *
+	 * @param pressures double[] one value per cell
+	 * @param referenceIndex int index of the reference cell
+	 * @return {@link ExpansionTensor} in units of inverse pressure
+	 */
+	public ExpansionTensor fitCompressibilityTensor(double[] pressures, int referenceIndex) {
+		return new ExpansionTensor(fitSlopes(pressures, referenceIndex, -1));
+	}
+
+	private double[] fitSlopes(double[] x, int referenceIndex, double sign) {
+		if (x.length != size) {
+			throw new IllegalArgumentException("Expected "+size+" independent variable values, got "+x.length);
+		}
+		if (size < 2) {
+			throw new IllegalArgumentException("At least two cells are needed to fit a tensor");
+		}
+		double[] strains = new double[6 * size];
+		calculateStrains(referenceIndex, strains);
+
+		double xMean = 0;
+		for (int i = 0; i < size; i++) {
+			xMean += x[i];
+		}
+		xMean /= size;
+
+		//Least-squares slope of each component: sum(dx.e) / sum(dx^2)
+		double sxx = 0;
+		double[] sxe = new double[6];
+		for (int i = 0; i < size; i++) {
+			double dx = x[i] - xMean;
+			sxx += dx * dx;
+			for (int k = 0; k < 6; k++) {
+				sxe[k] += dx * strains[6 * i + k];
+			}
+		}
+		if (sxx == 0) {
+			throw new IllegalArgumentException("Independent variable does not vary across the series");
+		}
+		for (int k = 0; k < 6; k++) {
+			sxe[k] = sign * sxe[k] / sxx;
+		}
+		return sxe;
+	}
+
+}
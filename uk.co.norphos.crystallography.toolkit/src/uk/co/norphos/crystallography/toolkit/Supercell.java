@@ -0,0 +1,438 @@
+package uk.co.norphos.crystallography.toolkit;
+
+import org.apache.commons.math3.linear.RealMatrix;
+
+import uk.co.norphos.crystallography.api.Lattice;
+import uk.co.norphos.crystallography.api.MillerIndex;
+
+/**
+ * A lazy view of an na x nb x nc supercell of a set of base sites, or of a
+ * slab cut parallel to a lattice plane.
+ *
+ * Sites of the supercell are never materialised. Instead each virtual site
+ * index is mapped on demand to an image (lattice translation) and a base
+ * site: index = image * numberOfBaseSites + baseSite, with
+ * image = (ia * nb + ib) * nc + ic. Coordinates and distances are calculated
+ * through the metric of the parent {@link UnitCell}, so memory use depends
+ * only on the number of base sites.
+ *
+ * A slab is a supercell of a transformed parent cell whose first two axes
+ * lie in the chosen (hkl) plane; it is periodic in-plane only, so minimum
+ * image distances ignore translations along the stacking direction.
+ *
+ * @author Michael Wharmby
+ *
+ */
+public class Supercell {
+
+	private final UnitCell parent;
+	private final double[] baseSites;
+	private final int nBase, na, nb, nc;
+	private final boolean periodicC;
+	private final double g00, g11, g22, g01, g02, g12;
+	private final double[] ortho = new double[9];
+
+	/**
+	 * Construct a supercell view which is periodic in all three directions.
+	 *
+	 * @param parent {@link UnitCell} whose metric is used
+	 * @param baseSites double[] packed fractional coordinates of base sites
+	 *        (not copied)
+	 * @param na int repeats along a
+	 * @param nb int repeats along b
+	 * @param nc int repeats along c
+	 */
+	public Supercell(UnitCell parent, double[] baseSites, int na, int nb, int nc) {
+		this(parent, baseSites, na, nb, nc, true);
+	}
+
+	private Supercell(UnitCell parent, double[] baseSites, int na, int nb, int nc, boolean periodicC) {
+		if (na < 1 || nb < 1 || nc < 1) {
+			throw new IllegalArgumentException("Supercell repeats must be positive");
+		}
+		if (baseSites.length % 3 != 0) {
+			throw new IllegalArgumentException("Base sites must be packed x,y,z triples");
+		}
+		this.parent = parent;
+		this.baseSites = baseSites;
+		this.nBase = baseSites.length / 3;
+		this.na = na;
+		this.nb = nb;
+		this.nc = nc;
+		this.periodicC = periodicC;
+
+		RealMatrix g = parent.getMetricTensor();
+		g00 = g.getEntry(0, 0);
+		g11 = g.getEntry(1, 1);
+		g22 = g.getEntry(2, 2);
+		g01 = 2 * g.getEntry(0, 1);
+		g02 = 2 * g.getEntry(0, 2);
+		g12 = 2 * g.getEntry(1, 2);
+		RealMatrix m = parent.getOrthogonalizationMatrix();
+		for (int i = 0; i < 3; i++) {
+			for (int j = 0; j < 3; j++) {
+				ortho[3 * i + j] = m.getEntry(i, j);
+			}
+		}
+	}
+
+	/**
+	 * Construct a supercell view of all the sites of a {@link Crystal}.
+	 *
+	 * @param crystal {@link Crystal}
+	 * @param na int repeats along a
+	 * @param nb int repeats along b
+	 * @param nc int repeats along c
+	 * @return {@link Supercell}
+	 */
+	public static Supercell fromCrystal(Crystal crystal, int na, int nb, int nc) {
+		return new Supercell(crystal.getUnitCell(), crystal.getFractionalCoordinates(), na, nb, nc);
+	}
+
+	/**
+	 * Construct a slab view parallel to the (hkl) plane. The parent cell is
+	 * transformed by a unimodular integer matrix so that its first two axes
+	 * span the plane and the third is the shortest lattice translation
+	 * between adjacent planes; base sites are transformed into the new cell
+	 * and wrapped into [0,1).
+	 *
+	 * @param cell {@link UnitCell} of the bulk structure
+	 * @param baseSites double[] packed fractional coordinates in cell
+	 * @param hkl {@link MillerIndex} with integer components
+	 * @param n1 int in-plane repeats along the first surface axis
+	 * @param n2 int in-plane repeats along the second surface axis
+	 * @param layers int number of repeats along the stacking direction
+	 * @return {@link Supercell} periodic only in-plane
+	 */
+	public static Supercell slab(UnitCell cell, double[] baseSites, MillerIndex hkl, int n1, int n2, int layers) {
+		int[] basis = surfaceBasis(cell, (int)Math.round(hkl.getX()), (int)Math.round(hkl.getY()), (int)Math.round(hkl.getZ()));
+		double[] transform = new double[9], inverse = new double[9];
+		for (int i = 0; i < 9; i++) {
+			transform[i] = basis[i];
+		}
+		Matrix3.invert(transform, inverse);
+
+		//New metric tensor G' = P.G.P^T
+		RealMatrix g = cell.getMetricTensor();
+		double[] metric = new double[9], tmp = new double[9], transformT = new double[9], newMetric = new double[9];
+		for (int i = 0; i < 3; i++) {
+			for (int j = 0; j < 3; j++) {
+				metric[3 * i + j] = g.getEntry(i, j);
+			}
+		}
+		Matrix3.transpose(transform, transformT);
+		Matrix3.multiply(transform, metric, tmp);
+		Matrix3.multiply(tmp, transformT, newMetric);
+		double a = Math.sqrt(newMetric[0]), b = Math.sqrt(newMetric[4]), c = Math.sqrt(newMetric[8]);
+		Lattice slabLattice = new Lattice(a, b, c,
+				Math.toDegrees(Math.acos(newMetric[5] / (b * c))),
+				Math.toDegrees(Math.acos(newMetric[2] / (a * c))),
+				Math.toDegrees(Math.acos(newMetric[1] / (a * b))));
+
+		//Site coordinates transform as x' = x.P^-1
+		double[] slabSites = new double[baseSites.length];
+		for (int i = 0; i + 2 < baseSites.length; i += 3) {
+			for (int j = 0; j < 3; j++) {
+				double val = baseSites[i] * inverse[j] + baseSites[i + 1] * inverse[3 + j] + baseSites[i + 2] * inverse[6 + j];
+				slabSites[i + j] = val - Math.floor(val + 1e-10);
+			}
+		}
+		return new Supercell(new UnitCell(slabLattice), slabSites, n1, n2, layers, false);
+	}
+
+	/**
+	 * Find a unimodular integer basis (rows, in terms of the original axes)
+	 * whose first two vectors lie in the (hkl) plane. Follows the algorithm
+	 * of Sun &amp; Ceder, Surf. Sci. 617 (2013) 53 (as used in ASE), choosing
+	 * the most orthogonal in-plane pair.
+	 */
+	static int[] surfaceBasis(UnitCell cell, int h, int k, int l) {
+		if (h == 0 && k == 0 && l == 0) {
+			throw new IllegalArgumentException("(000) does not define a lattice plane");
+		}
+		int[] c1, c2, c3;
+		boolean h0 = h == 0, k0 = k == 0, l0 = l == 0;
+		if ((h0 && k0) || (h0 && l0) || (k0 && l0)) {
+			if (!h0) {
+				c1 = new int[]{0, 1, 0}; c2 = new int[]{0, 0, 1}; c3 = new int[]{1, 0, 0};
+			} else if (!k0) {
+				c1 = new int[]{0, 0, 1}; c2 = new int[]{1, 0, 0}; c3 = new int[]{0, 1, 0};
+			} else {
+				c1 = new int[]{1, 0, 0}; c2 = new int[]{0, 1, 0}; c3 = new int[]{0, 0, 1};
+			}
+		} else {
+			long[] pq = extendedGcd(k, l);
+			long p = pq[0], q = pq[1];
+			//Dot product of candidate in-plane vectors is k1 + i.k2; minimise it
+			double[] v1 = new double[]{p * k + q * l, -p * h, -q * h};
+			double[] v2 = new double[]{l * k - k * l, -l * h, k * h};
+			double[] v3 = new double[]{0, l, -k};
+			double k1 = latticeDot(cell, v1, v3);
+			double k2 = latticeDot(cell, v2, v3);
+			if (Math.abs(k2) > 1e-10) {
+				long i = -Math.round(k1 / k2);
+				p = p + i * l;
+				q = q - i * k;
+			}
+			long[] ab = extendedGcd(p * k + q * l, h);
+			int gcdLK = (int)Math.abs(gcd(l, k));
+			c1 = new int[]{(int)(p * k + q * l), (int)(-p * h), (int)(-q * h)};
+			c2 = new int[]{0, l / gcdLK, -k / gcdLK};
+			c3 = new int[]{(int)ab[1], (int)(ab[0] * p), (int)(ab[0] * q)};
+		}
+		int[] basis = new int[]{c1[0], c1[1], c1[2], c2[0], c2[1], c2[2], c3[0], c3[1], c3[2]};
+		//Keep the new cell right-handed
+		int det = basis[0] * (basis[4] * basis[8] - basis[5] * basis[7])
+				- basis[1] * (basis[3] * basis[8] - basis[5] * basis[6])
+				+ basis[2] * (basis[3] * basis[7] - basis[4] * basis[6]);
+		if (det < 0) {
+			basis[0] = -basis[0]; basis[1] = -basis[1]; basis[2] = -basis[2];
+		}
+		return basis;
+	}
+
+	private static double latticeDot(UnitCell cell, double[] u, double[] v) {
+		RealMatrix g = cell.getMetricTensor();
+		double sum = 0;
+		for (int i = 0; i < 3; i++) {
+			for (int j = 0; j < 3; j++) {
+				sum += u[i] * g.getEntry(i, j) * v[j];
+			}
+		}
+		return sum;
+	}
+
+	/*
+	 * Returns x, y with a.x + b.y = gcd(a, b), using floored division to
+	 * match the reference implementation.
+	 */
+	private static long[] extendedGcd(long a, long b) {
+		if (b == 0) {
+			return new long[]{1, 0};
+		} else if (Math.floorMod(a, b) == 0) {
+			return new long[]{0, 1};
+		}
+		long[] xy = extendedGcd(b, Math.floorMod(a, b));
+		return new long[]{xy[1], xy[0] - xy[1] * Math.floorDiv(a, b)};
+	}
+
+	private static long gcd(long a, long b) {
+		while (b != 0) {
+			long t = Math.floorMod(a, b);
+			a = b;
+			b = t;
+		}
+		return a;
+	}
+
+	/**
+	 * Return the cell providing the metric for this view (for a slab, this
+	 * is the transformed cell).
+	 * @return {@link UnitCell}
+	 */
+	public UnitCell getParentCell() {
+		return parent;
+	}
+
+	/**
+	 * Return the lattice of the whole supercell.
+	 * @return {@link Lattice}
+	 */
+	public Lattice getSupercellLattice() {
+		Lattice lattice = parent.getLattice();
+		return new Lattice(na * lattice.getA(), nb * lattice.getB(), nc * lattice.getC(),
+				lattice.getAl(), lattice.getBe(), lattice.getGa());
+	}
+
+	/**
+	 * Return the repeats of the parent cell along a, b and c.
+	 * @return int[3]
+	 */
+	public int[] getRepeats() {
+		return new int[]{na, nb, nc};
+	}
+
+	/**
+	 * Return whether the view is periodic along the third axis (false for
+	 * slabs).
+	 * @return boolean
+	 */
+	public boolean isPeriodicAlongC() {
+		return periodicC;
+	}
+
+	/**
+	 * Return number of base sites in each image of the parent cell.
+	 * @return int
+	 */
+	public int getNumberOfBaseSites() {
+		return nBase;
+	}
+
+	/**
+	 * Return the total number of virtual sites in this view.
+	 * @return long
+	 */
+	public long getNumberOfSites() {
+		return (long)nBase * na * nb * nc;
+	}
+
+	/**
+	 * Return index of the base site a virtual site is an image of.
+	 * @param site long virtual site index
+	 * @return int base site index
+	 */
+	public int getBaseSiteIndex(long site) {
+		checkIndex(site);
+		return (int)(site % nBase);
+	}
+
+	/**
+	 * Return index of the image (lattice translation) containing a virtual
+	 * site.
+	 * @param site long virtual site index
+	 * @return long image index
+	 */
+	public long getImageIndex(long site) {
+		checkIndex(site);
+		return site / nBase;
+	}
+
+	/**
+	 * Write the lattice translation (in units of the parent cell) of the
+	 * image containing a virtual site into dest.
+	 * @param site long virtual site index
+	 * @param dest int[3]
+	 */
+	public void getTranslation(long site, int[] dest) {
+		long image = getImageIndex(site);
+		dest[2] = (int)(image % nc);
+		image /= nc;
+		dest[1] = (int)(image % nb);
+		dest[0] = (int)(image / nb);
+	}
+
+	/**
+	 * Write the coordinates of a virtual site, in fractional coordinates of
+	 * the parent cell, into dest at offset.
+	 * @param site long virtual site index
+	 * @param dest double[]
+	 * @param offset int
+	 */
+	public void getFractionalCoordinates(long site, double[] dest, int offset) {
+		checkIndex(site);
+		int base = (int)(site % nBase);
+		long image = site / nBase;
+		int ic = (int)(image % nc);
+		image /= nc;
+		int ib = (int)(image % nb);
+		int ia = (int)(image / nb);
+		dest[offset]     = baseSites[3 * base] + ia;
+		dest[offset + 1] = baseSites[3 * base + 1] + ib;
+		dest[offset + 2] = baseSites[3 * base + 2] + ic;
+	}
+
+	/**
+	 * Fill dest with the parent-cell fractional coordinates of a contiguous
+	 * block of virtual sites, allowing the supercell to be streamed in
+	 * blocks without materialising it.
+	 *
+	 * @param firstSite long index of first virtual site
+	 * @param count int number of sites
+	 * @param dest double[] of at least 3 * count
+	 */
+	public void getFractionalCoordinates(long firstSite, int count, double[] dest) {
+		for (int i = 0; i < count; i++) {
+			getFractionalCoordinates(firstSite + i, dest, 3 * i);
+		}
+	}
+
+	/**
+	 * Write the Cartesian coordinates of a virtual site into dest at offset.
+	 * @param site long virtual site index
+	 * @param dest double[]
+	 * @param offset int
+	 */
+	public void getCartesianCoordinates(long site, double[] dest, int offset) {
+		getFractionalCoordinates(site, dest, offset);
+		double x = dest[offset], y = dest[offset + 1], z = dest[offset + 2];
+		dest[offset]     = ortho[0] * x + ortho[1] * y + ortho[2] * z;
+		dest[offset + 1] = ortho[3] * x + ortho[4] * y + ortho[5] * z;
+		dest[offset + 2] = ortho[6] * x + ortho[7] * y + ortho[8] * z;
+	}
+
+	/**
+	 * Calculate the direct distance between two virtual sites (no periodic
+	 * boundary conditions).
+	 * @param site1 long virtual site index
+	 * @param site2 long virtual site index
+	 * @return double distance in Angstroms
+	 */
+	public double calculateDistance(long site1, long site2) {
+		checkIndex(site1);
+		checkIndex(site2);
+		return Math.sqrt(quadraticForm(delta(site1, site2, 0), delta(site1, site2, 1), delta(site1, site2, 2)));
+	}
+
+	/**
+	 * Calculate the shortest distance between two virtual sites under the
+	 * periodic boundary conditions of the supercell (in-plane only for
+	 * slabs). Neighbouring images are searched so that the result is correct
+	 * for oblique cells.
+	 *
+	 * @param site1 long virtual site index
+	 * @param site2 long virtual site index
+	 * @return double distance in Angstroms
+	 */
+	public double calculateMinimumImageDistance(long site1, long site2) {
+		checkIndex(site1);
+		checkIndex(site2);
+		double dx = wrap(delta(site1, site2, 0), na);
+		double dy = wrap(delta(site1, site2, 1), nb);
+		double dz = periodicC ? wrap(delta(site1, site2, 2), nc) : delta(site1, site2, 2);
+		int cRange = periodicC ? 1 : 0;
+
+		double best = Double.MAX_VALUE;
+		for (int i = -1; i <= 1; i++) {
+			for (int j = -1; j <= 1; j++) {
+				for (int k = -cRange; k <= cRange; k++) {
+					double d2 = quadraticForm(dx + i * na, dy + j * nb, dz + k * nc);
+					if (d2 < best) best = d2;
+				}
+			}
+		}
+		return Math.sqrt(best);
+	}
+
+	/*
+	 * Component along one axis of the parent-cell fractional vector from
+	 * site1 to site2, without allocating.
+	 */
+	private double delta(long site1, long site2, int axis) {
+		return coordinate(site2, axis) - coordinate(site1, axis);
+	}
+
+	private double coordinate(long site, int axis) {
+		long image = site / nBase;
+		int translation;
+		if (axis == 2) translation = (int)(image % nc);
+		else if (axis == 1) translation = (int)(image / nc % nb);
+		else translation = (int)(image / nc / nb);
+		return baseSites[3 * (int)(site % nBase) + axis] + translation;
+	}
+
+	private static double wrap(double delta, int repeats) {
+		return delta - repeats * Math.rint(delta / repeats);
+	}
+
+	private double quadraticForm(double x, double y, double z) {
+		return g00 * x * x + g11 * y * y + g22 * z * z + g01 * x * y + g02 * x * z + g12 * y * z;
+	}
+
+	private void checkIndex(long site) {
+		if (site < 0 || site >= getNumberOfSites()) {
+			throw new IndexOutOfBoundsException("Site "+site+" is outside supercell of "+getNumberOfSites()+" sites");
+		}
+	}
+
+}
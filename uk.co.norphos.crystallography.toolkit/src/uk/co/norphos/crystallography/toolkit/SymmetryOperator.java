@@ -0,0 +1,233 @@
+package uk.co.norphos.crystallography.toolkit;
+
+import java.util.Arrays;
+
+/**
+ * A crystallographic symmetry operation x' = W.x + w in fractional
+ * coordinates, with an integer rotation part W (row-major int[9]) and a
+ * translation w reduced to [0, 1). Operators are read and written in the
+ * coordinate triplet form of CIF _symmetry_equiv_pos_as_xyz, e.g.
+ * "-x+1/2, y, -z+1/2" or "x-y, x, z+1/6".
+ *
+ * @author Michael Wharmby
+ *
+ */
+public final class SymmetryOperator {
+
+	private final int[] rotation;
+	private final double[] translation;
+
+	private SymmetryOperator(int[] rotation, double[] translation) {
+		this.rotation = rotation;
+		this.translation = translation;
+		for (int i = 0; i < 3; i++) {
+			translation[i] -= Math.floor(translation[i]);
+			//Values within rounding of 1 are 0
+			if (translation[i] > 1 - 1e-9) translation[i] = 0;
+		}
+	}
+
+	/**
+	 * Parse an operator from its coordinate triplet.
+	 * @param xyz String e.g. "-y, x-y, z+1/3"
+	 * @return SymmetryOperator
+	 * @throws IllegalArgumentException if the triplet cannot be parsed or
+	 *         has a non-integer rotation part
+	 */
+	public static SymmetryOperator parse(String xyz) {
+		double[] affine = parseTriplet(xyz);
+		int[] rotation = new int[9];
+		for (int i = 0; i < 9; i++) {
+			rotation[i] = (int)Math.rint(affine[i]);
+			if (rotation[i] != affine[i]) {
+				throw new IllegalArgumentException("Non-integer rotation in symmetry operator '"+xyz+"'");
+			}
+		}
+		if (Math.abs(Matrix3.determinant(affine)) != 1) {
+			throw new IllegalArgumentException("Symmetry operator '"+xyz+"' is not an isometry");
+		}
+		return new SymmetryOperator(rotation, Arrays.copyOfRange(affine, 9, 12));
+	}
+
+	/*
+	 * Parse a triplet of affine expressions in x, y and z, e.g. "x, 2x, 1/4"
+	 * or "-x+1/2, y, -z", into double[12]: the row-major 3x3 coefficients
+	 * followed by the three constants.
+	 */
+	static double[] parseTriplet(String xyz) {
+		String triplet = xyz.trim();
+		if (triplet.length() > 1 && (triplet.charAt(0) == '\'' || triplet.charAt(0) == '"')
+				&& triplet.charAt(triplet.length() - 1) == triplet.charAt(0)) {
+			triplet = triplet.substring(1, triplet.length() - 1);
+		}
+		String[] parts = triplet.split(",", -1);
+		if (parts.length != 3) {
+			throw new IllegalArgumentException("Expected three comma separated expressions in '"+xyz+"'");
+		}
+		double[] affine = new double[12];
+		for (int row = 0; row < 3; row++) {
+			parseExpression(parts[row], xyz, affine, row);
+		}
+		return affine;
+	}
+
+	private static void parseExpression(String expression, String xyz, double[] affine, int row) {
+		int i = 0, n = expression.length();
+		boolean empty = true;
+		while (true) {
+			while (i < n && Character.isWhitespace(expression.charAt(i))) i++;
+			if (i == n) break;
+			double sign = 1;
+			char ch = expression.charAt(i);
+			if (ch == '+' || ch == '-') {
+				sign = ch == '-' ? -1 : 1;
+				i++;
+				while (i < n && Character.isWhitespace(expression.charAt(i))) i++;
+			} else if (!empty) {
+				throw new IllegalArgumentException("Expected + or - at '"+expression.substring(i)+"' in '"+xyz+"'");
+			}
+
+			//Optional number (integer, decimal or fraction), then an optional variable
+			int start = i;
+			while (i < n && (Character.isDigit(expression.charAt(i)) || expression.charAt(i) == '.')) i++;
+			double value = 1;
+			boolean hasNumber = i > start;
+			if (hasNumber) {
+				try {
+					value = Double.parseDouble(expression.substring(start, i));
+					if (i < n && expression.charAt(i) == '/') {
+						int denominator = ++i;
+						while (i < n && Character.isDigit(expression.charAt(i))) i++;
+						value /= Integer.parseInt(expression.substring(denominator, i));
+					}
+				} catch (NumberFormatException e) {
+					throw new IllegalArgumentException("Bad number in '"+xyz+"'", e);
+				}
+				while (i < n && (Character.isWhitespace(expression.charAt(i)) || expression.charAt(i) == '*')) i++;
+			}
+			int axis = i < n ? "xyz".indexOf(Character.toLowerCase(expression.charAt(i))) : -1;
+			if (axis >= 0) {
+				affine[3 * row + axis] += sign * value;
+				i++;
+			} else if (hasNumber) {
+				affine[9 + row] += sign * value;
+			} else {
+				throw new IllegalArgumentException("Expected a number or x, y or z in '"+xyz+"'");
+			}
+			empty = false;
+		}
+		if (empty) throw new IllegalArgumentException("Empty expression in '"+xyz+"'");
+	}
+
+	/**
+	 * Return the operator applying this one after another, i.e. this.other.
+	 * @param other SymmetryOperator
+	 * @return SymmetryOperator with the translation reduced to [0, 1)
+	 */
+	public SymmetryOperator multiply(SymmetryOperator other) {
+		int[] rot = new int[9];
+		double[] trans = new double[3];
+		for (int i = 0; i < 3; i++) {
+			for (int j = 0; j < 3; j++) {
+				for (int k = 0; k < 3; k++) {
+					rot[3 * i + j] += rotation[3 * i + k] * other.rotation[3 * k + j];
+				}
+				trans[i] += rotation[3 * i + j] * other.translation[j];
+			}
+			trans[i] += translation[i];
+		}
+		return new SymmetryOperator(rot, trans);
+	}
+
+	/**
+	 * Apply the operator to packed fractional coordinates. Input and
+	 * output may be the same array.
+	 *
+	 * @param frac double[] packed x,y,z triples
+	 * @param dest double[] to receive the transformed triples
+	 */
+	public void apply(double[] frac, double[] dest) {
+		int[] r = rotation;
+		for (int i = 0; i + 2 < frac.length; i += 3) {
+			double x = frac[i], y = frac[i + 1], z = frac[i + 2];
+			dest[i]     = r[0] * x + r[1] * y + r[2] * z + translation[0];
+			dest[i + 1] = r[3] * x + r[4] * y + r[5] * z + translation[1];
+			dest[i + 2] = r[6] * x + r[7] * y + r[8] * z + translation[2];
+		}
+	}
+
+	/**
+	 * Return the rotation part.
+	 * @return int[9] row-major
+	 */
+	public int[] getRotation() {
+		return rotation.clone();
+	}
+
+	/**
+	 * Return the translation part.
+	 * @return double[3] each in [0, 1)
+	 */
+	public double[] getTranslation() {
+		return translation.clone();
+	}
+
+	/**
+	 * Test whether this is the identity, x,y,z.
+	 * @return boolean
+	 */
+	public boolean isIdentity() {
+		return Arrays.equals(rotation, new int[]{1, 0, 0, 0, 1, 0, 0, 0, 1})
+				&& translation[0] == 0 && translation[1] == 0 && translation[2] == 0;
+	}
+
+	@Override
+	public int hashCode() {
+		//Translations are compared within rounding, so are left out
+		return Arrays.hashCode(rotation);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) return true;
+		if (!(obj instanceof SymmetryOperator)) return false;
+		SymmetryOperator other = (SymmetryOperator) obj;
+		if (!Arrays.equals(rotation, other.rotation)) return false;
+		for (int i = 0; i < 3; i++) {
+			if (Math.abs(translation[i] - other.translation[i]) > 1e-9) return false;
+		}
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (int row = 0; row < 3; row++) {
+			if (row > 0) sb.append(',');
+			int length = sb.length();
+			for (int axis = 0; axis < 3; axis++) {
+				int w = rotation[3 * row + axis];
+				if (w == 0) continue;
+				if (w < 0) sb.append('-');
+				else if (sb.length() > length) sb.append('+');
+				if (Math.abs(w) != 1) sb.append(Math.abs(w));
+				sb.append("xyz".charAt(axis));
+			}
+			if (translation[row] != 0) {
+				sb.append(sb.length() > length ? "+" : "").append(fraction(translation[row]));
+			} else if (sb.length() == length) {
+				sb.append('0');
+			}
+		}
+		return sb.toString();
+	}
+
+	private static String fraction(double value) {
+		for (int denominator : new int[]{2, 3, 4, 6, 8, 12}) {
+			double numerator = value * denominator;
+			if (Math.abs(numerator - Math.rint(numerator)) < 1e-9) return (int)Math.rint(numerator)+"/"+denominator;
+		}
+		return Double.toString(value);
+	}
+
+}
@@ -0,0 +1,313 @@
+package uk.co.norphos.crystallography.toolkit;
+
+import uk.co.norphos.crystallography.api.Lattice;
+import uk.co.norphos.crystallography.api.UncertainLattice;
+
+/**
+ * Propagates the uncertainties of lattice parameters (and, for distances,
+ * of fractional coordinates) to derived quantities by first-order error
+ * propagation, sigma_f^2 = J.C.J^T, with the Jacobian J calculated
+ * analytically from the metric tensor derivatives of {@link CellWorkspace}.
+ * <br>
+ * Lengths and d-spacings are quadratic forms in the metric tensors, so for
+ * these the whole of J.C.J^T is folded into one 6x6 matrix K in the
+ * monomials of the vector components on construction. The variance of
+ * each bond length or d-spacing then costs one further 6x6 quadratic form
+ * on top of the value itself, without forming J at all.
+ * <br>
+ * Instances are immutable once constructed and safe to share between
+ * threads. All bulk methods are allocation-free; vectors are packed as
+ * x,y,z (or h,k,l) triples.
+ *
+ * @author Michael Wharmby
+ *
+ */
+public final class UncertaintyPropagator {
+
+	private final Lattice lattice;
+	//Covariance of a, b, c, alpha, beta, gamma with angles in radians
+	private final double[] covariance = new double[36];
+	//Packed metric tensors {11, 22, 33, 12, 13, 23}
+	private final double[] g = new double[6], gStar = new double[6];
+	//Packed dG/dp for each parameter (row p)
+	private final double[] dG = new double[36];
+	//K = D^T.C.D for the real and reciprocal metric tensors
+	private final double[] k = new double[36], kStar = new double[36];
+	private final double volume, volumeSu;
+
+	/**
+	 * Construct a propagator for a lattice whose parameters are
+	 * uncorrelated.
+	 * @param lattice {@link UncertainLattice}
+	 */
+	public UncertaintyPropagator(UncertainLattice lattice) {
+		this(lattice, diagonal(lattice.getSus()));
+	}
+
+	/**
+	 * Construct a propagator for a lattice with a full covariance matrix,
+	 * e.g. from a least-squares refinement.
+	 *
+	 * @param lattice {@link Lattice}
+	 * @param covariance double[36] row-major covariance of a, b, c (in
+	 *        Angstroms), alpha, beta, gamma (in degrees)
+	 */
+	public UncertaintyPropagator(Lattice lattice, double[] covariance) {
+		if (covariance.length != 36) {
+			throw new IllegalArgumentException("Covariance matrix must have 36 elements");
+		}
+		this.lattice = lattice;
+		double toRad = Math.PI / 180;
+		for (int p = 0; p < 6; p++) {
+			for (int q = 0; q < 6; q++) {
+				double scale = (p > 2 ? toRad : 1) * (q > 2 ? toRad : 1);
+				this.covariance[6 * p + q] = covariance[6 * p + q] * scale;
+			}
+		}
+
+		CellWorkspace ws = new CellWorkspace(lattice);
+		double[] mat = new double[9];
+		ws.copyMetricTensor(mat);
+		pack(mat, g, 0);
+		ws.copyReciprocalMetricTensor(mat);
+		pack(mat, gStar, 0);
+		double[] dGStar = new double[36], dV = new double[6];
+		for (int p = 0; p < 6; p++) {
+			ws.getMetricTensorDerivative(p, mat);
+			pack(mat, dG, 6 * p);
+			ws.getReciprocalMetricTensorDerivative(p, mat);
+			pack(mat, dGStar, 6 * p);
+			dV[p] = ws.getVolumeDerivative(p);
+		}
+		foldCovariance(dG, k);
+		foldCovariance(dGStar, kStar);
+		volume = ws.getVolume();
+		volumeSu = Math.sqrt(quadratic(this.covariance, dV));
+	}
+
+	private static double[] diagonal(double[] sus) {
+		double[] cov = new double[36];
+		for (int p = 0; p < 6; p++) {
+			cov[7 * p] = sus[p] * sus[p];
+		}
+		return cov;
+	}
+
+	private static void pack(double[] mat, double[] dest, int offset) {
+		dest[offset] = mat[0];
+		dest[offset + 1] = mat[4];
+		dest[offset + 2] = mat[8];
+		dest[offset + 3] = mat[1];
+		dest[offset + 4] = mat[2];
+		dest[offset + 5] = mat[5];
+	}
+
+	/*
+	 * K[k][l] = sum_pq D[p][k] C[p][q] D[q][l]
+	 */
+	private void foldCovariance(double[] d, double[] dest) {
+		double[] cd = new double[36];
+		for (int p = 0; p < 6; p++) {
+			for (int l = 0; l < 6; l++) {
+				double sum = 0;
+				for (int q = 0; q < 6; q++) {
+					sum += covariance[6 * p + q] * d[6 * q + l];
+				}
+				cd[6 * p + l] = sum;
+			}
+		}
+		for (int kk = 0; kk < 6; kk++) {
+			for (int l = 0; l < 6; l++) {
+				double sum = 0;
+				for (int p = 0; p < 6; p++) {
+					sum += d[6 * p + kk] * cd[6 * p + l];
+				}
+				dest[6 * kk + l] = sum;
+			}
+		}
+	}
+
+	/*
+	 * v^T.M.v for a 6x6 M
+	 */
+	private static double quadratic(double[] m, double[] v) {
+		double sum = 0;
+		for (int i = 0; i < 6; i++) {
+			double row = 0;
+			for (int j = 0; j < 6; j++) {
+				row += m[6 * i + j] * v[j];
+			}
+			sum += v[i] * row;
+		}
+		return sum;
+	}
+
+	private static double quadratic(double[] m, double m0, double m1, double m2, double m3, double m4, double m5) {
+		return m0 * (m[0] * m0 + m[1] * m1 + m[2] * m2 + m[3] * m3 + m[4] * m4 + m[5] * m5)
+				+ m1 * (m[6] * m0 + m[7] * m1 + m[8] * m2 + m[9] * m3 + m[10] * m4 + m[11] * m5)
+				+ m2 * (m[12] * m0 + m[13] * m1 + m[14] * m2 + m[15] * m3 + m[16] * m4 + m[17] * m5)
+				+ m3 * (m[18] * m0 + m[19] * m1 + m[20] * m2 + m[21] * m3 + m[22] * m4 + m[23] * m5)
+				+ m4 * (m[24] * m0 + m[25] * m1 + m[26] * m2 + m[27] * m3 + m[28] * m4 + m[29] * m5)
+				+ m5 * (m[30] * m0 + m[31] * m1 + m[32] * m2 + m[33] * m3 + m[34] * m4 + m[35] * m5);
+	}
+
+	public Lattice getLattice() {
+		return lattice;
+	}
+
+	/**
+	 * Return the cell volume.
+	 * @return double in Angstroms^3
+	 */
+	public double getVolume() {
+		return volume;
+	}
+
+	/**
+	 * Return the s.u. of the cell volume.
+	 * @return double in Angstroms^3
+	 */
+	public double getVolumeSu() {
+		return volumeSu;
+	}
+
+	/**
+	 * Calculate the s.u. of the d-spacing of a set of lattice planes.
+	 *
+	 * @param h double Miller index
+	 * @param k double Miller index
+	 * @param l double Miller index
+	 * @return double in Angstroms
+	 */
+	public double calculateDSpacingSu(double h, double k, double l) {
+		double[] hkl = {h, k, l}, d = new double[1], su = new double[1];
+		calculateDSpacings(hkl, d, su);
+		return su[0];
+	}
+
+	/**
+	 * Calculate the d-spacings of many sets of lattice planes and their
+	 * s.u.s. Since d = (h^T.G*.h)^-1/2, dd/dp = -d^3/2 . h^T.(dG* /dp).h.
+	 *
+	 * @param hkl double[] packed Miller indices
+	 * @param dSpacings double[] to receive d-spacings in Angstroms
+	 * @param sus double[] to receive s.u.s in Angstroms
+	 */
+	public void calculateDSpacings(double[] hkl, double[] dSpacings, double[] sus) {
+		for (int i = 0, n = 0; i + 2 < hkl.length; i += 3, n++) {
+			double h = hkl[i], k = hkl[i + 1], l = hkl[i + 2];
+			double hh = h * h, kk = k * k, ll = l * l, hk = 2 * h * k, hl = 2 * h * l, kl = 2 * k * l;
+			double q = gStar[0] * hh + gStar[1] * kk + gStar[2] * ll + gStar[3] * hk + gStar[4] * hl + gStar[5] * kl;
+			double d = 1 / Math.sqrt(q);
+			double d3 = d * d * d;
+			dSpacings[n] = d;
+			sus[n] = 0.5 * d3 * Math.sqrt(Math.max(0, quadratic(kStar, hh, kk, ll, hk, hl, kl)));
+		}
+	}
+
+	/**
+	 * Calculate the distances between many pairs of sites and their s.u.s
+	 * arising from the lattice parameter uncertainties alone.
+	 *
+	 * @param fracCoords1 double[] packed fractional coordinates
+	 * @param fracCoords2 double[] packed fractional coordinates
+	 * @param distances double[] to receive distances in Angstroms
+	 * @param sus double[] to receive s.u.s in Angstroms
+	 */
+	public void calculateDistances(double[] fracCoords1, double[] fracCoords2, double[] distances, double[] sus) {
+		calculateDistances(fracCoords1, null, fracCoords2, null, distances, sus);
+	}
+
+	/**
+	 * Calculate the distances between many pairs of sites and their s.u.s,
+	 * including the (uncorrelated) s.u.s of the fractional coordinates.
+	 * Since r^2 = dx^T.G.dx, dr/dp = dx^T.(dG/dp).dx / 2r and
+	 * dr/d(dx) = G.dx / r.
+	 *
+	 * @param fracCoords1 double[] packed fractional coordinates
+	 * @param fracSus1 double[] packed s.u.s of fracCoords1, or null if exact
+	 * @param fracCoords2 double[] packed fractional coordinates
+	 * @param fracSus2 double[] packed s.u.s of fracCoords2, or null if exact
+	 * @param distances double[] to receive distances in Angstroms
+	 * @param sus double[] to receive s.u.s in Angstroms
+	 */
+	public void calculateDistances(double[] fracCoords1, double[] fracSus1, double[] fracCoords2, double[] fracSus2,
+			double[] distances, double[] sus) {
+		double g00 = g[0], g11 = g[1], g22 = g[2], g01 = g[3], g02 = g[4], g12 = g[5];
+		for (int i = 0, n = 0; i + 2 < fracCoords1.length; i += 3, n++) {
+			double x = fracCoords2[i] - fracCoords1[i];
+			double y = fracCoords2[i + 1] - fracCoords1[i + 1];
+			double z = fracCoords2[i + 2] - fracCoords1[i + 2];
+			double xx = x * x, yy = y * y, zz = z * z, xy = 2 * x * y, xz = 2 * x * z, yz = 2 * y * z;
+			double r2 = g00 * xx + g11 * yy + g22 * zz + g01 * xy + g02 * xz + g12 * yz;
+			double var = 0.25 * quadratic(k, xx, yy, zz, xy, xz, yz);
+			if (fracSus1 != null || fracSus2 != null) {
+				double gx = g00 * x + g01 * y + g02 * z;
+				double gy = g01 * x + g11 * y + g12 * z;
+				double gz = g02 * x + g12 * y + g22 * z;
+				var += gx * gx * coordinateVariance(fracSus1, fracSus2, i)
+						+ gy * gy * coordinateVariance(fracSus1, fracSus2, i + 1)
+						+ gz * gz * coordinateVariance(fracSus1, fracSus2, i + 2);
+			}
+			double r = Math.sqrt(r2);
+			distances[n] = r;
+			sus[n] = r == 0 ? 0 : Math.sqrt(Math.max(0, var / r2));
+		}
+	}
+
+	private static double coordinateVariance(double[] sus1, double[] sus2, int i) {
+		double var = 0;
+		if (sus1 != null) var += sus1[i] * sus1[i];
+		if (sus2 != null) var += sus2[i] * sus2[i];
+		return var;
+	}
+
+	/**
+	 * Calculate the angles between many triples of sites (at the second site
+	 * of each) and their s.u.s arising from the lattice parameter
+	 * uncertainties.
+	 *
+	 * @param fracCoords1 double[] packed fractional coordinates
+	 * @param fracCoords2 double[] packed fractional coordinates of the vertex
+	 * @param fracCoords3 double[] packed fractional coordinates
+	 * @param angles double[] to receive angles in degrees
+	 * @param sus double[] to receive s.u.s in degrees
+	 */
+	public void calculateAngles(double[] fracCoords1, double[] fracCoords2, double[] fracCoords3,
+			double[] angles, double[] sus) {
+		double[] jac = new double[6];
+		for (int i = 0, n = 0; i + 2 < fracCoords1.length; i += 3, n++) {
+			double ux = fracCoords1[i] - fracCoords2[i];
+			double uy = fracCoords1[i + 1] - fracCoords2[i + 1];
+			double uz = fracCoords1[i + 2] - fracCoords2[i + 2];
+			double vx = fracCoords3[i] - fracCoords2[i];
+			double vy = fracCoords3[i + 1] - fracCoords2[i + 1];
+			double vz = fracCoords3[i + 2] - fracCoords2[i + 2];
+			//Monomials of the quadratic forms u.u, v.v and bilinear form u.v
+			double u0 = ux * ux, u1 = uy * uy, u2 = uz * uz, u3 = 2 * ux * uy, u4 = 2 * ux * uz, u5 = 2 * uy * uz;
+			double v0 = vx * vx, v1 = vy * vy, v2 = vz * vz, v3 = 2 * vx * vy, v4 = 2 * vx * vz, v5 = 2 * vy * vz;
+			double w0 = ux * vx, w1 = uy * vy, w2 = uz * vz;
+			double w3 = ux * vy + uy * vx, w4 = ux * vz + uz * vx, w5 = uy * vz + uz * vy;
+			double uu = dot(g, 0, u0, u1, u2, u3, u4, u5);
+			double vv = dot(g, 0, v0, v1, v2, v3, v4, v5);
+			double uv = dot(g, 0, w0, w1, w2, w3, w4, w5);
+			double norm = Math.sqrt(uu * vv);
+			double cos = Math.max(-1, Math.min(1, uv / norm));
+			double sin = Math.sqrt(1 - cos * cos);
+			for (int p = 0; p < 6; p++) {
+				double dCos = dot(dG, 6 * p, w0, w1, w2, w3, w4, w5) / norm
+						- 0.5 * cos * (dot(dG, 6 * p, u0, u1, u2, u3, u4, u5) / uu
+								+ dot(dG, 6 * p, v0, v1, v2, v3, v4, v5) / vv);
+				jac[p] = sin == 0 ? 0 : -dCos / sin;
+			}
+			angles[n] = Math.toDegrees(Math.acos(cos));
+			sus[n] = Math.toDegrees(Math.sqrt(Math.max(0, quadratic(covariance, jac))));
+		}
+	}
+
+	private static double dot(double[] packed, int offset, double m0, double m1, double m2, double m3, double m4, double m5) {
+		return packed[offset] * m0 + packed[offset + 1] * m1 + packed[offset + 2] * m2
+				+ packed[offset + 3] * m3 + packed[offset + 4] * m4 + packed[offset + 5] * m5;
+	}
+
+}
@@ -2,13 +2,15 @@ package uk.co.norphos.crystallography.toolkit;
 
 import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
 import org.apache.commons.math3.linear.ArrayRealVector;
-import org.apache.commons.math3.linear.LUDecomposition;
 import org.apache.commons.math3.linear.MatrixUtils;
 import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.linear.RealVector;
 
 import uk.co.norphos.crystallography.api.IUnitCell;
 import uk.co.norphos.crystallography.api.Lattice;
+import uk.co.norphos.crystallography.toolkit.metrics.Counter;
+import uk.co.norphos.crystallography.toolkit.metrics.Metrics;
+import uk.co.norphos.crystallography.toolkit.metrics.Timer;
 
 /**
  * FIXME
@@ -17,41 +19,29 @@ import uk.co.norphos.crystallography.api.Lattice;
  */
 public class UnitCell implements IUnitCell {
 	
+	private static final Timer CONSTRUCT_TIMER = Metrics.timer("unitcell.construct");
+	private static final Counter RECIPROCAL_COUNTER = Metrics.counter("unitcell.reciprocal");
+	private static final Timer LENGTH_TIMER = Metrics.timer("unitcell.length");
+	private static final Timer ANGLE_TIMER = Metrics.timer("unitcell.angle");
+	private static final Timer DIHEDRAL_TIMER = Metrics.timer("unitcell.dihedral");
+	
 	private Lattice lattice;
 	private IUnitCell reciprocal;
 	private double volume;
 	private RealMatrix metricTensor, orthoMatrix, fracMatrix;
-	private LUDecomposition metricTensorLUDecomp;
+	//a, b, c, cos(alpha), cos(beta), cos(gamma), from which to build the lattice lazily
+	private final double[] parameters;
+
 
-	
-//	public void updateCell(Lattice realSpaceLattice) {
-//	this.lattice = realSpaceLattice;
-//	volume = null;
-//
-//	metricTensor = determineMetricTensor();
-//	metricTensorLUDecomp = new LUDecomposition(metricTensor);
-//	volume = Math.sqrt(metricTensorLUDecomp.getDeterminant());
-//	reciprocalMetricTensor = metricTensorLUDecomp.getSolver().getInverse();
-//	reciprocalMetricTensorLUDecomp = new LUDecomposition(reciprocalMetricTensor);
-//	reciprocalVolume = Math.sqrt(reciprocalMetricTensorLUDecomp.getDeterminant());
-//	reciprocalLattice = determineReciprocalLattice();
-//}
 	/**
 	 * FIXME
 	 * @param realSpaceLattice
 	 */
 	public UnitCell(Lattice realSpaceLattice) {
-		lattice = realSpaceLattice;
-		metricTensor = determineMetricTensor();
-		metricTensorLUDecomp = new LUDecomposition(metricTensor);
-		volume = Math.sqrt(metricTensorLUDecomp.getDeterminant()); //TODO put in Lattice
-		
-		//Create the reciprocal space unit cell; the reciprocal of that is the present instance
-		reciprocal = new UnitCell(metricTensorLUDecomp.getSolver().getInverse(), this);
-		
-		orthoMatrix = determineOrthogonalizationMatrix();
-		LUDecomposition orthoMatLUDecomp = new LUDecomposition(orthoMatrix);
-		fracMatrix = orthoMatLUDecomp.getSolver().getInverse();
+		this(realSpaceLattice.getA(), realSpaceLattice.getB(), realSpaceLattice.getC(),
+				realSpaceLattice.getCosAl(), realSpaceLattice.getCosBe(), realSpaceLattice.getCosGa(),
+				realSpaceLattice.getSinAl(), realSpaceLattice.getSinBe(), realSpaceLattice.getSinGa(),
+				realSpaceLattice, null);
 	}
 	
 	/**
@@ -59,31 +49,65 @@ public class UnitCell implements IUnitCell {
 	 * @param metricTensor
 	 */
 	public UnitCell(RealMatrix metricTensor) {
-		this(metricTensor, null);
+		this(getLatticeFromMetricTensor(metricTensor));
 	}
 	
-	private UnitCell(RealMatrix metricTensor, IUnitCell reciprocal) {
-		this.metricTensor = metricTensor;
-		metricTensorLUDecomp = new LUDecomposition(metricTensor);
-		lattice = getLatticeFromMetricTensor();
-		volume = Math.sqrt(metricTensorLUDecomp.getDeterminant());
+	/*
+	 * All trigonometry is done once, by the Lattice; the reciprocal cell 
+	 * parameters and the conversion matrices then follow analytically, with 
+	 * no matrix inversion. A null lattice is built on request from the 
+	 * parameters (this is the case for the reciprocal cell, whose angles in 
+	 * degrees are often never needed).
+	 */
+	private UnitCell(double a, double b, double c, double cosAl, double cosBe, double cosGa,
+			double sinAl, double sinBe, double sinGa, Lattice lattice, UnitCell reciprocal) {
+		long start = Metrics.ENABLED && reciprocal == null ? System.nanoTime() : 0;
+		this.lattice = lattice;
+		parameters = new double[]{a, b, c, cosAl, cosBe, cosGa};
+		volume = a * b * c * Math.sqrt(1 - cosAl * cosAl - cosBe * cosBe - cosGa * cosGa 
+				+ 2 * cosAl * cosBe * cosGa);
+		metricTensor = determineMetricTensor(a, b, c, cosAl, cosBe, cosGa);
 		
+		//e.g. cos(alpha*) = (cos(beta)cos(gamma) - cos(alpha)) / (sin(beta)sin(gamma))
+		double cosAlR = (cosBe * cosGa - cosAl) / (sinBe * sinGa);
 		if (reciprocal == null) {
-			reciprocal = new UnitCell(metricTensorLUDecomp.getSolver().getInverse());
+			//e.g. a* = bc.sin(alpha)/V, sin(alpha*) = V/(abc.sin(beta)sin(gamma))
+			double abc = a * b * c;
+			double cosBeR = (cosAl * cosGa - cosBe) / (sinAl * sinGa);
+			double cosGaR = (cosAl * cosBe - cosGa) / (sinAl * sinBe);
+			//Create the reciprocal space unit cell; the reciprocal of that is the present instance
+			this.reciprocal = new UnitCell(b * c * sinAl / volume, a * c * sinBe / volume, a * b * sinGa / volume,
+					cosAlR, cosBeR, cosGaR, 
+					volume / (abc * sinBe * sinGa), volume / (abc * sinAl * sinGa), volume / (abc * sinAl * sinBe),
+					null, this);
 		} else {
 			this.reciprocal = reciprocal;
 		}
+		
+		//Orthogonalization matrix is upper triangular, so invert directly
+		double m00 = a, m01 = b * cosGa, m02 = c * cosBe;
+		double m11 = b * sinGa, m12 = -c * sinBe * cosAlR;
+		double m22 = volume / (a * b * sinGa); //= 1/c*
+		orthoMatrix = MatrixUtils.createRealMatrix(new double[][]{
+			{m00, m01, m02},
+			{0  , m11, m12},
+			{0  , 0  , m22}});
+		fracMatrix = MatrixUtils.createRealMatrix(new double[][]{
+			{1 / m00, -m01 / (m00 * m11), (m01 * m12 - m02 * m11) / (m00 * m11 * m22)},
+			{0      , 1 / m11           , -m12 / (m11 * m22)},
+			{0      , 0                 , 1 / m22}});
+		if (Metrics.ENABLED && reciprocal == null) CONSTRUCT_TIMER.recordSince(start);
 	}
 	
-	
-	private RealMatrix determineMetricTensor() {
+	private static RealMatrix determineMetricTensor(double a, double b, double c, 
+			double cosAl, double cosBe, double cosGa) {
 		double p00, p01, p02, p11, p12, p22;
-		p00 = Math.pow(lattice.getA(),2);
-		p11 = Math.pow(lattice.getB(),2);
-		p22 = Math.pow(lattice.getC(),2);
-		p01 = offAxisCalculator(lattice.getA(), lattice.getB(), lattice.getGaR());
-		p02 = offAxisCalculator(lattice.getA(), lattice.getC(), lattice.getBeR());
-		p12 = offAxisCalculator(lattice.getB(), lattice.getC(), lattice.getAlR());
+		p00 = a * a;
+		p11 = b * b;
+		p22 = c * c;
+		p01 = offAxisCalculator(a, b, cosGa);
+		p02 = offAxisCalculator(a, c, cosBe);
+		p12 = offAxisCalculator(b, c, cosAl);
 		
 		return MatrixUtils.createRealMatrix(new double[][]{
 			{p00, p01, p02},
@@ -91,13 +115,13 @@ public class UnitCell implements IUnitCell {
 			{p02, p12, p22}});
 	}
 	
-	private double offAxisCalculator(double a, double b, double angle) {
-		double result = a *b * Math.cos(angle);
+	private static double offAxisCalculator(double a, double b, double cosAngle) {
+		double result = a * b * cosAngle;
 		if (Math.abs(result) < 1e-10) return 0.0;
 		return result;
 	}
 	
-	private Lattice getLatticeFromMetricTensor() {
+	private static Lattice getLatticeFromMetricTensor(RealMatrix metricTensor) {
 		double rA = Math.sqrt(metricTensor.getEntry(0, 0));
 		double rB = Math.sqrt(metricTensor.getEntry(1, 1));
 		double rC = Math.sqrt(metricTensor.getEntry(2, 2));
@@ -109,27 +133,16 @@ public class UnitCell implements IUnitCell {
 		return new Lattice(rA, rB, rC, rAl, rBe, rGa);
 	}
 	
-	private RealMatrix determineOrthogonalizationMatrix() {
-		double[] elems = getConversionMatrixElements(lattice, getReciprocalLattice());
-		return MatrixUtils.createRealMatrix(new double[][]{
-			{elems[0], elems[1], elems[2]},
-			{0       , elems[3], elems[4]},
-			{0       , 0       , elems[5]}});
-	}
-	
-	private double[] getConversionMatrixElements(Lattice one, Lattice two) {
-		double[] elems = new double[6];
-		elems[0] = one.getA();
-		elems[1] = one.getB() * Math.cos(one.getGaR());
-		elems[2] = one.getC() * Math.cos(one.getBeR());
-		elems[3] = one.getB() * Math.sin(one.getGaR());
-		elems[4] = -one.getC() * Math.sin(one.getBeR()) * Math.cos(two.getAlR());
-		elems[5] = 1 / two.getC();
-		return elems;
-	}
-
 	@Override
 	public Lattice getLattice() {
+		Lattice lattice = this.lattice;
+		if (lattice == null) {
+			//Benign race: Lattice is immutable, so at worst it is built twice
+			lattice = new Lattice(parameters[0], parameters[1], parameters[2],
+					Math.toDegrees(Math.acos(parameters[3])), Math.toDegrees(Math.acos(parameters[4])),
+					Math.toDegrees(Math.acos(parameters[5])));
+			this.lattice = lattice;
+		}
 		return lattice;
 	}
 
@@ -145,6 +158,7 @@ public class UnitCell implements IUnitCell {
 
 	@Override
 	public IUnitCell getReciprocal() {
+		if (Metrics.ENABLED) RECIPROCAL_COUNTER.increment();
 		return reciprocal;
 	}
 	
@@ -160,33 +174,39 @@ public class UnitCell implements IUnitCell {
 
 	@Override
 	public double calculateLength(Vector3D fracVec) {
+		long start = Metrics.ENABLED ? System.nanoTime() : 0;
 		RealVector vector = new ArrayRealVector(fracVec.toArray());
 		double product = vector.dotProduct(metricTensor.operate(vector));
+		if (Metrics.ENABLED) LENGTH_TIMER.recordSince(start);
 		return Math.sqrt(product);
 	}
 	
 	@Override
 	public double calculateAngle(Vector3D fracVec1, Vector3D fracVec2) {
+		long start = Metrics.ENABLED ? System.nanoTime() : 0;
 		RealVector vector1 = new ArrayRealVector(fracVec1.toArray());
 		RealVector vector2 = new ArrayRealVector(fracVec2.toArray());
 		
 		double magVec1 = calculateLength(fracVec1);
 		double magVec2 = calculateLength(fracVec2);
 		
-		return Math.acos(vector1.dotProduct(metricTensor.operate(vector2)) / (magVec1 * magVec2));
+		double angle = Math.acos(vector1.dotProduct(metricTensor.operate(vector2)) / (magVec1 * magVec2));
+		if (Metrics.ENABLED) ANGLE_TIMER.recordSince(start);
+		return angle;
 	}
 	
 	@Override
 	public double calculateDihedralAngle(Vector3D site1, Vector3D site2, Vector3D site3, Vector3D site4) {
+		long start = Metrics.ENABLED ? System.nanoTime() : 0;
 		Vector3D vector12 = site2.subtract(site1);
 		Vector3D vector23 = site2.subtract(site3);
 		Vector3D vector34 = site3.subtract(site4);
 		
 		Vector3D plane123 = latticeCrossProduct(vector12, vector23);
 		Vector3D plane234 = latticeCrossProduct(vector34, vector23);
-		return Math.acos(plane123.dotProduct(new Vector3D(metricTensor.operate(plane234.toArray()))) / (calculateLength(plane123) * calculateLength(plane234)));
-		
-		
+		double angle = Math.acos(plane123.dotProduct(new Vector3D(metricTensor.operate(plane234.toArray()))) / (calculateLength(plane123) * calculateLength(plane234)));
+		if (Metrics.ENABLED) DIHEDRAL_TIMER.recordSince(start);
+		return angle;
 	}
 	
 	public double latticeDotProduct(Vector3D vector1, Vector3D vector2) { //TODO add to API?
@@ -0,0 +1,262 @@
+package uk.co.norphos.crystallography.toolkit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import uk.co.norphos.crystallography.toolkit.metrics.Metrics;
+import uk.co.norphos.crystallography.toolkit.metrics.Timer;
+
+/**
+ * Assigns the sites of {@link Crystal}s to the Wyckoff positions of a space
+ * group and finds their site symmetry.
+ * <br>
+ * The group is given by all of its operators in the conventional cell
+ * (including centring translations, as listed in a CIF) and its Wyckoff
+ * positions. An operator g belongs to the site symmetry of x if g.x is
+ * within the tolerance of x or one of its lattice translates, measured
+ * through the metric tensor of the crystal's cell; the multiplicity of the
+ * site is then the number of operators over the order of its site
+ * symmetry. The site is on a Wyckoff position of that multiplicity if one
+ * of its equivalents g.x lies within the tolerance of the representative
+ * point, line or plane of the position, modulo the lattice. Positions are
+ * tried in order of multiplicity then letter.
+ * <br>
+ * The operators are compiled once into flat tables, so one assigner serves
+ * any number of structures in the group. Sites of a crystal are assigned in
+ * parallel, as are the crystals given to {@link #assignAll(List)}.
+ * Periodic distances use the nearest lattice translate by rounding, which
+ * is exact for displacements small compared with the cell.
+ *
+ * @author Michael Wharmby
+ *
+ */
+public class WyckoffAssigner {
+
+	private static final Timer ASSIGN_TIMER = Metrics.timer("wyckoff.assign");
+
+	/**
+	 * Default tolerance on distances in Angstroms.
+	 */
+	public static final double DEFAULT_TOLERANCE = 0.01;
+
+	private final List<SymmetryOperator> operators;
+	private final int nOps;
+	private final int[] rotations;
+	private final double[] translations;
+	private final WyckoffPosition[] positions;
+	private final double tolerance;
+
+	/**
+	 * Construct an assigner with the {@link #DEFAULT_TOLERANCE}.
+	 *
+	 * @param operators List of every {@link SymmetryOperator} of the group
+	 * @param positions List of {@link WyckoffPosition}s of the group
+	 */
+	public WyckoffAssigner(List<SymmetryOperator> operators, List<WyckoffPosition> positions) {
+		this(operators, positions, DEFAULT_TOLERANCE);
+	}
+
+	/**
+	 * Construct an assigner.
+	 *
+	 * @param operators List of every {@link SymmetryOperator} of the group,
+	 *        including the identity
+	 * @param positions List of {@link WyckoffPosition}s of the group
+	 * @param tolerance double largest distance, in Angstroms, between a
+	 *        site and its image under an operator of its site symmetry
+	 *        (about twice its displacement from a mirror or centre)
+	 */
+	public WyckoffAssigner(List<SymmetryOperator> operators, List<WyckoffPosition> positions, double tolerance) {
+		if (!operators.stream().anyMatch(SymmetryOperator::isIdentity)) {
+			throw new IllegalArgumentException("Symmetry operators must include the identity");
+		}
+		if (!(tolerance >= 0)) throw new IllegalArgumentException("Tolerance must not be negative");
+		this.operators = Collections.unmodifiableList(new ArrayList<>(operators));
+		this.tolerance = tolerance;
+		nOps = operators.size();
+		rotations = new int[9 * nOps];
+		translations = new double[3 * nOps];
+		for (int g = 0; g < nOps; g++) {
+			System.arraycopy(operators.get(g).getRotation(), 0, rotations, 9 * g, 9);
+			System.arraycopy(operators.get(g).getTranslation(), 0, translations, 3 * g, 3);
+		}
+		this.positions = positions.stream()
+				.sorted(Comparator.comparingInt(WyckoffPosition::getMultiplicity).thenComparing(WyckoffPosition::getLetter))
+				.toArray(WyckoffPosition[]::new);
+	}
+
+	public List<SymmetryOperator> getOperators() {
+		return operators;
+	}
+
+	public double getTolerance() {
+		return tolerance;
+	}
+
+	/**
+	 * Assign every site of a crystal.
+	 * @param crystal {@link Crystal}
+	 * @return List of {@link WyckoffAssignment}, one for each site in order
+	 */
+	public List<WyckoffAssignment> assign(Crystal crystal) {
+		return assign(crystal, true);
+	}
+
+	/**
+	 * Assign every site of many crystals of the group, in parallel over
+	 * the crystals.
+	 * @param crystals List of {@link Crystal}
+	 * @return List with the assignments of each crystal in order
+	 */
+	public List<List<WyckoffAssignment>> assignAll(List<Crystal> crystals) {
+		return crystals.parallelStream().map(crystal -> assign(crystal, false)).collect(Collectors.toList());
+	}
+
+	private List<WyckoffAssignment> assign(Crystal crystal, boolean parallel) {
+		long start = Metrics.ENABLED ? System.nanoTime() : 0;
+		CellGeometry geometry = new CellGeometry(new CellWorkspace(crystal.getUnitCell().getLattice()));
+		double[] frac = crystal.getFractionalCoordinates();
+		int nSites = crystal.getNumberOfSites();
+		IntStream sites = IntStream.range(0, nSites);
+		WyckoffAssignment[] assignments = new WyckoffAssignment[nSites];
+		(parallel ? sites.parallel() : sites).forEach(s -> {
+			assignments[s] = assignSite(geometry, s, crystal.getSites().get(s).getLabel(),
+					frac[3 * s], frac[3 * s + 1], frac[3 * s + 2]);
+		});
+		if (Metrics.ENABLED) ASSIGN_TIMER.recordSince(start);
+		return Arrays.asList(assignments);
+	}
+
+	private WyckoffAssignment assignSite(CellGeometry geometry, int index, String label, double x, double y, double z) {
+		double limit = tolerance * tolerance;
+		double[] g = geometry.metric;
+
+		//Site symmetry
+		List<SymmetryOperator> siteSymmetry = new ArrayList<>();
+		for (int op = 0; op < nOps; op++) {
+			int r = 9 * op, t = 3 * op;
+			double dx = rotations[r] * x + rotations[r + 1] * y + rotations[r + 2] * z + translations[t] - x;
+			double dy = rotations[r + 3] * x + rotations[r + 4] * y + rotations[r + 5] * z + translations[t + 1] - y;
+			double dz = rotations[r + 6] * x + rotations[r + 7] * y + rotations[r + 8] * z + translations[t + 2] - z;
+			dx -= Math.rint(dx);
+			dy -= Math.rint(dy);
+			dz -= Math.rint(dz);
+			if (quadraticForm(g, dx, dy, dz) <= limit) siteSymmetry.add(operators.get(op));
+		}
+		int multiplicity = nOps / siteSymmetry.size();
+
+		//Wyckoff position: some equivalent of the site on its representative
+		WyckoffPosition found = null;
+		for (int w = 0; w < positions.length && found == null; w++) {
+			if (positions[w].getMultiplicity() != multiplicity) continue;
+			double[] origin = positions[w].getOrigin(), q = geometry.complements[w], shifts = geometry.shifts[w];
+			for (int op = 0; op < nOps && found == null; op++) {
+				int r = 9 * op, t = 3 * op;
+				double dx = rotations[r] * x + rotations[r + 1] * y + rotations[r + 2] * z + translations[t] - origin[0];
+				double dy = rotations[r + 3] * x + rotations[r + 4] * y + rotations[r + 5] * z + translations[t + 1] - origin[1];
+				double dz = rotations[r + 6] * x + rotations[r + 7] * y + rotations[r + 8] * z + translations[t + 2] - origin[2];
+				dx -= Math.rint(dx);
+				dy -= Math.rint(dy);
+				dz -= Math.rint(dz);
+				//Component off the representative, for the nearest lattice translates
+				double px = q[0] * dx + q[1] * dy + q[2] * dz;
+				double py = q[3] * dx + q[4] * dy + q[5] * dz;
+				double pz = q[6] * dx + q[7] * dy + q[8] * dz;
+				for (int n = 0; n < shifts.length; n += 3) {
+					if (quadraticForm(g, px - shifts[n], py - shifts[n + 1], pz - shifts[n + 2]) <= limit) {
+						found = positions[w];
+						break;
+					}
+				}
+			}
+		}
+		return new WyckoffAssignment(index, label, found, multiplicity, Collections.unmodifiableList(siteSymmetry));
+	}
+
+	private static double quadraticForm(double[] g, double x, double y, double z) {
+		return g[0] * x * x + g[4] * y * y + g[8] * z * z + 2 * (g[1] * x * y + g[2] * x * z + g[5] * y * z);
+	}
+
+	/*
+	 * Metric of a cell and, for each Wyckoff position, the projector onto
+	 * the complement of its free directions (orthogonal in that metric)
+	 * with the projections of the 27 lattice translations {-1,0,1}^3.
+	 */
+	private final class CellGeometry {
+		private final double[] metric = new double[9];
+		private final double[][] complements, shifts;
+
+		CellGeometry(CellWorkspace workspace) {
+			workspace.copyMetricTensor(metric);
+			complements = new double[positions.length][];
+			shifts = new double[positions.length][];
+			for (int w = 0; w < positions.length; w++) {
+				double[] q = complement(positions[w].getDirections());
+				complements[w] = q;
+				double[] s = new double[81];
+				int n = 0;
+				for (int i = -1; i <= 1; i++) {
+					for (int j = -1; j <= 1; j++) {
+						for (int k = -1; k <= 1; k++, n += 3) {
+							s[n] = q[0] * i + q[1] * j + q[2] * k;
+							s[n + 1] = q[3] * i + q[4] * j + q[5] * k;
+							s[n + 2] = q[6] * i + q[7] * j + q[8] * k;
+						}
+					}
+				}
+				shifts[w] = s;
+			}
+		}
+
+		/*
+		 * Q = I - M.(M^T.G.M)^-1.M^T.G for the free directions M (3 x r).
+		 */
+		private double[] complement(double[] m) {
+			int r = m.length / 3;
+			double[] q = {1, 0, 0, 0, 1, 0, 0, 0, 1};
+			if (r == 0) return q;
+			if (r == 3) return new double[9];
+			//M^T.G, r x 3
+			double[] mg = new double[3 * r];
+			for (int a = 0; a < r; a++) {
+				for (int j = 0; j < 3; j++) {
+					for (int i = 0; i < 3; i++) {
+						mg[3 * a + j] += m[3 * a + i] * metric[3 * i + j];
+					}
+				}
+			}
+			//(M^T.G.M)^-1, r x r
+			double[] gram = new double[r * r];
+			for (int a = 0; a < r; a++) {
+				for (int b = 0; b < r; b++) {
+					for (int i = 0; i < 3; i++) {
+						gram[r * a + b] += mg[3 * a + i] * m[3 * b + i];
+					}
+				}
+			}
+			double[] inverse;
+			if (r == 1) {
+				inverse = new double[]{1 / gram[0]};
+			} else {
+				double det = gram[0] * gram[3] - gram[1] * gram[2];
+				inverse = new double[]{gram[3] / det, -gram[1] / det, -gram[2] / det, gram[0] / det};
+			}
+			for (int i = 0; i < 3; i++) {
+				for (int j = 0; j < 3; j++) {
+					for (int a = 0; a < r; a++) {
+						for (int b = 0; b < r; b++) {
+							q[3 * i + j] -= m[3 * a + i] * inverse[r * a + b] * mg[3 * b + j];
+						}
+					}
+				}
+			}
+			return q;
+		}
+	}
+
+}
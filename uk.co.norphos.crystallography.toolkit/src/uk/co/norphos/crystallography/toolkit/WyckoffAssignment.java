@@ -0,0 +1,78 @@
+package uk.co.norphos.crystallography.toolkit;
+
+import java.util.List;
+
+/**
+ * The Wyckoff position and site symmetry found for one site of a
+ * {@link Crystal} by a {@link WyckoffAssigner}.
+ *
+ * @author Michael Wharmby
+ *
+ */
+public final class WyckoffAssignment {
+
+	private final int siteIndex;
+	private final String label;
+	private final WyckoffPosition position;
+	private final int multiplicity;
+	private final List<SymmetryOperator> siteSymmetry;
+
+	WyckoffAssignment(int siteIndex, String label, WyckoffPosition position, int multiplicity,
+			List<SymmetryOperator> siteSymmetry) {
+		this.siteIndex = siteIndex;
+		this.label = label;
+		this.position = position;
+		this.multiplicity = multiplicity;
+		this.siteSymmetry = siteSymmetry;
+	}
+
+	/**
+	 * Return the position of the site in the {@link Crystal}.
+	 * @return int
+	 */
+	public int getSiteIndex() {
+		return siteIndex;
+	}
+
+	public String getLabel() {
+		return label;
+	}
+
+	/**
+	 * Return the Wyckoff position of the site.
+	 * @return {@link WyckoffPosition} or null if none of those given
+	 *         matches the site
+	 */
+	public WyckoffPosition getWyckoffPosition() {
+		return position;
+	}
+
+	/**
+	 * Return the number of points equivalent to the site in the cell,
+	 * i.e. the number of operators over the order of the site symmetry.
+	 * @return int
+	 */
+	public int getMultiplicity() {
+		return multiplicity;
+	}
+
+	/**
+	 * Return the operators leaving the site in place (to within a lattice
+	 * translation and the tolerance), including the identity.
+	 * @return List of {@link SymmetryOperator}
+	 */
+	public List<SymmetryOperator> getSiteSymmetry() {
+		return siteSymmetry;
+	}
+
+	public int getSiteSymmetryOrder() {
+		return siteSymmetry.size();
+	}
+
+	@Override
+	public String toString() {
+		return "WyckoffAssignment["+label+", "+(position == null ? "?" : position.getSymbol())
+				+", multiplicity="+multiplicity+", site symmetry order="+siteSymmetry.size()+"]";
+	}
+
+}
@@ -0,0 +1,97 @@
+package uk.co.norphos.crystallography.toolkit;
+
+/**
+ * A Wyckoff position of a space group, given by its multiplicity, letter
+ * and the first coordinate triplet listed for it in International Tables,
+ * e.g. 4, 'e', "x,1/4,z" or 6, 'h', "x,2x,1/4". The other triplets follow
+ * from the symmetry operators, so are not needed.
+ *
+ * @author Michael Wharmby
+ *
+ */
+public final class WyckoffPosition {
+
+	private final int multiplicity;
+	private final char letter;
+	private final String representative;
+	//Point on the position and a column for each free parameter
+	private final double[] origin = new double[3];
+	private final double[] directions;
+
+	/**
+	 * Construct a Wyckoff position.
+	 *
+	 * @param multiplicity int number of equivalent points in the
+	 *        conventional cell
+	 * @param letter char Wyckoff letter
+	 * @param representative String coordinate triplet in x, y and z
+	 * @throws IllegalArgumentException if the triplet cannot be parsed
+	 */
+	public WyckoffPosition(int multiplicity, char letter, String representative) {
+		if (multiplicity < 1) throw new IllegalArgumentException("Multiplicity must be positive");
+		this.multiplicity = multiplicity;
+		this.letter = letter;
+		this.representative = representative;
+
+		double[] affine = SymmetryOperator.parseTriplet(representative);
+		System.arraycopy(affine, 9, origin, 0, 3);
+		int nFree = 0;
+		double[] columns = new double[9];
+		for (int axis = 0; axis < 3; axis++) {
+			if (affine[axis] == 0 && affine[3 + axis] == 0 && affine[6 + axis] == 0) continue;
+			for (int row = 0; row < 3; row++) {
+				columns[3 * nFree + row] = affine[3 * row + axis];
+			}
+			nFree++;
+		}
+		directions = new double[3 * nFree];
+		System.arraycopy(columns, 0, directions, 0, 3 * nFree);
+	}
+
+	public int getMultiplicity() {
+		return multiplicity;
+	}
+
+	public char getLetter() {
+		return letter;
+	}
+
+	/**
+	 * Return the coordinate triplet the position was defined by.
+	 * @return String
+	 */
+	public String getRepresentative() {
+		return representative;
+	}
+
+	/**
+	 * Return the Wyckoff symbol, multiplicity then letter, e.g. "4e".
+	 * @return String
+	 */
+	public String getSymbol() {
+		return multiplicity+String.valueOf(letter);
+	}
+
+	/**
+	 * Return the number of free parameters (0 for a special point, 3 for
+	 * the general position).
+	 * @return int
+	 */
+	public int getDegreesOfFreedom() {
+		return directions.length / 3;
+	}
+
+	double[] getOrigin() {
+		return origin;
+	}
+
+	double[] getDirections() {
+		return directions;
+	}
+
+	@Override
+	public String toString() {
+		return getSymbol()+" ("+representative+")";
+	}
+
+}
@@ -0,0 +1,243 @@
+package uk.co.norphos.crystallography.toolkit.cli;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import uk.co.norphos.crystallography.api.Lattice;
+import uk.co.norphos.crystallography.toolkit.CellOperations;
+import uk.co.norphos.crystallography.toolkit.CellWorkspace;
+import uk.co.norphos.crystallography.toolkit.ReflectionList;
+import uk.co.norphos.crystallography.toolkit.UnitCell;
+
+/**
+ * Command-line entry point for one-off cell calculations, taking the same
+ * requests and giving the same responses as the
+ * {@link uk.co.norphos.crystallography.toolkit.service.CrystallographyServer}
+ * (lattice parameters as a b c alpha beta gamma, in Angstroms and degrees):
+ * <pre>
+ * CELL a b c al be ga                         -&gt; OK V a* b* c* al* be* ga*
+ * DISTANCE a b c al be ga x1 y1 z1 x2 y2 z2   -&gt; OK d
+ * DSPACING a b c al be ga h k l               -&gt; OK d
+ * REFLECTIONS a b c al be ga dMin             -&gt; OK n h k l d h k l d ...
+ * NIGGLI a b c al be ga                       -&gt; OK a b c al be ga
+ * CARTESIAN a b c al be ga x y z              -&gt; OK X Y Z
+ * FRACTIONAL a b c al be ga X Y Z             -&gt; OK x y z
+ * </pre>
+ * A request given as arguments is answered on standard output. With no
+ * arguments, or the single argument "-", requests are read one per line
+ * from standard input and answered in order, so that a workflow can send
+ * many requests to one JVM. The exit status is 0 if every request
+ * succeeded, 1 if any was answered ERR and 2 if the input could not be
+ * read.
+ * <br>
+ * Invocations are short, so startup matters more than peak speed. The
+ * CELL, DISTANCE, DSPACING and coordinate requests are served by a single
+ * {@link CellWorkspace}, which needs neither {@link UnitCell} nor
+ * commons-math; those are only loaded on the first REFLECTIONS request.
+ * scripts/build-cds-archive.sh records the classes loaded by a training
+ * run in an AppCDS archive, for use by scripts/crystallography-cli.sh.
+ *
+ * @author Michael Wharmby
+ *
+ */
+public final class CrystallographyCli {
+
+	private final CellWorkspace workspace = new CellWorkspace(1, 1, 1, 90, 90, 90);
+	private final double[] parameters = {1, 1, 1, 90, 90, 90};
+	private final double[] coordinates = new double[3];
+	private final StringBuilder response = new StringBuilder();
+	private boolean failed;
+
+	public static void main(String[] args) {
+		CrystallographyCli cli = new CrystallographyCli();
+		Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.US_ASCII));
+		try {
+			if (args.length == 0 || (args.length == 1 && args[0].equals("-"))) {
+				cli.run(new InputStreamReader(System.in, StandardCharsets.US_ASCII), out);
+			} else {
+				out.append(cli.process(String.join(" ", args))).append('\n');
+				out.flush();
+			}
+		} catch (IOException e) {
+			System.err.println("ERR "+e.getMessage());
+			System.exit(2);
+		}
+		System.exit(cli.hasFailed() ? 1 : 0);
+	}
+
+	/**
+	 * Answer each line of a reader, writing one response line per request.
+	 * Output is flushed whenever the input has nothing more buffered, so a
+	 * caller writing requests one at a time gets its answers promptly.
+	 *
+	 * @param in Reader of requests
+	 * @param out Writer for responses
+	 * @throws IOException if the input cannot be read or the output written
+	 */
+	void run(Reader in, Writer out) throws IOException {
+		BufferedReader reader = new BufferedReader(in);
+		String line;
+		while ((line = reader.readLine()) != null) {
+			if (line.trim().isEmpty()) continue;
+			out.append(process(line)).append('\n');
+			if (!reader.ready()) out.flush();
+		}
+		out.flush();
+	}
+
+	/**
+	 * Answer one request.
+	 * @param line String
+	 * @return CharSequence response, starting OK or ERR; only valid until
+	 *         the next request
+	 */
+	CharSequence process(String line) {
+		response.setLength(0);
+		try {
+			handle(line.trim().split("\\s+"));
+		} catch (RuntimeException | Error e) {
+			//Errors too (e.g. OutOfMemoryError), so one request cannot end the batch
+			failed = true;
+			response.setLength(0);
+			response.trimToSize();
+			response.append("ERR ").append(e.getMessage() != null ? e.getMessage() : e.getClass().getName());
+		}
+		return response;
+	}
+
+	boolean hasFailed() {
+		return failed;
+	}
+
+	private void handle(String[] tokens) {
+		String command = tokens[0].toUpperCase();
+		switch (command) {
+		case "CELL":
+			checkArguments(tokens, 6);
+			updateCell(tokens);
+			response.append("OK ").append(workspace.getVolume());
+			append(workspace.getAStar(), workspace.getBStar(), workspace.getCStar(),
+					workspace.getAlphaStar(), workspace.getBetaStar(), workspace.getGammaStar());
+			break;
+		case "DISTANCE":
+			checkArguments(tokens, 12);
+			updateCell(tokens);
+			response.append("OK ").append(workspace.calculateDistance(parseDouble(tokens[7]), parseDouble(tokens[8]),
+					parseDouble(tokens[9]), parseDouble(tokens[10]), parseDouble(tokens[11]), parseDouble(tokens[12])));
+			break;
+		case "DSPACING":
+			checkArguments(tokens, 9);
+			updateCell(tokens);
+			response.append("OK ").append(workspace.calculateDSpacing(parseDouble(tokens[7]), parseDouble(tokens[8]),
+					parseDouble(tokens[9])));
+			break;
+		case "REFLECTIONS":
+			checkArguments(tokens, 7);
+			double dMin = parseDouble(tokens[7]);
+			if (!(dMin > 0)) {
+				throw new IllegalArgumentException("dMin must be positive");
+			}
+			Reflections.append(parseLattice(tokens), dMin, response);
+			break;
+		case "NIGGLI":
+			checkArguments(tokens, 6);
+			updateCell(tokens);
+			double[] cell = parameters.clone();
+			CellOperations.niggliReduce().apply(cell, workspace);
+			for (double value : cell) {
+				if (Double.isNaN(value)) throw new IllegalArgumentException("Niggli reduction did not converge");
+			}
+			response.append("OK");
+			append(cell);
+			break;
+		case "CARTESIAN":
+		case "FRACTIONAL":
+			checkArguments(tokens, 9);
+			updateCell(tokens);
+			for (int i = 0; i < 3; i++) {
+				coordinates[i] = parseDouble(tokens[7 + i]);
+			}
+			if (command.equals("CARTESIAN")) workspace.orthogonalize(coordinates, coordinates);
+			else workspace.fractionalize(coordinates, coordinates);
+			response.append("OK");
+			append(coordinates);
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown command '"+tokens[0]+"'");
+		}
+	}
+
+	private void append(double... values) {
+		for (double value : values) {
+			response.append(' ').append(value);
+		}
+	}
+
+	/*
+	 * Update the workspace unless the cell is the one it already holds, as
+	 * it usually is for a batch of requests on one structure.
+	 */
+	private void updateCell(String[] tokens) {
+		double[] values = new double[6];
+		for (int i = 0; i < 6; i++) {
+			values[i] = parseDouble(tokens[1 + i]);
+		}
+		for (int i = 0; i < 3; i++) {
+			if (!(values[i] > 0)) throw new IllegalArgumentException("Cell lengths must be positive");
+			if (!(values[3 + i] > 0 && values[3 + i] < 180)) {
+				throw new IllegalArgumentException("Cell angles must be between 0 and 180 degrees");
+			}
+		}
+		if (!Arrays.equals(values, parameters)) {
+			System.arraycopy(values, 0, parameters, 0, 6);
+			workspace.update(parameters[0], parameters[1], parameters[2], parameters[3], parameters[4], parameters[5]);
+		}
+		if (!(workspace.getVolume() > 0)) {
+			throw new IllegalArgumentException("Lattice parameters do not describe a cell");
+		}
+	}
+
+	private static void checkArguments(String[] tokens, int expected) {
+		if (tokens.length != expected + 1) {
+			throw new IllegalArgumentException(tokens[0]+" expects "+expected+" arguments, got "+(tokens.length - 1));
+		}
+	}
+
+	private static Lattice parseLattice(String[] tokens) {
+		return new Lattice(parseDouble(tokens[1]), parseDouble(tokens[2]), parseDouble(tokens[3]),
+				parseDouble(tokens[4]), parseDouble(tokens[5]), parseDouble(tokens[6]));
+	}
+
+	private static double parseDouble(String token) {
+		try {
+			return Double.parseDouble(token);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Not a number: '"+token+"'");
+		}
+	}
+
+	/*
+	 * Kept apart so that UnitCell and commons-math are loaded (and
+	 * verified) only when reflections are requested.
+	 */
+	private static final class Reflections {
+
+		static void append(Lattice lattice, double dMin, StringBuilder response) {
+			ReflectionList reflections = ReflectionList.enumerate(new UnitCell(lattice), dMin);
+			response.append("OK ").append(reflections.size());
+			for (int i = 0; i < reflections.size(); i++) {
+				response.append(' ').append(reflections.getH(i)).append(' ').append(reflections.getK(i))
+						.append(' ').append(reflections.getL(i)).append(' ').append(reflections.getDSpacing(i));
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,41 @@
+package uk.co.norphos.crystallography.toolkit.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Monotonic event counter which can be updated from many threads without
+ * contention.
+ *
+ * @author Michael Wharmby
+ *
+ */
+public final class Counter {
+
+	private final String name;
+	private final LongAdder count = new LongAdder();
+
+	Counter(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void increment() {
+		count.increment();
+	}
+
+	public void add(long n) {
+		count.add(n);
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	public void reset() {
+		count.reset();
+	}
+
+}
@@ -0,0 +1,83 @@
+package uk.co.norphos.crystallography.toolkit.metrics;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Entry point for the toolkit's optional instrumentation. Metrics are
+ * collected only if the system property {@value #PROPERTY} is true when
+ * this class is loaded. Instrumented code guards every update with
+ * {@link #ENABLED}:
+ * <pre>
+ * private static final Timer CONSTRUCT = Metrics.timer("unitcell.construct");
+ * ...
+ * long start = Metrics.ENABLED ? System.nanoTime() : 0;
+ * ...
+ * if (Metrics.ENABLED) CONSTRUCT.recordSince(start);
+ * </pre>
+ * As ENABLED is a static final constant, the JIT folds the guards away
+ * when metrics are disabled, leaving no branch, timing call or allocation
+ * on the hot path.
+ *
+ * @author Michael Wharmby
+ *
+ */
+public final class Metrics {
+
+	/**
+	 * System property which enables metrics collection.
+	 */
+	public static final String PROPERTY = "uk.co.norphos.crystallography.metrics";
+
+	/**
+	 * Whether metrics are being collected.
+	 */
+	public static final boolean ENABLED = Boolean.getBoolean(PROPERTY);
+
+	/**
+	 * Name under which {@link #registerMBean()} registers the registry.
+	 */
+	public static final String OBJECT_NAME = "uk.co.norphos.crystallography:type=Metrics";
+
+	private static final MetricsRegistry REGISTRY = new MetricsRegistry();
+
+	private Metrics() {
+		//Static methods only
+	}
+
+	/**
+	 * Return the registry holding the toolkit's instruments.
+	 * @return {@link MetricsRegistry}
+	 */
+	public static MetricsRegistry getRegistry() {
+		return REGISTRY;
+	}
+
+	public static Counter counter(String name) {
+		return REGISTRY.counter(name);
+	}
+
+	public static Timer timer(String name) {
+		return REGISTRY.timer(name);
+	}
+
+	/**
+	 * Register the toolkit's metrics with the platform MBean server under
+	 * {@value #OBJECT_NAME}, if they are not registered already.
+	 *
+	 * @return ObjectName of the MBean
+	 * @throws JMException if registration fails
+	 */
+	public static synchronized ObjectName registerMBean() throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName(OBJECT_NAME);
+		if (!server.isRegistered(name)) {
+			server.registerMBean(new MetricsMBean(REGISTRY), name);
+		}
+		return name;
+	}
+
+}
@@ -0,0 +1,124 @@
+package uk.co.norphos.crystallography.toolkit.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.ReflectionException;
+
+/**
+ * Read-only dynamic MBean exposing a {@link MetricsRegistry}. Each counter
+ * appears as an attribute "name.count"; each timer as "name.count",
+ * "name.mean", "name.p50", "name.p99" and "name.max", with latencies in
+ * nanoseconds. Instruments created after registration appear the next
+ * time the MBean info is read.
+ *
+ * @author Michael Wharmby
+ *
+ */
+class MetricsMBean implements DynamicMBean {
+
+	private static final String[] TIMER_STATISTICS = {"count", "mean", "p50", "p99", "max"};
+
+	private final MetricsRegistry registry;
+
+	MetricsMBean(MetricsRegistry registry) {
+		this.registry = registry;
+	}
+
+	@Override
+	public Object getAttribute(String attribute) throws AttributeNotFoundException {
+		int dot = attribute.lastIndexOf('.');
+		if (dot < 0) throw new AttributeNotFoundException(attribute);
+		String name = attribute.substring(0, dot), statistic = attribute.substring(dot + 1);
+
+		Counter counter = registry.findCounter(name);
+		if (counter != null && statistic.equals("count")) {
+			return counter.getCount();
+		}
+		Timer timer = registry.findTimer(name);
+		if (timer != null) {
+			switch (statistic) {
+			case "count":
+				return timer.getCount();
+			case "mean":
+				return timer.getMean();
+			case "p50":
+				return timer.getPercentile(50);
+			case "p99":
+				return timer.getPercentile(99);
+			case "max":
+				return timer.getMax();
+			default:
+				break;
+			}
+		}
+		throw new AttributeNotFoundException(attribute);
+	}
+
+	@Override
+	public AttributeList getAttributes(String[] attributes) {
+		AttributeList list = new AttributeList();
+		for (String attribute : attributes) {
+			try {
+				list.add(new Attribute(attribute, getAttribute(attribute)));
+			} catch (AttributeNotFoundException e) {
+				//Omitted from the list, as the DynamicMBean contract requires
+			}
+		}
+		return list;
+	}
+
+	@Override
+	public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+		throw new AttributeNotFoundException("Metrics are read-only: "+attribute.getName());
+	}
+
+	@Override
+	public AttributeList setAttributes(AttributeList attributes) {
+		return new AttributeList();
+	}
+
+	@Override
+	public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+		if ("reset".equals(actionName)) {
+			registry.reset();
+			return null;
+		}
+		throw new ReflectionException(new NoSuchMethodException(actionName));
+	}
+
+	@Override
+	public MBeanInfo getMBeanInfo() {
+		final List<MBeanAttributeInfo> attributes = new ArrayList<>();
+		registry.visit(new MetricsVisitor() {
+			@Override
+			public void visitCounter(Counter counter) {
+				attributes.add(new MBeanAttributeInfo(counter.getName()+".count", "long",
+						"Number of events", true, false, false));
+			}
+
+			@Override
+			public void visitTimer(Timer timer) {
+				for (String statistic : TIMER_STATISTICS) {
+					String type = statistic.equals("mean") ? "double" : "long";
+					attributes.add(new MBeanAttributeInfo(timer.getName()+"."+statistic, type,
+							statistic+" of latency (ns)", true, false, false));
+				}
+			}
+		});
+		MBeanOperationInfo reset = new MBeanOperationInfo("reset", "Reset all metrics to zero",
+				new MBeanParameterInfo[0], "void", MBeanOperationInfo.ACTION);
+		return new MBeanInfo(getClass().getName(), "Norphos crystallography toolkit metrics",
+				attributes.toArray(new MBeanAttributeInfo[attributes.size()]), null,
+				new MBeanOperationInfo[]{reset}, null);
+	}
+
+}
@@ -0,0 +1,62 @@
+package uk.co.norphos.crystallography.toolkit.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Named collection of {@link Counter}s and {@link Timer}s. Instruments are
+ * created on first request and the same instance is returned for a name
+ * thereafter, so callers should look them up once and hold them in static
+ * fields.
+ *
+ * @author Michael Wharmby
+ *
+ */
+public class MetricsRegistry {
+
+	private final Map<String, Counter> counters = new ConcurrentSkipListMap<>();
+	private final Map<String, Timer> timers = new ConcurrentSkipListMap<>();
+
+	public Counter counter(String name) {
+		return counters.computeIfAbsent(name, Counter::new);
+	}
+
+	public Timer timer(String name) {
+		return timers.computeIfAbsent(name, Timer::new);
+	}
+
+	/**
+	 * Pass every instrument to a visitor, counters first, each in order of
+	 * name.
+	 * @param visitor {@link MetricsVisitor}
+	 */
+	public void visit(MetricsVisitor visitor) {
+		for (Counter counter : counters.values()) {
+			visitor.visitCounter(counter);
+		}
+		for (Timer timer : timers.values()) {
+			visitor.visitTimer(timer);
+		}
+	}
+
+	Counter findCounter(String name) {
+		return counters.get(name);
+	}
+
+	Timer findTimer(String name) {
+		return timers.get(name);
+	}
+
+	/**
+	 * Reset all instruments to zero.
+	 */
+	public void reset() {
+		for (Counter counter : counters.values()) {
+			counter.reset();
+		}
+		for (Timer timer : timers.values()) {
+			timer.reset();
+		}
+	}
+
+}
@@ -0,0 +1,16 @@
+package uk.co.norphos.crystallography.toolkit.metrics;
+
+/**
+ * Receives each metric of a {@link MetricsRegistry}; implement this to
+ * publish the toolkit's metrics to another monitoring system.
+ *
+ * @author Michael Wharmby
+ *
+ */
+public interface MetricsVisitor {
+
+	void visitCounter(Counter counter);
+
+	void visitTimer(Timer timer);
+
+}
@@ -0,0 +1,152 @@
+package uk.co.norphos.crystallography.toolkit.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram with HDR-style log-linear buckets: values below 128 ns
+ * are counted exactly and larger values fall into one of 64 linear
+ * sub-buckets per power of two, so any recorded latency up to 2^63 ns is
+ * resolved to within 1/64 (about 1.6%). The histogram is allocated on the
+ * first recording, so that the timers of uninstrumented runs cost almost
+ * nothing; recording is then wait-free and allocation-free.
+ *
+ * @author Michael Wharmby
+ *
+ */
+public final class Timer {
+
+	private static final int SUB_BUCKET_BITS = 6;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int EXACT_LIMIT = 2 * SUB_BUCKETS;
+	private static final int N_BUCKETS = EXACT_LIMIT + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final String name;
+	private volatile AtomicLongArray counts;
+	private final LongAdder count = new LongAdder();
+	private final LongAdder total = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	Timer(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Record a latency.
+	 * @param nanos long duration in nanoseconds (negative values count as 0)
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) nanos = 0;
+		AtomicLongArray buckets = counts;
+		if (buckets == null) buckets = allocateCounts();
+		buckets.incrementAndGet(bucketIndex(nanos));
+		count.increment();
+		total.add(nanos);
+		max.accumulate(nanos);
+	}
+
+	/**
+	 * Record the time elapsed since start, as returned by
+	 * {@link System#nanoTime()}.
+	 * @param start long
+	 */
+	public void recordSince(long start) {
+		record(System.nanoTime() - start);
+	}
+
+	private synchronized AtomicLongArray allocateCounts() {
+		if (counts == null) counts = new AtomicLongArray(N_BUCKETS);
+		return counts;
+	}
+
+	static int bucketIndex(long value) {
+		if (value < EXACT_LIMIT) return (int)value;
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return EXACT_LIMIT + (shift - 1) * SUB_BUCKETS + (int)((value >>> shift) - SUB_BUCKETS);
+	}
+
+	/*
+	 * Midpoint of the range of values counted in a bucket.
+	 */
+	static long bucketValue(int index) {
+		if (index < EXACT_LIMIT) return index;
+		int shift = (index - EXACT_LIMIT) / SUB_BUCKETS + 1;
+		long lower = (long)(SUB_BUCKETS + (index - EXACT_LIMIT) % SUB_BUCKETS) << shift;
+		return lower + (1L << (shift - 1));
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * Return the total of all recorded latencies.
+	 * @return long in nanoseconds
+	 */
+	public long getTotal() {
+		return total.sum();
+	}
+
+	/**
+	 * Return the mean latency.
+	 * @return double in nanoseconds, NaN if nothing is recorded
+	 */
+	public double getMean() {
+		long n = count.sum();
+		return n == 0 ? Double.NaN : (double)total.sum() / n;
+	}
+
+	/**
+	 * Return the largest latency recorded.
+	 * @return long in nanoseconds
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Return a percentile of the recorded latencies, to the resolution of
+	 * the histogram. Concurrent recording may make the result slightly
+	 * inconsistent with {@link #getCount()}.
+	 *
+	 * @param percentile double between 0 and 100
+	 * @return long in nanoseconds, 0 if nothing is recorded
+	 */
+	public long getPercentile(double percentile) {
+		AtomicLongArray buckets = counts;
+		if (buckets == null) return 0;
+		long n = 0;
+		for (int i = 0; i < N_BUCKETS; i++) {
+			n += buckets.get(i);
+		}
+		if (n == 0) return 0;
+		long rank = Math.max(1, (long)Math.ceil(percentile / 100 * n));
+		if (rank >= n) return getMax();
+		long seen = 0;
+		for (int i = 0; i < N_BUCKETS; i++) {
+			seen += buckets.get(i);
+			if (seen >= rank) {
+				return Math.min(bucketValue(i), getMax());
+			}
+		}
+		return getMax();
+	}
+
+	public void reset() {
+		AtomicLongArray buckets = counts;
+		if (buckets != null) {
+			for (int i = 0; i < N_BUCKETS; i++) {
+				buckets.set(i, 0);
+			}
+		}
+		count.reset();
+		total.reset();
+		max.reset();
+	}
+
+}
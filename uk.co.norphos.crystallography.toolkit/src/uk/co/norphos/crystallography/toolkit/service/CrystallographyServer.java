@@ -0,0 +1,300 @@
+package uk.co.norphos.crystallography.toolkit.service;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import uk.co.norphos.crystallography.api.Lattice;
+import uk.co.norphos.crystallography.api.MillerIndex;
+import uk.co.norphos.crystallography.toolkit.CellCache;
+import uk.co.norphos.crystallography.toolkit.ReflectionList;
+import uk.co.norphos.crystallography.toolkit.UnitCell;
+import uk.co.norphos.crystallography.toolkit.metrics.Counter;
+import uk.co.norphos.crystallography.toolkit.metrics.Metrics;
+import uk.co.norphos.crystallography.toolkit.metrics.Timer;
+
+/**
+ * Embeddable crystallographic computation service listening on the
+ * loopback interface. Clients send one request per line and receive one
+ * response line, starting either OK or ERR. Lattice parameters are given
+ * as a b c alpha beta gamma (Angstroms, degrees):
+ * <pre>
+ * CELL a b c al be ga                         -&gt; OK V a* b* c* al* be* ga*
+ * DISTANCE a b c al be ga x1 y1 z1 x2 y2 z2   -&gt; OK d
+ * DSPACING a b c al be ga h k l               -&gt; OK d
+ * REFLECTIONS a b c al be ga dMin             -&gt; OK n h k l d h k l d ...
+ * STATS                                       -&gt; OK requests p50 p99 (microseconds)
+ * </pre>
+ * Each connection is served by its own task on a virtual thread where the
+ * runtime supports them (Java 21 and later), otherwise on a cached pool of
+ * platform threads. Unit cells and reflection lists are cached per
+ * {@link Lattice} and distance requests from all connections are batched
+ * into the packed geometry path.
+ *
+ * @author Michael Wharmby
+ *
+ */
+public class CrystallographyServer implements Closeable {
+
+	private static final int CACHE_CAPACITY = 1024;
+	private static final int LATENCY_WINDOW = 1 << 16;
+	//Longest wait for the distance batcher, which should answer in microseconds
+	private static final long BATCH_TIMEOUT_SECONDS = 10;
+	//Pause after a failed accept before trying again
+	private static final long ACCEPT_RETRY_DELAY_MS = 100;
+	private static final Timer REQUEST_TIMER = Metrics.timer("service.request");
+	private static final Counter ERROR_COUNTER = Metrics.counter("service.errors");
+	private static final Counter CONNECTION_COUNTER = Metrics.counter("service.connections");
+
+	private final ServerSocket serverSocket;
+	private final ExecutorService executor;
+	private final LatticeCache cache;
+	private final DistanceBatcher batcher;
+	private final Thread batcherThread;
+	private final LatencyRecorder latencies = new LatencyRecorder(LATENCY_WINDOW);
+	private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+	private volatile boolean running = true;
+
+	/**
+	 * Start a server on the loopback interface.
+	 *
+	 * @param port int port to listen on, or 0 for any free port
+	 * @throws IOException if the port cannot be bound
+	 */
+	public CrystallographyServer(int port) throws IOException {
+		this(port, null);
+	}
+
+	/**
+	 * Start a server on the loopback interface which keeps reflection
+	 * lists in a disk cache, so that they survive restarts. The cache
+	 * remains open when the server is closed.
+	 *
+	 * @param port int port to listen on, or 0 for any free port
+	 * @param diskCache {@link CellCache}, or null for none
+	 * @throws IOException if the port cannot be bound
+	 */
+	public CrystallographyServer(int port, CellCache diskCache) throws IOException {
+		cache = new LatticeCache(CACHE_CAPACITY, diskCache);
+		batcher = new DistanceBatcher(cache);
+		serverSocket = new ServerSocket(port, 256, InetAddress.getLoopbackAddress());
+		executor = newPerTaskExecutor();
+		batcherThread = new Thread(batcher, "distance-batcher");
+		batcherThread.setDaemon(true);
+		batcherThread.start();
+		executor.execute(this::acceptConnections);
+	}
+
+	/*
+	 * Executors.newVirtualThreadPerTaskExecutor() is looked up reflectively
+	 * so that this bundle still runs on Java 8.
+	 */
+	private static ExecutorService newPerTaskExecutor() {
+		try {
+			return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return Executors.newCachedThreadPool(task -> {
+				Thread thread = new Thread(task, "crystallography-service");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+	}
+
+	/**
+	 * Return the port the server is listening on.
+	 * @return int
+	 */
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	/**
+	 * Return the number of lattices currently cached.
+	 * @return int
+	 */
+	public int getCachedLatticeCount() {
+		return cache.size();
+	}
+
+	/**
+	 * Return the number of requests served and the 50th and 99th percentile
+	 * latencies of recent requests.
+	 * @return long[]{count, p50, p99} with latencies in nanoseconds
+	 */
+	public long[] getLatencyStatistics() {
+		long[] percentiles = latencies.getPercentiles(50, 99);
+		return new long[]{latencies.getCount(), percentiles[0], percentiles[1]};
+	}
+
+	private void acceptConnections() {
+		while (running) {
+			try {
+				Socket socket = serverSocket.accept();
+				connections.add(socket);
+				if (Metrics.ENABLED) CONNECTION_COUNTER.increment();
+				executor.execute(() -> serve(socket));
+			} catch (IOException e) {
+				if (!running) return;
+				//e.g. out of file descriptors; give connections time to close
+				try {
+					Thread.sleep(ACCEPT_RETRY_DELAY_MS);
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	private void serve(Socket socket) {
+		try (Socket s = socket;
+				BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.US_ASCII));
+				Writer out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.US_ASCII))) {
+			s.setTcpNoDelay(true);
+			StringBuilder response = new StringBuilder();
+			String line;
+			while ((line = in.readLine()) != null) {
+				long start = System.nanoTime();
+				response.setLength(0);
+				try {
+					handle(line.trim(), response);
+				} catch (RuntimeException | ExecutionException e) {
+					Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+					if (Metrics.ENABLED) ERROR_COUNTER.increment();
+					response.setLength(0);
+					response.append("ERR ").append(cause.getMessage() != null ? cause.getMessage() : cause.getClass().getName());
+				}
+				response.append('\n');
+				out.append(response);
+				out.flush();
+				long elapsed = System.nanoTime() - start;
+				latencies.record(elapsed);
+				if (Metrics.ENABLED) REQUEST_TIMER.record(elapsed);
+			}
+		} catch (IOException e) {
+			//Client went away; nothing to report to
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			connections.remove(socket);
+		}
+	}
+
+	private void handle(String line, StringBuilder response) throws ExecutionException, InterruptedException {
+		String[] tokens = line.split("\\s+");
+		String command = tokens[0].toUpperCase();
+		switch (command) {
+		case "CELL": {
+			checkArguments(tokens, 6);
+			UnitCell cell = cache.get(parseLattice(tokens)).getCell();
+			response.append("OK ").append(cell.getVolume());
+			Lattice reciprocal = cell.getReciprocalLattice();
+			response.append(' ').append(reciprocal.getA()).append(' ').append(reciprocal.getB())
+					.append(' ').append(reciprocal.getC()).append(' ').append(reciprocal.getAl())
+					.append(' ').append(reciprocal.getBe()).append(' ').append(reciprocal.getGa());
+			break;
+		}
+		case "DISTANCE": {
+			checkArguments(tokens, 12);
+			double[] sites = new double[6];
+			for (int i = 0; i < 6; i++) {
+				sites[i] = parseDouble(tokens[7 + i]);
+			}
+			double distance;
+			try {
+				distance = batcher.submit(parseLattice(tokens), sites).get(BATCH_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+			} catch (TimeoutException e) {
+				throw new IllegalStateException("Distance calculation timed out");
+			}
+			response.append("OK ").append(distance);
+			break;
+		}
+		case "DSPACING": {
+			checkArguments(tokens, 9);
+			UnitCell cell = cache.get(parseLattice(tokens)).getCell();
+			MillerIndex hkl = new MillerIndex(parseDouble(tokens[7]), parseDouble(tokens[8]), parseDouble(tokens[9]));
+			response.append("OK ").append(cell.getDSpacing(hkl));
+			break;
+		}
+		case "REFLECTIONS": {
+			checkArguments(tokens, 7);
+			double dMin = parseDouble(tokens[7]);
+			if (!(dMin > 0)) {
+				throw new IllegalArgumentException("dMin must be positive");
+			}
+			ReflectionList reflections = cache.get(parseLattice(tokens)).getReflections(dMin);
+			response.append("OK ").append(reflections.size());
+			for (int i = 0; i < reflections.size(); i++) {
+				response.append(' ').append(reflections.getH(i)).append(' ').append(reflections.getK(i))
+						.append(' ').append(reflections.getL(i)).append(' ').append(reflections.getDSpacing(i));
+			}
+			break;
+		}
+		case "STATS": {
+			long[] stats = getLatencyStatistics();
+			response.append("OK ").append(stats[0]).append(' ').append(stats[1] / 1000.0)
+					.append(' ').append(stats[2] / 1000.0);
+			break;
+		}
+		default:
+			throw new IllegalArgumentException("Unknown command '"+tokens[0]+"'");
+		}
+	}
+
+	private static void checkArguments(String[] tokens, int expected) {
+		if (tokens.length != expected + 1) {
+			throw new IllegalArgumentException(tokens[0]+" expects "+expected+" arguments, got "+(tokens.length - 1));
+		}
+	}
+
+	private static Lattice parseLattice(String[] tokens) {
+		return new Lattice(parseDouble(tokens[1]), parseDouble(tokens[2]), parseDouble(tokens[3]),
+				parseDouble(tokens[4]), parseDouble(tokens[5]), parseDouble(tokens[6]));
+	}
+
+	private static double parseDouble(String token) {
+		try {
+			return Double.parseDouble(token);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Not a number: '"+token+"'");
+		}
+	}
+
+	/**
+	 * Stop accepting connections, close open ones and stop the distance
+	 * batcher.
+	 */
+	@Override
+	public void close() throws IOException {
+		running = false;
+		serverSocket.close();
+		for (Socket socket : connections) {
+			socket.close();
+		}
+		batcher.stop();
+		executor.shutdownNow();
+		try {
+			executor.awaitTermination(5, TimeUnit.SECONDS);
+			batcherThread.join(5000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
@@ -0,0 +1,115 @@
+package uk.co.norphos.crystallography.toolkit.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import uk.co.norphos.crystallography.api.Lattice;
+import uk.co.norphos.crystallography.toolkit.UnitCell;
+
+/**
+ * Collects single distance requests from many connections and evaluates
+ * them together through the packed
+ * {@link UnitCell#calculateDistances(double[], double[], double[])} path.
+ * Whatever has queued while the previous batch was being evaluated forms
+ * the next batch, so no delay is added when the service is lightly loaded.
+ *
+ * @author Michael Wharmby
+ *
+ */
+final class DistanceBatcher implements Runnable {
+
+	private static final int MAX_BATCH = 4096;
+
+	private static final class Request {
+		private final Lattice lattice;
+		private final double[] sites;
+		private final CompletableFuture<Double> result = new CompletableFuture<>();
+
+		private Request(Lattice lattice, double[] sites) {
+			this.lattice = lattice;
+			this.sites = sites;
+		}
+	}
+
+	//Placed on the queue to stop the batcher
+	private static final Request POISON = new Request(null, null);
+
+	private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+	private final LatticeCache cache;
+
+	DistanceBatcher(LatticeCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Queue a distance calculation.
+	 *
+	 * @param lattice {@link Lattice}
+	 * @param sites double[6] fractional coordinates of the two sites
+	 * @return CompletableFuture which completes with the distance
+	 */
+	CompletableFuture<Double> submit(Lattice lattice, double[] sites) {
+		Request request = new Request(lattice, sites);
+		queue.add(request);
+		return request.result;
+	}
+
+	void stop() {
+		queue.add(POISON);
+	}
+
+	@Override
+	public void run() {
+		List<Request> batch = new ArrayList<>();
+		Map<Lattice, List<Request>> byLattice = new HashMap<>();
+		try {
+			while (true) {
+				batch.add(queue.take());
+				queue.drainTo(batch, MAX_BATCH - 1);
+				boolean stopping = false;
+				for (Request request : batch) {
+					if (request == POISON) {
+						stopping = true;
+					} else {
+						byLattice.computeIfAbsent(request.lattice, l -> new ArrayList<>()).add(request);
+					}
+				}
+				for (Map.Entry<Lattice, List<Request>> group : byLattice.entrySet()) {
+					evaluate(group.getKey(), group.getValue());
+				}
+				batch.clear();
+				byLattice.clear();
+				if (stopping) return;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void evaluate(Lattice lattice, List<Request> requests) {
+		int n = requests.size();
+		double[] sites1 = new double[3 * n], sites2 = new double[3 * n], distances = new double[n];
+		for (int i = 0; i < n; i++) {
+			double[] sites = requests.get(i).sites;
+			System.arraycopy(sites, 0, sites1, 3 * i, 3);
+			System.arraycopy(sites, 3, sites2, 3 * i, 3);
+		}
+		try {
+			cache.get(lattice).getCell().calculateDistances(sites1, sites2, distances);
+		} catch (RuntimeException e) {
+			for (Request request : requests) {
+				request.result.completeExceptionally(e);
+			}
+			return;
+		}
+		for (int i = 0; i < n; i++) {
+			requests.get(i).result.complete(distances[i]);
+		}
+	}
+
+}
@@ -0,0 +1,55 @@
+package uk.co.norphos.crystallography.toolkit.service;
+
+import java.util.Arrays;
+
+/**
+ * Records request latencies in a fixed-size ring, from which percentiles
+ * of the most recent requests can be calculated.
+ *
+ * @author Michael Wharmby
+ *
+ */
+final class LatencyRecorder {
+
+	private final long[] samples;
+	private long count;
+
+	LatencyRecorder(int window) {
+		samples = new long[window];
+	}
+
+	synchronized void record(long nanos) {
+		samples[(int)(count % samples.length)] = nanos;
+		count++;
+	}
+
+	/**
+	 * Return the total number of latencies recorded.
+	 * @return long
+	 */
+	synchronized long getCount() {
+		return count;
+	}
+
+	/**
+	 * Return percentiles of the latencies in the current window.
+	 *
+	 * @param percentiles double[] each between 0 and 100
+	 * @return long[] latencies in nanoseconds, zero if nothing is recorded
+	 */
+	long[] getPercentiles(double... percentiles) {
+		long[] window;
+		synchronized (this) {
+			window = Arrays.copyOf(samples, (int)Math.min(count, samples.length));
+		}
+		Arrays.sort(window);
+		long[] result = new long[percentiles.length];
+		if (window.length == 0) return result;
+		for (int i = 0; i < percentiles.length; i++) {
+			int rank = (int)Math.ceil(percentiles[i] / 100 * window.length) - 1;
+			result[i] = window[Math.max(0, Math.min(window.length - 1, rank))];
+		}
+		return result;
+	}
+
+}
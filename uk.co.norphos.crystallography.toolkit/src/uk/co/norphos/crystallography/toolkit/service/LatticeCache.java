@@ -0,0 +1,141 @@
+package uk.co.norphos.crystallography.toolkit.service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import uk.co.norphos.crystallography.api.Lattice;
+import uk.co.norphos.crystallography.toolkit.CellCache;
+import uk.co.norphos.crystallography.toolkit.ReflectionList;
+import uk.co.norphos.crystallography.toolkit.UnitCell;
+
+/**
+ * Least-recently-used cache of the {@link UnitCell} built for each
+ * {@link Lattice}, together with any reflection lists enumerated for it.
+ * Reflection lists not held in memory are taken from a disk
+ * {@link CellCache}, where one is given, before being enumerated.
+ *
+ * @author Michael Wharmby
+ *
+ */
+final class LatticeCache {
+
+	/**
+	 * Number of reflection lists, each for a different d-spacing limit,
+	 * kept for one lattice.
+	 */
+	static final int REFLECTION_LISTS_PER_LATTICE = 8;
+
+	/**
+	 * A cached unit cell and the most recently used reflection lists
+	 * calculated from it, keyed by d-spacing limit.
+	 */
+	static final class Entry {
+
+		private final Lattice lattice;
+		private final UnitCell cell;
+		private final CellCache diskCache;
+		private final Map<Double, ReflectionList> reflections = lruMap(REFLECTION_LISTS_PER_LATTICE);
+
+		private Entry(Lattice lattice, CellCache diskCache) {
+			this.lattice = lattice;
+			this.diskCache = diskCache;
+			cell = new UnitCell(lattice);
+		}
+
+		UnitCell getCell() {
+			return cell;
+		}
+
+		/*
+		 * Built outside the lock, as for the entries themselves.
+		 */
+		ReflectionList getReflections(double dMin) {
+			synchronized (reflections) {
+				ReflectionList list = reflections.get(dMin);
+				if (list != null) return list;
+			}
+			ReflectionList built;
+			if (diskCache == null) {
+				built = ReflectionList.enumerate(cell, dMin);
+			} else {
+				try {
+					built = diskCache.getReflections(lattice, dMin);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+			synchronized (reflections) {
+				ReflectionList list = reflections.get(dMin);
+				if (list != null) return list;
+				reflections.put(dMin, built);
+				return built;
+			}
+		}
+
+		int getReflectionListCount() {
+			synchronized (reflections) {
+				return reflections.size();
+			}
+		}
+
+	}
+
+	private final Map<Lattice, Entry> entries;
+	private final CellCache diskCache;
+
+	LatticeCache(final int capacity) {
+		this(capacity, null);
+	}
+
+	LatticeCache(final int capacity, CellCache diskCache) {
+		this.diskCache = diskCache;
+		entries = lruMap(capacity);
+	}
+
+	/*
+	 * Access-ordered map dropping its least recently used entry beyond
+	 * capacity; callers synchronize on it.
+	 */
+	private static <K, V> Map<K, V> lruMap(final int capacity) {
+		return new LinkedHashMap<K, V>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * Return the cached entry for a lattice, building it if necessary. The
+	 * cell is built outside the lock so one slow construction does not
+	 * stall other lattices; concurrent misses on the same lattice may both
+	 * build, the first to finish wins.
+	 *
+	 * @param lattice {@link Lattice}
+	 * @return Entry
+	 */
+	Entry get(Lattice lattice) {
+		synchronized (entries) {
+			Entry entry = entries.get(lattice);
+			if (entry != null) return entry;
+		}
+		Entry built = new Entry(lattice, diskCache);
+		synchronized (entries) {
+			Entry entry = entries.get(lattice);
+			if (entry != null) return entry;
+			entries.put(lattice, built);
+			return built;
+		}
+	}
+
+	int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+}
@@ -0,0 +1,124 @@
+package uk.co.norphos.crystallography.toolkit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.apache.commons.math3.linear.EigenDecomposition;
+import org.apache.commons.math3.linear.MatrixUtils;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.co.norphos.crystallography.api.Lattice;
+
+public class AdpConverterTest {
+
+	//Two sites, packed {11, 22, 33, 12, 13, 23}
+	private static final double[] U_CIF = {
+			0.0213, 0.0187, 0.0305, 0.0041, -0.0023, 0.0012,
+			0.0450, 0.0121, 0.0180, -0.0030, 0.0065, -0.0017};
+
+	private UnitCell cell;
+	private AdpConverter converter;
+
+	@Before
+	public void setUp() {
+		cell = new UnitCell(new Lattice(7.19196, 8.1272, 8.12771, 82.4809, 69.261, 69.2584));
+		converter = new AdpConverter(cell);
+	}
+
+	private RealMatrix unpack(double[] packed, int offset) {
+		double[] full = new double[9];
+		Matrix3.unpack(packed, offset, full);
+		return MatrixUtils.createRealMatrix(new double[][]{
+			{full[0], full[1], full[2]}, {full[3], full[4], full[5]}, {full[6], full[7], full[8]}});
+	}
+
+	@Test
+	public void testCartesian() {
+		//U_cart = O.N.U_cif.N^T.O^T
+		RealMatrix ortho = cell.getOrthogonalizationMatrix();
+		CellWorkspace workspace = new CellWorkspace(cell.getLattice());
+		RealMatrix n = MatrixUtils.createRealDiagonalMatrix(new double[]{workspace.getAStar(), workspace.getBStar(), workspace.getCStar()});
+		RealMatrix m = ortho.multiply(n);
+
+		double[] uCart = new double[12];
+		converter.cifToCartesian(U_CIF, 0, uCart, 0, 2);
+		for (int s = 0; s < 2; s++) {
+			RealMatrix expected = m.multiply(unpack(U_CIF, 6 * s)).multiply(m.transpose());
+			RealMatrix actual = unpack(uCart, 6 * s);
+			assertEquals("Wrong U_cart", 0, expected.subtract(actual).getNorm(), 1e-15);
+
+			//Trace is invariant under rotation, so gives U_eq
+			double[] uEq = new double[1];
+			converter.equivalentIsotropic(U_CIF, 6 * s, uEq, 0, 1);
+			assertEquals("Wrong U_eq", expected.getTrace() / 3, uEq[0], 1e-15);
+
+			//Principal axes
+			double[] values = new double[3], vectors = new double[9];
+			converter.principalAxes(U_CIF, 6 * s, values, vectors, 1);
+			assertArrayEquals("Wrong principal values", new EigenDecomposition(expected).getRealEigenvalues(), values, 1e-15);
+		}
+
+		//Back again, in place
+		converter.cartesianToCif(uCart, 0, uCart, 0, 2);
+		assertArrayEquals("Round trip failed", U_CIF, uCart, 1e-15);
+	}
+
+	@Test
+	public void testReciprocal() {
+		double[] uStar = new double[12], beta = new double[12], back = new double[12];
+		converter.cifToStar(U_CIF, 0, uStar, 0, 2);
+		converter.cifToBeta(U_CIF, 0, beta, 0, 2);
+		CellWorkspace workspace = new CellWorkspace(cell.getLattice());
+		double as = workspace.getAStar(), cs = workspace.getCStar();
+		assertEquals("Wrong U*11", U_CIF[6] * as * as, uStar[6], 1e-15);
+		assertEquals("Wrong U*13", U_CIF[10] * as * cs, uStar[10], 1e-15);
+		for (int i = 0; i < 12; i++) {
+			assertEquals("Wrong beta", AdpConverter.BETA_FACTOR * uStar[i], beta[i], 1e-15);
+		}
+		converter.starToCif(uStar, 0, back, 0, 2);
+		assertArrayEquals("U* round trip failed", U_CIF, back, 1e-15);
+		converter.betaToCif(beta, 0, back, 0, 2);
+		assertArrayEquals("beta round trip failed", U_CIF, back, 1e-15);
+
+		//Offsets into longer arrays, U and B
+		double[] b = new double[15];
+		AdpConverter.convertUB(U_CIF, 6, b, 3, 1, true);
+		assertEquals("Wrong B", 8 * Math.PI * Math.PI * 0.0450, b[3], 1e-14);
+		assertEquals("Wrote beyond count", 0, b[9], 0);
+		AdpConverter.convertUB(b, 3, b, 3, 1, false);
+		assertEquals("Wrong U", 0.0450, b[3], 1e-16);
+	}
+
+	@Test
+	public void testIsotropic() {
+		double[] uIso = {0.01, 0.025}, uCif = new double[12], uCart = new double[12], uEq = new double[2];
+		converter.isotropicToCif(uIso, 0, uCif, 0, 2);
+		converter.cifToCartesian(uCif, 0, uCart, 0, 2);
+		converter.equivalentIsotropic(uCif, 0, uEq, 0, 2);
+		for (int s = 0; s < 2; s++) {
+			assertArrayEquals("Not isotropic", new double[]{uIso[s], uIso[s], uIso[s], 0, 0, 0},
+					Arrays.copyOfRange(uCart, 6 * s, 6 * s + 6), 1e-15);
+			assertEquals("Wrong U_eq", uIso[s], uEq[s], 1e-15);
+		}
+
+		//Cubic: all conventions but U* and beta coincide with U_cart
+		AdpConverter cubic = new AdpConverter(new UnitCell(new Lattice(5, 5, 5, 90, 90, 90)));
+		cubic.cifToCartesian(U_CIF, 0, uCart, 0, 2);
+		assertArrayEquals("Cubic U_cart differs", U_CIF, uCart, 1e-15);
+	}
+
+	@Test
+	public void testPositiveDefinite() {
+		assertTrue("Real ellipsoid rejected", AdpConverter.isPositiveDefinite(U_CIF, 0));
+		assertTrue("Real ellipsoid rejected", AdpConverter.isPositiveDefinite(U_CIF, 6));
+		assertFalse("Non-positive definite accepted", AdpConverter.isPositiveDefinite(new double[]{0.01, 0.01, 0.01, 0.02, 0, 0}, 0));
+		assertFalse("Negative U11 accepted", AdpConverter.isPositiveDefinite(new double[]{-0.01, 0.01, 0.01, 0, 0, 0}, 0));
+	}
+
+}
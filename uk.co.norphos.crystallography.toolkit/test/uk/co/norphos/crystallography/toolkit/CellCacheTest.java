@@ -0,0 +1,166 @@
+package uk.co.norphos.crystallography.toolkit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.co.norphos.crystallography.api.Lattice;
+
+public class CellCacheTest {
+
+	private static final Lattice TRICLINIC = new Lattice(7.19196, 8.1272, 8.12771, 82.4809, 69.261, 69.2584);
+
+	private Path file;
+
+	@Before
+	public void setUp() throws IOException {
+		file = Files.createTempFile("cells", ".cache");
+		Files.delete(file);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(file);
+	}
+
+	private static void assertSameReflections(ReflectionList expected, ReflectionList actual) {
+		assertArrayEquals("Wrong indices", expected.getIndices(), actual.getIndices());
+		assertArrayEquals("Wrong d-spacings", expected.getDSpacings(), actual.getDSpacings(), 0);
+	}
+
+	@Test
+	public void testWarmRestart() throws IOException {
+		ReflectionList expected = ReflectionList.enumerate(new UnitCell(TRICLINIC), 1.2);
+		long size;
+		try (CellCache cache = CellCache.open(file, 1 << 24)) {
+			assertSameReflections(expected, cache.getReflections(TRICLINIC, 1.2));
+			cache.getNiggliCell(TRICLINIC);
+			assertEquals("Wrong number of entries", 2, cache.size());
+			size = cache.getFileSize();
+		}
+		assertEquals("Wrong file size", size, Files.size(file));
+
+		try (CellCache cache = CellCache.open(file, 1 << 24)) {
+			assertEquals("Entries not reloaded", 2, cache.size());
+			//Within the key resolution, so taken from the file
+			Lattice close = new Lattice(7.191961, 8.1272, 8.12771, 82.4809, 69.261, 69.2584);
+			assertSameReflections(expected, cache.getReflections(close, 1.2));
+			assertEquals("Entry added", size, cache.getFileSize());
+
+			double[] reduced = {TRICLINIC.getA(), TRICLINIC.getB(), TRICLINIC.getC(), TRICLINIC.getAl(), TRICLINIC.getBe(),
+					TRICLINIC.getGa()};
+			CellOperations.niggliReduce().apply(reduced, null);
+			Lattice niggli = cache.getNiggliCell(TRICLINIC);
+			assertArrayEquals("Wrong reduced cell", reduced, new double[]{niggli.getA(), niggli.getB(), niggli.getC(),
+					niggli.getAl(), niggli.getBe(), niggli.getGa()}, 0);
+
+			cache.getReflections(TRICLINIC, 1.5);
+			assertEquals("Entry not added", 3, cache.size());
+		}
+	}
+
+	@Test
+	public void testTornRecord() throws IOException {
+		long good;
+		try (CellCache cache = CellCache.open(file, 1 << 24)) {
+			cache.getReflections(TRICLINIC, 2);
+			good = cache.getFileSize();
+			cache.getReflections(TRICLINIC, 1.5);
+		}
+		//Cut the last record short, as if the run died while appending it
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			channel.truncate(Files.size(file) - 7);
+		}
+		try (CellCache cache = CellCache.open(file, 1 << 24)) {
+			assertEquals("Damaged entry kept", 1, cache.size());
+			assertEquals("File not cut back", good, Files.size(file));
+		}
+
+		//Corrupt a byte of the payload
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			channel.write(ByteBuffer.wrap(new byte[]{42}), good - 20);
+		}
+		try (CellCache cache = CellCache.open(file, 1 << 24)) {
+			assertEquals("Corrupt entry kept", 0, cache.size());
+			assertSameReflections(ReflectionList.enumerate(new UnitCell(TRICLINIC), 2), cache.getReflections(TRICLINIC, 2));
+		}
+	}
+
+	@Test
+	public void testEviction() throws IOException {
+		long limit = 64 * 1024;
+		Lattice[] lattices = new Lattice[40];
+		try (CellCache cache = CellCache.open(file, limit)) {
+			for (int i = 0; i < lattices.length; i++) {
+				lattices[i] = new Lattice(5 + 0.01 * i, 6, 7, 90, 95, 90);
+				cache.getReflections(lattices[i], 1.2);
+				//Keep the first lattice in use
+				cache.getReflections(lattices[0], 1.2);
+				assertTrue("File has outgrown its limit", cache.getFileSize() <= limit);
+			}
+			assertTrue("Nothing evicted", cache.size() < lattices.length);
+		}
+		try (CellCache cache = CellCache.open(file, limit)) {
+			long size = cache.getFileSize();
+			cache.getReflections(lattices[0], 1.2);
+			cache.getReflections(lattices[lattices.length - 1], 1.2);
+			assertEquals("Recently used entries evicted", size, cache.getFileSize());
+			cache.getReflections(lattices[1], 1.2);
+			assertTrue("Old entry kept", cache.getFileSize() != size);
+		}
+	}
+
+	@Test
+	public void testOversizedEntryNotStored() throws IOException {
+		try (CellCache cache = CellCache.open(file, 4096)) {
+			ReflectionList reflections = cache.getReflections(TRICLINIC, 1.2);
+			assertTrue("Test list too small", 20 * reflections.size() > 4096);
+			assertEquals("Oversized entry stored", 0, cache.size());
+			cache.getNiggliCell(TRICLINIC);
+			long size = cache.getFileSize();
+			assertSameReflections(reflections, cache.getReflections(TRICLINIC, 1.2));
+			assertEquals("Small entry evicted", 1, cache.size());
+			assertEquals("File rewritten", size, cache.getFileSize());
+		}
+	}
+
+	@Test
+	public void testFailedCompaction() throws IOException {
+		long limit = 64 * 1024;
+		//Somewhere the compacted file cannot be written
+		Path tmp = file.resolveSibling(file.getFileName()+".tmp");
+		Files.createDirectory(tmp);
+		try (CellCache cache = CellCache.open(file, limit)) {
+			long grown = 0;
+			for (int i = 0; i < 40; i++) {
+				cache.getReflections(new Lattice(5 + 0.01 * i, 6, 7, 90, 95, 90), 1.2);
+				if (cache.getFileSize() > limit) {
+					if (grown == 0) grown = cache.getFileSize();
+					assertEquals("File grew after compaction failed", grown, cache.getFileSize());
+				}
+			}
+			assertTrue("Compaction not attempted", grown > 0);
+			assertTrue("Temporary file left behind", !Files.exists(tmp));
+			assertSameReflections(ReflectionList.enumerate(new UnitCell(new Lattice(5, 6, 7, 90, 95, 90)), 1.2),
+					cache.getReflections(new Lattice(5, 6, 7, 90, 95, 90), 1.2));
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testNotCache() throws IOException {
+		Files.write(file, new byte[64]);
+		CellCache.open(file, 1 << 20).close();
+	}
+
+}
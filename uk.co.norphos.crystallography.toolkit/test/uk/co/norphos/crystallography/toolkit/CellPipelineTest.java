@@ -0,0 +1,132 @@
+package uk.co.norphos.crystallography.toolkit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.co.norphos.crystallography.api.PrincipleAxis;
+
+public class CellPipelineTest {
+
+	private static final int N_CELLS = 5000;
+
+	private double[] a, b, c, al, be, ga;
+
+	@Before
+	public void setUp() {
+		//Random non-reduced cells, built from random integer bases of a
+		//reduced cell so that every one is valid
+		Random rand = new Random(42);
+		a = new double[N_CELLS];
+		b = new double[N_CELLS];
+		c = new double[N_CELLS];
+		al = new double[N_CELLS];
+		be = new double[N_CELLS];
+		ga = new double[N_CELLS];
+		for (int i = 0; i < N_CELLS; i++) {
+			a[i] = 3 + 10 * rand.nextDouble();
+			b[i] = 3 + 10 * rand.nextDouble();
+			c[i] = 3 + 10 * rand.nextDouble();
+			al[i] = 80 + 30 * rand.nextDouble();
+			be[i] = 80 + 30 * rand.nextDouble();
+			ga[i] = 80 + 30 * rand.nextDouble();
+		}
+	}
+
+	@Test
+	public void testNiggliReduction() {
+		//Example from Krivy & Gruber (1976): G6 = (9, 27, 4, -5, -4, -22)
+		double[] cell = fromG6(9, 27, 4, -5, -4, -22);
+		new CellPipeline(CellOperations.niggliReduce()).run(cell);
+		assertArrayEquals("Wrong reduced cell", new double[]{4, 9, 9, 9, 3, 4}, toG6(cell), 1e-8);
+
+		//Reduction preserves the volume and is idempotent
+		double[] volumes = new double[N_CELLS], reducedVolumes = new double[N_CELLS];
+		double[] ra = a.clone(), rb = b.clone(), rc = c.clone(), ral = al.clone(), rbe = be.clone(), rga = ga.clone();
+		CellPipeline identity = new CellPipeline();
+		CellPipeline reduce = new CellPipeline(CellOperations.niggliReduce());
+		identity.run(a, b, c, al, be, ga, a.clone(), b.clone(), c.clone(), al.clone(), be.clone(), ga.clone(), volumes);
+		reduce.run(ra, rb, rc, ral, rbe, rga, ra, rb, rc, ral, rbe, rga, reducedVolumes);
+		for (int i = 0; i < N_CELLS; i++) {
+			assertEquals("Wrong volume of cell "+i, volumes[i], reducedVolumes[i], 1e-8 * volumes[i]);
+			assertEquals("Lengths not sorted for cell "+i, true, ra[i] <= rb[i] + 1e-6 && rb[i] <= rc[i] + 1e-6);
+			double[] once = {ra[i], rb[i], rc[i], ral[i], rbe[i], rga[i]};
+			double[] twice = once.clone();
+			reduce.run(twice);
+			assertArrayEquals("Reduction not idempotent for cell "+i, once, twice, 1e-6);
+		}
+	}
+
+	@Test
+	public void testReciprocal() {
+		double[] cell = {5, 6, 7, 90, 90, 90};
+		new CellPipeline(CellOperations.reciprocal()).run(cell);
+		assertArrayEquals("Wrong reciprocal cell", new double[]{0.2, 1. / 6, 1. / 7, 90, 90, 90}, cell, 1e-12);
+
+		CellPipeline twice = new CellPipeline(CellOperations.reciprocal(), CellOperations.reciprocal());
+		double[] ra = new double[N_CELLS], rb = new double[N_CELLS], rc = new double[N_CELLS];
+		double[] ral = new double[N_CELLS], rbe = new double[N_CELLS], rga = new double[N_CELLS];
+		twice.run(a, b, c, al, be, ga, ra, rb, rc, ral, rbe, rga, null);
+		for (int i = 0; i < N_CELLS; i++) {
+			assertArrayEquals("Reciprocal of reciprocal differs for cell "+i,
+					new double[]{a[i], b[i], c[i], al[i], be[i], ga[i]},
+					new double[]{ra[i], rb[i], rc[i], ral[i], rbe[i], rga[i]}, 1e-9);
+		}
+	}
+
+	@Test
+	public void testPermuteAxes() {
+		//Monoclinic unique axis b to unique axis c and back
+		double[] cell = {5, 6, 7, 90, 105, 90};
+		new CellPipeline(CellOperations.permuteAxes(PrincipleAxis.B, PrincipleAxis.C)).run(cell);
+		assertArrayEquals("Wrong permuted cell", new double[]{7, 5, 6, 90, 90, 105}, cell, 0);
+		new CellPipeline(CellOperations.permuteAxes(PrincipleAxis.C, PrincipleAxis.B)).run(cell);
+		assertArrayEquals("Round trip failed", new double[]{5, 6, 7, 90, 105, 90}, cell, 0);
+
+		cell = new double[]{5, 6, 7, 90, 105, 90};
+		new CellPipeline(CellOperations.permuteAxes(PrincipleAxis.B, PrincipleAxis.A)).run(cell);
+		assertArrayEquals("Wrong permuted cell", new double[]{6, 7, 5, 105, 90, 90}, cell, 0);
+	}
+
+	@Test
+	public void testFusedMatchesSequential() {
+		CellOperation[] ops = {CellOperations.niggliReduce(), CellOperations.reciprocal(),
+				CellOperations.permuteAxes(PrincipleAxis.A, PrincipleAxis.C)};
+		double[] fa = new double[N_CELLS], fb = new double[N_CELLS], fc = new double[N_CELLS];
+		double[] fal = new double[N_CELLS], fbe = new double[N_CELLS], fga = new double[N_CELLS];
+		double[] fusedVolumes = new double[N_CELLS];
+		new CellPipeline(ops).run(a, b, c, al, be, ga, fa, fb, fc, fal, fbe, fga, fusedVolumes);
+
+		double[] sa = a.clone(), sb = b.clone(), sc = c.clone(), sal = al.clone(), sbe = be.clone(), sga = ga.clone();
+		double[] volumes = new double[N_CELLS];
+		for (CellOperation op : ops) {
+			new CellPipeline(op).run(sa, sb, sc, sal, sbe, sga, sa, sb, sc, sal, sbe, sga, volumes);
+		}
+		assertArrayEquals("Wrong a", sa, fa, 0);
+		assertArrayEquals("Wrong gamma", sga, fga, 0);
+		assertArrayEquals("Wrong volume", volumes, fusedVolumes, 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMismatchedColumns() {
+		new CellPipeline().run(a, b, c, al, be, new double[1], a, b, c, al, be, ga, null);
+	}
+
+	private static double[] fromG6(double aa, double bb, double cc, double xi, double eta, double zeta) {
+		double a = Math.sqrt(aa), b = Math.sqrt(bb), c = Math.sqrt(cc);
+		return new double[]{a, b, c, Math.toDegrees(Math.acos(xi / (2 * b * c))),
+				Math.toDegrees(Math.acos(eta / (2 * a * c))), Math.toDegrees(Math.acos(zeta / (2 * a * b)))};
+	}
+
+	private static double[] toG6(double[] cell) {
+		return new double[]{cell[0] * cell[0], cell[1] * cell[1], cell[2] * cell[2],
+				2 * cell[1] * cell[2] * Math.cos(Math.toRadians(cell[3])),
+				2 * cell[0] * cell[2] * Math.cos(Math.toRadians(cell[4])),
+				2 * cell[0] * cell[1] * Math.cos(Math.toRadians(cell[5]))};
+	}
+
+}
@@ -0,0 +1,110 @@
+package uk.co.norphos.crystallography.toolkit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import uk.co.norphos.crystallography.api.Lattice;
+import uk.co.norphos.crystallography.api.MillerIndex;
+import uk.co.norphos.crystallography.api.PrincipleAxis;
+
+public class CellTransformationTest {
+
+	@Test
+	public void testCentredToPrimitive() {
+		//fcc copper reduces to a rhombohedral primitive cell, a/sqrt(2), 60 deg
+		Lattice fcc = new Lattice(3.615, 3.615, 3.615, 90, 90, 90);
+		Lattice prim = CellTransformation.F_TO_P.transform(fcc);
+		assertEquals("Wrong a", 3.615 / Math.sqrt(2), prim.getA(), 1e-12);
+		assertEquals("Wrong gamma", 60, prim.getGa(), 1e-10);
+		assertEquals("Wrong volume ratio", 0.25, CellTransformation.F_TO_P.getVolumeRatio(), 0);
+
+		//bcc gives 109.47 deg
+		Lattice bcc = new Lattice(2.8665, 2.8665, 2.8665, 90, 90, 90);
+		prim = CellTransformation.I_TO_P.transform(bcc);
+		assertEquals("Wrong a", 2.8665 * Math.sqrt(3) / 2, prim.getA(), 1e-12);
+		assertEquals("Wrong alpha", Math.toDegrees(Math.acos(-1. / 3)), prim.getAl(), 1e-10);
+
+		//And back again
+		Lattice back = CellTransformation.get("P->I").transform(prim);
+		assertEquals("Wrong a", 2.8665, back.getA(), 1e-12);
+		assertEquals("Wrong beta", 90, back.getBe(), 1e-10);
+	}
+
+	@Test
+	public void testHexagonalToRhombohedral() {
+		//Corundum: a = 4.7589, c = 12.991 (hexagonal)
+		double a = 4.7589, c = 12.991;
+		Lattice rhomb = CellTransformation.HEXAGONAL_TO_RHOMBOHEDRAL.transform(new Lattice(a, a, c, 90, 90, 120));
+		double aR = Math.sqrt(3 * a * a + c * c) / 3;
+		double alR = Math.toDegrees(2 * Math.asin(3 / (2 * Math.sqrt(3 + c * c / (a * a)))));
+		assertEquals("Wrong a", aR, rhomb.getA(), 1e-10);
+		assertEquals("Wrong c", aR, rhomb.getC(), 1e-10);
+		assertEquals("Wrong alpha", alR, rhomb.getAl(), 1e-9);
+		assertEquals("Wrong gamma", alR, rhomb.getGa(), 1e-9);
+	}
+
+	@Test
+	public void testInverseAndComposition() {
+		CellTransformation tr = CellTransformation.C_TO_P;
+		assertSame("Inverse not shared", tr, tr.getInverse().getInverse());
+		assertEquals("Not identity", CellTransformation.IDENTITY, tr.then(tr.getInverse()));
+		assertSame("Composition not cached", tr.then(CellTransformation.F_TO_P), tr.then(CellTransformation.F_TO_P));
+
+		//Composition matches applying the two in turn
+		Lattice lattice = new Lattice(5.1, 6.3, 7.7, 84, 101, 95);
+		CellTransformation axis = CellTransformation.uniqueAxis(PrincipleAxis.B, PrincipleAxis.C);
+		Lattice twice = axis.transform(tr.transform(lattice));
+		Lattice once = tr.then(axis).transform(lattice);
+		assertEquals("Wrong a", twice.getA(), once.getA(), 1e-12);
+		assertEquals("Wrong beta", twice.getBe(), once.getBe(), 1e-10);
+	}
+
+	@Test
+	public void testUniqueAxis() {
+		double[] cell = {5, 6, 7, 90, 105, 90};
+		double[] permuted = cell.clone();
+		CellTransformation.uniqueAxis(PrincipleAxis.B, PrincipleAxis.C).apply(cell, null);
+		CellOperations.permuteAxes(PrincipleAxis.B, PrincipleAxis.C).apply(permuted, null);
+		assertArrayEquals("Inconsistent with CellOperations", permuted, cell, 1e-10);
+	}
+
+	@Test
+	public void testIndicesAndCoordinates() {
+		CellTransformation tr = CellTransformation.C_TO_P;
+		//h+k odd is absent in C
+		int[] hkl = {2, 0, 1, 1, 1, 0, 1, 0, 0};
+		int[] out = new int[9];
+		assertEquals("Wrong number of non-integral", 1, tr.transformIndices(hkl, out));
+		assertArrayEquals("Wrong indices", new int[]{1, 1, 1, 0, 1, 0, 0, 0, 0}, out);
+		assertEquals("Wrong index", new MillerIndex(0, 1, 0), tr.transform(new MillerIndex(1, 1, 0)));
+
+		//Coordinates and indices transform contragrediently so h.x is invariant
+		double[] frac = {0.1, 0.2, 0.3, 0.5, 0.5, 0};
+		double[] prim = new double[6];
+		tr.transformCoordinates(frac, prim);
+		assertEquals("h.x not invariant", 2 * 0.1 + 0.3, 1 * prim[0] + 1 * prim[1] + 1 * prim[2], 1e-12);
+		assertArrayEquals("Centring vector not a lattice vector", new double[]{0, 1, 0}, new double[]{prim[3], prim[4], prim[5]}, 1e-12);
+
+		double[] back = new double[6];
+		tr.getInverse().transformCoordinates(prim, back);
+		assertArrayEquals("Round trip failed", frac, back, 1e-12);
+	}
+
+	@Test
+	public void testPipeline() {
+		double[] a = {5, 6}, b = {5, 6}, c = {12, 10}, al = {90, 90}, be = {90, 90}, ga = {120, 120};
+		double[] vol = new double[2];
+		new CellPipeline(CellTransformation.HEXAGONAL_TO_RHOMBOHEDRAL, CellOperations.niggliReduce())
+				.run(a, b, c, al, be, ga, a, b, c, al, be, ga, vol);
+		assertEquals("Wrong volume", 5 * 5 * 12 * Math.sqrt(3) / 2 / 3, vol[0], 1e-9);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testSingular() {
+		new CellTransformation(1, 1, 0, 0, 0, 1, 0, 1, 0, 0);
+	}
+
+}
@@ -0,0 +1,125 @@
+package uk.co.norphos.crystallography.toolkit;
+
+import static org.junit.Assert.assertEquals;
+
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.co.norphos.crystallography.api.Lattice;
+
+public class CellWorkspaceTest {
+
+	private Lattice tricLatt, monoLatt;
+
+	@Before
+	public void setUp() {
+		tricLatt = new Lattice(7.19196, 8.12720, 8.12771, 82.4809, 69.2610, 69.2584);
+		monoLatt = new Lattice(8.28, 12.97, 7.15, 90, 116.26, 90);
+	}
+
+	@Test
+	public void testMatchesUnitCell() {
+		CellWorkspace ws = new CellWorkspace(monoLatt);
+		//Reuse the same workspace for the second lattice
+		ws.update(tricLatt);
+		UnitCell uc = new UnitCell(tricLatt);
+
+		assertEquals("Volume incorrect", uc.getVolume(), ws.getVolume(), 1e-9);
+		assertMatrixEquals("Metric tensor incorrect", uc.getMetricTensor(), ws, false);
+		assertMatrixEquals("Reciprocal metric tensor incorrect", uc.getReciprocalMetricTensor(), ws, true);
+
+		assertEquals("a* incorrect", uc.getAStar(), ws.getAStar(), 1e-12);
+		assertEquals("b* incorrect", uc.getBStar(), ws.getBStar(), 1e-12);
+		assertEquals("c* incorrect", uc.getCStar(), ws.getCStar(), 1e-12);
+		assertEquals("alpha* incorrect", uc.getAlphaStar(), ws.getAlphaStar(), 1e-9);
+		assertEquals("beta* incorrect", uc.getBetaStar(), ws.getBetaStar(), 1e-9);
+		assertEquals("gamma* incorrect", uc.getGammaStar(), ws.getGammaStar(), 1e-9);
+
+		double[] ortho = new double[9], frac = new double[9];
+		ws.copyOrthogonalizationMatrix(ortho);
+		ws.copyFractionalizationMatrix(frac);
+		for (int i = 0; i < 3; i++) {
+			for (int j = 0; j < 3; j++) {
+				assertEquals("Orthogonalization matrix incorrect", uc.getOrthogonalizationMatrix().getEntry(i, j), ortho[3 * i + j], 1e-9);
+				assertEquals("Fractionalization matrix incorrect", uc.getFractionalizationMatrix().getEntry(i, j), frac[3 * i + j], 1e-9);
+			}
+		}
+	}
+
+	@Test
+	public void testGeometry() {
+		CellWorkspace ws = new CellWorkspace(tricLatt);
+		UnitCell uc = new UnitCell(tricLatt);
+		Vector3D site1 = new Vector3D(0.61530, 0.02520, 0.07450);
+		Vector3D site2 = new Vector3D(0.00810, 0.17050, 0.17120);
+
+		assertEquals("Wrong distance", uc.calculateDistance(site1, site2),
+				ws.calculateDistance(0.61530, 0.02520, 0.07450, 0.00810, 0.17050, 0.17120), 1e-10);
+
+		double[] coords = new double[]{0.61530, 0.02520, 0.07450, 0.23, 0.54, 0.56};
+		double[] cart = new double[6];
+		ws.orthogonalize(coords, cart);
+		Vector3D expected = uc.orthogonalize(new Vector3D(0.23, 0.54, 0.56));
+		assertEquals(expected.getX(), cart[3], 1e-10);
+		assertEquals(expected.getY(), cart[4], 1e-10);
+		assertEquals(expected.getZ(), cart[5], 1e-10);
+		//Round trip in place
+		ws.fractionalize(cart, cart);
+		for (int i = 0; i < coords.length; i++) {
+			assertEquals("Round trip failed", coords[i], cart[i], 1e-12);
+		}
+
+		//Anorthoclase (111) d-spacing (calculated with PowderCell)
+		ws.update(8.28, 12.97, 7.15, 91.05, 116.26, 90.15);
+		assertEquals("(111) spacing incorrect", 3.84084, ws.calculateDSpacing(1, 1, 1), 1e-5);
+	}
+
+	@Test
+	public void testDerivatives() {
+		CellWorkspace ws = new CellWorkspace(tricLatt);
+		double[] params = new double[]{tricLatt.getA(), tricLatt.getB(), tricLatt.getC(),
+				tricLatt.getAl(), tricLatt.getBe(), tricLatt.getGa()};
+		double[] analytic = new double[9], recipAnalytic = new double[9];
+		double[] plus = new double[9], minus = new double[9], recipPlus = new double[9], recipMinus = new double[9];
+
+		for (int p = 0; p < 6; p++) {
+			//Step in degrees for angles; derivatives are per radian
+			double step = 1e-5;
+			double scale = p < 3 ? 1 : Math.toDegrees(1);
+			ws.getMetricTensorDerivative(p, analytic);
+			ws.getReciprocalMetricTensorDerivative(p, recipAnalytic);
+			double dV = ws.getVolumeDerivative(p);
+
+			double[] shifted = params.clone();
+			shifted[p] += step;
+			CellWorkspace wsPlus = new CellWorkspace(shifted[0], shifted[1], shifted[2], shifted[3], shifted[4], shifted[5]);
+			wsPlus.copyMetricTensor(plus);
+			wsPlus.copyReciprocalMetricTensor(recipPlus);
+			shifted[p] -= 2 * step;
+			CellWorkspace wsMinus = new CellWorkspace(shifted[0], shifted[1], shifted[2], shifted[3], shifted[4], shifted[5]);
+			wsMinus.copyMetricTensor(minus);
+			wsMinus.copyReciprocalMetricTensor(recipMinus);
+
+			for (int i = 0; i < 9; i++) {
+				double numeric = scale * (plus[i] - minus[i]) / (2 * step);
+				assertEquals("dG/dp wrong for parameter "+p, numeric, analytic[i], 1e-5);
+				numeric = scale * (recipPlus[i] - recipMinus[i]) / (2 * step);
+				assertEquals("dG*/dp wrong for parameter "+p, numeric, recipAnalytic[i], 1e-8);
+			}
+			double numericV = scale * (wsPlus.getVolume() - wsMinus.getVolume()) / (2 * step);
+			assertEquals("dV/dp wrong for parameter "+p, numericV, dV, 1e-5);
+		}
+	}
+
+	private void assertMatrixEquals(String msg, RealMatrix expected, CellWorkspace ws, boolean reciprocal) {
+		for (int i = 0; i < 3; i++) {
+			for (int j = 0; j < 3; j++) {
+				double actual = reciprocal ? ws.getReciprocalMetricTensor(i, j) : ws.getMetricTensor(i, j);
+				assertEquals(msg, expected.getEntry(i, j), actual, 1e-9);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,89 @@
+package uk.co.norphos.crystallography.toolkit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
+import org.junit.Test;
+
+import uk.co.norphos.crystallography.api.Lattice;
+import uk.co.norphos.crystallography.api.Site;
+
+public class CifWriterTest {
+
+	private static String fixed(double value, int decimals) {
+		ByteBuffer buffer = ByteBuffer.allocate(64);
+		CifWriter.putFixed(buffer, value, decimals);
+		return new String(buffer.array(), 0, buffer.position(), StandardCharsets.US_ASCII);
+	}
+
+	private static String withSu(double value, double su) {
+		ByteBuffer buffer = ByteBuffer.allocate(64);
+		CifWriter.putWithSu(buffer, value, su);
+		return new String(buffer.array(), 0, buffer.position(), StandardCharsets.US_ASCII);
+	}
+
+	@Test
+	public void testFixedFormatting() {
+		assertEquals("0.00000", fixed(0, 5));
+		assertEquals("-1.50", fixed(-1.5, 2));
+		assertEquals("0.000", fixed(-0.0001, 3));
+		assertEquals("12", fixed(11.5, 0));
+		assertEquals("100.0000", fixed(99.99999, 4));
+		Random random = new Random(35);
+		for (int i = 0; i < 10000; i++) {
+			double value = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(10));
+			int decimals = random.nextInt(8);
+			assertEquals("Formatting differs from Double.parseDouble round trip for "+value,
+					Double.parseDouble(String.format(Locale.ROOT, "%."+decimals+"f", value)),
+					Double.parseDouble(fixed(value, decimals)), Math.max(Math.pow(10, -decimals) * 1.5, 4 * Math.ulp(value)));
+		}
+	}
+
+	@Test
+	public void testSuFormatting() {
+		assertEquals("7.19196(2)", withSu(7.19196, 0.00002));
+		assertEquals("8.12771(11)", withSu(8.12771, 0.00011));
+		assertEquals("82.4809(4)", withSu(82.4809, 0.0004));
+		assertEquals("69.2610(10)", withSu(69.261, 0.001));
+		assertEquals("1.23(10)", withSu(1.2345, 0.0996));
+		assertEquals("1.2(2)", withSu(1.2345, 0.2));
+		assertEquals("1235(150)", withSu(1234.5, 150));
+		assertEquals("0.50000", withSu(0.5, 0));
+	}
+
+	@Test
+	public void testWriteCrystal() throws IOException {
+		Crystal crystal = new Crystal(new Lattice(7.19196, 8.12720, 8.12771, 82.4809, 69.2610, 69.2584));
+		crystal.addSite(new Site("O7", "O", new Vector3D(0.61530, 0.02520, 0.07450)));
+		crystal.addSite(new Site("Al 1", "Al", new Vector3D(0.5, 0.5, 0.5), 0.25));
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (CifWriter writer = new CifWriter(Channels.newChannel(bytes))) {
+			//Enough blocks to cycle the buffer several times
+			for (int i = 0; i < 500; i++) {
+				writer.writeCrystal("test_"+i, crystal);
+			}
+			writer.writeDataBlock("sus");
+			writer.writeLattice(crystal.getUnitCell().getLattice(), new double[]{2e-5, 1e-4, 1.1e-4, 4e-4, 1e-3, 1.1e-3});
+		}
+		String cif = new String(bytes.toByteArray(), StandardCharsets.US_ASCII);
+		String[] lines = cif.split("\n");
+		assertEquals("data_test_0", lines[0]);
+		assertTrue(cif.contains("\ndata_test_499\n"));
+		assertTrue(cif.contains("\n_cell_length_a                    7.19196\n"));
+		assertTrue(cif.contains("\n_cell_volume                      "+String.format(Locale.ROOT, "%.3f", crystal.getUnitCell().getVolume())+"\n"));
+		assertTrue(cif.contains("\n O7 O 0.61530 0.02520 0.07450 1.00000\n"));
+		assertTrue("Label with space should be quoted", cif.contains("\n 'Al 1' Al 0.50000 0.50000 0.50000 0.25000\n"));
+		assertTrue(cif.endsWith("_cell_angle_gamma                 69.2584(11)\n"));
+	}
+
+}
@@ -0,0 +1,70 @@
+package uk.co.norphos.crystallography.toolkit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import uk.co.norphos.crystallography.api.Lattice;
+
+public class CompositionTest {
+
+	@Test
+	public void testParse() {
+		Composition pentahydrate = Composition.parse("CuSO4\u00b75H2O");
+		assertEquals(1, pentahydrate.getCount("Cu"), 0);
+		assertEquals(9, pentahydrate.getCount("O"), 0);
+		assertEquals(10, pentahydrate.getCount("H"), 0);
+		assertEquals(249.677, pentahydrate.getFormulaMass(), 1e-6);
+		assertSame("Composition should be cached", pentahydrate, Composition.parse("CuSO4\u00b75H2O"));
+
+		assertEquals(Composition.parse("Cu N2 O6"), Composition.parse("Cu(NO3)2"));
+		assertEquals(Composition.parse("C12H16N2CoO8"), Composition.parse("[Co(C6H4NO2)2(H2O)4]"));
+		assertEquals(12.5, Composition.parse("Al2(SO4)3*0.5 H2O").getCount("O"), 0);
+		assertEquals(0.25, Composition.parse("Fe0.25Mg1.75SiO4").getCount("Fe"), 0);
+		assertEquals("C6 H4 O2", Composition.parse("O2C6H4").toString());
+		assertEquals("Cl Na", Composition.parse("NaCl").toString());
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testUnbalanced() {
+		Composition.parse("Cu(NO3]2");
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testUnknownElement() {
+		Composition.parse("CuXx");
+	}
+
+	@Test
+	public void testDensity() {
+		//Halite, a = 5.6402, Z = 4, Dx = 2.163 g/cm^3
+		UnitCell halite = new UnitCell(new Lattice(5.6402, 5.6402, 5.6402, 90, 90, 90));
+		assertEquals(2.163, DensityCalculator.calculateDensity(Composition.parse("NaCl"), 4, halite), 1e-3);
+
+		int n = 5000;
+		String[] formulas = new String[n];
+		int[] z = new int[n];
+		double[] volumes = new double[n], a = new double[n], al = new double[n];
+		for (int i = 0; i < n; i++) {
+			formulas[i] = i % 2 == 0 ? "NaCl" : "Cu(NO3)2";
+			z[i] = 1 + i % 4;
+			a[i] = 5 + 0.001 * i;
+			al[i] = 90;
+			volumes[i] = a[i] * a[i] * a[i];
+		}
+		double[] masses = new double[n], densities = new double[n];
+		double[] masses2 = new double[n], densities2 = new double[n];
+		DensityCalculator.calculate(formulas, z, volumes, masses, densities);
+		DensityCalculator.calculate(formulas, z, a, a, a, al, al, al, masses2, densities2);
+		assertArrayEquals(masses, masses2, 0);
+		assertArrayEquals(densities, densities2, 1e-12);
+		for (int i = 0; i < n; i++) {
+			Composition composition = Composition.parse(formulas[i]);
+			assertEquals(composition.getFormulaMass(), masses[i], 1e-9);
+			assertEquals(DensityCalculator.calculateDensity(composition.getFormulaMass(), z[i], volumes[i]), densities[i], 1e-12);
+		}
+	}
+
+}
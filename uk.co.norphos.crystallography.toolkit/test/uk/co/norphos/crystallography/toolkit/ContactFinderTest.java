@@ -0,0 +1,157 @@
+package uk.co.norphos.crystallography.toolkit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
+import org.junit.Test;
+
+import uk.co.norphos.crystallography.api.Lattice;
+import uk.co.norphos.crystallography.api.Site;
+
+public class ContactFinderTest {
+
+	private static final List<SymmetryOperator> P21C = Arrays.asList(SymmetryOperator.parse("x,y,z"),
+			SymmetryOperator.parse("-x,1/2+y,1/2-z"), SymmetryOperator.parse("-x,-y,-z"), SymmetryOperator.parse("x,1/2-y,1/2+z"));
+	private static final List<SymmetryOperator> P1BAR = Arrays.asList(SymmetryOperator.parse("x,y,z"),
+			SymmetryOperator.parse("-x,-y,-z"));
+
+	/*
+	 * Distance from site i to the image of site j, from the given
+	 * coordinates.
+	 */
+	private static double distance(Crystal crystal, int i, int j, SymmetryOperator op, int[] t) {
+		double[] frac = crystal.getFractionalCoordinates();
+		double[] image = new double[3];
+		op.apply(Arrays.copyOfRange(frac, 3 * j, 3 * j + 3), image);
+		return crystal.getUnitCell().calculateDistance(new Vector3D(frac[3 * i], frac[3 * i + 1], frac[3 * i + 2]),
+				new Vector3D(image[0] + t[0], image[1] + t[1], image[2] + t[2]));
+	}
+
+	/*
+	 * Every contact by brute force, in both directions, as (i, j, distance
+	 * in 1e-6 Angstroms); sites in the same molecule share a tag. Images
+	 * bonded to a molecule are part of it.
+	 */
+	private static Set<List<Long>> bruteForce(Crystal crystal, int[] molecules, List<SymmetryOperator> ops, double tolerance) {
+		Set<List<Long>> contacts = new HashSet<>();
+		List<Site> sites = crystal.getSites();
+		int n = sites.size();
+		int[] z = new int[n];
+		for (int i = 0; i < n; i++) {
+			z[i] = ElementTable.getAtomicNumber(sites.get(i).getElement());
+		}
+		for (SymmetryOperator op : ops) {
+			for (int ta = -6; ta <= 6; ta++) {
+				for (int tb = -6; tb <= 6; tb++) {
+					for (int tc = -6; tc <= 6; tc++) {
+						int[] t = {ta, tb, tc};
+						double[][] d = new double[n][n];
+						Set<List<Integer>> bonded = new HashSet<>();
+						for (int i = 0; i < n; i++) {
+							for (int j = 0; j < n; j++) {
+								d[i][j] = distance(crystal, i, j, op, t);
+								double bond = ElementTable.getCovalentRadius(z[i]) + ElementTable.getCovalentRadius(z[j])
+										+ ContactFinder.BOND_TOLERANCE;
+								if (d[i][j] < bond) bonded.add(Arrays.asList(molecules[i], molecules[j]));
+							}
+						}
+						if (op.isIdentity() && ta == 0 && tb == 0 && tc == 0) {
+							for (int m : molecules) {
+								bonded.add(Arrays.asList(m, m));
+							}
+						}
+						for (int i = 0; i < n; i++) {
+							for (int j = 0; j < n; j++) {
+								if (bonded.contains(Arrays.asList(molecules[i], molecules[j]))) continue;
+								if (d[i][j] < ElementTable.getVdwRadius(z[i]) + ElementTable.getVdwRadius(z[j]) - tolerance) {
+									contacts.add(Arrays.asList((long)i, (long)j, Math.round(d[i][j] * 1e6)));
+								}
+							}
+						}
+					}
+				}
+			}
+		}
+		return contacts;
+	}
+
+	@Test
+	public void testAgainstBruteForce() {
+		//Z' = 8 carbon monoxide molecules, some given outside the cell
+		Crystal crystal = new Crystal(new Lattice(9.5, 10.2, 11.1, 90, 104.5, 90));
+		Random rand = new Random(7);
+		int[] molecules = new int[16];
+		for (int m = 0; m < 8; m++) {
+			double x = (m & 1) * 0.5 + 0.1 * rand.nextDouble() - (m == 3 ? 1 : 0);
+			double y = (m >> 1 & 1) * 0.5 + 0.1 * rand.nextDouble();
+			double z = (m >> 2 & 1) * 0.5 + 0.1 * rand.nextDouble() + (m == 5 ? 2 : 0);
+			crystal.addSite(new Site("C"+m, "C", new Vector3D(x, y, z)));
+			crystal.addSite(new Site("O"+m, "O", new Vector3D(x + 1.13 / 9.5, y, z)));
+			molecules[2 * m] = molecules[2 * m + 1] = m;
+		}
+		double tolerance = -0.8;
+		List<Contact> contacts = new ContactFinder(P21C, tolerance).findContacts(crystal);
+		assertFalse("No contacts found", contacts.isEmpty());
+
+		Set<List<Long>> found = new HashSet<>();
+		double last = 0;
+		for (Contact contact : contacts) {
+			int i = contact.getIndex1(), j = contact.getIndex2();
+			assertEquals("Wrong site", crystal.getSites().get(i), contact.getSite1());
+			assertEquals("Translation is not from the given coordinates",
+					distance(crystal, i, j, contact.getOperator(), contact.getTranslation()), contact.getDistance(), 1e-9);
+			assertTrue("Not in order of distance", contact.getDistance() >= last);
+			assertTrue("Not a close contact", contact.getOverlap() > tolerance);
+			last = contact.getDistance();
+			long d = Math.round(contact.getDistance() * 1e6);
+			assertTrue("Contact reported twice", found.add(Arrays.asList((long)i, (long)j, d)) | i == j);
+			found.add(Arrays.asList((long)j, (long)i, d));
+		}
+		assertEquals("Wrong contacts", bruteForce(crystal, molecules, P21C, tolerance), found);
+	}
+
+	@Test
+	public void testSpecialPosition() {
+		//Cl2 on an inversion centre, given as one atom; its image is the other half of the molecule
+		Crystal crystal = new Crystal(new Lattice(6, 3.3, 8, 90, 90, 90));
+		crystal.addSite(new Site("Cl1", "Cl", new Vector3D(0.1, 0.05, 0.06)));
+		List<Contact> contacts = new ContactFinder(P1BAR).findContacts(crystal);
+		assertFalse("No contacts found", contacts.isEmpty());
+		for (Contact contact : contacts) {
+			assertTrue("Bond reported as a contact", contact.getDistance() > 2.5);
+		}
+		//Along b, to the next molecule: each contact once, not again as its own inverse
+		long alongB = contacts.stream().filter(c -> Math.abs(c.getDistance() - 3.3) < 1e-9).count();
+		assertEquals("Wrong number of contacts along b", 1, alongB);
+	}
+
+	@Test
+	public void testSeparateMolecules() {
+		Crystal crystal = new Crystal(new Lattice(20, 20, 20, 90, 90, 90));
+		crystal.addSite(new Site("N1", "N", new Vector3D(0.1, 0.1, 0.1)));
+		crystal.addSite(new Site("N2", "N", new Vector3D(0.1 + 1.1 / 20, 0.1, 0.1)));
+		crystal.addSite(new Site("N3", "N", new Vector3D(0.1 + 0.55 / 20, 0.1 + 2.9 / 20, 0.1)));
+		List<Contact> contacts = new ContactFinder(Arrays.asList(SymmetryOperator.parse("x,y,z"))).findContacts(crystal);
+		List<String> pairs = new ArrayList<>();
+		for (Contact contact : contacts) {
+			pairs.add(contact.getSite1().getLabel()+contact.getSite2().getLabel());
+		}
+		//N1-N2 is a bond, N1...N3 and N2...N3 are contacts
+		assertEquals("Wrong contacts", Arrays.asList("N1N3", "N2N3"), pairs);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNotGroup() {
+		new ContactFinder(Arrays.asList(SymmetryOperator.parse("x,y,z"), SymmetryOperator.parse("-y,x,z")));
+	}
+
+}
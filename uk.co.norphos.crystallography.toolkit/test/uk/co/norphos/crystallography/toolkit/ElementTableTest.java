@@ -0,0 +1,52 @@
+package uk.co.norphos.crystallography.toolkit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ElementTableTest {
+
+	@Test
+	public void testSymbolLookup() {
+		for (int z = 1; z <= ElementTable.MAX_Z; z++) {
+			assertEquals("Symbol does not round trip", z, ElementTable.getAtomicNumber(ElementTable.getSymbol(z)));
+		}
+		assertEquals(27, ElementTable.getAtomicNumber("Co"));
+		assertEquals(6, ElementTable.getAtomicNumber('C', (char)0));
+		assertEquals("Unknown symbol should give 0", 0, ElementTable.getAtomicNumber('X', 'x'));
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testUnknownSymbol() {
+		ElementTable.getAtomicNumber("CO");
+	}
+
+	@Test
+	public void testProperties() {
+		assertEquals(12.011, ElementTable.getAtomicWeight(6), 1e-9);
+		assertEquals(63.546, ElementTable.getAtomicWeight(29), 1e-9);
+		assertTrue(ElementTable.hasStandardAtomicWeight(92));
+		assertFalse("Tc has no standard atomic weight", ElementTable.hasStandardAtomicWeight(43));
+		assertEquals(0.76, ElementTable.getCovalentRadius(6), 1e-9);
+		assertEquals(1.70, ElementTable.getVdwRadius(6), 1e-9);
+		assertEquals(ElementTable.DEFAULT_VDW_RADIUS, ElementTable.getVdwRadius(26), 1e-9);
+	}
+
+	@Test
+	public void testScatteringFactors() {
+		//At s = 0 the scattering factor of a neutral atom is its number of electrons
+		for (int z = 1; z <= ElementTable.MAX_Z; z++) {
+			assertEquals("Wrong f(0) for "+ElementTable.getSymbol(z), z, ElementTable.getXRayScatteringFactor(z, 0), 0.01 * z);
+		}
+		//Falls off monotonically
+		double previous = Double.MAX_VALUE;
+		for (double s = 0; s < 1.5; s += 0.1) {
+			double f = ElementTable.getXRayScatteringFactor(29, s);
+			assertTrue("Scattering factor should decrease", f < previous);
+			previous = f;
+		}
+	}
+
+}
@@ -0,0 +1,107 @@
+package uk.co.norphos.crystallography.toolkit;
+
+import static org.junit.Assert.assertEquals;
+
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
+import org.junit.Test;
+
+import uk.co.norphos.crystallography.api.Lattice;
+import uk.co.norphos.crystallography.api.Site;
+
+public class EwaldSummationTest {
+
+	private static final double NACL_MADELUNG = 1.747564594633;
+	private static final double CSCL_MADELUNG = 1.762674773070;
+
+	@Test
+	public void testRockSaltMadelung() {
+		double a = 5.64;
+		Crystal nacl = new Crystal(new Lattice(a, a, a, 90, 90, 90));
+		double[][] na = {{0, 0, 0}, {0.5, 0.5, 0}, {0.5, 0, 0.5}, {0, 0.5, 0.5}};
+		for (int i = 0; i < 4; i++) {
+			nacl.addSite(new Site("Na"+i, "Na", new Vector3D(na[i]), 1, 1));
+			nacl.addSite(new Site("Cl"+i, "Cl", new Vector3D(na[i][0] + 0.5, na[i][1], na[i][2]), 1, -1));
+		}
+		EwaldResult result = new EwaldSummation(1e-10).calculate(nacl);
+		double expected = -4 * NACL_MADELUNG * EwaldSummation.COULOMB_CONSTANT / (a / 2);
+		assertEquals("Wrong NaCl lattice energy", expected, result.getEnergy(), 1e-7 * Math.abs(expected));
+		assertEquals("Cell is neutral", 0, result.getChargedCellEnergy(), 1e-15);
+		for (double force : result.getForces()) {
+			assertEquals("Forces should vanish by symmetry", 0, force, 1e-6);
+		}
+	}
+
+	@Test
+	public void testRockSaltSupercell() {
+		//Wide enough, at this accuracy, for the neighbour search to split the cell into bins
+		double a = 5.64;
+		int n = 6;
+		Crystal nacl = new Crystal(new Lattice(n * a, n * a, n * a, 90, 90, 90));
+		double[][] na = {{0, 0, 0}, {0.5, 0.5, 0}, {0.5, 0, 0.5}, {0, 0.5, 0.5}};
+		for (int u = 0; u < n; u++) {
+			for (int v = 0; v < n; v++) {
+				for (int w = 0; w < n; w++) {
+					for (int i = 0; i < 4; i++) {
+						nacl.addSite(new Site("Na", "Na", new Vector3D((na[i][0] + u) / n, (na[i][1] + v) / n,
+								(na[i][2] + w) / n), 1, 1));
+						nacl.addSite(new Site("Cl", "Cl", new Vector3D((na[i][0] + 0.5 + u) / n, (na[i][1] + v) / n,
+								(na[i][2] + w) / n), 1, -1));
+					}
+				}
+			}
+		}
+		EwaldResult result = new EwaldSummation(1e-4).calculate(nacl);
+		double expected = -4 * n * n * n * NACL_MADELUNG * EwaldSummation.COULOMB_CONSTANT / (a / 2);
+		assertEquals("Wrong NaCl supercell energy", expected, result.getEnergy(), 1e-4 * Math.abs(expected));
+		for (double force : result.getForces()) {
+			assertEquals("Forces should vanish by symmetry", 0, force, 1e-6);
+		}
+	}
+
+	@Test
+	public void testCaesiumChlorideMadelung() {
+		double a = 4.12;
+		Crystal cscl = new Crystal(new Lattice(a, a, a, 90, 90, 90));
+		cscl.addSite(new Site("Cs", "Cs", new Vector3D(0, 0, 0), 1, 1));
+		cscl.addSite(new Site("Cl", "Cl", new Vector3D(0.5, 0.5, 0.5), 1, -1));
+		EwaldResult result = new EwaldSummation(1e-10, false).calculate(cscl);
+		double expected = -CSCL_MADELUNG * EwaldSummation.COULOMB_CONSTANT / (a * Math.sqrt(3) / 2);
+		assertEquals("Wrong CsCl lattice energy", expected, result.getEnergy(), 1e-7 * Math.abs(expected));
+	}
+
+	@Test
+	public void testForcesMatchEnergyGradient() {
+		UnitCell cell = new UnitCell(new Lattice(7.19196, 8.12720, 8.12771, 82.4809, 69.2610, 69.2584));
+		double[] frac = new double[]{0.61530, 0.02520, 0.07450, 0.00810, 0.17050, 0.17120,
+				0.25710, 0.95880, 0.60530, 0.38470, 0.97480, 0.92550};
+		double[] charges = new double[]{2, -1, -1.5, 0.75};
+		EwaldSummation ewald = new EwaldSummation(1e-12);
+		EwaldResult result = ewald.calculate(cell, frac, charges);
+		double[] forces = result.getForces();
+
+		//Sequential evaluation gives the same answer
+		EwaldResult sequential = new EwaldSummation(1e-12, false).calculate(cell, frac, charges);
+		assertEquals("Parallel and sequential differ", sequential.getEnergy(), result.getEnergy(), 1e-10);
+
+		//Central differences of the energy in Cartesian coordinates
+		double step = 1e-5;
+		for (int atom = 0; atom < charges.length; atom++) {
+			for (int axis = 0; axis < 3; axis++) {
+				double[] cartShift = new double[3];
+				cartShift[axis] = step;
+				double[] fracShift = new double[3];
+				cell.fractionalize(cartShift, fracShift);
+				double[] plus = frac.clone(), minus = frac.clone();
+				for (int j = 0; j < 3; j++) {
+					plus[3 * atom + j] += fracShift[j];
+					minus[3 * atom + j] -= fracShift[j];
+				}
+				double gradient = (ewald.calculate(cell, plus, charges).getEnergy()
+						- ewald.calculate(cell, minus, charges).getEnergy()) / (2 * step);
+				assertEquals("Force inconsistent with energy for atom "+atom+" axis "+axis,
+						-gradient, forces[3 * atom + axis], 1e-5);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,157 @@
+package uk.co.norphos.crystallography.toolkit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.co.norphos.crystallography.api.Lattice;
+
+public class FourierSynthesisTest {
+
+	//Two Gaussian "atoms" in a triclinic cell
+	private static final double[] ATOMS = {0.1, 0.2, 0.3, 0.6, 0.45, 0.8};
+	private static final double[] ELECTRONS = {8, 6};
+	private static final double B = 4;
+
+	private UnitCell cell;
+	private ReflectionList reflections;
+	private double[] amplitudes, phases;
+
+	@Before
+	public void setUp() {
+		cell = new UnitCell(new Lattice(6.5, 7.2, 8.1, 85, 95, 100));
+		reflections = ReflectionList.enumerate(cell, 0.9);
+		int n = reflections.size();
+		amplitudes = new double[n];
+		phases = new double[n];
+		for (int r = 0; r < n; r++) {
+			double h = reflections.getH(r), k = reflections.getK(r), l = reflections.getL(r);
+			double s2 = 1 / (4 * reflections.getDSpacing(r) * reflections.getDSpacing(r));
+			double re = 0, im = 0;
+			for (int a = 0; a < ELECTRONS.length; a++) {
+				double f = ELECTRONS[a] * Math.exp(-B * s2);
+				double arg = 2 * Math.PI * (h * ATOMS[3 * a] + k * ATOMS[3 * a + 1] + l * ATOMS[3 * a + 2]);
+				re += f * Math.cos(arg);
+				im += f * Math.sin(arg);
+			}
+			amplitudes[r] = Math.hypot(re, im);
+			phases[r] = Math.toDegrees(Math.atan2(im, re));
+		}
+	}
+
+	@Test
+	public void testFFT() {
+		Random rand = new Random(42);
+		for (int n : new int[]{1, 2, 3, 4, 5, 7, 8, 12, 16, 30, 45, 49, 64, 90, 97}) {
+			FFT fft = new FFT(n);
+			double[] re = new double[n], im = new double[n];
+			for (int t = 0; t < n; t++) {
+				re[t] = rand.nextGaussian();
+				im[t] = rand.nextGaussian();
+			}
+			for (boolean inverse : new boolean[]{false, true}) {
+				double sign = inverse ? 1 : -1;
+				double[] expRe = new double[n], expIm = new double[n];
+				for (int k = 0; k < n; k++) {
+					for (int j = 0; j < n; j++) {
+						double angle = sign * 2 * Math.PI * ((long)j * k % n) / n;
+						expRe[k] += re[j] * Math.cos(angle) - im[j] * Math.sin(angle);
+						expIm[k] += re[j] * Math.sin(angle) + im[j] * Math.cos(angle);
+					}
+				}
+				double[] outRe = re.clone(), outIm = im.clone();
+				fft.transform(outRe, outIm, new double[n], new double[n], inverse);
+				assertArrayEquals("Wrong real part, n = "+n, expRe, outRe, 1e-10 * n);
+				assertArrayEquals("Wrong imaginary part, n = "+n, expIm, outIm, 1e-10 * n);
+			}
+		}
+		assertEquals("Wrong fast size", 8, FFT.nextFastSize(7));
+		assertEquals("Wrong fast size", 15, FFT.nextFastSize(13));
+		assertEquals("Wrong fast size", 50, FFT.nextFastSize(49));
+	}
+
+	@Test
+	public void testSingleReflection() {
+		//rho(x) = 2.F.cos(2.pi.(x - phi))/V for F(100) and its Friedel mate
+		UnitCell cubic = new UnitCell(new Lattice(10, 10, 10, 90, 90, 90));
+		FourierSynthesis synthesis = new FourierSynthesis(cubic, 2.0);
+		assertArrayEquals("Wrong grid", new int[]{15, 15, 15}, synthesis.getGridDimensions());
+		DensityMap map = synthesis.electronDensity(new int[]{1, 0, 0}, new double[]{100}, new double[]{90});
+		for (int i = 0; i < 15; i++) {
+			double expected = 2 * 100 * Math.cos(2 * Math.PI * i / 15. - Math.PI / 2) / 1000;
+			assertEquals("Wrong density", expected, map.getValue(i, 3, 7), 1e-6);
+		}
+		assertEquals("Wrong mean", 0, map.getMean(), 1e-7);
+		assertEquals("Wrong rms", 0.2 / Math.sqrt(2), map.getRms(), 1e-6);
+
+		//Interpolation between grid points
+		double x = 0.123;
+		double expected = 0.2 * Math.sin(2 * Math.PI * x);
+		assertEquals("Wrong cubic interpolation", expected, map.interpolateCubic(x, 0.3, 0.7), 5e-4);
+		assertEquals("Wrong linear interpolation", expected, map.interpolateLinear(x, 0.3, 0.7), 5e-3);
+		assertEquals("Not periodic", map.interpolateCubic(x, 0.3, 0.7), map.interpolateCubic(x - 2, 1.3, -0.3), 1e-6);
+	}
+
+	@Test
+	public void testElectronDensity() {
+		FourierSynthesis synthesis = new FourierSynthesis(cell, 0.9);
+		DensityMap map = synthesis.electronDensity(reflections.getIndices(), amplitudes, phases);
+
+		//Density peaks at the atoms, the heavier highest
+		double[] atomDensity = new double[2];
+		map.interpolate(ATOMS, atomDensity, true);
+		assertEquals("Maximum not at heavier atom", map.getMax(), atomDensity[0], 0.05 * map.getMax());
+		assertTrue("No peak at lighter atom", atomDensity[1] > 0.5 * atomDensity[0]);
+		assertTrue("Peak not above background", atomDensity[1] > 10 * map.getRms());
+
+		//Integrated density is F000/V, which was left out
+		assertEquals("Wrong mean", 0, map.getMean(), 1e-6);
+
+		//Fo = Fc gives an empty difference map
+		DensityMap difference = synthesis.differenceMap(reflections.getIndices(), amplitudes, amplitudes, phases);
+		assertEquals("Difference map not empty", 0, difference.getRms(), 0);
+
+		//A unique half of the reflections gives the same map
+		int[] hkl = reflections.getIndices();
+		int n = reflections.size();
+		int[] halfHkl = new int[3 * n];
+		double[] halfAmp = new double[n], halfPhase = new double[n];
+		int m = 0;
+		for (int r = 0; r < n; r++) {
+			int h = hkl[3 * r], k = hkl[3 * r + 1], l = hkl[3 * r + 2];
+			if (h > 0 || (h == 0 && (k > 0 || (k == 0 && l > 0)))) {
+				System.arraycopy(hkl, 3 * r, halfHkl, 3 * m, 3);
+				halfAmp[m] = amplitudes[r];
+				halfPhase[m++] = phases[r];
+			}
+		}
+		DensityMap half = synthesis.electronDensity(Arrays.copyOf(halfHkl, 3 * m),
+				Arrays.copyOf(halfAmp, m), Arrays.copyOf(halfPhase, m));
+		assertEquals("Half set differs", map.getValue(3, 4, 5), half.getValue(3, 4, 5), 1e-5);
+		assertEquals("Half set differs", map.getMax(), half.getMax(), 1e-5);
+	}
+
+	@Test
+	public void testPatterson() {
+		FourierSynthesis synthesis = new FourierSynthesis(cell, 0.9);
+		DensityMap patterson = synthesis.pattersonMap(reflections.getIndices(), amplitudes);
+		//Origin peak highest, then the interatomic vector and its inverse
+		assertEquals("Origin not highest", patterson.getMax(), patterson.getValue(0, 0, 0), 1e-6);
+		double u = ATOMS[3] - ATOMS[0], v = ATOMS[4] - ATOMS[1], w = ATOMS[5] - ATOMS[2];
+		double vector = patterson.interpolateCubic(u, v, w);
+		assertEquals("Patterson not centrosymmetric", vector, patterson.interpolateCubic(-u, -v, -w), 1e-4 * vector);
+		assertTrue("No interatomic vector peak", vector > 10 * patterson.getRms());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testReflectionBeyondGrid() {
+		new FourierSynthesis(cell, 8, 8, 8).electronDensity(new int[]{4, 0, 0}, new double[]{1}, new double[]{0});
+	}
+
+}
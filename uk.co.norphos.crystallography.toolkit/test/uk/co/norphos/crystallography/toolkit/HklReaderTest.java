@@ -0,0 +1,145 @@
+package uk.co.norphos.crystallography.toolkit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.co.norphos.crystallography.api.Lattice;
+import uk.co.norphos.crystallography.api.MillerIndex;
+
+public class HklReaderTest {
+
+	private Path file;
+
+	@Before
+	public void setUp() throws IOException {
+		file = Files.createTempFile("reflections", ".hkl");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(file);
+	}
+
+	private static HklData parse(String text) {
+		return HklReader.read(ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII)));
+	}
+
+	private static String write(HklData data) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (HklWriter writer = new HklWriter(Channels.newChannel(out))) {
+			writer.writeAll(data);
+		}
+		return new String(out.toByteArray(), StandardCharsets.US_ASCII);
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		//Enough lines for several parallel chunks
+		int n = 150000;
+		Random rand = new Random(3);
+		int[] hkl = new int[3 * n], batches = new int[n];
+		double[] intensities = new double[n], sigmas = new double[n];
+		for (int i = 0; i < n; i++) {
+			hkl[3 * i] = rand.nextInt(81) - 40;
+			hkl[3 * i + 1] = rand.nextInt(61) - 30;
+			hkl[3 * i + 2] = 1 + rand.nextInt(50);
+			intensities[i] = Math.round((rand.nextDouble() * 20000 - 100) * 100) / 100.;
+			sigmas[i] = Math.round(rand.nextDouble() * 5000) / 100.;
+			batches[i] = rand.nextInt(4) == 0 ? -2 : 1;
+		}
+		HklData data = new HklData(hkl, intensities, sigmas, batches);
+		try (HklWriter writer = new HklWriter(FileChannel.open(file, StandardOpenOption.WRITE))) {
+			writer.writeAll(data);
+		}
+		assertEquals("Wrong file size", 33L * (n + 1), Files.size(file));
+
+		HklData read = HklReader.read(file);
+		assertEquals("Wrong number of reflections", n, read.size());
+		assertArrayEquals("Wrong indices", hkl, read.getIndices());
+		assertArrayEquals("Wrong intensities", intensities, read.getIntensities(), 1e-9);
+		assertArrayEquals("Wrong sigmas", sigmas, read.getSigmas(), 1e-9);
+		assertArrayEquals("Wrong batches", batches, read.getBatches());
+	}
+
+	@Test
+	public void testFixedColumns() {
+		String text = "   1   2   3  123.45    1.20\r\n"
+				+ "\r\n"
+				+ "  -1 -10  12   -3.5     .25   5\r\n"
+				+ "  10   0   0 1.5E+02    2.00\r\n"
+				+ "   0   1\r\n"
+				+ "   0   0   0    0.00    0.00\r\n"
+				+ "   9   9   9    1.00    1.00\r\n";
+		HklData data = parse(text);
+		assertEquals("Wrong number of reflections", 4, data.size());
+		assertTrue("Batch not found", data.hasBatches());
+		assertArrayEquals("Wrong indices", new int[]{1, 2, 3, -1, -10, 12, 10, 0, 0, 0, 1, 0}, data.getIndices());
+		assertArrayEquals("Wrong intensities", new double[]{123.45, -3.5, 150, 0}, data.getIntensities(), 1e-12);
+		assertArrayEquals("Wrong sigmas", new double[]{1.2, 0.25, 2, 0}, data.getSigmas(), 1e-12);
+		assertArrayEquals("Wrong batches", new int[]{0, 5, 0, 0}, data.getBatches());
+		assertEquals("Wrong Miller index", new MillerIndex(-1, -10, 12), data.getMillerIndex(1));
+
+		//No terminator and no batches
+		data = parse("   1   2   3  123.45    1.20");
+		assertEquals("Wrong number of reflections", 1, data.size());
+		assertFalse("Batches found", data.hasBatches());
+	}
+
+	@Test
+	public void testWriter() throws IOException {
+		HklData data = new HklData(new int[]{1, -2, 3, -10, 0, 999, 4, 5, 6}, new double[]{12.345, 123456.789, -99999.999},
+				new double[]{0.004, 0.5, 1000}, null);
+		String expected = "   1  -2   3   12.35    0.00\n"
+				+ " -10   0 999123456.8    0.50\n"
+				+ "   4   5   6-100000. 1000.00\n"
+				+ "   0   0   0    0.00    0.00\n";
+		assertEquals("Wrong file", expected, write(data));
+
+		//Nothing of a line that does not fit is written
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (HklWriter writer = new HklWriter(Channels.newChannel(out))) {
+			writer.writeReflection(1, 1, 1, 1, 1, 3);
+			try {
+				writer.writeReflection(1, 1, 1, 1e9, 1, 3);
+				fail("Wrote 1e9");
+			} catch (IllegalArgumentException e) {
+				//Expected
+			}
+		}
+		assertEquals("Partial line written", "   1   1   1    1.00    1.00   3\n   0   0   0    0.00    0.00   0\n",
+				new String(out.toByteArray(), StandardCharsets.US_ASCII));
+	}
+
+	@Test
+	public void testDSpacings() {
+		UnitCell cell = new UnitCell(new Lattice(7.19196, 8.1272, 8.12771, 82.4809, 69.261, 69.2584));
+		ReflectionList reflections = ReflectionList.enumerate(cell, 0.8);
+		HklData data = new HklData(reflections.getIndices(), new double[reflections.size()], new double[reflections.size()], null);
+		assertArrayEquals("Wrong d-spacings", reflections.getDSpacings(), data.calculateDSpacings(cell), 1e-12);
+	}
+
+	@Test(expected = IOException.class)
+	public void testBadField() throws IOException {
+		Files.write(file, "   1   2   3  12x.45    1.20\n".getBytes(StandardCharsets.US_ASCII));
+		HklReader.read(file);
+	}
+
+}
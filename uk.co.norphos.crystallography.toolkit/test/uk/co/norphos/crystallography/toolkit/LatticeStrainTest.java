@@ -0,0 +1,84 @@
+package uk.co.norphos.crystallography.toolkit;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import uk.co.norphos.crystallography.api.Lattice;
+
+public class LatticeStrainTest {
+
+	@Test
+	public void testOrthogonalStrain() {
+		UnitCell reference = new UnitCell(new Lattice(5, 6, 7, 90, 90, 90));
+		UnitCell deformed = new UnitCell(new Lattice(5.05, 6, 6.93, 90, 90, 90));
+		double[] strain = new double[6];
+		LatticeStrain.calculateStrain(reference, deformed, strain);
+		double[] expected = new double[]{0.01, 0, -0.01, 0, 0, 0};
+		for (int i = 0; i < 6; i++) {
+			assertEquals("Wrong strain component "+i, expected[i], strain[i], 1e-12);
+		}
+
+		LatticeStrain.calculateLagrangianStrain(reference, deformed, strain);
+		assertEquals("Wrong Lagrangian e11", 0.5 * (1.01 * 1.01 - 1), strain[0], 1e-12);
+		assertEquals("Wrong Lagrangian e33", 0.5 * (0.99 * 0.99 - 1), strain[2], 1e-12);
+	}
+
+	@Test
+	public void testMonoclinicShear() {
+		//Change of beta alone gives a pure shear in the xz-plane plus rotation
+		UnitCell reference = new UnitCell(new Lattice(5, 6, 7, 90, 100, 90));
+		UnitCell deformed = new UnitCell(new Lattice(5, 6, 7, 90, 100.5, 90));
+		double[] strain = new double[6], values = new double[3], axes = new double[9];
+		LatticeStrain.calculateStrain(reference, deformed, strain);
+		assertEquals("Unexpected e22", 0, strain[1], 1e-12);
+		assertEquals("Unexpected e12", 0, strain[3], 1e-12);
+		assertEquals("Unexpected e23", 0, strain[5], 1e-12);
+
+		LatticeStrain.calculatePrincipalStrains(strain, values, axes);
+		//Principal axes lie in the xz-plane, one is along y with no strain
+		assertEquals("Middle principal strain should be along b", 0, values[1], 1e-12);
+		assertEquals("Middle principal axis should be along y", 1, Math.abs(axes[4]), 1e-12);
+	}
+
+	@Test
+	public void testSeriesMatchesPairwise() {
+		int n = 2500;
+		double[] a = new double[n], b = new double[n], c = new double[n], al = new double[n], be = new double[n], ga = new double[n];
+		double[] temp = new double[n];
+		for (int i = 0; i < n; i++) {
+			temp[i] = 100 + 0.1 * i;
+			double dT = temp[i] - 100;
+			a[i] = 7.19196 * (1 + 2e-5 * dT);
+			b[i] = 8.12720 * (1 - 1e-5 * dT);
+			c[i] = 8.12771 * (1 + 5e-6 * dT);
+			al[i] = 82.4809;
+			be[i] = 69.2610;
+			ga[i] = 69.2584;
+		}
+		StrainSeries series = new StrainSeries(a, b, c, al, be, ga);
+		double[] strains = new double[6 * n];
+		series.calculateStrains(0, strains);
+
+		double[] pairwise = new double[6];
+		UnitCell reference = new UnitCell(new Lattice(a[0], b[0], c[0], al[0], be[0], ga[0]));
+		for (int i : new int[]{0, 1, 1500, n - 1}) {
+			LatticeStrain.calculateStrain(reference, new UnitCell(new Lattice(a[i], b[i], c[i], al[i], be[i], ga[i])), pairwise);
+			for (int k = 0; k < 6; k++) {
+				assertEquals("Series strain differs from pairwise", pairwise[k], strains[6 * i + k], 1e-12);
+			}
+		}
+
+		//Angles fixed, so the strain along a is exactly the expansion of a
+		ExpansionTensor expansion = series.fitExpansionTensor(temp, 0);
+		assertEquals("Wrong expansion along a", 2e-5, expansion.getTensor()[0], 1e-12);
+		double[] coefficients = expansion.getPrincipalCoefficients();
+		assertEquals("Principal coefficients do not sum to the volumetric", expansion.getVolumetricCoefficient(),
+				coefficients[0] + coefficients[1] + coefficients[2], 1e-15);
+
+		//Compressibility is the negative slope
+		ExpansionTensor compressibility = series.fitCompressibilityTensor(temp, 0);
+		assertEquals("Compressibility should be negated", -2e-5, compressibility.getTensor()[0], 1e-12);
+	}
+
+}
@@ -0,0 +1,52 @@
+package uk.co.norphos.crystallography.toolkit;
+
+import static org.junit.Assert.assertEquals;
+
+import org.apache.commons.math3.linear.EigenDecomposition;
+import org.apache.commons.math3.linear.MatrixUtils;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.RealVector;
+import org.junit.Test;
+
+public class Matrix3Test {
+
+	@Test
+	public void testInverse() {
+		double[] mat = new double[]{7.19196, 2.87, -1.5, 0, 7.6, 0.3, 0, 0, 7.2};
+		double[] inv = new double[9], prod = new double[9];
+		Matrix3.invert(mat, inv);
+		Matrix3.multiply(mat, inv, prod);
+		for (int i = 0; i < 9; i++) {
+			assertEquals("Product is not identity", i % 4 == 0 ? 1 : 0, prod[i], 1e-14);
+		}
+	}
+
+	@Test
+	public void testSymmetricEigen() {
+		double[][] tensors = new double[][]{
+			{3, 2, 1, 0.5, -0.2, 0.1},
+			{1e-5, 2e-5, -1e-5, 3e-6, 0, 4e-6},
+			{2, 2, 2, 0, 0, 0},
+			{1, 1, 3, 0.5, 0, 0}};
+		double[] values = new double[3], vectors = new double[9], full = new double[9];
+
+		for (double[] packed : tensors) {
+			Matrix3.symmetricEigen(packed, 0, values, 0, vectors, 0);
+			Matrix3.unpack(packed, 0, full);
+			RealMatrix matrix = MatrixUtils.createRealMatrix(new double[][]{
+				{full[0], full[1], full[2]}, {full[3], full[4], full[5]}, {full[6], full[7], full[8]}});
+			double[] expected = new EigenDecomposition(matrix).getRealEigenvalues();
+			double scale = Math.abs(expected[0]) + Math.abs(expected[2]);
+			for (int k = 0; k < 3; k++) {
+				assertEquals("Wrong eigenvalue "+k, expected[k], values[k], 1e-12 * scale);
+				//A.v = lambda.v
+				RealVector vec = MatrixUtils.createRealVector(new double[]{vectors[3 * k], vectors[3 * k + 1], vectors[3 * k + 2]});
+				assertEquals("Eigenvector not normalised", 1, vec.getNorm(), 1e-12);
+				RealVector diff = matrix.operate(vec).subtract(vec.mapMultiply(values[k]));
+				assertEquals("Not an eigenvector", 0, diff.getNorm(), 1e-12 * scale);
+			}
+			assertEquals("Axes not right-handed", 1, Matrix3.determinant(vectors), 1e-12);
+		}
+	}
+
+}
@@ -0,0 +1,128 @@
+package uk.co.norphos.crystallography.toolkit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.co.norphos.crystallography.api.Lattice;
+import uk.co.norphos.crystallography.api.Site;
+
+public class PorosityCalculatorTest {
+
+	private UnitCell cubicCell;
+	private Crystal tricCrystal;
+
+	@Before
+	public void setUp() {
+		cubicCell = new UnitCell(new Lattice(10, 10, 10, 90, 90, 90));
+
+		//Oxygens of Al26pydc-02c3c3_F (test_data/Triclinic_cell.cif) expanded by P-1
+		tricCrystal = new Crystal(new Lattice(7.19196, 8.1272, 8.12771, 82.4809, 69.261, 69.2584));
+		double[][] asymmetric = {{0.2860, -0.0269, 0.3209}, {0.2571, -0.0412, 0.6053},
+				{0.3847, 0.9748, 0.9255}, {0.0081, 0.1705, 0.1712}};
+		for (int i = 0; i < asymmetric.length; i++) {
+			double[] xyz = asymmetric[i];
+			tricCrystal.addSite(new Site("O"+i, "O", new Vector3D(xyz[0], xyz[1], xyz[2])));
+			tricCrystal.addSite(new Site("O"+i+"'", "O", new Vector3D(-xyz[0], -xyz[1], -xyz[2])));
+		}
+	}
+
+	@Test
+	public void testSingleSphere() {
+		//One sphere per cell: channels pass between the spheres along each axis
+		PorosityResult result = new PorosityCalculator(1.2, 0.25).calculate(cubicCell, new double[]{0, 0, 0}, new double[]{2});
+		assertEquals("Wrong largest cavity", 2 * (5 * Math.sqrt(3) - 2), result.getLargestCavityDiameter(), 1e-5);
+		assertEquals("Wrong pore limiting diameter", 2 * (5 * Math.sqrt(2) - 2), result.getPoreLimitingDiameter(), 1e-5);
+		assertEquals("Wrong void fraction", 1 - 4 * Math.PI * 8 / 3000, result.getVoidFraction(), 3e-3);
+		assertEquals("Wrong accessible fraction", 1 - 4 * Math.PI * Math.pow(3.2, 3) / 3000, result.getAccessibleFraction(), 5e-3);
+		assertEquals("Pockets found", 0, result.getInaccessibleFraction(), 0);
+		assertTrue("Not percolating", result.isPercolating());
+		for (int axis = 0; axis < 3; axis++) {
+			assertTrue("Not percolating along "+axis, result.percolatesAlong(axis));
+		}
+		//The probe-centre sphere does not touch its images
+		assertEquals("Wrong surface area", 4 * Math.PI * 3.2 * 3.2, result.getAccessibleSurfaceArea(), 1e-9);
+		assertEquals("Wrong volumetric surface area", 1e4 * 4 * Math.PI * 3.2 * 3.2 / 1000, result.getVolumetricSurfaceArea(), 1e-6);
+	}
+
+	@Test
+	public void testClosedPocket() {
+		//Probe too large for the channels but small enough for the cavity
+		PorosityResult result = new PorosityCalculator(5.5, 0.25).calculate(cubicCell, new double[]{0, 0, 0}, new double[]{2});
+		assertFalse("Percolating", result.isPercolating());
+		assertEquals("Accessible volume found", 0, result.getAccessibleVolume(), 0);
+		assertTrue("No pocket found", result.getInaccessibleVolume() > 0);
+		assertEquals("Accessible surface found", 0, result.getAccessibleSurfaceArea(), 0);
+		assertTrue("No pocket surface found", result.getInaccessibleSurfaceArea() > 0);
+		assertEquals("Pore limiting diameter changed", 2 * (5 * Math.sqrt(2) - 2), result.getPoreLimitingDiameter(), 1e-5);
+	}
+
+	@Test
+	public void testTriclinicHash() {
+		CellWorkspace ws = new CellWorkspace(tricCrystal.getUnitCell().getLattice());
+		double[] frac = tricCrystal.getFractionalCoordinates();
+		int nAtoms = frac.length / 3;
+		double[] radii = new double[nAtoms];
+		for (int i = 0; i < nAtoms; i++) {
+			radii[i] = 1.0 + 0.1 * i;
+		}
+		AtomHash hash = new AtomHash(ws, frac, radii, 1.5);
+		Random rand = new Random(41);
+		double[] point = new double[3], cart = new double[3];
+		for (int n = 0; n < 1000; n++) {
+			for (int c = 0; c < 3; c++) {
+				point[c] = 3 * rand.nextDouble() - 1;
+			}
+			ws.orthogonalize(point, cart);
+			assertEquals("Wrong nearest surface", bruteForceSurface(ws, frac, radii, point),
+					hash.nearestSurface(cart[0], cart[1], cart[2], Double.POSITIVE_INFINITY), 1e-10);
+		}
+	}
+
+	@Test
+	public void testTriclinicVoidFraction() {
+		PorosityResult result = new PorosityCalculator(1.2, 0.2).calculate(tricCrystal);
+		CellWorkspace ws = new CellWorkspace(tricCrystal.getUnitCell().getLattice());
+		double[] frac = tricCrystal.getFractionalCoordinates();
+		double[] radii = new double[frac.length / 3];
+		Arrays.fill(radii, ElementTable.getVdwRadius(8));
+
+		//Monte Carlo estimate
+		Random rand = new Random(41);
+		int inside = 0, samples = 20000;
+		double[] point = new double[3];
+		for (int n = 0; n < samples; n++) {
+			for (int c = 0; c < 3; c++) {
+				point[c] = rand.nextDouble();
+			}
+			if (bruteForceSurface(ws, frac, radii, point) < 0) inside++;
+		}
+		assertEquals("Wrong void fraction", 1 - (double)inside / samples, result.getVoidFraction(), 0.01);
+		assertTrue("Largest cavity smaller than pore limit", result.getLargestCavityDiameter() >= result.getPoreLimitingDiameter());
+		assertTrue("Accessible fraction exceeds void fraction", result.getAccessibleFraction() <= result.getVoidFraction());
+	}
+
+	private static double bruteForceSurface(CellWorkspace ws, double[] frac, double[] radii, double[] point) {
+		double best = Double.POSITIVE_INFINITY;
+		for (int i = 0; i < radii.length; i++) {
+			for (int ta = -3; ta <= 3; ta++) {
+				for (int tb = -3; tb <= 3; tb++) {
+					for (int tc = -3; tc <= 3; tc++) {
+						double d = ws.calculateDistance(point[0], point[1], point[2],
+								frac[3 * i] + ta, frac[3 * i + 1] + tb, frac[3 * i + 2] + tc) - radii[i];
+						best = Math.min(best, d);
+					}
+				}
+			}
+		}
+		return best;
+	}
+
+}
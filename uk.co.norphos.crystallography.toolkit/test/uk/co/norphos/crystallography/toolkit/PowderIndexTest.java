@@ -0,0 +1,184 @@
+package uk.co.norphos.crystallography.toolkit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.co.norphos.crystallography.api.Lattice;
+import uk.co.norphos.crystallography.api.Site;
+
+public class PowderIndexTest {
+
+	private static final double WAVELENGTH = 1.5406;
+	private static final String[] ELEMENTS = {"C", "O", "Na", "Si", "Ca", "Fe", "Zn", "Br"};
+
+	private Path file;
+	private String[] names;
+	private PowderFingerprint[] fingerprints;
+
+	@Before
+	public void setUp() throws IOException {
+		//Random structures with a few real ones among them
+		Random rand = new Random(7);
+		int nPhases = 300;
+		names = new String[nPhases];
+		fingerprints = new PowderFingerprint[nPhases];
+		for (int i = 0; i < nPhases; i++) {
+			Crystal crystal = new Crystal(new Lattice(3 + 12 * rand.nextDouble(), 3 + 12 * rand.nextDouble(),
+					3 + 12 * rand.nextDouble(), 70 + 40 * rand.nextDouble(), 70 + 40 * rand.nextDouble(),
+					70 + 40 * rand.nextDouble()));
+			for (int s = 0, n = 1 + rand.nextInt(6); s < n; s++) {
+				String element = ELEMENTS[rand.nextInt(ELEMENTS.length)];
+				crystal.addSite(new Site(element+s, element, new Vector3D(rand.nextDouble(), rand.nextDouble(), rand.nextDouble())));
+			}
+			names[i] = "Phase "+i;
+			fingerprints[i] = PowderFingerprint.fromCrystal(crystal, WAVELENGTH, 1.0, PowderFingerprint.DEFAULT_PEAKS);
+		}
+		names[17] = "Copper";
+		fingerprints[17] = PowderFingerprint.fromCrystal(copper(), WAVELENGTH, 1.0, PowderFingerprint.DEFAULT_PEAKS);
+		names[123] = "Halite (NaCl, 5.64 \u00c5)";
+		fingerprints[123] = PowderFingerprint.fromCrystal(halite(), WAVELENGTH, 1.0, PowderFingerprint.DEFAULT_PEAKS);
+
+		file = Files.createTempFile("powder", ".idx");
+		PowderIndex.write(file, names, fingerprints, PowderIndex.DEFAULT_TOLERANCE);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(file);
+	}
+
+	private static Crystal copper() {
+		Crystal fcc = new Crystal(new Lattice(3.615, 3.615, 3.615, 90, 90, 90));
+		fcc.addSite(new Site("Cu1", "Cu", new Vector3D(0, 0, 0)));
+		fcc.addSite(new Site("Cu2", "Cu", new Vector3D(0.5, 0.5, 0)));
+		fcc.addSite(new Site("Cu3", "Cu", new Vector3D(0.5, 0, 0.5)));
+		fcc.addSite(new Site("Cu4", "Cu", new Vector3D(0, 0.5, 0.5)));
+		return fcc;
+	}
+
+	private static Crystal halite() {
+		return rockSalt(5.64, "Na", "Cl");
+	}
+
+	private static Crystal rockSalt(double a, String cation, String anion) {
+		Crystal crystal = new Crystal(new Lattice(a, a, a, 90, 90, 90));
+		double[][] fcc = {{0, 0, 0}, {0.5, 0.5, 0}, {0.5, 0, 0.5}, {0, 0.5, 0.5}};
+		for (int i = 0; i < 4; i++) {
+			crystal.addSite(new Site(cation+i, cation, new Vector3D(fcc[i][0], fcc[i][1], fcc[i][2])));
+			crystal.addSite(new Site(anion+i, anion, new Vector3D(fcc[i][0] + 0.5, fcc[i][1], fcc[i][2])));
+		}
+		return crystal;
+	}
+
+	@Test
+	public void testFingerprint() {
+		//fcc: only h,k,l all odd or all even, 111 strongest
+		PowderFingerprint cu = fingerprints[17];
+		double a = 3.615;
+		double[] expected = {a / Math.sqrt(3), a / 2, a / Math.sqrt(8), a / Math.sqrt(11), a / Math.sqrt(12)};
+		assertEquals("Wrong number of peaks", 5, cu.getNumberOfPeaks());
+		for (int p = 0; p < expected.length; p++) {
+			assertEquals("Wrong d-spacing", expected[p], cu.getDSpacing(p), 1e-9);
+		}
+		assertEquals("111 not strongest", 100, cu.getIntensity(0), 1e-9);
+		assertTrue("200 not weaker than 111", cu.getIntensity(1) < 100 && cu.getIntensity(1) > 30);
+
+		PowderFingerprint top = PowderFingerprint.fromPeaks(new double[]{1, 3, 2, 4}, new double[]{5, 50, 20, 10}, 2);
+		assertEquals("Wrong number of peaks", 2, top.getNumberOfPeaks());
+		assertEquals("Wrong d-spacing", 3, top.getDSpacing(0), 0);
+		assertEquals("Wrong d-spacing", 2, top.getDSpacing(1), 0);
+		assertEquals("Wrong intensity", 40, top.getIntensity(1), 1e-12);
+	}
+
+	@Test
+	public void testHeavyElementFingerprint() {
+		//Galena: Pb and S scatter in phase for h,k,l all even, against each other for all odd
+		double a = 5.936;
+		PowderFingerprint pbs = PowderFingerprint.fromCrystal(rockSalt(a, "Pb", "S"), WAVELENGTH, 1.0, PowderFingerprint.DEFAULT_PEAKS);
+		assertEquals("Wrong d-spacing", a / Math.sqrt(3), pbs.getDSpacing(0), 1e-9);
+		assertEquals("Wrong d-spacing", a / 2, pbs.getDSpacing(1), 1e-9);
+		assertEquals("200 not strongest", 100, pbs.getIntensity(1), 1e-9);
+		assertTrue("111 not weaker than 200", pbs.getIntensity(0) < 100 && pbs.getIntensity(0) > 30);
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		try (PowderIndex index = PowderIndex.open(file)) {
+			assertEquals("Wrong size", names.length, index.size());
+			assertEquals("Wrong tolerance", PowderIndex.DEFAULT_TOLERANCE, index.getTolerance(), 0);
+			for (int i = 0; i < names.length; i++) {
+				assertEquals("Wrong name", names[i], index.getName(i));
+				PowderFingerprint stored = index.getFingerprint(i);
+				assertEquals("Wrong number of peaks", fingerprints[i].getNumberOfPeaks(), stored.getNumberOfPeaks());
+				for (int p = 0; p < stored.getNumberOfPeaks(); p++) {
+					assertEquals("Wrong d-spacing", fingerprints[i].getDSpacing(p), stored.getDSpacing(p), 1e-6 * stored.getDSpacing(p));
+					assertEquals("Wrong intensity", fingerprints[i].getIntensity(p), stored.getIntensity(p), 1e-4);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testSearch() throws IOException {
+		Random rand = new Random(11);
+		try (PowderIndex index = PowderIndex.open(file)) {
+			for (int i : new int[]{17, 123, 5, 250}) {
+				List<PowderMatch> exact = index.search(fingerprints[i], 5);
+				assertEquals("Wrong phase found", i, exact.get(0).getIndex());
+				assertEquals("Wrong score", 1, exact.get(0).getScore(), 1e-4);
+				assertEquals("Wrong matches", fingerprints[i].getNumberOfPeaks(), exact.get(0).getMatchedPeaks());
+
+				//A measured pattern: shifted peaks, noisy intensities and a missing peak
+				PowderFingerprint reference = fingerprints[i];
+				int n = reference.getNumberOfPeaks();
+				double[] d = new double[n - 1], intensities = new double[n - 1];
+				for (int p = 0, q = 0; p < n; p++) {
+					if (p == n / 2) continue;
+					d[q] = reference.getDSpacing(p) * (1 + 0.002 * (2 * rand.nextDouble() - 1));
+					intensities[q++] = reference.getIntensity(p) * (0.8 + 0.4 * rand.nextDouble());
+				}
+				List<PowderMatch> measured = index.search(PowderFingerprint.fromPeaks(d, intensities, n), 5);
+				assertEquals("Wrong phase found for "+names[i], names[i], measured.get(0).getName());
+				assertTrue("Low score "+measured.get(0), measured.get(0).getScore() > 0.5);
+				assertTrue("Too many results", measured.size() <= 5);
+				for (int r = 1; r < measured.size(); r++) {
+					assertTrue("Not sorted", measured.get(r).getScore() <= measured.get(r - 1).getScore());
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testSearchAtToleranceLimit() throws IOException {
+		//Query just above a bin boundary, reference just inside the tolerance below it: two bins down
+		double tolerance = 0.01, logStep = Math.log1p(tolerance);
+		double query = Math.exp(69.001 * logStep), reference = query * (1 - 0.9995 * tolerance);
+		assertEquals("Reference not two bins below", 2,
+				(int)Math.floor(Math.log(query) / logStep) - (int)Math.floor(Math.log(reference) / logStep));
+		PowderIndex.write(file, new String[]{"Edge"},
+				new PowderFingerprint[]{PowderFingerprint.fromPeaks(new double[]{reference}, new double[]{100}, 1)}, tolerance);
+		try (PowderIndex index = PowderIndex.open(file)) {
+			List<PowderMatch> matches = index.search(PowderFingerprint.fromPeaks(new double[]{query}, new double[]{100}, 1), 1);
+			assertEquals("Peak within tolerance missed", 1, matches.size());
+			assertEquals("Peak within tolerance not matched", 1, matches.get(0).getMatchedPeaks());
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testNotAnIndex() throws IOException {
+		Files.write(file, new byte[64]);
+		PowderIndex.open(file).close();
+	}
+
+}
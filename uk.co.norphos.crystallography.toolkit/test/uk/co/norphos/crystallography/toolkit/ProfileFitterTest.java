@@ -0,0 +1,160 @@
+package uk.co.norphos.crystallography.toolkit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import uk.co.norphos.crystallography.api.CrystalSystem;
+import uk.co.norphos.crystallography.api.Lattice;
+import uk.co.norphos.crystallography.api.PrincipleAxis;
+
+public class ProfileFitterTest {
+
+	private static final double WAVELENGTH = 1.5406;
+
+	private final double[] twoTheta;
+
+	public ProfileFitterTest() {
+		twoTheta = new double[8001];
+		for (int i = 0; i < twoTheta.length; i++) {
+			twoTheta[i] = 10 + 0.01 * i;
+		}
+	}
+
+	@Test
+	public void testPawleyCubic() {
+		Lattice si = cubic(5.431);
+		double[] pattern = synthesise(si, 0.02);
+		ProfileFitter fitter = new ProfileFitter(WAVELENGTH, twoTheta);
+		ProfileFitResult result = fitter.fit(cubic(5.428), pattern, null);
+
+		assertTrue("Fit did not converge", result.isConverged());
+		assertEquals("Wrong a", 5.431, result.getLattice().getA(), 1e-4);
+		assertEquals("Wrong zero shift", 0.02, result.getZeroShift(), 2e-3);
+		assertEquals("Wrong W", 0.01, result.getW(), 1e-3);
+		assertEquals("Wrong eta", 0.5, result.getEta(), 0.02);
+		assertTrue("Rwp too high: "+result.getRwp(), result.getRwp() < 0.01);
+
+		//{100} is one peak of six reflections with the synthesised intensity
+		assertEquals("Wrong multiplicity", 6, result.getMultiplicity(0));
+		assertEquals("Wrong intensity", intensity(1, 0, 0) * 6, result.getIntensity(0), 0.01 * intensity(1, 0, 0) * 6);
+	}
+
+	@Test
+	public void testLeBailTetragonal() {
+		Lattice tet = new Lattice(4.2, 4.2, 6.1, 90, 90, 90, null, CrystalSystem.TETRAGONAL, PrincipleAxis.C);
+		double[] pattern = synthesise(tet, 0);
+		ProfileFitter fitter = new ProfileFitter(WAVELENGTH, twoTheta);
+		fitter.setMethod(ProfileFitter.Method.LE_BAIL);
+		ProfileFitResult result = fitter.fit(new Lattice(4.198, 4.198, 6.103, 90, 90, 90, null,
+				CrystalSystem.TETRAGONAL, PrincipleAxis.C), pattern, null);
+
+		assertEquals("Wrong a", 4.2, result.getLattice().getA(), 2e-4);
+		assertEquals("Wrong c", 6.1, result.getLattice().getC(), 2e-4);
+		assertEquals("a and b not constrained", result.getLattice().getA(), result.getLattice().getB(), 0);
+		assertTrue("Rwp too high: "+result.getRwp(), result.getRwp() < 0.02);
+	}
+
+	@Test
+	public void testWarmStart() {
+		ProfileFitter fitter = new ProfileFitter(WAVELENGTH, twoTheta);
+		ProfileFitResult first = fitter.fit(cubic(5.429), synthesise(cubic(5.431), 0), null);
+		//Thermal expansion between patterns of a series
+		ProfileFitResult second = fitter.fit(first, synthesise(cubic(5.4325), 0), null);
+		assertEquals("Wrong a", 5.4325, second.getLattice().getA(), 1e-4);
+		assertEquals("Peaks changed", first.getNumberOfPeaks(), second.getNumberOfPeaks());
+		assertTrue("Rwp too high: "+second.getRwp(), second.getRwp() < 0.01);
+	}
+
+	@Test
+	public void testBorderedBandSolver() {
+		Random rand = new Random(40);
+		int n = 30, w = 3, m = 4, size = n + m;
+		//Random normal matrix A^T.A with A banded in the first n columns
+		double[][] a = new double[3 * size][size];
+		for (int r = 0; r < a.length; r++) {
+			int k = rand.nextInt(n);
+			for (int j = k; j <= Math.min(n - 1, k + w); j++) {
+				a[r][j] = rand.nextDouble();
+			}
+			for (int g = n; g < size; g++) {
+				a[r][g] = rand.nextDouble();
+			}
+		}
+		double[][] full = new double[size][size];
+		for (double[] row : a) {
+			for (int i = 0; i < size; i++) {
+				for (int j = 0; j < size; j++) {
+					full[i][j] += row[i] * row[j];
+				}
+			}
+		}
+		BorderedBandSolver solver = new BorderedBandSolver(n, w, m);
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j <= w && i + j < n; j++) {
+				solver.band[i * (w + 1) + j] = full[i][i + j];
+			}
+			for (int g = 0; g < m; g++) {
+				solver.border[i * m + g] = full[i][n + g];
+			}
+		}
+		for (int g = 0; g < m; g++) {
+			for (int h = g; h < m; h++) {
+				solver.dense[g * m + h] = full[n + g][n + h];
+			}
+		}
+		double[] rhs = new double[size];
+		for (int i = 0; i < size; i++) {
+			rhs[i] = rand.nextDouble();
+		}
+		double[] x = new double[size];
+		assertTrue("Not positive definite", solver.solve(0, rhs, x));
+		for (int i = 0; i < size; i++) {
+			double sum = 0;
+			for (int j = 0; j < size; j++) {
+				sum += full[i][j] * x[j];
+			}
+			assertEquals("Wrong solution row "+i, rhs[i], sum, 1e-9);
+		}
+	}
+
+	private static Lattice cubic(double a) {
+		return new Lattice(a, a, a, 90, 90, 90, null, CrystalSystem.CUBIC, PrincipleAxis.NONE);
+	}
+
+	private static double intensity(int h, int k, int l) {
+		return 50 + 1000.0 / (h * h + k * k + l * l);
+	}
+
+	/*
+	 * Independent of the fitter: every reflection summed separately with
+	 * U = V = 0, W = 0.01 and eta = 0.5 on a linear background, cut off at
+	 * the default profile range of 10 FWHM.
+	 */
+	private double[] synthesise(Lattice lattice, double zero) {
+		double[] y = new double[twoTheta.length];
+		for (int i = 0; i < y.length; i++) {
+			y[i] = 100 + 0.5 * (twoTheta[i] - 10);
+		}
+		double fwhm = 0.1, eta = 0.5;
+		ReflectionList reflections = ReflectionList.enumerate(new UnitCell(lattice), 1.0);
+		for (int r = 0; r < reflections.size(); r++) {
+			double sinTheta = WAVELENGTH / (2 * reflections.getDSpacing(r));
+			if (sinTheta >= 1) continue;
+			double position = Math.toDegrees(2 * Math.asin(sinTheta)) + zero;
+			double area = intensity(Math.abs(reflections.getH(r)), Math.abs(reflections.getK(r)), Math.abs(reflections.getL(r)));
+			for (int i = 0; i < y.length; i++) {
+				double s = (twoTheta[i] - position) / fwhm;
+				if (Math.abs(s) > 10) continue;
+				double gauss = 2 * Math.sqrt(Math.log(2) / Math.PI) / fwhm * Math.exp(-4 * Math.log(2) * s * s);
+				double lorentz = 2 / (Math.PI * fwhm) / (1 + 4 * s * s);
+				y[i] += area * (eta * lorentz + (1 - eta) * gauss);
+			}
+		}
+		return y;
+	}
+
+}
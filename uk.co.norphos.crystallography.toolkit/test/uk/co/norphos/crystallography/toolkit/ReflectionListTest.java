@@ -0,0 +1,34 @@
+package uk.co.norphos.crystallography.toolkit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import uk.co.norphos.crystallography.api.Lattice;
+import uk.co.norphos.crystallography.api.MillerIndex;
+
+public class ReflectionListTest {
+
+	@Test
+	public void testEnumerate() {
+		UnitCell cell = new UnitCell(new Lattice(7.19196, 8.12720, 8.12771, 82.4809, 69.2610, 69.2584));
+		double dMin = 1.5;
+		ReflectionList reflections = ReflectionList.enumerate(cell, dMin);
+
+		int expected = 0;
+		for (int h = -10; h <= 10; h++) {
+			for (int k = -10; k <= 10; k++) {
+				for (int l = -10; l <= 10; l++) {
+					if ((h != 0 || k != 0 || l != 0) && cell.getDSpacing(new MillerIndex(h, k, l)) >= dMin) expected++;
+				}
+			}
+		}
+		assertEquals("Wrong number of reflections", expected, reflections.size());
+		for (int i = 0; i < reflections.size(); i++) {
+			assertEquals(cell.getDSpacing(reflections.getMillerIndex(i)), reflections.getDSpacing(i), 1e-12);
+			if (i > 0) assertTrue("Not in order of d", reflections.getDSpacing(i) <= reflections.getDSpacing(i - 1));
+		}
+	}
+
+}
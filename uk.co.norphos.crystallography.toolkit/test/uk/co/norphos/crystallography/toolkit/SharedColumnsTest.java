@@ -0,0 +1,134 @@
+package uk.co.norphos.crystallography.toolkit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.co.norphos.crystallography.api.Lattice;
+import uk.co.norphos.crystallography.api.Site;
+
+public class SharedColumnsTest {
+
+	//Also read and written by the Python test_shared_columns
+	private static final Path FIXTURE = Paths.get("test", "test_data", "shared_columns.npc");
+
+	private Path file;
+
+	@Before
+	public void setUp() throws IOException {
+		file = Files.createTempFile("columns", ".npc");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(file);
+	}
+
+	private static Crystal makeCrystal() {
+		Crystal crystal = new Crystal(new Lattice(5.4, 6.1, 7.3, 90, 101.5, 90));
+		crystal.addSite(new Site("Cu1", "Cu", new Vector3D(0, 0.5, 0.25), 1, 2));
+		crystal.addSite(new Site("O1", "O", new Vector3D(0.125, 0.375, 0.8), 0.5, -2));
+		return crystal;
+	}
+
+	private static HklData makeReflections() {
+		return new HklData(new int[]{1, 0, 0, -2, 1, 3, 0, 0, 4}, new double[]{120.5, 33.25, -1.5},
+				new double[]{1.5, 0.75, 2}, new int[]{1, 1, 2});
+	}
+
+	private static void writeFixtureColumns(Path path) throws IOException {
+		new SharedColumnsWriter().addCrystal("crystal", makeCrystal()).addReflections("reflections", makeReflections())
+				.addLongs("counts", 2, new long[]{1L << 40, -7}).addFloats("weights", 1, new float[]{0.5f, 2.25f}).write(path);
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		writeFixtureColumns(file);
+		assertEquals("Columns not aligned", 0, Files.size(file) % 64);
+		try (SharedColumns columns = SharedColumns.open(file)) {
+			assertEquals("Wrong columns", Arrays.asList("crystal.lattice", "crystal.label", "crystal.element", "crystal.frac",
+					"crystal.occupancy", "crystal.charge", "reflections.hkl", "reflections.intensity", "reflections.sigma",
+					"reflections.batch", "counts", "weights"), columns.getColumnNames());
+			assertEquals("Wrong type", SharedColumns.FLOAT64, columns.getType("crystal.frac"));
+			assertEquals("Wrong width", 3, columns.getWidth("crystal.frac"));
+			assertEquals("Wrong rows", 2, columns.getRows("crystal.frac"));
+
+			Crystal crystal = columns.readCrystal("crystal");
+			Crystal expected = makeCrystal();
+			assertEquals("Wrong lattice", expected.getUnitCell().getLattice(), crystal.getUnitCell().getLattice());
+			assertEquals("Wrong sites", expected.getSites(), crystal.getSites());
+
+			HklData reflections = columns.readReflections("reflections");
+			assertArrayEquals("Wrong indices", makeReflections().getIndices(), reflections.getIndices());
+			assertArrayEquals("Wrong intensities", makeReflections().getIntensities(), reflections.getIntensities(), 0);
+			assertArrayEquals("Wrong sigmas", makeReflections().getSigmas(), reflections.getSigmas(), 0);
+			assertArrayEquals("Wrong batches", makeReflections().getBatches(), reflections.getBatches());
+
+			assertEquals("Wrong long", 1L << 40, columns.getLongs("counts").get(0));
+			assertEquals("Wrong float", 2.25f, columns.getFloats("weights").get(1), 0);
+		}
+	}
+
+	@Test
+	public void testViews() throws IOException {
+		new SharedColumnsWriter().addDoubles("x", 1, new double[]{1, 2, 3}).addInts("n", 2, new int[]{4, 5, 6, 7})
+				.addStrings("s", new String[]{"", "\u00c5ngstr\u00f6m", "b"}).write(file);
+		try (SharedColumns columns = SharedColumns.open(file)) {
+			DoubleBuffer x = columns.getDoubles("x");
+			assertTrue("Not a view of the mapped file", x.isDirect());
+			assertTrue("View is writable", x.isReadOnly());
+			assertEquals("Wrong length", 3, x.remaining());
+			assertEquals("Wrong value", 3, x.get(2), 0);
+			IntBuffer n = columns.getInts("n");
+			assertEquals("Wrong value", 7, n.get(3));
+			assertArrayEquals("Wrong strings", new String[]{"", "\u00c5ngstr\u00f6m", "b"}, columns.getStrings("s"));
+			assertFalse("Unexpected column", columns.hasColumn("y"));
+		}
+	}
+
+	@Test
+	public void testFixture() throws IOException {
+		//The Python writer produces the same bytes
+		writeFixtureColumns(file);
+		assertArrayEquals("Layout has changed", Files.readAllBytes(FIXTURE), Files.readAllBytes(file));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testWrongType() throws IOException {
+		writeFixtureColumns(file);
+		try (SharedColumns columns = SharedColumns.open(file)) {
+			columns.getInts("crystal.frac");
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDuplicateName() {
+		new SharedColumnsWriter().addInts("a", 1, new int[1]).addDoubles("a", 1, new double[1]);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testLongName() {
+		new SharedColumnsWriter().addInts("a_column_name_of_thirty_two_byte", 1, new int[1]);
+	}
+
+	@Test(expected = IOException.class)
+	public void testNotColumns() throws IOException {
+		Files.write(file, new byte[128]);
+		SharedColumns.open(file).close();
+	}
+
+}
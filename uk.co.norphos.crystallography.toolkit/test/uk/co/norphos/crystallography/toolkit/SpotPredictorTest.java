@@ -0,0 +1,120 @@
+package uk.co.norphos.crystallography.toolkit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.commons.math3.linear.RealMatrix;
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.co.norphos.crystallography.api.Lattice;
+
+public class SpotPredictorTest {
+
+	private static final double WAVELENGTH = 0.9795;
+	private static final double D_MIN = 1.2;
+
+	private UnitCell cell;
+	private double[] orientation, axis;
+	private double[] ub;
+
+	@Before
+	public void setUp() {
+		cell = new UnitCell(new Lattice(7.19196, 8.12720, 8.12771, 82.4809, 69.2610, 69.2584));
+		//Rotation of 30 degrees about (1,1,1)
+		double angle = Math.toRadians(30), s = Math.sin(angle), c = Math.cos(angle);
+		double n = 1 / Math.sqrt(3);
+		orientation = new double[]{
+				c + n * n * (1 - c), n * n * (1 - c) - n * s, n * n * (1 - c) + n * s,
+				n * n * (1 - c) + n * s, c + n * n * (1 - c), n * n * (1 - c) - n * s,
+				n * n * (1 - c) - n * s, n * n * (1 - c) + n * s, c + n * n * (1 - c)};
+		axis = new double[]{1, 0, 0};
+		RealMatrix b = cell.getReciprocal().getOrthogonalizationMatrix();
+		double[] bArr = new double[9];
+		for (int i = 0; i < 9; i++) bArr[i] = b.getEntry(i / 3, i % 3);
+		ub = new double[9];
+		Matrix3.multiply(orientation, bArr, ub);
+	}
+
+	/*
+	 * 2.s0.R(phi).r + r^2 for rotation about x; changes sign as hkl crosses the Ewald sphere
+	 */
+	private double ewaldCondition(int h, int k, int l, double phiDeg) {
+		double rx = ub[0] * h + ub[1] * k + ub[2] * l;
+		double ry = ub[3] * h + ub[4] * k + ub[5] * l;
+		double rz = ub[6] * h + ub[7] * k + ub[8] * l;
+		double p = Math.toRadians(phiDeg);
+		double rotZ = Math.sin(p) * ry + Math.cos(p) * rz;
+		return 2 * rotZ / WAVELENGTH + rx * rx + ry * ry + rz * rz;
+	}
+
+	@Test
+	public void testAgainstBruteForce() {
+		//Detector large enough to catch every reflection in front of the sample
+		DetectorGeometry detector = DetectorGeometry.normalToBeam(10, 1e6, 1e6, 1, 2000000, 2000000);
+		SpotPredictor predictor = new SpotPredictor(cell, orientation, WAVELENGTH, axis, detector, D_MIN);
+		assertTrue(predictor.getNumberOfSpots() > 1000);
+
+		int maxH = 10;
+		for (double start = -20; start < 380; start += 37.5) {
+			double end = start + 0.5;
+			Set<String> expected = new HashSet<>();
+			for (int h = -maxH; h <= maxH; h++) {
+				for (int k = -maxH; k <= maxH; k++) {
+					for (int l = -maxH; l <= maxH; l++) {
+						if (h == 0 && k == 0 && l == 0) continue;
+						if (1 / cell.getReciprocal().calculateLength(new org.apache.commons.math3.geometry.euclidean.threed.Vector3D(h, k, l)) < D_MIN) continue;
+						double before = ewaldCondition(h, k, l, start), after = ewaldCondition(h, k, l, end);
+						if (Math.signum(before) != Math.signum(after)) {
+							//Only count reflections going forward (s1.z > 0) for this detector
+							expected.add(h+","+k+","+l);
+						}
+					}
+				}
+			}
+			int count = predictor.countSpots(start, end);
+			int[] hkl = new int[3 * count];
+			double[] pos = new double[2 * count], phi = new double[count];
+			predictor.predict(start, end, hkl, pos, phi);
+			Set<String> found = new HashSet<>();
+			for (int i = 0; i < count; i++) {
+				found.add(hkl[3 * i]+","+hkl[3 * i + 1]+","+hkl[3 * i + 2]);
+				assertTrue("Spot outside frame", phi[i] >= start && phi[i] < end);
+				assertEquals("Spot not on Ewald sphere", 0, ewaldCondition(hkl[3 * i], hkl[3 * i + 1], hkl[3 * i + 2], phi[i]), 1e-9);
+				if (i > 0) assertTrue("Spots out of order", phi[i] >= phi[i - 1]);
+			}
+			//Back-scattered reflections miss a detector downstream of the sample
+			assertTrue("Predicted spot not found by brute force", expected.containsAll(found));
+			assertTrue("Too many spots missed at "+start, found.size() <= expected.size());
+		}
+	}
+
+	@Test
+	public void testDetectorPosition() {
+		DetectorGeometry detector = DetectorGeometry.normalToBeam(150, 1024, 1024, 0.1, 2048, 2048);
+		SpotPredictor predictor = new SpotPredictor(cell, orientation, WAVELENGTH, axis, detector, D_MIN);
+		int count = predictor.countSpots(0, 360);
+		assertEquals(predictor.getNumberOfSpots(), count);
+		int[] hkl = new int[3 * count];
+		double[] pos = new double[2 * count], phi = new double[count];
+		predictor.predict(0, 360, hkl, pos, phi);
+		for (int i = 0; i < count; i++) {
+			//Radius on detector gives the Bragg angle
+			double x = (pos[2 * i] - 1024) * 0.1, y = (pos[2 * i + 1] - 1024) * 0.1;
+			double twoTheta = Math.atan2(Math.sqrt(x * x + y * y), 150);
+			double d = 1 / cell.getReciprocal().calculateLength(new org.apache.commons.math3.geometry.euclidean.threed.Vector3D(hkl[3 * i], hkl[3 * i + 1], hkl[3 * i + 2]));
+			assertEquals("Spot in wrong place for d = "+d, WAVELENGTH / (2 * d), Math.sin(twoTheta / 2), 1e-9);
+		}
+
+		//Frames partition the scan
+		int sum = 0;
+		for (int frame = 0; frame < 3600; frame++) {
+			sum += predictor.countSpots(100 + 0.1 * frame, 100 + 0.1 * (frame + 1));
+		}
+		assertEquals(count, sum, 2);
+	}
+
+}
@@ -0,0 +1,107 @@
+package uk.co.norphos.crystallography.toolkit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.co.norphos.crystallography.api.Lattice;
+import uk.co.norphos.crystallography.api.MillerIndex;
+import uk.co.norphos.crystallography.api.Site;
+
+public class SupercellTest {
+
+	private Crystal fcc;
+	private UnitCell tricCell;
+
+	@Before
+	public void setUp() {
+		//Copper, fcc a = 3.615
+		fcc = new Crystal(new Lattice(3.615, 3.615, 3.615, 90, 90, 90));
+		fcc.addSite(new Site("Cu1", "Cu", new Vector3D(0, 0, 0)));
+		fcc.addSite(new Site("Cu2", "Cu", new Vector3D(0.5, 0.5, 0)));
+		fcc.addSite(new Site("Cu3", "Cu", new Vector3D(0.5, 0, 0.5)));
+		fcc.addSite(new Site("Cu4", "Cu", new Vector3D(0, 0.5, 0.5)));
+
+		tricCell = new UnitCell(new Lattice(7.19196, 8.12720, 8.12771, 82.4809, 69.2610, 69.2584));
+	}
+
+	@Test
+	public void testVirtualIndexing() {
+		//Large enough that materialising it would not be sensible
+		Supercell supercell = Supercell.fromCrystal(fcc, 1000, 1000, 100);
+		assertEquals("Wrong number of sites", 400000000L, supercell.getNumberOfSites());
+
+		long site = 4L * ((7L * 1000 + 123) * 100 + 42) + 2;
+		assertEquals("Wrong base site", 2, supercell.getBaseSiteIndex(site));
+		int[] translation = new int[3];
+		supercell.getTranslation(site, translation);
+		assertArrayEquals("Wrong image", new int[]{7, 123, 42}, translation);
+
+		double[] frac = new double[3];
+		supercell.getFractionalCoordinates(site, frac, 0);
+		assertArrayEquals("Wrong coordinates", new double[]{7.5, 123, 42.5}, frac, 1e-12);
+		double[] cart = new double[3];
+		supercell.getCartesianCoordinates(site, cart, 0);
+		assertArrayEquals("Wrong Cartesian coordinates", new double[]{7.5 * 3.615, 123 * 3.615, 42.5 * 3.615}, cart, 1e-9);
+	}
+
+	@Test
+	public void testDistances() {
+		Supercell supercell = Supercell.fromCrystal(fcc, 3, 3, 3);
+		double nearestNeighbour = 3.615 / Math.sqrt(2);
+		//Site 0 at origin and Cu2 in image 2,2,0 are neighbours through the boundary
+		long site = 4 * ((2 * 3 + 2) * 3) + 1;
+		assertEquals("Wrong direct distance", new Vector3D(2.5 * 3.615, 2.5 * 3.615, 0).getNorm(),
+				supercell.calculateDistance(0, site), 1e-9);
+		assertEquals("Wrong minimum image distance", nearestNeighbour, supercell.calculateMinimumImageDistance(0, site), 1e-9);
+
+		//Compare oblique minimum image with a brute force search
+		Supercell tricSupercell = new Supercell(tricCell, new double[]{0.61530, 0.02520, 0.07450, 0.38470, 0.97480, 0.92550}, 2, 2, 2);
+		for (long j = 0; j < tricSupercell.getNumberOfSites(); j++) {
+			double[] p1 = new double[3], p2 = new double[3];
+			tricSupercell.getFractionalCoordinates(0, p1, 0);
+			tricSupercell.getFractionalCoordinates(j, p2, 0);
+			double best = Double.MAX_VALUE;
+			for (int i = -2; i <= 2; i++) {
+				for (int k = -2; k <= 2; k++) {
+					for (int l = -2; l <= 2; l++) {
+						best = Math.min(best, tricCell.calculateDistance(new Vector3D(p1),
+								new Vector3D(p2[0] + 2 * i, p2[1] + 2 * k, p2[2] + 2 * l)));
+					}
+				}
+			}
+			assertEquals("Minimum image wrong for site "+j, best, tricSupercell.calculateMinimumImageDistance(0, j), 1e-9);
+		}
+	}
+
+	@Test
+	public void testSlab() {
+		for (MillerIndex hkl : new MillerIndex[]{new MillerIndex(1, 1, 1), new MillerIndex(1, 1, 0),
+				new MillerIndex(2, 1, 3), new MillerIndex(0, 0, 1)}) {
+			int h = (int)hkl.getX(), k = (int)hkl.getY(), l = (int)hkl.getZ();
+			int[] basis = Supercell.surfaceBasis(tricCell, h, k, l);
+			assertEquals("First axis not in plane", 0, h * basis[0] + k * basis[1] + l * basis[2]);
+			assertEquals("Second axis not in plane", 0, h * basis[3] + k * basis[4] + l * basis[5]);
+			double[] transform = new double[9];
+			for (int i = 0; i < 9; i++) transform[i] = basis[i];
+			assertEquals("Basis is not unimodular", 1, Matrix3.determinant(transform), 1e-12);
+		}
+
+		Supercell slab = Supercell.slab(fcc.getUnitCell(), fcc.getFractionalCoordinates(), new MillerIndex(1, 1, 1), 4, 4, 6);
+		assertFalse(slab.isPeriodicAlongC());
+		assertEquals("Wrong number of slab sites", 4 * 4 * 4 * 6, slab.getNumberOfSites());
+		assertEquals("Slab cell volume should equal bulk", fcc.getUnitCell().getVolume(), slab.getParentCell().getVolume(), 1e-9);
+		//No two atoms are closer than the bulk nearest neighbour distance
+		double nearestNeighbour = 3.615 / Math.sqrt(2);
+		double shortest = Double.MAX_VALUE;
+		for (long j = 1; j < slab.getNumberOfSites(); j++) {
+			shortest = Math.min(shortest, slab.calculateMinimumImageDistance(0, j));
+		}
+		assertEquals("Wrong nearest neighbour distance in slab", nearestNeighbour, shortest, 1e-9);
+	}
+
+}
@@ -0,0 +1,161 @@
+package uk.co.norphos.crystallography.toolkit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.co.norphos.crystallography.api.Lattice;
+import uk.co.norphos.crystallography.api.UncertainLattice;
+
+public class UncertaintyPropagatorTest {
+
+	private UncertainLattice tricLatt;
+	private UncertaintyPropagator propagator;
+
+	@Before
+	public void setUp() {
+		tricLatt = CifNumbers.parseLattice("7.19196(2)", "8.12720(3)", "8.12771(3)", "82.4809(4)", "69.2610(3)", "69.2584(3)");
+		propagator = new UncertaintyPropagator(tricLatt);
+	}
+
+	@Test
+	public void testCifParsing() throws IOException {
+		assertEquals("Wrong value", 7.19196, CifNumbers.parseValue("7.19196(2)"), 0);
+		assertEquals("Wrong s.u.", 2e-5, CifNumbers.parseSu("7.19196(2)"), 1e-20);
+		assertEquals("Wrong s.u.", 12, CifNumbers.parseSu("1234(12)"), 0);
+		assertEquals("Wrong s.u.", 1.2e-4, CifNumbers.parseSu("1.25E-3(12)"), 1e-19);
+		assertEquals("Wrong value", 1.25e-3, CifNumbers.parseValue("1.25E-3(12)"), 0);
+		assertEquals("Wrong s.u.", 0, CifNumbers.parseSu("90"), 0);
+		assertTrue("Placeholder not NaN", Double.isNaN(CifNumbers.parseValue("?")));
+		assertEquals("Wrong parsed s.u.", 4e-4, tricLatt.getSuAl(), 1e-12);
+
+		//Round trip through CifWriter
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (CifWriter writer = new CifWriter(Channels.newChannel(bytes))) {
+			writer.writeLattice(tricLatt);
+		}
+		String cif = new String(bytes.toByteArray(), StandardCharsets.US_ASCII);
+		assertTrue("s.u. not written: "+cif, cif.contains("7.19196(2)"));
+		assertTrue("s.u. not written: "+cif, cif.contains("82.4809(4)"));
+	}
+
+	@Test(expected = NumberFormatException.class)
+	public void testMalformedSu() {
+		CifNumbers.parseSu("7.19196(2");
+	}
+
+	@Test
+	public void testVolume() {
+		//Cubic metric but a, b and c vary independently, so sigma_V = sqrt(3).a^2.sigma_a
+		UncertaintyPropagator cubic = new UncertaintyPropagator(
+				new UncertainLattice(5.43018, 5.43018, 5.43018, 90, 90, 90, 2e-5, 2e-5, 2e-5, 0, 0, 0));
+		assertEquals("Wrong cubic volume s.u.", Math.sqrt(3) * 5.43018 * 5.43018 * 2e-5, cubic.getVolumeSu(), 1e-12);
+
+		double[] jac = new double[6];
+		for (int p = 0; p < 6; p++) {
+			jac[p] = numericalDerivative(p, ws -> ws.getVolume());
+		}
+		assertEquals("Wrong triclinic volume", new UnitCell(tricLatt).getVolume(), propagator.getVolume(), 1e-9);
+		assertEquals("Wrong triclinic volume s.u.", propagate(jac), propagator.getVolumeSu(), 1e-6 * propagator.getVolumeSu());
+	}
+
+	@Test
+	public void testDSpacings() {
+		double[] hkl = {1, 0, 0, 1, 2, 3, -2, 1, 4, 0, 0, 5};
+		double[] d = new double[4], su = new double[4];
+		propagator.calculateDSpacings(hkl, d, su);
+		for (int n = 0; n < 4; n++) {
+			double h = hkl[3 * n], k = hkl[3 * n + 1], l = hkl[3 * n + 2];
+			double[] jac = new double[6];
+			for (int p = 0; p < 6; p++) {
+				jac[p] = numericalDerivative(p, ws -> ws.calculateDSpacing(h, k, l));
+			}
+			assertEquals("Wrong d-spacing", new CellWorkspace(tricLatt).calculateDSpacing(h, k, l), d[n], 1e-12);
+			assertEquals("Wrong d-spacing s.u.", propagate(jac), su[n], 1e-5 * su[n]);
+		}
+		assertEquals("Inconsistent single d-spacing s.u.", su[1], propagator.calculateDSpacingSu(1, 2, 3), 1e-15);
+	}
+
+	@Test
+	public void testDistancesAndAngles() {
+		Random rand = new Random(39);
+		int n = 50;
+		double[] frac1 = new double[3 * n], frac2 = new double[3 * n], frac3 = new double[3 * n];
+		for (int i = 0; i < 3 * n; i++) {
+			frac1[i] = rand.nextDouble();
+			frac2[i] = rand.nextDouble();
+			frac3[i] = rand.nextDouble();
+		}
+		double[] dist = new double[n], distSu = new double[n], angles = new double[n], angleSu = new double[n];
+		propagator.calculateDistances(frac1, frac2, dist, distSu);
+		propagator.calculateAngles(frac1, frac2, frac3, angles, angleSu);
+		CellWorkspace cell = new CellWorkspace(tricLatt);
+		for (int i = 0; i < n; i++) {
+			int s = 3 * i;
+			double[] jacDist = new double[6], jacAngle = new double[6];
+			for (int p = 0; p < 6; p++) {
+				jacDist[p] = numericalDerivative(p, ws -> ws.calculateDistance(frac1[s], frac1[s + 1], frac1[s + 2],
+						frac2[s], frac2[s + 1], frac2[s + 2]));
+				jacAngle[p] = numericalDerivative(p, ws -> angle(ws, frac1, frac2, frac3, s));
+			}
+			assertEquals("Wrong distance", cell.calculateDistance(frac1[s], frac1[s + 1], frac1[s + 2],
+					frac2[s], frac2[s + 1], frac2[s + 2]), dist[i], 1e-10);
+			assertEquals("Wrong distance s.u.", propagate(jacDist), distSu[i], 1e-5 * distSu[i]);
+			assertEquals("Wrong angle", angle(cell, frac1, frac2, frac3, s), angles[i], 1e-9);
+			assertEquals("Wrong angle s.u.", propagate(jacAngle), angleSu[i], 1e-4 * angleSu[i] + 1e-12);
+		}
+
+		//Coordinate s.u.s add in quadrature: a bond along a only sees the x s.u.s
+		UncertaintyPropagator exact = new UncertaintyPropagator(new Lattice(10, 10, 10, 90, 90, 90), new double[36]);
+		double[] su = new double[1];
+		exact.calculateDistances(new double[]{0, 0, 0}, new double[]{3e-4, 1, 1}, new double[]{0.15, 0, 0},
+				new double[]{4e-4, 1, 1}, new double[1], su);
+		assertEquals("Wrong coordinate s.u. contribution", 10 * 5e-4, su[0], 1e-15);
+	}
+
+	private interface Quantity {
+		double evaluate(CellWorkspace ws);
+	}
+
+	/*
+	 * Central difference of a quantity with respect to a lattice parameter,
+	 * with angles in degrees.
+	 */
+	private double numericalDerivative(int p, Quantity quantity) {
+		double[] params = {tricLatt.getA(), tricLatt.getB(), tricLatt.getC(), tricLatt.getAl(), tricLatt.getBe(), tricLatt.getGa()};
+		double step = p < 3 ? 1e-6 : 1e-5;
+		CellWorkspace ws = new CellWorkspace(tricLatt);
+		params[p] += step;
+		ws.update(params[0], params[1], params[2], params[3], params[4], params[5]);
+		double plus = quantity.evaluate(ws);
+		params[p] -= 2 * step;
+		ws.update(params[0], params[1], params[2], params[3], params[4], params[5]);
+		double minus = quantity.evaluate(ws);
+		return (plus - minus) / (2 * step);
+	}
+
+	private double propagate(double[] jac) {
+		double[] sus = tricLatt.getSus();
+		double var = 0;
+		for (int p = 0; p < 6; p++) {
+			var += jac[p] * jac[p] * sus[p] * sus[p];
+		}
+		return Math.sqrt(var);
+	}
+
+	private static double angle(CellWorkspace ws, double[] f1, double[] f2, double[] f3, int s) {
+		double a = ws.calculateDistance(f1[s], f1[s + 1], f1[s + 2], f2[s], f2[s + 1], f2[s + 2]);
+		double b = ws.calculateDistance(f3[s], f3[s + 1], f3[s + 2], f2[s], f2[s + 1], f2[s + 2]);
+		double c = ws.calculateDistance(f1[s], f1[s + 1], f1[s + 2], f3[s], f3[s + 1], f3[s + 2]);
+		return Math.toDegrees(Math.acos((a * a + b * b - c * c) / (2 * a * b)));
+	}
+
+}
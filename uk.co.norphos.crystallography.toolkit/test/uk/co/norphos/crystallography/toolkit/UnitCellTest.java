@@ -2,9 +2,16 @@ package uk.co.norphos.crystallography.toolkit;
 
 import static org.junit.Assert.assertEquals;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Random;
+
 import org.apache.commons.math3.TestUtils;
 import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
 import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.LUDecomposition;
 import org.apache.commons.math3.linear.MatrixUtils;
 import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.linear.RealVector;
@@ -223,6 +230,88 @@ public class UnitCellTest {
 		assertEquals("Wrong distance between sites 2 & 3 by sites", tricDistance23, uc.calculateDistance(tricCoord2, tricCoord3), 5e-4);
 	}
 	
+	@Test
+	public void testAnalyticConstruction() throws Exception {
+		//Analytic reciprocal and conversion matrices agree with a general inverse
+		for (Lattice latt : new Lattice[]{cubicLatt, orthoLatt, tricLatt, new Lattice(4.76, 4.76, 12.99, 90, 90, 120)}) {
+			uc = new UnitCell(latt);
+			RealMatrix ortho = uc.getOrthogonalizationMatrix();
+			TestUtils.assertEquals("Wrong fractionalization matrix",
+					new LUDecomposition(ortho).getSolver().getInverse(), uc.getFractionalizationMatrix(), 1e-12);
+			TestUtils.assertEquals("Wrong reciprocal metric tensor",
+					new LUDecomposition(uc.getMetricTensor()).getSolver().getInverse(), uc.getReciprocalMetricTensor(), 1e-12);
+			assertEquals("Wrong reciprocal volume", 1 / uc.getVolume(), uc.getReciprocal().getVolume(), 1e-15);
+			assertEquals("Reciprocal of reciprocal not this", uc, uc.getReciprocal().getReciprocal());
+			assertEquals("Wrong reciprocal reciprocal a", latt.getA(), uc.getReciprocal().getReciprocal().getLattice().getA(), 0);
+		}
+
+		//Lattice angles fixed by symmetry have exact trigonometric functions
+		Lattice hex = new Lattice(4.76, 4.76, 12.99, 90, 90, 120);
+		assertEquals("Inexact cosine", 0, hex.getCosAl(), 0);
+		assertEquals("Inexact cosine", -0.5, hex.getCosGa(), 0);
+		assertEquals("Inexact sine", 1, hex.getSinBe(), 0);
+
+		//Derived fields are rebuilt on deserialization
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(tricLatt);
+		}
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+			Lattice copy = (Lattice)in.readObject();
+			assertEquals("Lattice changed by serialization", tricLatt, copy);
+			assertEquals("Cosine lost by serialization", tricLatt.getCosBe(), copy.getCosBe(), 0);
+		}
+	}
+
+	@Test
+	public void testSinglePrecisionBulk() {
+		uc = new UnitCell(tricLatt);
+		Random random = new Random(34);
+		int n = 3000;
+		double[] frac1 = new double[3 * n], frac2 = new double[3 * n];
+		float[] frac1F = new float[3 * n], frac2F = new float[3 * n];
+		for (int i = 0; i < 3 * n; i++) {
+			frac1F[i] = random.nextFloat();
+			frac2F[i] = random.nextFloat();
+			frac1[i] = frac1F[i];
+			frac2[i] = frac2F[i];
+		}
+		double u = Math.ulp(1.0f) / 2;
+
+		//Float transforms agree with the double path within the documented bound
+		double[] cart = new double[3 * n];
+		float[] cartF = new float[3 * n], fracF = new float[3 * n];
+		uc.orthogonalize(frac1, cart);
+		uc.orthogonalize(frac1F, cartF);
+		RealMatrix ortho = uc.getOrthogonalizationMatrix();
+		for (int i = 0; i < 3 * n; i++) {
+			int row = i % 3, site = i - row;
+			double bound = 0;
+			for (int j = 0; j < 3; j++) bound += Math.abs(ortho.getEntry(row, j) * frac1[site + j]);
+			assertEquals("Float orthogonalization outside bound", cart[i], cartF[i], 4 * u * bound);
+		}
+		uc.fractionalize(cartF, fracF);
+		for (int i = 0; i < 3 * n; i++) {
+			assertEquals("Float round trip too inaccurate", frac1[i], fracF[i], 1e-6);
+		}
+
+		//Float distances agree within u(1 + k)
+		double[] dist = new double[n];
+		float[] distF = new float[n];
+		uc.calculateDistances(frac1, frac2, dist);
+		uc.calculateDistances(frac1F, frac2F, distF);
+		for (int i = 0; i < n; i++) {
+			double k = 0;
+			for (int r = 0; r < 3; r++) {
+				for (int c = 0; c < 3; c++) {
+					k += Math.abs(tricGMat.getEntry(r, c) * (frac2[3 * i + r] - frac1[3 * i + r]) * (frac2[3 * i + c] - frac1[3 * i + c]));
+				}
+			}
+			k /= dist[i] * dist[i];
+			assertEquals("Float distance outside bound", dist[i], distF[i], 1.01 * u * (1 + k) * dist[i]);
+		}
+	}
+	
 	@Test
 	public void latticeVectorCalculus() {
 		Lattice simpleCubic = new Lattice(10,10,10,90,90,90);
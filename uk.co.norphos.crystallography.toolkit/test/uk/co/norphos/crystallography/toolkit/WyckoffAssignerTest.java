@@ -0,0 +1,139 @@
+package uk.co.norphos.crystallography.toolkit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
+import org.junit.Test;
+
+import uk.co.norphos.crystallography.api.Lattice;
+import uk.co.norphos.crystallography.api.Site;
+
+public class WyckoffAssignerTest {
+
+	private static List<SymmetryOperator> parse(String... xyz) {
+		return Arrays.stream(xyz).map(SymmetryOperator::parse).collect(Collectors.toList());
+	}
+
+	private static List<SymmetryOperator> closure(List<SymmetryOperator> generators) {
+		List<SymmetryOperator> group = new ArrayList<>(parse("x,y,z"));
+		for (int i = 0; i < group.size(); i++) {
+			for (SymmetryOperator generator : generators) {
+				SymmetryOperator product = generator.multiply(group.get(i));
+				if (!group.contains(product)) group.add(product);
+			}
+		}
+		return group;
+	}
+
+	private static Crystal crystal(Lattice lattice, double[]... positions) {
+		Crystal crystal = new Crystal(lattice);
+		for (int i = 0; i < positions.length; i++) {
+			crystal.addSite(new Site("X"+i, "C", new Vector3D(positions[i][0], positions[i][1], positions[i][2])));
+		}
+		return crystal;
+	}
+
+	private static String symbols(List<WyckoffAssignment> assignments) {
+		return assignments.stream().map(a -> a.getWyckoffPosition() == null ? "?" : a.getWyckoffPosition().getSymbol())
+				.collect(Collectors.joining(" "));
+	}
+
+	@Test
+	public void testParse() {
+		SymmetryOperator op = SymmetryOperator.parse("'-x+1/2, y-x, 1/2+Z'");
+		assertArrayEquals("Wrong rotation", new int[]{-1, 0, 0, -1, 1, 0, 0, 0, 1}, op.getRotation());
+		assertArrayEquals("Wrong translation", new double[]{0.5, 0, 0.5}, op.getTranslation(), 0);
+		assertEquals("Wrong triplet", "-x+1/2,-x+y,z+1/2", op.toString());
+		assertEquals("Round trip failed", op, SymmetryOperator.parse(op.toString()));
+
+		SymmetryOperator screw = SymmetryOperator.parse("-x, y+0.5, -z+1/2");
+		assertTrue("Not the identity", screw.multiply(screw).isIdentity());
+		double[] frac = {0.1, 0.2, 0.3};
+		screw.apply(frac, frac);
+		assertArrayEquals("Wrong image", new double[]{-0.1, 0.7, 0.2}, frac, 1e-15);
+
+		for (String bad : new String[]{"x,y", "x,,z", "x,y,2z", "x,y,z/", "x y,y,z", "1/2x,y,z"}) {
+			try {
+				SymmetryOperator.parse(bad);
+				throw new AssertionError("Parsed '"+bad+"'");
+			} catch (IllegalArgumentException e) {
+				//Expected
+			}
+		}
+		assertEquals("Wrong freedom", 1, new WyckoffPosition(6, 'h', "x,2x,1/4").getDegreesOfFreedom());
+		assertEquals("Wrong freedom", 2, new WyckoffPosition(12, 'k', "x,2x,z").getDegreesOfFreedom());
+	}
+
+	@Test
+	public void testMonoclinic() {
+		//P 1 21/c 1
+		WyckoffAssigner assigner = new WyckoffAssigner(parse("x,y,z", "-x,y+1/2,-z+1/2", "-x,-y,-z", "x,-y+1/2,z+1/2"),
+				Arrays.asList(new WyckoffPosition(2, 'a', "0,0,0"), new WyckoffPosition(2, 'b', "1/2,0,0"),
+						new WyckoffPosition(2, 'c', "0,0,1/2"), new WyckoffPosition(2, 'd', "1/2,0,1/2"),
+						new WyckoffPosition(4, 'e', "x,y,z")));
+		Crystal crystal = crystal(new Lattice(5.1, 7.3, 9.2, 90, 104.5, 90),
+				new double[]{0, 0, 0}, new double[]{0.5, 0.5, 0}, new double[]{0, 0.5, 0}, new double[]{0.5, 0, 0},
+				new double[]{0.123, 0.456, 0.789}, new double[]{0.0005, 0.9995, 0.0003}, new double[]{0.01, 0, 0});
+		List<WyckoffAssignment> assignments = assigner.assign(crystal);
+		//1/2,1/2,0 is 1/2,0,1/2 by the screw axis; 0,1/2,0 is 0,0,1/2
+		assertEquals("Wrong positions", "2a 2d 2c 2b 4e 2a 4e", symbols(assignments));
+		assertEquals("Wrong site symmetry", 2, assignments.get(0).getSiteSymmetryOrder());
+		assertEquals("Not the inversion", "-x,-y,-z", assignments.get(0).getSiteSymmetry().get(1).toString());
+		assertEquals("Wrong multiplicity", 4, assignments.get(4).getMultiplicity());
+		assertEquals("Wrong label", "X4", assignments.get(4).getLabel());
+	}
+
+	@Test
+	public void testTetragonal() {
+		//P 4/m 2/m 2/m from the fourfold and two mirrors
+		List<SymmetryOperator> operators = closure(parse("-y,x,z", "-x,y,z", "x,y,-z"));
+		assertEquals("Wrong order", 16, operators.size());
+		String[] wyckoff = {"1a 0,0,0", "1b 0,0,1/2", "1c 1/2,1/2,0", "1d 1/2,1/2,1/2", "2e 0,1/2,1/2", "2f 0,1/2,0",
+				"2g 0,0,z", "2h 1/2,1/2,z", "4i 0,1/2,z", "4j x,x,0", "4k x,x,1/2", "4l x,0,0", "4m x,0,1/2",
+				"4n x,1/2,0", "4o x,1/2,1/2", "8p x,y,0", "8q x,y,1/2", "8r x,x,z", "8s x,0,z", "8t x,1/2,z", "16u x,y,z"};
+		List<WyckoffPosition> positions = new ArrayList<>();
+		for (String w : wyckoff) {
+			String[] parts = w.split(" ");
+			int letter = parts[0].length() - 1;
+			positions.add(new WyckoffPosition(Integer.parseInt(parts[0].substring(0, letter)), parts[0].charAt(letter), parts[1]));
+		}
+		//Shuffled, to check positions are tried in order
+		Collections.reverse(positions);
+		WyckoffAssigner assigner = new WyckoffAssigner(operators, positions);
+
+		Crystal crystal = crystal(new Lattice(4.2, 4.2, 6.7, 90, 90, 90),
+				new double[]{0.3, 0.3, 0.2}, new double[]{0.7, 0.3, 0.2}, new double[]{0.2, 0.5, 0.1},
+				new double[]{0.5, 0.2, 0.1}, new double[]{0.5, 0.5, 0.3}, new double[]{0.5, 0, 0.5},
+				new double[]{0.1, 0.8, 0.5}, new double[]{0.2, 0.3, 0.4}, new double[]{0.25, 0.25, 0.0005});
+		List<WyckoffAssignment> assignments = assigner.assign(crystal);
+		assertEquals("Wrong positions", "8r 8r 8t 8t 2h 2e 8q 16u 4j", symbols(assignments));
+		assertEquals("Wrong site symmetry", 8, assignments.get(4).getSiteSymmetryOrder());
+
+		//Within the tolerance of 4j, but not with a tighter one
+		WyckoffAssigner tight = new WyckoffAssigner(operators, positions, 1e-3);
+		assertEquals("Wrong tight assignment", "8r", tight.assign(crystal).get(8).getWyckoffPosition().getSymbol());
+
+		//Batch agrees, and a missing position gives no assignment
+		List<List<WyckoffAssignment>> batch = assigner.assignAll(Arrays.asList(crystal, crystal, crystal));
+		for (List<WyckoffAssignment> result : batch) {
+			assertEquals("Batch differs", symbols(assignments), symbols(result));
+		}
+		WyckoffAssigner partial = new WyckoffAssigner(operators, positions.subList(0, 1));
+		assertNull("Assigned to missing position", partial.assign(crystal).get(4).getWyckoffPosition());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNoIdentity() {
+		new WyckoffAssigner(parse("-x,-y,-z"), new ArrayList<>());
+	}
+
+}
@@ -0,0 +1,77 @@
+package uk.co.norphos.crystallography.toolkit.benchmark;
+
+import java.util.Random;
+
+import uk.co.norphos.crystallography.api.Lattice;
+import uk.co.norphos.crystallography.toolkit.UnitCell;
+
+/**
+ * Compares the single and double precision bulk geometry paths of
+ * {@link UnitCell} on a structure too large for the caches. Run as a main
+ * class (not part of the unit tests), optionally passing the number of
+ * sites:
+ * <pre>
+ * java -cp ... uk.co.norphos.crystallography.toolkit.benchmark.BulkGeometryBenchmark 10000000
+ * </pre>
+ *
+ * @author Michael Wharmby
+ *
+ */
+public class BulkGeometryBenchmark {
+
+	private static final int WARMUP = 5, REPEATS = 10;
+
+	public static void main(String[] args) {
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 5000000;
+		UnitCell cell = new UnitCell(new Lattice(7.19196, 8.12720, 8.12771, 82.4809, 69.2610, 69.2584));
+		Random random = new Random(34);
+		double[] frac1 = new double[3 * n], frac2 = new double[3 * n], cart = new double[3 * n], dist = new double[n];
+		float[] frac1F = new float[3 * n], frac2F = new float[3 * n], cartF = new float[3 * n], distF = new float[n];
+		for (int i = 0; i < 3 * n; i++) {
+			frac1F[i] = random.nextFloat();
+			frac2F[i] = random.nextFloat();
+			frac1[i] = frac1F[i];
+			frac2[i] = frac2F[i];
+		}
+
+		System.out.printf("%d sites%n%-16s %12s %12s %8s%n", n, "kernel", "double (ms)", "float (ms)", "speedup");
+		report("orthogonalize", n,
+				time(() -> cell.orthogonalize(frac1, cart)),
+				time(() -> cell.orthogonalize(frac1F, cartF)));
+		report("fractionalize", n,
+				time(() -> cell.fractionalize(cart, frac2)),
+				time(() -> cell.fractionalize(cartF, frac2F)));
+		//Restore the second set of sites after the fractionalize runs overwrote them
+		for (int i = 0; i < 3 * n; i++) {
+			frac2F[i] = random.nextFloat();
+			frac2[i] = frac2F[i];
+		}
+		report("distances", n,
+				time(() -> cell.calculateDistances(frac1, frac2, dist)),
+				time(() -> cell.calculateDistances(frac1F, frac2F, distF)));
+
+		double worst = 0;
+		for (int i = 0; i < n; i++) {
+			worst = Math.max(worst, Math.abs(dist[i] - distF[i]) / dist[i]);
+		}
+		System.out.printf("Largest relative distance error of float path: %.3g%n", worst);
+	}
+
+	private static double time(Runnable kernel) {
+		for (int i = 0; i < WARMUP; i++) {
+			kernel.run();
+		}
+		long best = Long.MAX_VALUE;
+		for (int i = 0; i < REPEATS; i++) {
+			long start = System.nanoTime();
+			kernel.run();
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		return best / 1e6;
+	}
+
+	private static void report(String kernel, int n, double doubleMillis, double floatMillis) {
+		System.out.printf("%-16s %12.2f %12.2f %8.2f%n", kernel, doubleMillis, floatMillis, doubleMillis / floatMillis);
+	}
+
+}
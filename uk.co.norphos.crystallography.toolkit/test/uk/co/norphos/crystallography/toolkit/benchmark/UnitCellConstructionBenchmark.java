@@ -0,0 +1,86 @@
+package uk.co.norphos.crystallography.toolkit.benchmark;
+
+import java.util.Random;
+
+import uk.co.norphos.crystallography.api.CrystalSystem;
+import uk.co.norphos.crystallography.api.Lattice;
+import uk.co.norphos.crystallography.toolkit.UnitCell;
+
+/**
+ * Measures how many {@link UnitCell}s (with their reciprocal cells and
+ * conversion matrices) can be built per second from {@link Lattice}s of
+ * each {@link CrystalSystem}. Run as a main class (not part of the unit
+ * tests), optionally passing the number of cells per system:
+ * <pre>
+ * java -cp ... uk.co.norphos.crystallography.toolkit.benchmark.UnitCellConstructionBenchmark 1000000
+ * </pre>
+ *
+ * @author Michael Wharmby
+ *
+ */
+public class UnitCellConstructionBenchmark {
+
+	private static final int WARMUP = 5, REPEATS = 10;
+
+	public static void main(String[] args) {
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+		Random random = new Random(38);
+
+		System.out.printf("%d cells per system%n%-14s %12s %14s%n", n, "system", "best (ms)", "cells/s");
+		for (CrystalSystem system : CrystalSystem.values()) {
+			double[][] params = new double[n][];
+			for (int i = 0; i < n; i++) {
+				params[i] = randomParameters(system, random);
+			}
+			double millis = time(() -> {
+				double sink = 0;
+				for (double[] p : params) {
+					UnitCell cell = new UnitCell(new Lattice(p[0], p[1], p[2], p[3], p[4], p[5]));
+					sink += cell.getVolume();
+				}
+				if (sink == 42) System.out.print("");
+			});
+			System.out.printf("%-14s %12.2f %14.0f%n", system, millis, n / millis * 1e3);
+		}
+	}
+
+	/*
+	 * Random lattice parameters with the metric symmetry of the system.
+	 */
+	private static double[] randomParameters(CrystalSystem system, Random random) {
+		double a = 3 + 20 * random.nextDouble(), b = 3 + 20 * random.nextDouble(), c = 3 + 20 * random.nextDouble();
+		double al = 60 + 60 * random.nextDouble(), be = 60 + 60 * random.nextDouble(), ga = 60 + 60 * random.nextDouble();
+		switch (system) {
+		case CUBIC:
+			return new double[]{a, a, a, 90, 90, 90};
+		case HEXAGONAL:
+		case TRIGONAL:
+			return new double[]{a, a, c, 90, 90, 120};
+		case RHOMBOHEDRAL:
+			return new double[]{a, a, a, al, al, al};
+		case TETRAGONAL:
+			return new double[]{a, a, c, 90, 90, 90};
+		case ORTHORHOMBIC:
+			return new double[]{a, b, c, 90, 90, 90};
+		case MONOCLINIC:
+			return new double[]{a, b, c, 90, 90 + 30 * random.nextDouble(), 90};
+		default:
+			//Keep the triclinic angles in a range which always gives a valid cell
+			return new double[]{a, b, c, 75 + 30 * random.nextDouble(), 75 + 30 * random.nextDouble(), 75 + 30 * random.nextDouble()};
+		}
+	}
+
+	private static double time(Runnable kernel) {
+		for (int i = 0; i < WARMUP; i++) {
+			kernel.run();
+		}
+		long best = Long.MAX_VALUE;
+		for (int i = 0; i < REPEATS; i++) {
+			long start = System.nanoTime();
+			kernel.run();
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		return best / 1e6;
+	}
+
+}
@@ -0,0 +1,87 @@
+package uk.co.norphos.crystallography.toolkit.cli;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+import uk.co.norphos.crystallography.api.Lattice;
+import uk.co.norphos.crystallography.api.MillerIndex;
+import uk.co.norphos.crystallography.toolkit.UnitCell;
+
+public class CrystallographyCliTest {
+
+	private static String[] run(CrystallographyCli cli, String requests) throws IOException {
+		StringWriter out = new StringWriter();
+		cli.run(new StringReader(requests), out);
+		return out.toString().split("\n");
+	}
+
+	private static double[] values(String response) {
+		assertTrue("Request failed: "+response, response.startsWith("OK "));
+		String[] tokens = response.substring(3).split(" ");
+		double[] values = new double[tokens.length];
+		for (int i = 0; i < tokens.length; i++) {
+			values[i] = Double.parseDouble(tokens[i]);
+		}
+		return values;
+	}
+
+	@Test
+	public void testBatch() throws IOException {
+		CrystallographyCli cli = new CrystallographyCli();
+		String[] responses = run(cli, "CELL 7.19196 8.1272 8.12771 82.4809 69.261 69.2584\n"
+				+ "\n"
+				+ "dspacing 7.19196 8.1272 8.12771 82.4809 69.261 69.2584 1 -2 3\n"
+				+ "CARTESIAN 5 5 5 90 90 90 0.5 0.25 1\n"
+				+ "FRACTIONAL 5 5 5 90 90 90 2.5 1.25 5\n"
+				+ "REFLECTIONS 5 5 5 90 90 90 4\n");
+		assertEquals("Wrong number of responses", 5, responses.length);
+		assertFalse("Request failed", cli.hasFailed());
+
+		UnitCell cell = new UnitCell(new Lattice(7.19196, 8.1272, 8.12771, 82.4809, 69.261, 69.2584));
+		double[] values = values(responses[0]);
+		assertEquals("Wrong volume", cell.getVolume(), values[0], 1e-9);
+		assertEquals("Wrong a*", cell.getReciprocalLattice().getA(), values[1], 1e-12);
+		assertEquals("Wrong gamma*", cell.getReciprocalLattice().getGa(), values[6], 1e-9);
+		assertEquals("Wrong d-spacing", cell.getDSpacing(new MillerIndex(1, -2, 3)),
+				values(responses[1])[0], 1e-12);
+		double[] cart = values(responses[2]);
+		assertEquals("Wrong Cartesian x", 2.5, cart[0], 1e-12);
+		assertEquals("Wrong Cartesian z", 5, cart[2], 1e-12);
+		assertEquals("Wrong fractional y", 0.25, values(responses[3])[1], 1e-12);
+		assertEquals("Wrong reflections", "OK 6 -1 0 0 5.0 0 -1 0 5.0 0 0 -1 5.0 0 0 1 5.0 0 1 0 5.0 1 0 0 5.0", responses[4]);
+	}
+
+	@Test
+	public void testNiggli() throws IOException {
+		//The primitive cell of an fcc lattice reduces to itself
+		double[] values = values(run(new CrystallographyCli(), "NIGGLI 3.84 3.84 3.84 60 60 60")[0]);
+		assertEquals("Wrong a", 3.84, values[0], 1e-9);
+		assertEquals("Wrong alpha", 60, values[3], 1e-6);
+	}
+
+	@Test
+	public void testErrors() throws IOException {
+		CrystallographyCli cli = new CrystallographyCli();
+		String[] responses = run(cli, "CELL 5 5 5 90 90\nFOO\nCELL 5 5 x 90 90 90\nCELL 5 5 5 150 150 150\n"
+				+ "REFLECTIONS 5 5 5 90 90 90 0.001\nNIGGLI 1 1 1 0 0 0\nNIGGLI -1 2 3 90 90 90\nCELL 1 1 1 200 90 90\n"
+				+ "CELL 5 5 5 90 90 90\n");
+		assertEquals("Wrong response", "ERR CELL expects 6 arguments, got 5", responses[0]);
+		assertEquals("Wrong response", "ERR Unknown command 'FOO'", responses[1]);
+		assertEquals("Wrong response", "ERR Not a number: 'x'", responses[2]);
+		assertTrue("Impossible cell accepted", responses[3].startsWith("ERR "));
+		assertTrue("Unbounded reflection list accepted", responses[4].startsWith("ERR "));
+		assertEquals("Wrong response", "ERR Cell angles must be between 0 and 180 degrees", responses[5]);
+		assertEquals("Wrong response", "ERR Cell lengths must be positive", responses[6]);
+		assertEquals("Wrong response", "ERR Cell angles must be between 0 and 180 degrees", responses[7]);
+		assertEquals("Wrong volume after errors", 125, values(responses[8])[0], 1e-9);
+		assertTrue("Failure not recorded", cli.hasFailed());
+	}
+
+}
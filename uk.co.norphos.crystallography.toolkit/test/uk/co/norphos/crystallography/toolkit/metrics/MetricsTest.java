@@ -0,0 +1,100 @@
+package uk.co.norphos.crystallography.toolkit.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+public class MetricsTest {
+
+	@Test
+	public void testBuckets() {
+		//Buckets are contiguous and every value maps to a bucket whose midpoint is within 1/64
+		assertEquals(0, Timer.bucketIndex(0));
+		assertEquals(127, Timer.bucketIndex(127));
+		assertEquals(128, Timer.bucketIndex(128));
+		assertEquals(Timer.bucketIndex(129), Timer.bucketIndex(128));
+		Random random = new Random(7);
+		for (int i = 0; i < 100000; i++) {
+			long value = random.nextLong() >>> (1 + random.nextInt(63));
+			long midpoint = Timer.bucketValue(Timer.bucketIndex(value));
+			assertEquals("Bucket too coarse for "+value, value, midpoint, value / 64.0 + 1);
+		}
+		assertEquals(Long.MAX_VALUE, Long.MAX_VALUE, Timer.bucketValue(Timer.bucketIndex(Long.MAX_VALUE)) / 64.0);
+	}
+
+	@Test
+	public void testTimer() {
+		MetricsRegistry registry = new MetricsRegistry();
+		Timer timer = registry.timer("test");
+		assertSame(timer, registry.timer("test"));
+		assertEquals(0, timer.getPercentile(50));
+
+		//Uniform 1..100000 ns from many threads
+		IntStream.rangeClosed(1, 100000).parallel().forEach(timer::record);
+		assertEquals(100000, timer.getCount());
+		assertEquals(100000, timer.getMax());
+		assertEquals(50000.5, timer.getMean(), 1e-9);
+		assertEquals(50000, timer.getPercentile(50), 50000 / 64.0);
+		assertEquals(99000, timer.getPercentile(99), 99000 / 64.0);
+		assertEquals(100000, timer.getPercentile(100));
+
+		registry.reset();
+		assertEquals(0, timer.getCount());
+		assertEquals(0, timer.getPercentile(99));
+	}
+
+	@Test
+	public void testVisitor() {
+		MetricsRegistry registry = new MetricsRegistry();
+		registry.counter("b").add(3);
+		registry.counter("a").increment();
+		registry.timer("c").record(10);
+		List<String> seen = new ArrayList<>();
+		registry.visit(new MetricsVisitor() {
+			@Override
+			public void visitCounter(Counter counter) {
+				seen.add(counter.getName()+"="+counter.getCount());
+			}
+
+			@Override
+			public void visitTimer(Timer timer) {
+				seen.add(timer.getName()+"="+timer.getMax());
+			}
+		});
+		assertEquals("[a=1, b=3, c=10]", seen.toString());
+	}
+
+	@Test
+	public void testMBean() throws Exception {
+		assertFalse("Metrics should be off unless requested", Metrics.ENABLED);
+		Metrics.counter("test.mbean").add(5);
+		Metrics.timer("test.mbean.timer").record(1000);
+		ObjectName name = Metrics.registerMBean();
+		assertEquals(name, Metrics.registerMBean());
+
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		assertEquals(5L, server.getAttribute(name, "test.mbean.count"));
+		assertEquals(1000L, server.getAttribute(name, "test.mbean.timer.max"));
+		boolean listed = false;
+		for (MBeanAttributeInfo info : server.getMBeanInfo(name).getAttributes()) {
+			listed |= info.getName().equals("test.mbean.timer.p99");
+		}
+		assertTrue("Timer percentiles not listed", listed);
+		server.invoke(name, "reset", null, null);
+		assertEquals(0L, server.getAttribute(name, "test.mbean.count"));
+	}
+
+}
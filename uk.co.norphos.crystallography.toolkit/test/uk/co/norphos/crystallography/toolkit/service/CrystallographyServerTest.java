@@ -0,0 +1,137 @@
+package uk.co.norphos.crystallography.toolkit.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.co.norphos.crystallography.api.Lattice;
+import uk.co.norphos.crystallography.api.MillerIndex;
+import uk.co.norphos.crystallography.toolkit.ReflectionList;
+import uk.co.norphos.crystallography.toolkit.UnitCell;
+
+public class CrystallographyServerTest {
+
+	private static final String TRICLINIC = "7.19196 8.12720 8.12771 82.4809 69.2610 69.2584";
+
+	private CrystallographyServer server;
+	private UnitCell cell;
+
+	@Before
+	public void setUp() throws IOException {
+		server = new CrystallographyServer(0);
+		cell = new UnitCell(new Lattice(7.19196, 8.12720, 8.12771, 82.4809, 69.2610, 69.2584));
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		server.close();
+	}
+
+	private class Client implements AutoCloseable {
+		private final Socket socket;
+		private final BufferedReader in;
+		private final PrintWriter out;
+
+		private Client() throws IOException {
+			socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+			in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+			out = new PrintWriter(socket.getOutputStream(), true);
+		}
+
+		private String[] request(String line) throws IOException {
+			out.print(line+"\n");
+			out.flush();
+			return in.readLine().split(" ");
+		}
+
+		@Override
+		public void close() throws IOException {
+			socket.close();
+		}
+	}
+
+	@Test
+	public void testRequests() throws IOException {
+		try (Client client = new Client()) {
+			String[] response = client.request("CELL "+TRICLINIC);
+			assertEquals("OK", response[0]);
+			assertEquals(cell.getVolume(), Double.parseDouble(response[1]), 1e-9);
+			assertEquals(cell.getReciprocalLattice().getA(), Double.parseDouble(response[2]), 1e-12);
+
+			response = client.request("DSPACING "+TRICLINIC+" 1 -2 3");
+			assertEquals(cell.getDSpacing(new MillerIndex(1, -2, 3)), Double.parseDouble(response[1]), 1e-12);
+
+			response = client.request("REFLECTIONS "+TRICLINIC+" 2.5");
+			ReflectionList reflections = ReflectionList.enumerate(cell, 2.5);
+			assertEquals(reflections.size(), Integer.parseInt(response[1]));
+			assertEquals(2 + 4 * reflections.size(), response.length);
+			assertEquals(reflections.getDSpacing(0), Double.parseDouble(response[5]), 1e-12);
+
+			assertEquals("ERR", client.request("DISTANCE 1 2 3")[0]);
+			assertEquals("ERR", client.request("FOO")[0]);
+			assertEquals("ERR", client.request("DSPACING "+TRICLINIC+" 1 x 3")[0]);
+			assertEquals("ERR", client.request("REFLECTIONS "+TRICLINIC+" 0.001")[0]);
+			assertEquals("Service should survive bad requests", "OK", client.request("STATS")[0]);
+		}
+		assertEquals("Lattice should be cached once", 1, server.getCachedLatticeCount());
+	}
+
+	@Test
+	public void testConcurrentDistances() throws Exception {
+		int nClients = 16, nRequests = 200;
+		ExecutorService clients = Executors.newFixedThreadPool(nClients);
+		List<Future<Double>> errors = new ArrayList<>();
+		for (int c = 0; c < nClients; c++) {
+			final long seed = c;
+			errors.add(clients.submit(() -> {
+				Random random = new Random(seed);
+				double worst = 0;
+				try (Client client = new Client()) {
+					for (int i = 0; i < nRequests; i++) {
+						double[] s = new double[6];
+						StringBuilder sb = new StringBuilder("DISTANCE ").append(TRICLINIC);
+						for (int j = 0; j < 6; j++) {
+							s[j] = random.nextDouble();
+							sb.append(' ').append(s[j]);
+						}
+						String[] response = client.request(sb.toString());
+						double expected = cell.calculateDistance(new Vector3D(s[0], s[1], s[2]), new Vector3D(s[3], s[4], s[5]));
+						worst = Math.max(worst, Math.abs(expected - Double.parseDouble(response[1])));
+					}
+				}
+				return worst;
+			}));
+		}
+		for (Future<Double> error : errors) {
+			assertEquals("Batched distance wrong", 0, error.get(), 1e-9);
+		}
+		clients.shutdown();
+
+		long[] stats = server.getLatencyStatistics();
+		assertEquals(nClients * nRequests, stats[0]);
+		assertTrue("Percentiles out of order", 0 < stats[1] && stats[1] <= stats[2]);
+		try (Client client = new Client()) {
+			String[] response = client.request("STATS");
+			assertEquals(nClients * nRequests, Long.parseLong(response[1]));
+		}
+	}
+
+}
@@ -0,0 +1,29 @@
+package uk.co.norphos.crystallography.toolkit.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import uk.co.norphos.crystallography.api.Lattice;
+import uk.co.norphos.crystallography.toolkit.ReflectionList;
+
+public class LatticeCacheTest {
+
+	@Test
+	public void testReflectionListsBounded() {
+		LatticeCache cache = new LatticeCache(4);
+		LatticeCache.Entry entry = cache.get(new Lattice(5, 6, 7, 90, 95, 90));
+		ReflectionList first = entry.getReflections(3);
+		ReflectionList second = entry.getReflections(3.01);
+		for (int i = 2; i < 100; i++) {
+			entry.getReflections(3 + 0.01 * i);
+			//Keep the first list in use
+			assertSame("Recently used list dropped", first, entry.getReflections(3));
+		}
+		assertEquals("Reflection lists unbounded", LatticeCache.REFLECTION_LISTS_PER_LATTICE, entry.getReflectionListCount());
+		assertNotSame("Old list kept", second, entry.getReflections(3.01));
+	}
+
+}